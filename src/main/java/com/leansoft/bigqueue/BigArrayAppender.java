@@ -0,0 +1,91 @@
+package com.leansoft.bigqueue;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * A producer handle of a big array holding the head data page and index page across appends.
+ * 大数组的生产者句柄，在多次附加之间持有头数据页和索引页。
+ *
+ * Appends through the array acquire the head pages from the page factories and release them again
+ * for every call, an appender keeps them acquired and only goes back to the factories when the head
+ * rolls over to the next page.
+ * 通过数组的附加每次调用都要从页面工厂获取头页面并再次释放，附加器保持它们被获取，只在头切换到下一页时才访问工厂。
+ *
+ * An appender is not thread safe, every producer thread should own one, and it must be closed
+ * after use or its pages stay cached. Appends through appenders and through the array can be mixed.
+ * 附加器不是线程安全的，每个生产者线程应该拥有一个，使用后必须关闭，否则其页面会一直被缓存。通过附加器和通过数组的附加可以混合使用。
+ *
+ * @author bulldog
+ *
+ */
+public class BigArrayAppender implements Closeable {
+
+	private final BigArrayImpl array;
+	private final BigArrayImpl.AppendPages pages;
+	private boolean closed = false;
+
+	BigArrayAppender(BigArrayImpl array, BigArrayImpl.AppendPages pages) {
+		this.array = array;
+		this.pages = pages;
+	}
+
+	/**
+	 * Append the data into the head of the array
+	 * 将数据附加到数组的头部
+	 *
+	 * @param data binary data to append
+	 * @return appended index
+	 * @throws IOException if there is any IO error
+	 */
+	public long append(byte[] data) throws IOException {
+		ensureOpen();
+		return array.append(pages, data, null, data.length);
+	}
+
+	/**
+	 * Append the remaining bytes of several buffers into the head of the array as one item,
+	 * see {@link IBigArray#append(ByteBuffer...)}.
+	 * 将多个缓冲区的剩余字节作为一个项附加到数组的头部。
+	 *
+	 * @param parts buffers holding the parts of the item
+	 * @return appended index
+	 * @throws IOException if there is any IO error
+	 */
+	public long append(ByteBuffer... parts) throws IOException {
+		ensureOpen();
+		return array.append(pages, null, parts, array.gatheredLength(parts));
+	}
+
+	/**
+	 * Append a batch of data into the head of the array, see {@link IBigArray#appendBatch(List)}.
+	 * 将一批数据附加到数组的头部。
+	 *
+	 * @param dataList binary data to append
+	 * @return the index of the first appended data, or {@link IBigArray#NOT_FOUND} if the list is empty
+	 * @throws IOException if there is any IO error
+	 */
+	public long appendBatch(List<byte[]> dataList) throws IOException {
+		ensureOpen();
+		return array.appendBatch(pages, dataList);
+	}
+
+	private void ensureOpen() {
+		if (closed) {
+			throw new IllegalStateException("appender has been closed.");//附加器已经关闭
+		}
+	}
+
+	/**
+	 * Release the held pages, closing an appender more than once has no effect.
+	 * 释放持有的页面，多次关闭附加器没有影响。
+	 */
+	@Override
+	public void close() {
+		if (closed) return;
+		closed = true;
+		array.releaseAppendPages(pages);
+	}
+}
@@ -0,0 +1,293 @@
+package com.leansoft.bigqueue;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Tuning options of a big array, also used by the queues built on top of it.
+ * 大数组的调优选项，也被基于大数组的队列使用。
+ *
+ * The options are read once when the array is created, changing a config
+ * afterwards has no effect on arrays already created with it.
+ * 这些选项只在数组创建时读取一次，之后修改配置不会影响已经创建的数组。
+ *
+ * @author bulldog
+ *
+ */
+public class BigArrayConfig {
+
+	/**
+	 * How producer threads coordinate when appending.
+	 * 生产者线程在附加时如何协调。
+	 */
+	public static enum AppendMode {
+		/**
+		 * Appends are serialized on a single lock, only one producer writes at a time.
+		 * 附加在一个锁上串行化，同一时间只有一个生产者写入。
+		 */
+		LOCKED,
+		/**
+		 * Producers reserve their slot with a CAS and copy their data into the page in parallel,
+		 * the head is advanced in slot order once all earlier slots have been written.
+		 * 生产者通过CAS预留位置并并行地将数据拷贝到页面中，所有之前的位置写完后按顺序推进头。
+		 */
+		CONCURRENT
+	}
+
+	/**
+	 * When appended data is forced to disk.
+	 * 附加的数据何时被强制写入磁盘。
+	 */
+	public static enum DurabilityPolicy {
+		/**
+		 * Nothing is forced automatically, the OS writes the mapped pages back at its own pace,
+		 * call flush explicitly for stronger guarantees.
+		 * 不自动强制写入，操作系统按自己的节奏回写映射的页面，需要更强的保证时显式调用flush。
+		 */
+		OS_MANAGED,
+		/**
+		 * Dirty pages are forced by a background flusher every flush interval,
+		 * at most one interval of appends is lost if the machine crashes.
+		 * 后台刷新器每个刷新间隔强制写入脏页面，机器崩溃时最多丢失一个间隔的附加。
+		 */
+		PERIODIC,
+		/**
+		 * Like periodic, and in addition durable appends are forced in groups, the background flusher
+		 * forces all appends waiting for durability at once and completes their futures.
+		 * 类似PERIODIC，另外持久附加会成组强制写入，后台刷新器一次性强制写入所有等待持久化的附加并完成它们的future。
+		 */
+		GROUP_COMMIT
+	}
+
+	/**
+	 * How the index pages and data pages are read and written.
+	 * 索引页和数据页如何读写。
+	 */
+	public static enum PageStorage {
+		/**
+		 * Pages are memory mapped, reads and writes are memory accesses, a new page is filled by page faults.
+		 * 页面被内存映射，读写都是内存访问，新页面通过缺页填充。
+		 */
+		MAPPED,
+		/**
+		 * Pages are written with positional writes and read with positional reads through a small cache
+		 * of recent blocks, nothing is mapped, see {@link com.leansoft.bigqueue.page.PositionalPageImpl}.
+		 * 页面通过定位写入写出，通过最近块的小缓存定位读取，没有任何映射。
+		 */
+		POSITIONAL
+	}
+
+	/**
+	 * How consumers of a queue wait for items in take and poll while the queue is empty,
+	 * all strategies end up parking, so an idle consumer burns no cpu.
+	 * 队列为空时消费者在take和poll中如何等待项目，所有策略最终都会挂起，因此空闲的消费者不消耗CPU。
+	 */
+	public static enum WaitStrategy {
+		/**
+		 * Consumers park at once until an enqueue signals them.
+		 * 消费者立即挂起，直到入队通知它们。
+		 */
+		PARK,
+		/**
+		 * Consumers yield the cpu for a bounded number of times before parking,
+		 * an item enqueued meanwhile is picked up without waking a parked thread.
+		 * 消费者在挂起之前有限次地让出CPU，期间入队的项目无需唤醒挂起的线程即可被获取。
+		 */
+		YIELD,
+		/**
+		 * Consumers busy spin for a bounded number of checks before parking, the lowest latency
+		 * for consumers which own a cpu, no spinning on a single cpu.
+		 * 消费者在挂起之前有限次地忙等检查，对独占CPU的消费者延迟最低，单CPU时不自旋。
+		 */
+		SPIN
+	}
+
+	// size in bytes of a data page 数据页的字节大小
+	private int dataPageSize = BigArrayImpl.DEFAULT_DATA_PAGE_SIZE;
+
+	private AppendMode appendMode = AppendMode.LOCKED;
+
+	// fill ratio of the head page that triggers mapping the next page in background, 0 disables
+	// 触发在后台映射下一页的头页填充比例，0表示禁用
+	private float prefetchThreshold = 0f;
+
+	// slots of the page tables resolving recently read index and data pages without the cache, 0 disables
+	// 无需缓存即可解析最近读取的索引页和数据页的页表槽数，0表示禁用
+	private int pageTableSize = 0;
+
+	private DurabilityPolicy durabilityPolicy = DurabilityPolicy.OS_MANAGED;
+
+	// milliseconds between two periodic flushes 两次周期刷新之间的毫秒数
+	private long flushInterval = 1000L;
+
+	private PageStorage pageStorage = PageStorage.MAPPED;
+
+	// deleted index and data page files kept for reuse per page directory, 0 deletes them
+	// 每个页面目录保留以供重用的已删除索引页和数据页文件数，0表示删除它们
+	private int pageRecyclePoolSize = 0;
+
+	private WaitStrategy waitStrategy = WaitStrategy.PARK;
+
+	// completes the async dequeue and peek requests of a queue, null for a daemon thread per queue
+	// 完成队列的异步出队和查看请求，null表示每个队列一个守护线程
+	private Executor asyncExecutor = null;
+
+	public BigArrayConfig() {
+	}
+
+	public BigArrayConfig(int dataPageSize) {
+		this.dataPageSize = dataPageSize;
+	}
+
+	public int getDataPageSize() {
+		return dataPageSize;
+	}
+
+	/**
+	 * @param dataPageSize the back data file size per page in bytes, see minimum allowed {@link BigArrayImpl#MINIMUM_DATA_PAGE_SIZE}
+	 *                     and maximum allowed {@link BigArrayImpl#MAXIMUM_DATA_PAGE_SIZE}. Larger pages mean fewer page files
+	 *                     and fewer roll-overs on big arrays.
+	 *                     每个页面的后数据文件大小以字节为单位，更大的页面意味着大数组的页面文件更少、切换更少
+	 */
+	public void setDataPageSize(int dataPageSize) {
+		this.dataPageSize = dataPageSize;
+	}
+
+	public AppendMode getAppendMode() {
+		return appendMode;
+	}
+
+	/**
+	 * @param appendMode how producer threads coordinate when appending, {@link AppendMode#LOCKED} by default.
+	 *                   生产者线程在附加时如何协调，默认为LOCKED
+	 */
+	public void setAppendMode(AppendMode appendMode) {
+		this.appendMode = appendMode;
+	}
+
+	public float getPrefetchThreshold() {
+		return prefetchThreshold;
+	}
+
+	/**
+	 * Once the head data page or index page is filled beyond this ratio, the next page is mapped
+	 * and loaded on a background thread, so rolling over to it does not stall the producers.
+	 * 一旦头数据页或索引页的填充超过这个比例，下一页就会在后台线程中被映射和加载，这样切换到下一页时不会阻塞生产者。
+	 *
+	 * @param prefetchThreshold fill ratio in [0, 1), e.g. 0.75, 0 disables prefetching, which is the default.
+	 *                          填充比例，范围[0, 1)，例如0.75，0表示禁用预取，这是默认值
+	 */
+	public void setPrefetchThreshold(float prefetchThreshold) {
+		this.prefetchThreshold = prefetchThreshold;
+	}
+
+	public int getPageTableSize() {
+		return pageTableSize;
+	}
+
+	/**
+	 * Reads resolve their index page and data page through a page table of this many slots, a page
+	 * found in the table costs one array load instead of a cache lookup and a reference count round trip.
+	 * 读取通过这么多槽的页表解析其索引页和数据页，在表中找到的页面只需一次数组读取，而不是一次缓存查找和一次引用计数的往返。
+	 *
+	 * Pages in the table stay mapped until another page takes their slot, so at most this many
+	 * index pages and data pages are kept mapped beyond the cache time to live.
+	 * 表中的页面在其他页面占用其槽之前保持映射，因此最多有这么多索引页和数据页在缓存存活时间之后仍保持映射。
+	 *
+	 * @param pageTableSize number of slots, rounded up to a power of 2, e.g. 8, 0 disables the page table, which is the default.
+	 *                      槽的数量，向上取整为2的幂，例如8，0表示禁用页表，这是默认值
+	 */
+	public void setPageTableSize(int pageTableSize) {
+		this.pageTableSize = pageTableSize;
+	}
+
+	public DurabilityPolicy getDurabilityPolicy() {
+		return durabilityPolicy;
+	}
+
+	/**
+	 * @param durabilityPolicy when appended data is forced to disk, {@link DurabilityPolicy#OS_MANAGED} by default.
+	 *                         附加的数据何时被强制写入磁盘，默认为OS_MANAGED
+	 */
+	public void setDurabilityPolicy(DurabilityPolicy durabilityPolicy) {
+		this.durabilityPolicy = durabilityPolicy;
+	}
+
+	public long getFlushInterval() {
+		return flushInterval;
+	}
+
+	/**
+	 * @param flushInterval milliseconds between two flushes of the background flusher, 1000 by default,
+	 *                      only used by {@link DurabilityPolicy#PERIODIC} and {@link DurabilityPolicy#GROUP_COMMIT}.
+	 *                      后台刷新器两次刷新之间的毫秒数，默认1000
+	 */
+	public void setFlushInterval(long flushInterval) {
+		this.flushInterval = flushInterval;
+	}
+
+	public PageStorage getPageStorage() {
+		return pageStorage;
+	}
+
+	/**
+	 * Positional pages trade a system call per write for no page faults when a new page is started,
+	 * which helps the tail latency of appends on hosts where faulting in large pages is slow.
+	 * 定位页面以每次写入一次系统调用为代价，换取开始新页面时没有缺页，有助于在大页面缺页较慢的主机上降低附加的尾延迟。
+	 *
+	 * @param pageStorage how the index pages and data pages are accessed, {@link PageStorage#MAPPED} by default.
+	 *                    索引页和数据页的访问方式，默认为MAPPED
+	 */
+	public void setPageStorage(PageStorage pageStorage) {
+		this.pageStorage = pageStorage;
+	}
+
+	public int getPageRecyclePoolSize() {
+		return pageRecyclePoolSize;
+	}
+
+	/**
+	 * Index and data page files consumed and removed, e.g. by gc of a queue, are renamed into a free pool
+	 * instead of being deleted, and the next new pages take their files from the pool, so rolling over to a new page
+	 * costs a rename instead of creating, growing and faulting in an empty file.
+	 * 被消费并删除的索引页和数据页文件(例如由队列的gc删除)被重命名到空闲池中而不是被删除，下一个新页面从池中获取文件，
+	 * 这样切换到新页面的代价是一次重命名，而不是创建、扩展一个空文件并产生缺页。
+	 *
+	 * The free page files stay on disk and are not counted by {@link IBigArray#getBackFileSize()},
+	 * at most this many index pages plus this many data pages.
+	 * 空闲页面文件保留在磁盘上且不计入getBackFileSize，最多为这么多索引页加这么多数据页。
+	 *
+	 * @param pageRecyclePoolSize maximum number of free page files per page directory, e.g. 2, 0 deletes removed page files, which is the default.
+	 *                            每个页面目录空闲页面文件的最大数量，例如2，0表示删除被移除的页面文件，这是默认值
+	 */
+	public void setPageRecyclePoolSize(int pageRecyclePoolSize) {
+		this.pageRecyclePoolSize = pageRecyclePoolSize;
+	}
+
+	public WaitStrategy getWaitStrategy() {
+		return waitStrategy;
+	}
+
+	/**
+	 * @param waitStrategy how consumers of a queue wait in {@link IBigQueue#take()} and {@link IBigQueue#poll(long, java.util.concurrent.TimeUnit)},
+	 *                     {@link WaitStrategy#PARK} by default.
+	 *                     队列的消费者在take和poll中如何等待，默认为PARK
+	 */
+	public void setWaitStrategy(WaitStrategy waitStrategy) {
+		this.waitStrategy = waitStrategy;
+	}
+
+	public Executor getAsyncExecutor() {
+		return asyncExecutor;
+	}
+
+	/**
+	 * @param asyncExecutor executor completing the futures of {@link IBigQueue#dequeueAsync()} and {@link IBigQueue#peekAsync()},
+	 *                      so enqueue never runs the consumers on the producer thread, may be shared by many queues,
+	 *                      null by default for a daemon thread per queue which is stopped when the queue is closed.
+	 *                      完成dequeueAsync和peekAsync的future的执行器，这样入队从不在生产者线程上运行消费者，可以被多个队列共享，
+	 *                      默认为null，表示每个队列一个守护线程，在队列关闭时停止
+	 */
+	public void setAsyncExecutor(Executor asyncExecutor) {
+		this.asyncExecutor = asyncExecutor;
+	}
+}
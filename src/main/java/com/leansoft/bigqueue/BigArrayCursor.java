@@ -0,0 +1,212 @@
+package com.leansoft.bigqueue;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.leansoft.bigqueue.page.IMappedPage;
+import com.leansoft.bigqueue.page.MappedPageImpl;
+import com.leansoft.bigqueue.utils.Calculator;
+
+/**
+ * A sequential reader of a big array keeping its current index page and data page pinned.
+ * 大数组的顺序读取器，保持其当前索引页和数据页被固定。
+ *
+ * Moving to the next item is plain offset arithmetic on the pinned pages, the page factories are
+ * only touched when the cursor crosses a page boundary, so scans and drains avoid the cache lookup
+ * and reference counting of {@link IBigArray#get(long)} for every item.
+ * 移动到下一项只是在固定页面上的偏移量运算，只有游标跨越页面边界时才访问页面工厂，
+ * 因此扫描和排空避免了每一项都进行get的缓存查找和引用计数。
+ *
+ * A cursor is not thread safe and must be closed after use or its pages can't be unmapped.
+ * If items are removed from the array meanwhile, the cursor picks up the new pages on the next read,
+ * or fails with {@link IndexOutOfBoundsException} if its own position has been removed.
+ * 游标不是线程安全的，使用后必须关闭，否则其页面无法取消映射。如果同时从数组中删除了项，
+ * 游标会在下一次读取时获取新页面，如果其自身位置已被删除，则抛出IndexOutOfBoundsException。
+ *
+ * @author bulldog
+ *
+ */
+public class BigArrayCursor implements Closeable {
+
+	private final BigArrayImpl array;
+
+	// index of the next item to read 下一个要读取项的索引
+	private long index;
+
+	// generation of the array the pinned pages belong to 固定页面所属数组的代
+	private int generation;
+
+	private IMappedPage indexPage;
+	private long indexPageIndex = -1L;
+	// view of the whole pinned page if it is mapped, null otherwise 固定页面是映射的则为整个页面的视图，否则为null
+	private ByteBuffer indexBuffer;
+
+	private IMappedPage dataPage;
+	private long dataPageIndex = -1L;
+	private ByteBuffer dataBuffer;
+
+	private boolean closed = false;
+
+	BigArrayCursor(BigArrayImpl array, long startIndex) {
+		this.array = array;
+		this.index = startIndex;
+		this.generation = array.generation.get();
+	}
+
+	/**
+	 * The array index of the next item to read
+	 * 下一个要读取项的数组索引
+	 *
+	 * @return array index
+	 */
+	public long getIndex() {
+		return index;
+	}
+
+	/**
+	 * Whether an item has been appended at the cursor position, an exhausted cursor
+	 * can be read again once more items are appended.
+	 * 游标位置是否已附加了项，已读完的游标在附加更多项后可以继续读取。
+	 *
+	 * @return true if {@link #next()} has an item to return
+	 */
+	public boolean hasNext() {
+		return index != array.arrayHeadIndex.get();
+	}
+
+	/**
+	 * Read the item at the cursor position and move the cursor to the next item.
+	 * 读取游标位置的项并将游标移到下一项。
+	 *
+	 * @return binary data of the item
+	 * @throws IOException if there is any IO error
+	 * @throws IndexOutOfBoundsException if no item has been appended at the cursor position yet,
+	 *         or the item has been removed
+	 */
+	public byte[] next() throws IOException {
+		try {
+			array.arrayReadLock.lock();
+			int indexItemOffset = this.pinIndexItem();
+			long currentDataPageIndex;
+			int dataItemOffset;
+			int dataItemLength;
+			if (indexBuffer != null) {
+				currentDataPageIndex = indexBuffer.getLong(indexItemOffset);
+				dataItemOffset = indexBuffer.getInt(indexItemOffset + BigArrayImpl.INDEX_ITEM_DATA_ITEM_OFFSET_OFFSET);
+				dataItemLength = indexBuffer.getInt(indexItemOffset + BigArrayImpl.INDEX_ITEM_DATA_ITEM_LENGTH_OFFSET);
+			} else {
+				currentDataPageIndex = indexPage.getLong(indexItemOffset);
+				dataItemOffset = indexPage.getInt(indexItemOffset + BigArrayImpl.INDEX_ITEM_DATA_ITEM_OFFSET_OFFSET);
+				dataItemLength = indexPage.getInt(indexItemOffset + BigArrayImpl.INDEX_ITEM_DATA_ITEM_LENGTH_OFFSET);
+			}
+
+			if (dataPage == null || currentDataPageIndex != dataPageIndex || dataPage.isClosed()) {
+				IMappedPage page = BigArrayImpl.pinPage(array.dataPageFactory, currentDataPageIndex);
+				this.unpinDataPage();
+				dataPage = page;
+				dataPageIndex = currentDataPageIndex;
+				dataBuffer = mappedBuffer(page, array.DATA_PAGE_SIZE);
+			}
+			byte[] data = new byte[dataItemLength];
+			if (dataBuffer != null) {
+				dataBuffer.position(dataItemOffset);
+				dataBuffer.get(data);
+			} else {
+				dataPage.copyTo(dataItemOffset, data);
+			}
+
+			index = index == Long.MAX_VALUE ? 0L : index + 1; // wrap
+			return data;
+		} finally {
+			array.arrayReadLock.unlock();
+		}
+	}
+
+	/**
+	 * The length of the item at the cursor position, without reading the item or moving the cursor.
+	 * 游标位置的项的长度，不读取该项也不移动游标。
+	 *
+	 * @return length in bytes of the item {@link #next()} returns
+	 * @throws IOException if there is any IO error
+	 * @throws IndexOutOfBoundsException if no item has been appended at the cursor position yet,
+	 *         or the item has been removed
+	 */
+	public int nextLength() throws IOException {
+		try {
+			array.arrayReadLock.lock();
+			int indexItemOffset = this.pinIndexItem();
+			if (indexBuffer != null) {
+				return indexBuffer.getInt(indexItemOffset + BigArrayImpl.INDEX_ITEM_DATA_ITEM_LENGTH_OFFSET);
+			}
+			return indexPage.getInt(indexItemOffset + BigArrayImpl.INDEX_ITEM_DATA_ITEM_LENGTH_OFFSET);
+		} finally {
+			array.arrayReadLock.unlock();
+		}
+	}
+
+	// validate the cursor position and pin the index page holding it, caller must hold the array read lock
+	// 校验游标位置并固定包含它的索引页，调用者必须持有数组读锁
+	private int pinIndexItem() throws IOException {
+		if (closed) {
+			throw new IllegalStateException("cursor has been closed.");//游标已经关闭
+		}
+		array.validateIndex(index);
+
+		int currentGeneration = array.generation.get();
+		if (currentGeneration != generation) { // pages removed, don't trust the pinned ones 页面被删除，不信任已固定的页面
+			this.unpinPages();
+			generation = currentGeneration;
+		}
+
+		long currentIndexPageIndex = Calculator.div(index, BigArrayImpl.INDEX_ITEMS_PER_PAGE_BITS);
+		// a pinned page closed by the cache is looked up again, writes may go to the page created for its file meanwhile
+		// 被缓存关闭的固定页面会被重新查找，写入可能会进入期间为其文件创建的页面
+		if (indexPage == null || currentIndexPageIndex != indexPageIndex || indexPage.isClosed()) {
+			IMappedPage page = BigArrayImpl.pinPage(array.indexPageFactory, currentIndexPageIndex);
+			this.unpinIndexPage();
+			indexPage = page;
+			indexPageIndex = currentIndexPageIndex;
+			indexBuffer = mappedBuffer(page, BigArrayImpl.INDEX_PAGE_SIZE);
+		}
+		return BigArrayImpl.getIndexItemOffset(index);
+	}
+
+	// a view of a pinned mapped page read without going through the page, other pages copy on getSlice
+	// 固定的映射页面的视图，读取时无需经过页面，其他页面的getSlice会拷贝
+	private static ByteBuffer mappedBuffer(IMappedPage page, int pageSize) {
+		return page instanceof MappedPageImpl ? page.getSlice(0, pageSize) : null;
+	}
+
+	private void unpinIndexPage() {
+		if (indexPage != null) {
+			indexPage.unpin();
+			indexPage = null;
+			indexBuffer = null;
+		}
+	}
+
+	private void unpinDataPage() {
+		if (dataPage != null) {
+			dataPage.unpin();
+			dataPage = null;
+			dataBuffer = null;
+		}
+	}
+
+	private void unpinPages() {
+		this.unpinIndexPage();
+		this.unpinDataPage();
+	}
+
+	/**
+	 * Release the pinned pages, closing a cursor more than once has no effect.
+	 * 释放固定的页面，多次关闭游标没有影响。
+	 */
+	@Override
+	public void close() {
+		if (closed) return;
+		closed = true;
+		this.unpinPages();
+	}
+}
@@ -2,17 +2,33 @@ package com.leansoft.bigqueue;
 
 import java.io.File;
 import java.io.IOException;
-import java.math.BigInteger;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import com.leansoft.bigqueue.page.IMappedPage;
 import com.leansoft.bigqueue.page.IMappedPageFactory;
 import com.leansoft.bigqueue.page.MappedPageFactoryImpl;
+import com.leansoft.bigqueue.page.PositionalPageFactoryImpl;
 import com.leansoft.bigqueue.utils.Calculator;
 import com.leansoft.bigqueue.utils.FileUtil;
 
@@ -42,12 +58,18 @@ import com.leansoft.bigqueue.utils.FileUtil;
  */
 public class BigArrayImpl implements IBigArray {
 	
+	private final static Logger logger = LoggerFactory.getLogger(BigArrayImpl.class);
+	
 	// folder name for index page 索引页的文件夹名称
 	final static String INDEX_PAGE_FOLDER = "index";
 	// folder name for data page  数据页的文件夹名称
 	final static String DATA_PAGE_FOLDER = "data";
 	// folder name for meta data page 元数据页的文件夹名称
 	final static String META_DATA_PAGE_FOLDER = "meta_data";
+	// folder name for index page summary 索引页摘要的文件夹名称
+	final static String INDEX_PAGE_SUMMARY_FOLDER = "index_summary";
+	// folder name for data page summary 数据页摘要的文件夹名称
+	final static String DATA_PAGE_SUMMARY_FOLDER = "data_summary";
 	
 	// 2 ^ 17 = 1024 * 128
 	final static int INDEX_ITEMS_PER_PAGE_BITS = 17; // 1024 * 128
@@ -67,6 +89,9 @@ public class BigArrayImpl implements IBigArray {
 	public final static int DEFAULT_DATA_PAGE_SIZE = 128 * 1024 * 1024;
 	// minimum size in bytes of a data page 数据页字节的最小大小
 	public final static int MINIMUM_DATA_PAGE_SIZE = 32 * 1024 * 1024;
+	// maximum size in bytes of a data page, a page is mapped as one MappedByteBuffer
+	// 数据页字节的最大大小，一个页面映射为一个MappedByteBuffer
+	public final static int MAXIMUM_DATA_PAGE_SIZE = Integer.MAX_VALUE;
 	// seconds, time to live for index page cached in memory
 	//秒，用于存储在内存中的索引页面的时间
 	final static int INDEX_PAGE_CACHE_TTL = 1000;
@@ -80,8 +105,9 @@ public class BigArrayImpl implements IBigArray {
 	final static int META_DATA_PAGE_SIZE = 1 << META_DATA_ITEM_LENGTH_BITS;
 	
 //	private final static int INDEX_ITEM_DATA_PAGE_INDEX_OFFSET = 0;
-//	private final static int INDEX_ITEM_DATA_ITEM_OFFSET_OFFSET = 8;
-	private final static int INDEX_ITEM_DATA_ITEM_LENGTH_OFFSET = 12;
+	// data item offset and length within an index item 索引项中的数据项偏移量和长度
+	final static int INDEX_ITEM_DATA_ITEM_OFFSET_OFFSET = 8;
+	final static int INDEX_ITEM_DATA_ITEM_LENGTH_OFFSET = 12;
 	// timestamp offset of an data item within an index item
 	//索引项中的数据项的时间戳偏移
 	final static int INDEX_ITEM_DATA_ITEM_TIMESTAMP_OFFSET = 16;
@@ -100,8 +126,15 @@ public class BigArrayImpl implements IBigArray {
 	//用于元数据页面管理的工厂(获取、释放、缓存)
 	IMappedPageFactory metaPageFactory;
 	
+	// min/max timestamp and first/last array index per index page 每个索引页的最小/最大时间戳和第一个/最后一个数组索引
+	PageSummary indexPageSummary;
+	// min/max timestamp and first/last array index per data page 每个数据页的最小/最大时间戳和第一个/最后一个数组索引
+	PageSummary dataPageSummary;
+	
 	// only use the first page
 	static final long META_DATA_PAGE_INDEX = 0;
+	// acquired once and held, so appends don't look it up in the cache 获取一次并一直持有，这样附加时不用在缓存中查找
+	IMappedPage metaDataPage;
 	
 	// head index of the big array, this is the read write barrier.
 	//大数组的头索引，这是读写屏障。
@@ -114,6 +147,10 @@ public class BigArrayImpl implements IBigArray {
 	//读者不能在这条尾巴之前读到东西
 	final AtomicLong arrayTailIndex = new AtomicLong();
 	
+	// bumped whenever pages are removed, so cursors know their pinned pages may be stale
+	// 每当页面被删除时递增，这样游标就知道它们固定的页面可能已经过时
+	final AtomicInteger generation = new AtomicInteger();
+	
 	// head index of the data page, this is the to be appended data page index
 	//数据页的头部索引，这是附加的数据页索引
 	long headDataPageIndex;
@@ -125,6 +162,36 @@ public class BigArrayImpl implements IBigArray {
 	//对附加状态管理的锁定
 	final Lock appendLock = new ReentrantLock();
 	
+	// producers reserve slots with CAS instead of taking the append lock, see BigArrayConfig.AppendMode.CONCURRENT
+	// 生产者使用CAS预留位置而不是获取附加锁
+	final boolean concurrentAppend;
+	// next slot to reserve in concurrent append mode, the head data page, offset and array index
+	// 并发附加模式下下一个要预留的位置，即头数据页、偏移量和数组索引
+	final AtomicReference<AppendSlot> headSlot = new AtomicReference<AppendSlot>();
+	// spins before a producer waiting for earlier slots to be committed starts yielding,
+	// no spinning on a single cpu since the producer we wait for can't run meanwhile
+	// 等待之前位置提交的生产者开始让出CPU之前的自旋次数，单CPU时不自旋
+	private static final int COMMIT_SPIN_LIMIT = Runtime.getRuntime().availableProcessors() > 1 ? 100 : 0;
+	
+	// slots of the page tables of the index and data page factories, 0 if disabled, see BigArrayConfig.pageTableSize
+	// 索引页和数据页工厂的页表槽数，禁用时为0
+	final int pageTableSize;
+	
+	// how the index and data pages are accessed 索引页和数据页的访问方式
+	private final BigArrayConfig.PageStorage pageStorage;
+	
+	// removed index and data page files kept for reuse per factory, 0 if disabled, see BigArrayConfig.pageRecyclePoolSize
+	// 每个工厂保留以供重用的已删除索引页和数据页文件数，禁用时为0
+	private final int pageRecyclePoolSize;
+	
+	// maps the next data/index page in background, null if prefetching is disabled
+	// 在后台映射下一个数据/索引页，禁用预取时为null
+	final PagePrefetcher prefetcher;
+	
+	// forces dirty pages in background, null with BigArrayConfig.DurabilityPolicy.OS_MANAGED
+	// 在后台强制写入脏页面，使用OS_MANAGED时为null
+	final DurabilityFlusher flusher;
+	
 	// global lock for array read and write management
 	//用于数组读写管理的全局锁
     final ReadWriteLock arrayReadWritelock = new ReentrantReadWriteLock();
@@ -163,6 +230,23 @@ public class BigArrayImpl implements IBigArray {
 	 * 				  在数组初始化期间抛出异常
 	 */
 	public BigArrayImpl(String arrayDir, String arrayName, int pageSize) throws IOException {
+		this(arrayDir, arrayName, new BigArrayConfig(pageSize));
+	}
+	
+	/**
+	 * A big array implementation supporting sequential write and random read.
+	 * 支持顺序写入和随机读取的一个大数组实现。
+	 * 
+	 * @param arrayDir directory for array data store
+	 *                 数组数据存储目录
+	 * @param arrayName the name of the array, will be appended as last part of the array directory
+	 *                  数组的名称将被追加为数组目录的最后一部分
+	 * @param config tuning options of the array, see {@link BigArrayConfig}.
+	 *               数组的调优选项
+	 * @throws IOException exception throws during array initialization
+	 * 				  在数组初始化期间抛出异常
+	 */
+	public BigArrayImpl(String arrayDir, String arrayName, BigArrayConfig config) throws IOException {
 		arrayDirectory = arrayDir;
 		if (!arrayDirectory.endsWith(File.separator)) {
 			arrayDirectory += File.separator;
@@ -177,13 +261,38 @@ public class BigArrayImpl implements IBigArray {
 			throw new IllegalArgumentException("invalid array directory : " + arrayDirectory);//无效的数组目录
 		}
 		
-		if (pageSize < MINIMUM_DATA_PAGE_SIZE) {
+		if (config.getDataPageSize() < MINIMUM_DATA_PAGE_SIZE) {
 			throw new IllegalArgumentException("invalid page size, allowed minimum is : " + MINIMUM_DATA_PAGE_SIZE + " bytes.");//无效的页面大小，允许最小值为：
 		}
 		
-		DATA_PAGE_SIZE = pageSize;
+		if (config.getPageTableSize() < 0) {
+			throw new IllegalArgumentException("invalid page table size, must not be negative.");//无效的页表大小，不能为负数
+		}
+		
+		if (config.getPageRecyclePoolSize() < 0) {
+			throw new IllegalArgumentException("invalid page recycle pool size, must not be negative.");//无效的页面回收池大小，不能为负数
+		}
+		
+		if (config.getPrefetchThreshold() < 0f || config.getPrefetchThreshold() >= 1f) {
+			throw new IllegalArgumentException("invalid prefetch threshold, allowed range is [0, 1).");//无效的预取阈值
+		}
+		
+		BigArrayConfig.DurabilityPolicy durabilityPolicy = config.getDurabilityPolicy();
+		if (durabilityPolicy != BigArrayConfig.DurabilityPolicy.OS_MANAGED && config.getFlushInterval() <= 0) {
+			throw new IllegalArgumentException("invalid flush interval, must be positive.");//无效的刷新间隔
+		}
+		
+		DATA_PAGE_SIZE = config.getDataPageSize();
+		concurrentAppend = config.getAppendMode() == BigArrayConfig.AppendMode.CONCURRENT;
+		pageTableSize = config.getPageTableSize();
+		pageStorage = config.getPageStorage() != null ? config.getPageStorage() : BigArrayConfig.PageStorage.MAPPED;
+		pageRecyclePoolSize = config.getPageRecyclePoolSize();
+		prefetcher = config.getPrefetchThreshold() > 0f ? new PagePrefetcher(config.getPrefetchThreshold()) : null;
 		
 		this.commonInit();
+		
+		flusher = durabilityPolicy != BigArrayConfig.DurabilityPolicy.OS_MANAGED
+				? new DurabilityFlusher(config.getFlushInterval(), durabilityPolicy == BigArrayConfig.DurabilityPolicy.GROUP_COMMIT) : null;
 	}
 	
 	public String getArrayDirectory() {
@@ -191,13 +300,21 @@ public class BigArrayImpl implements IBigArray {
 	}
 	
 	
+	// page factory of the configured page storage 所配置页面存储的页面工厂
+	private IMappedPageFactory newPageFactory(int pageSize, String pageDir, long cacheTTL) {
+		if (pageStorage == BigArrayConfig.PageStorage.POSITIONAL) {
+			return new PositionalPageFactoryImpl(pageSize, pageDir, cacheTTL, pageTableSize, pageRecyclePoolSize);
+		}
+		return new MappedPageFactoryImpl(pageSize, pageDir, cacheTTL, pageTableSize, pageRecyclePoolSize);
+	}
+	
 	void commonInit() throws IOException {
 		// initialize page factories
 		//初始化页面的工厂
-		this.indexPageFactory = new MappedPageFactoryImpl(INDEX_PAGE_SIZE, 
+		this.indexPageFactory = this.newPageFactory(INDEX_PAGE_SIZE, 
 				this.arrayDirectory + INDEX_PAGE_FOLDER, 
 				INDEX_PAGE_CACHE_TTL);
-		this.dataPageFactory = new MappedPageFactoryImpl(DATA_PAGE_SIZE, 
+		this.dataPageFactory = this.newPageFactory(DATA_PAGE_SIZE, 
 				this.arrayDirectory + DATA_PAGE_FOLDER, 
 				DATA_PAGE_CACHE_TTL);
 		// the ttl does not matter here since meta data page is always cached
@@ -205,20 +322,30 @@ public class BigArrayImpl implements IBigArray {
 		this.metaPageFactory = new MappedPageFactoryImpl(META_DATA_PAGE_SIZE, 
 				this.arrayDirectory + META_DATA_PAGE_FOLDER, 
 				10 * 1000/*does not matter*/);
+		this.indexPageSummary = new PageSummary(this.arrayDirectory + INDEX_PAGE_SUMMARY_FOLDER);
+		this.dataPageSummary = new PageSummary(this.arrayDirectory + DATA_PAGE_SUMMARY_FOLDER);
 		
 		// initialize array indexes 初始化数组索引
 		initArrayIndex();
 		// initialize data page indexes 初始化数据页面索引
 		initDataPageIndex();
+		// initialize page summaries 初始化页面摘要
+		initPageSummary();
 	}
 
 	@Override
 	public void removeAll() throws IOException {
 		try {
 			arrayWriteLock.lock();
+			if (prefetcher != null) {
+				prefetcher.reset();
+			}
+			generation.incrementAndGet();
 			this.indexPageFactory.deleteAllPages();
 			this.dataPageFactory.deleteAllPages();
 			this.metaPageFactory.deleteAllPages();
+			this.indexPageSummary.deleteAll();
+			this.dataPageSummary.deleteAll();
 			//FileUtil.deleteDirectory(new File(this.arrayDirectory));
 			
 			this.commonInit();
@@ -234,21 +361,26 @@ public class BigArrayImpl implements IBigArray {
 
       validateIndex(index);
 
+      generation.incrementAndGet();
       long indexPageIndex = Calculator.div(index, INDEX_ITEMS_PER_PAGE_BITS);
 
-      ByteBuffer indexItemBuffer = this.getIndexItemBuffer(index);
-      long dataPageIndex = indexItemBuffer.getLong();
+      long dataPageIndex = this.readDataPageIndex(index);
 
       if (indexPageIndex > 0L) {
           this.indexPageFactory.deletePagesBeforePageIndex(indexPageIndex);
+          this.indexPageSummary.deleteBefore(indexPageIndex);
       }
       if (dataPageIndex > 0L) {
           this.dataPageFactory.deletePagesBeforePageIndex(dataPageIndex);
+          this.dataPageSummary.deleteBefore(dataPageIndex);
       }
 
       // advance the tail to index
 		// 将尾数推到索引
       this.arrayTailIndex.set(index);
+      // persist the tail now, the pages before it are already gone
+      // 立即持久化尾索引，它之前的页面已经被删除
+      this.updateMetaData(this.arrayHeadIndex.get());
     } finally {
       arrayWriteLock.unlock();
     }
@@ -260,14 +392,25 @@ public class BigArrayImpl implements IBigArray {
 	public void removeBefore(long timestamp) throws IOException {
 		try {
 			arrayWriteLock.lock();
-			long firstIndexPageIndex = this.indexPageFactory.getFirstPageIndexBefore(timestamp);
+			long tailIndex = this.arrayTailIndex.get();
+			long headIndex = this.arrayHeadIndex.get();
+			if (tailIndex >= headIndex) return; // empty, or wrapped which page order can't tell 空，或已回绕无法通过页面顺序判断
+			
+			// last index page holding an item appended before the timestamp, pages before it are entirely older
+			// 最后一个含有在该时间戳之前附加的项的索引页，它之前的页面全部更早
+			long lowPageIndex = Calculator.div(tailIndex, INDEX_ITEMS_PER_PAGE_BITS);
+			long highPageIndex = Calculator.div(headIndex - 1, INDEX_ITEMS_PER_PAGE_BITS);
+			long firstIndexPageIndex = -1L;
+			while(lowPageIndex <= highPageIndex) {
+				long midPageIndex = lowPageIndex + (highPageIndex - lowPageIndex) / 2;
+				if (getIndexPageMinTimestamp(midPageIndex, tailIndex) < timestamp) {
+					firstIndexPageIndex = midPageIndex;
+					lowPageIndex = midPageIndex + 1;
+				} else {
+					highPageIndex = midPageIndex - 1;
+				}
+			}
 			if (firstIndexPageIndex >= 0) {
-//				long nextIndexPageIndex = firstIndexPageIndex;
-//				if (nextIndexPageIndex == Long.MAX_VALUE) { //wrap
-//					nextIndexPageIndex = 0L;
-//				} else {
-//					nextIndexPageIndex++;
-//				}
 				long toRemoveBeforeIndex = Calculator.mul(firstIndexPageIndex, INDEX_ITEMS_PER_PAGE_BITS);
 				removeBeforeIndex(toRemoveBeforeIndex);
 			}
@@ -280,10 +423,9 @@ public class BigArrayImpl implements IBigArray {
 	
 	// find out array head/tail from the meta data 从元数据中找出数组的头/尾
 	void initArrayIndex() throws IOException {
-		IMappedPage metaDataPage = this.metaPageFactory.acquirePage(META_DATA_PAGE_INDEX);
-		ByteBuffer metaBuf = metaDataPage.getLocal(0);
-		long head = metaBuf.getLong();
-		long tail = metaBuf.getLong();
+		metaDataPage = this.metaPageFactory.acquirePage(META_DATA_PAGE_INDEX);
+		long head = metaDataPage.getLong(0);
+		long tail = metaDataPage.getLong(8);
 		
 		arrayHeadIndex.set(head);
 		arrayTailIndex.set(tail);
@@ -303,10 +445,9 @@ public class BigArrayImpl implements IBigArray {
 				previousIndexPageIndex = Calculator.div(previousIndex, INDEX_ITEMS_PER_PAGE_BITS); // shift optimization 调整优化
 				previousIndexPage = this.indexPageFactory.acquirePage(previousIndexPageIndex);
 				int previousIndexPageOffset = (int) (Calculator.mul(Calculator.mod(previousIndex, INDEX_ITEMS_PER_PAGE_BITS), INDEX_ITEM_LENGTH_BITS));
-				ByteBuffer previousIndexItemBuffer = previousIndexPage.getLocal(previousIndexPageOffset);
-				long previousDataPageIndex = previousIndexItemBuffer.getLong();
-				int previousDataItemOffset = previousIndexItemBuffer.getInt();
-				int perviousDataItemLength = previousIndexItemBuffer.getInt();
+				long previousDataPageIndex = previousIndexPage.getLong(previousIndexPageOffset);
+				int previousDataItemOffset = previousIndexPage.getInt(previousIndexPageOffset + INDEX_ITEM_DATA_ITEM_OFFSET_OFFSET);
+				int perviousDataItemLength = previousIndexPage.getInt(previousIndexPageOffset + INDEX_ITEM_DATA_ITEM_LENGTH_OFFSET);
 				
 				headDataPageIndex = previousDataPageIndex;
 				headDataItemOffset = previousDataItemOffset + perviousDataItemLength;
@@ -316,85 +457,793 @@ public class BigArrayImpl implements IBigArray {
 				}
 			}
 		}
+		headSlot.set(new AppendSlot(headDataPageIndex, headDataItemOffset, arrayHeadIndex.get()));
+	}
+
+	// rebuild the summary entries of the head pages if missing, e.g. for an array created before summaries existed
+	// 如果头页的摘要条目缺失则重建，例如对于在摘要出现之前创建的数组
+	void initPageSummary() throws IOException {
+		long tailIndex = this.arrayTailIndex.get();
+		long headIndex = this.arrayHeadIndex.get();
+		if (tailIndex >= headIndex) return; // empty or wrapped 空或已回绕
+		long lastIndex = headIndex - 1;
+		long lastTimestamp = this.readTimestamp(lastIndex);
+		
+		long headIndexPageIndex = Calculator.div(lastIndex, INDEX_ITEMS_PER_PAGE_BITS);
+		if (!this.indexPageSummary.contains(headIndexPageIndex)) {
+			long firstIndex = Math.max(tailIndex, Calculator.mul(headIndexPageIndex, INDEX_ITEMS_PER_PAGE_BITS));
+			this.indexPageSummary.put(headIndexPageIndex, this.readTimestamp(firstIndex), lastTimestamp, firstIndex, lastIndex);
+		}
+		if (!this.dataPageSummary.contains(this.headDataPageIndex)) {
+			long firstIndex = this.findFirstIndexOfDataPage(this.headDataPageIndex, tailIndex, lastIndex);
+			this.dataPageSummary.put(this.headDataPageIndex, this.readTimestamp(firstIndex), lastTimestamp, firstIndex, lastIndex);
+		}
+	}
+	
+	// binary search the first array index in [low, high] whose item is in the data page, data page indexes never decrease along the array
+	// 二分查找[low, high]中第一个位于该数据页的数组索引，数据页索引沿数组从不减少
+	long findFirstIndexOfDataPage(long dataPageIndex, long low, long high) throws IOException {
+		long firstIndex = high;
+		while(low <= high) {
+			long mid = low + (high - low) / 2;
+			if (this.readDataPageIndex(mid) >= dataPageIndex) {
+				firstIndex = mid;
+				high = mid - 1;
+			} else {
+				low = mid + 1;
+			}
+		}
+		return firstIndex;
+	}
+	
+	// first array index in [low, high] whose item is in the data page, looked up in the data page summary,
+	// falls back to a binary search if the entry is missing or does not match the index
+	// [low, high]中第一个位于该数据页的数组索引，从数据页摘要中查找，条目缺失或与索引不符时退回到二分查找
+	private long getFirstIndexOfDataPage(long dataPageIndex, long low, long high) throws IOException {
+		long firstIndex = this.dataPageSummary.getFirstArrayIndex(dataPageIndex);
+		if (firstIndex > low && firstIndex <= high
+				&& this.readDataPageIndex(firstIndex) == dataPageIndex
+				&& this.readDataPageIndex(firstIndex - 1) < dataPageIndex) {
+			return firstIndex;
+		}
+		return this.findFirstIndexOfDataPage(dataPageIndex, low, high);
 	}
 
+	// add an appended item to the summaries of its index page and data page, caller must be the only one appending
+	// 将一个已附加的项加入其索引页和数据页的摘要，调用者必须是唯一的附加者
+	private void updatePageSummary(long arrayIndex, long dataPageIndex, long timestamp) throws IOException {
+		this.indexPageSummary.update(Calculator.div(arrayIndex, INDEX_ITEMS_PER_PAGE_BITS), arrayIndex, timestamp);
+		this.dataPageSummary.update(dataPageIndex, arrayIndex, timestamp);
+	}
+	
 	/**
 	 * Append the data into the head of the array
 	 * 将数据附加到数组的头部
 	 */
 	public long append(byte[] data) throws IOException {
+		return this.append(new AppendPages(false), data, null, data.length);
+	}
+	
+	/**
+	 * Append the remaining bytes of a buffer into the head of the array,
+	 * the data is written straight into the data page without an intermediate copy.
+	 * 将缓冲区的剩余字节附加到数组的头部，数据直接写入数据页而没有中间拷贝。
+	 */
+	public long append(ByteBuffer data) throws IOException {
+		return this.append(new ByteBuffer[] { data });
+	}
+	
+	/**
+	 * Append the remaining bytes of several buffers(e.g. header and body) into the head of the array as one item,
+	 * the parts are gathered straight into the data page without an intermediate copy.
+	 * 将多个缓冲区(例如头和体)的剩余字节作为一个项附加到数组的头部，各部分直接汇集到数据页而没有中间拷贝。
+	 */
+	public long append(ByteBuffer... parts) throws IOException {
+		return this.append(new AppendPages(false), null, parts, gatheredLength(parts));
+	}
+	
+	// total remaining bytes of the parts of an item 一个项各部分剩余字节的总数
+	int gatheredLength(ByteBuffer[] parts) {
+		long length = 0;
+		for(ByteBuffer part : parts) {
+			length += part.remaining();
+		}
+		if (length > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("data length " + length + " exceeds data page size " + DATA_PAGE_SIZE + " bytes.");//数据长度超过数据页大小
+		}
+		return (int) length;
+	}
+	
+	@Override
+	public BigArrayAppender openAppender() {
+		return new BigArrayAppender(this, new AppendPages(true));
+	}
+	
+	// append either data or the gathered parts as one item of specific length
+	// 将data或汇集的各部分作为一个特定长度的项附加
+	long append(AppendPages pages, byte[] data, ByteBuffer[] parts, int length) throws IOException {
+		if (concurrentAppend) {
+			return this.concurrentAppend(pages, data, parts, length);
+		}
 		try {
 			arrayReadLock.lock(); 
-			IMappedPage toAppendDataPage = null;
-			IMappedPage toAppendIndexPage = null;
-			long toAppendIndexPageIndex = -1L;
-			long toAppendDataPageIndex = -1L;
-			
+			pages.revalidate();
 			long toAppendArrayIndex = -1L;
 			
 			try {
 				appendLock.lock(); // only one thread can append 只有一个线程可以附加
 				
 				// prepare the data pointer 准备数据指针
-				if (this.headDataItemOffset + data.length > DATA_PAGE_SIZE) { // not enough space 没有足够的空间
+				if (!fitsInPage(this.headDataItemOffset, length, DATA_PAGE_SIZE)) { // not enough space 没有足够的空间
 					this.headDataPageIndex++;
 					this.headDataItemOffset = 0;
 				}
 				
-				toAppendDataPageIndex = this.headDataPageIndex;
-				int toAppendDataItemOffset  = this.headDataItemOffset;
-				
 				toAppendArrayIndex = this.arrayHeadIndex.get();
 				
-				// append data 附加数据
-				toAppendDataPage = this.dataPageFactory.acquirePage(toAppendDataPageIndex);
-				ByteBuffer toAppendDataPageBuffer = toAppendDataPage.getLocal(toAppendDataItemOffset);
-				toAppendDataPageBuffer.put(data);
-				toAppendDataPage.setDirty(true);
+				// append data and update index 附加数据并更新索引
+				long timestamp = writeItem(pages, toAppendArrayIndex, this.headDataPageIndex, this.headDataItemOffset, data, parts, length);
 				// update to next 更新下一个
-				this.headDataItemOffset += data.length;
-				
-				toAppendIndexPageIndex = Calculator.div(toAppendArrayIndex, INDEX_ITEMS_PER_PAGE_BITS); // shift optimization
-				toAppendIndexPage = this.indexPageFactory.acquirePage(toAppendIndexPageIndex);
-				int toAppendIndexItemOffset = (int) (Calculator.mul(Calculator.mod(toAppendArrayIndex, INDEX_ITEMS_PER_PAGE_BITS), INDEX_ITEM_LENGTH_BITS));
+				this.headDataItemOffset += length;
 				
-				// update index 跟新index
-				ByteBuffer toAppendIndexPageBuffer = toAppendIndexPage.getLocal(toAppendIndexItemOffset);
-				toAppendIndexPageBuffer.putLong(toAppendDataPageIndex);
-				toAppendIndexPageBuffer.putInt(toAppendDataItemOffset);
-				toAppendIndexPageBuffer.putInt(data.length);
-				long currentTime = System.currentTimeMillis();
-				toAppendIndexPageBuffer.putLong(currentTime);
-				toAppendIndexPage.setDirty(true);
+				// update page summary 更新页面摘要
+				updatePageSummary(toAppendArrayIndex, this.headDataPageIndex, timestamp);
 				
 				// advance the head 推进头
 				this.arrayHeadIndex.incrementAndGet();
 				
 				// update meta data 更新元数据
-				IMappedPage metaDataPage = this.metaPageFactory.acquirePage(META_DATA_PAGE_INDEX);
-				ByteBuffer metaDataBuf = metaDataPage.getLocal(0);
-				metaDataBuf.putLong(this.arrayHeadIndex.get());
-				metaDataBuf.putLong(this.arrayTailIndex.get());
-				metaDataPage.setDirty(true);
+				updateMetaData(this.arrayHeadIndex.get());
+				
+				if (prefetcher != null) {
+					prefetcher.onAppend(this.headDataPageIndex, this.headDataItemOffset, toAppendArrayIndex);
+				}
 	
 			} finally {
 				
 				appendLock.unlock();
 				
-				if (toAppendDataPage != null) {
-					this.dataPageFactory.releasePage(toAppendDataPageIndex);
+				pages.done();
+			}
+			
+			return toAppendArrayIndex;
+		
+		} finally {
+			arrayReadLock.unlock();
+		}
+	}
+	
+	/**
+	 * Append the data and get notified once it is on disk, in group commit mode the flush is shared
+	 * with all durable appends waiting at the same time.
+	 * 附加数据并在其写入磁盘后得到通知，组提交模式下刷新由同时等待的所有持久附加共享。
+	 */
+	public ListenableFuture<Long> appendDurable(byte[] data) throws IOException {
+		long index = this.append(data);
+		if (flusher != null && flusher.groupCommit) {
+			return flusher.awaitCommit(index);
+		}
+		this.flush();
+		return Futures.immediateFuture(index);
+	}
+	
+	/**
+	 * Append a batch of data into the head of the array
+	 * 将一批数据附加到数组的头部
+	 * 
+	 * Index and data space for the whole batch are reserved in one critical section,
+	 * pages are only acquired again when the batch crosses a page boundary, and the new head
+	 * is published once after all items have been written, so readers see either none or all of the batch.
+	 */
+	public long appendBatch(List<byte[]> dataList) throws IOException {
+		return this.appendBatch(new AppendPages(false), dataList);
+	}
+	
+	long appendBatch(AppendPages pages, List<byte[]> dataList) throws IOException {
+		if (dataList == null || dataList.isEmpty()) {
+			return NOT_FOUND;
+		}
+		if (concurrentAppend) {
+			return this.concurrentAppendBatch(pages, dataList);
+		}
+		try {
+			arrayReadLock.lock();
+			pages.revalidate();
+			long firstArrayIndex = -1L;
+			
+			try {
+				appendLock.lock(); // only one thread can append 只有一个线程可以附加
+				
+				// work on local copies of the data pointer, they are only published if the whole batch succeeds
+				// 在数据指针的本地副本上工作，只有整批成功后才会发布
+				long dataPageIndex = this.headDataPageIndex;
+				int dataItemOffset = this.headDataItemOffset;
+				
+				firstArrayIndex = this.arrayHeadIndex.get();
+				long toAppendArrayIndex = firstArrayIndex;
+				
+				for(byte[] data : dataList) {
+					if (!fitsInPage(dataItemOffset, data.length, DATA_PAGE_SIZE)) { // not enough space 没有足够的空间
+						dataPageIndex++;
+						dataItemOffset = 0;
+					}
+					long timestamp = writeItem(pages, toAppendArrayIndex, dataPageIndex, dataItemOffset, data, null, data.length);
+					updatePageSummary(toAppendArrayIndex, dataPageIndex, timestamp);
+					dataItemOffset += data.length;
+					toAppendArrayIndex++;
 				}
-				if (toAppendIndexPage != null) {
-					this.indexPageFactory.releasePage(toAppendIndexPageIndex);
+				
+				this.headDataPageIndex = dataPageIndex;
+				this.headDataItemOffset = dataItemOffset;
+				
+				// advance the head once for the whole batch 整批只推进一次头
+				this.arrayHeadIndex.set(toAppendArrayIndex);
+				
+				// update meta data 更新元数据
+				updateMetaData(toAppendArrayIndex);
+				
+				if (prefetcher != null) {
+					prefetcher.onAppend(dataPageIndex, dataItemOffset, toAppendArrayIndex - 1);
 				}
+				
+			} finally {
+				
+				appendLock.unlock();
+				
+				pages.done();
+			}
+			
+			return firstArrayIndex;
+			
+		} finally {
+			arrayReadLock.unlock();
+		}
+	}
+	
+	// append without the append lock, see BigArrayConfig.AppendMode.CONCURRENT
+	// 不获取附加锁的附加
+	private long concurrentAppend(AppendPages pages, byte[] data, ByteBuffer[] parts, int length) throws IOException {
+		validateItemLength(length);
+		try {
+			arrayReadLock.lock();
+			pages.revalidate();
+			
+			// reserve (data page, offset, array index) for this item 为这个项预留(数据页，偏移量，数组索引)
+			AppendSlot slot;
+			AppendSlot nextSlot;
+			do {
+				slot = this.headSlot.get();
+				nextSlot = slot.next(length, DATA_PAGE_SIZE);
+			} while(!this.headSlot.compareAndSet(slot, nextSlot));
+			
+			long toAppendArrayIndex = slot.arrayIndex;
+			long toAppendDataPageIndex = nextSlot.dataPageIndex;
+			int toAppendDataItemOffset = nextSlot.dataItemOffset - length;
+			
+			long timestamp = 0L;
+			try {
+				timestamp = writeItem(pages, toAppendArrayIndex, toAppendDataPageIndex, toAppendDataItemOffset, data, parts, length);
+			} catch (IOException ex) {
+				timestamp = writePlaceholder(pages, toAppendArrayIndex, toAppendDataPageIndex, toAppendDataItemOffset);
+				throw ex;
+			} catch (RuntimeException ex) {
+				timestamp = writePlaceholder(pages, toAppendArrayIndex, toAppendDataPageIndex, toAppendDataItemOffset);
+				throw ex;
+			} finally {
+				pages.done();
+				// the slot was reserved, it must be committed even on failure, or later producers would wait forever
+				// 位置已经预留，即使失败也必须提交，否则后面的生产者会永远等待
+				awaitCommitTurn(toAppendArrayIndex);
+				try {
+					updatePageSummary(toAppendArrayIndex, toAppendDataPageIndex, timestamp);
+				} finally {
+					publish(toAppendArrayIndex + 1);
+				}
+			}
+			
+			if (prefetcher != null) {
+				prefetcher.onAppend(nextSlot.dataPageIndex, nextSlot.dataItemOffset, toAppendArrayIndex);
 			}
 			
 			return toAppendArrayIndex;
-		
+			
+		} finally {
+			arrayReadLock.unlock();
+		}
+	}
+	
+	// batch append without the append lock, the whole batch is reserved with one CAS
+	// 不获取附加锁的批量附加，整批数据通过一次CAS预留
+	private long concurrentAppendBatch(AppendPages pages, List<byte[]> dataList) throws IOException {
+		int size = dataList.size();
+		for(byte[] data : dataList) {
+			validateItemLength(data.length);
+		}
+		try {
+			arrayReadLock.lock();
+			pages.revalidate();
+			
+			long[] dataPageIndexes = new long[size];
+			int[] dataItemOffsets = new int[size];
+			AppendSlot slot;
+			AppendSlot nextSlot;
+			do {
+				slot = this.headSlot.get();
+				nextSlot = slot;
+				for(int i = 0; i < size; i++) {
+					int length = dataList.get(i).length;
+					nextSlot = nextSlot.next(length, DATA_PAGE_SIZE);
+					dataPageIndexes[i] = nextSlot.dataPageIndex;
+					dataItemOffsets[i] = nextSlot.dataItemOffset - length;
+				}
+			} while(!this.headSlot.compareAndSet(slot, nextSlot));
+			
+			long firstArrayIndex = slot.arrayIndex;
+			
+			long[] timestamps = new long[size];
+			int written = 0;
+			try {
+				for(; written < size; written++) {
+					byte[] data = dataList.get(written);
+					timestamps[written] = writeItem(pages, firstArrayIndex + written, dataPageIndexes[written], dataItemOffsets[written], data, null, data.length);
+				}
+			} finally {
+				for(int i = written; i < size; i++) { // only on failure
+					timestamps[i] = writePlaceholder(pages, firstArrayIndex + i, dataPageIndexes[i], dataItemOffsets[i]);
+				}
+				pages.done();
+				awaitCommitTurn(firstArrayIndex);
+				try {
+					for(int i = 0; i < size; i++) {
+						updatePageSummary(firstArrayIndex + i, dataPageIndexes[i], timestamps[i]);
+					}
+				} finally {
+					publish(firstArrayIndex + size);
+				}
+			}
+			
+			if (prefetcher != null) {
+				prefetcher.onAppend(nextSlot.dataPageIndex, nextSlot.dataItemOffset, firstArrayIndex + size - 1);
+			}
+			
+			return firstArrayIndex;
+			
 		} finally {
 			arrayReadLock.unlock();
 		}
 	}
+	
+	private void validateItemLength(int length) {
+		if (length > DATA_PAGE_SIZE) {
+			throw new IllegalArgumentException("data length " + length + " exceeds data page size " + DATA_PAGE_SIZE + " bytes.");//数据长度超过数据页大小
+		}
+	}
+	
+	/**
+	 * Wait until all slots before fromIndex are committed, from then on the caller is
+	 * the only committer until it calls {@link #publish(long)}.
+	 * 等待fromIndex之前的所有位置提交，此后调用者是唯一的提交者，直到它调用publish。
+	 */
+	private void awaitCommitTurn(long fromIndex) {
+		int spins = 0;
+		while(this.arrayHeadIndex.get() != fromIndex) {
+			if (spins < COMMIT_SPIN_LIMIT) {
+				spins++;
+			} else {
+				Thread.yield();
+			}
+		}
+	}
+	
+	/**
+	 * Publish the committed slots up to toIndex(exclusive), the head stays the read barrier
+	 * since it only moves over fully written items.
+	 * 发布直到toIndex(不含)的已提交位置，头只会越过已完整写入的项，因此仍然是读屏障。
+	 */
+	private void publish(long toIndex) throws IOException {
+		// meta data goes first, the next committer only starts after the head moved
+		// 元数据先写，下一个提交者只有在头推进后才开始
+		try {
+			updateMetaData(toIndex);
+		} finally {
+			this.arrayHeadIndex.set(toIndex);
+		}
+	}
+	
+	// write an empty item into a reserved slot whose data could not be written, returns the timestamp of the item
+	// 向无法写入数据的预留位置写入一个空项，返回该项的时间戳
+	private long writePlaceholder(AppendPages pages, long arrayIndex, long dataPageIndex, int dataItemOffset) {
+		try {
+			return writeIndexItem(pages.indexPage(arrayIndex), arrayIndex, dataPageIndex, dataItemOffset, 0);
+		} catch (IOException ignore) {
+			// the index page is not available either, the slot keeps whatever the page holds
+			return System.currentTimeMillis();
+		}
+	}
+	
+	// write the data(either data or the gathered parts) and the index item of an array index, returns the timestamp of the item
+	// 写入一个数组索引的数据(data或汇集的各部分)和索引项，返回该项的时间戳
+	private long writeItem(AppendPages pages, long arrayIndex, long dataPageIndex, int dataItemOffset,
+			byte[] data, ByteBuffer[] parts, int length) throws IOException {
+		IMappedPage dataPage = pages.dataPage(dataPageIndex);
+		if (data != null) {
+			dataPage.put(dataItemOffset, data);
+		} else {
+			int position = dataItemOffset;
+			for(ByteBuffer part : parts) {
+				int partLength = part.remaining();
+				dataPage.put(position, part);
+				position += partLength;
+			}
+		}
+		// mark after writing, so a concurrent flush either forces the bytes or leaves them dirty
+		// 写入之后再标记，这样并发的刷新要么强制写入这些字节，要么让它们保持为脏
+		dataPage.setDirty(dataItemOffset, length);
+		return writeIndexItem(pages.indexPage(arrayIndex), arrayIndex, dataPageIndex, dataItemOffset, length);
+	}
+	
+	// write the index item of an array index into its (already acquired) index page, returns the timestamp of the item
+	// 将数组索引的索引项写入其(已获取的)索引页，返回该项的时间戳
+	private long writeIndexItem(IMappedPage indexPage, long arrayIndex, long dataPageIndex, int dataItemOffset, int dataItemLength) {
+		int indexItemOffset = getIndexItemOffset(arrayIndex);
+		long currentTime = System.currentTimeMillis();
+		// the fields are written in place, nothing is allocated per append 字段直接写入，每次附加不分配任何对象
+		indexPage.putLong(indexItemOffset, dataPageIndex);
+		indexPage.putInt(indexItemOffset + INDEX_ITEM_DATA_ITEM_OFFSET_OFFSET, dataItemOffset);
+		indexPage.putInt(indexItemOffset + INDEX_ITEM_DATA_ITEM_LENGTH_OFFSET, dataItemLength);
+		indexPage.putLong(indexItemOffset + INDEX_ITEM_DATA_ITEM_TIMESTAMP_OFFSET, currentTime);
+		indexPage.setDirty(indexItemOffset, INDEX_ITEM_LENGTH);
+		return currentTime;
+	}
+	
+	// persist array head and tail, caller must be the only one appending
+	// 持久化数组头和尾，调用者必须是唯一的附加者
+	private void updateMetaData(long headIndex) throws IOException {
+		metaDataPage.putLong(0, headIndex);
+		metaDataPage.putLong(8, this.arrayTailIndex.get());
+		metaDataPage.setDirty(true);
+	}
+	
+	/**
+	 * The data page and index page a run of appends is writing to,
+	 * consecutive items on the same pages don't go back to the page factories.
+	 * 一组附加正在写入的数据页和索引页，同一页面上的连续项不需要再次访问页面工厂。
+	 * 
+	 * The pages of an appender are held across appends and only released at page roll-over,
+	 * the pages of a single append are released once it is done.
+	 * 附加器的页面在多次附加之间保持持有，只在换页时释放，单次附加的页面在其完成后释放。
+	 * Only used under the array read lock, an acquired page is only closed by page removal under the write lock,
+	 * so the pages stay mapped while used and are accessed unchecked.
+	 * 只在数组读锁下使用，已获取的页面只会在写锁下被页面删除关闭，因此页面在使用期间保持映射，可以不检查地访问。
+	 */
+	final class AppendPages {
+		private IMappedPage dataPage;
+		private long dataPageIndex = -1L;
+		private IMappedPage indexPage;
+		private long indexPageIndex = -1L;
+		// held across appends by an appender 由附加器在多次附加之间持有
+		private final boolean held;
+		// generation of the array the pages were acquired in 获取页面时数组的代
+		private int pagesGeneration;
+		
+		AppendPages(boolean held) {
+			this.held = held;
+			this.pagesGeneration = generation.get();
+		}
+		
+		// after pages were removed, forget the held pages the factories have closed, releasing them could release
+		// pages acquired since, the pages still open are released as usual
+		// 页面被删除后，忘记工厂已经关闭的持有页面，释放它们可能会释放之后获取的页面，仍然打开的页面照常释放
+		void revalidate() {
+			int currentGeneration = generation.get();
+			if (pagesGeneration != currentGeneration) {
+				if (dataPage != null && dataPage.isClosed()) {
+					dataPage = null;
+				}
+				if (indexPage != null && indexPage.isClosed()) {
+					indexPage = null;
+				}
+				release();
+				pagesGeneration = currentGeneration;
+			}
+		}
+		
+		// end of an append 一次附加结束
+		void done() {
+			if (!held) {
+				release();
+			}
+		}
+		
+		IMappedPage dataPage(long pageIndex) throws IOException {
+			if (dataPage == null || dataPageIndex != pageIndex) {
+				if (dataPage != null) {
+					dataPageFactory.releasePage(dataPageIndex);
+					dataPage = null;
+				}
+				dataPageIndex = pageIndex;
+				dataPage = dataPageFactory.acquirePage(pageIndex).unchecked();
+			}
+			return dataPage;
+		}
+		
+		IMappedPage indexPage(long arrayIndex) throws IOException {
+			long pageIndex = Calculator.div(arrayIndex, INDEX_ITEMS_PER_PAGE_BITS); // shift optimization
+			if (indexPage == null || indexPageIndex != pageIndex) {
+				if (indexPage != null) {
+					indexPageFactory.releasePage(indexPageIndex);
+					indexPage = null;
+				}
+				indexPageIndex = pageIndex;
+				indexPage = indexPageFactory.acquirePage(pageIndex).unchecked();
+			}
+			return indexPage;
+		}
+		
+		void release() {
+			if (dataPage != null) {
+				dataPageFactory.releasePage(dataPageIndex);
+				dataPage = null;
+			}
+			if (indexPage != null) {
+				indexPageFactory.releasePage(indexPageIndex);
+				indexPage = null;
+			}
+		}
+	}
+	
+	/**
+	 * Maps and loads the next data page and index page on a background thread once the head page
+	 * is filled beyond the threshold, so the roll-over finds the next page in the page cache.
+	 * 一旦头页填充超过阈值，在后台线程中映射并加载下一个数据页和索引页，这样切换时可以在页面缓存中找到下一页。
+	 * 
+	 * The prefetched page is held(acquired) until the page after it is prefetched, so it is not
+	 * swapped out before the head reaches it. The page is only read, never written, appends
+	 * may already write into it while it is being loaded.
+	 * 预取的页面会一直被持有(获取)直到它之后的页面被预取，这样在头到达它之前不会被换出。页面只读不写，因为加载时附加可能已经在写入它。
+	 */
+	final class PagePrefetcher {
+		private final int dataItemOffsetThreshold;
+		private final long indexItemThreshold;
+		
+		// highest page index requested so far 目前为止请求的最大页索引
+		private final AtomicLong requestedDataPageIndex = new AtomicLong(-1L);
+		private final AtomicLong requestedIndexPageIndex = new AtomicLong(-1L);
+		
+		// pages held by the prefetcher, only changed by the prefetch thread under array read lock
+		// or by reset/shutdown under array write lock
+		// 预取器持有的页面，只在数组读锁下由预取线程修改，或在数组写锁下由reset/shutdown修改
+		private long heldDataPageIndex = -1L;
+		private long heldIndexPageIndex = -1L;
+		
+		// bumped by reset, requests of an older generation are dropped 由reset递增，旧代的请求被丢弃
+		private volatile int generation = 0;
+		
+		private ExecutorService executor;
+		
+		PagePrefetcher(float threshold) {
+			this.dataItemOffsetThreshold = (int) (DATA_PAGE_SIZE * threshold);
+			this.indexItemThreshold = (long) (INDEX_ITEMS_PER_PAGE * threshold);
+		}
+		
+		// called after an append with the head data pointer and the last appended array index
+		// 在附加之后以头数据指针和最后附加的数组索引调用
+		void onAppend(long dataPageIndex, int dataItemOffset, long arrayIndex) {
+			if (dataItemOffset >= dataItemOffsetThreshold) {
+				request(requestedDataPageIndex, dataPageIndex + 1, true);
+			}
+			if (Calculator.mod(arrayIndex, INDEX_ITEMS_PER_PAGE_BITS) >= indexItemThreshold) {
+				request(requestedIndexPageIndex, Calculator.div(arrayIndex, INDEX_ITEMS_PER_PAGE_BITS) + 1, false);
+			}
+		}
+		
+		private void request(AtomicLong requested, long pageIndex, boolean dataPage) {
+			long current = requested.get();
+			if (pageIndex <= current || !requested.compareAndSet(current, pageIndex)) {
+				return; // already requested, or another producer is requesting it 已经请求过，或其他生产者正在请求
+			}
+			final int requestGeneration = generation;
+			final long toPrefetchPageIndex = pageIndex;
+			final boolean toPrefetchDataPage = dataPage;
+			getExecutor().execute(new Runnable() {
+				public void run() {
+					prefetch(requestGeneration, toPrefetchPageIndex, toPrefetchDataPage);
+				}
+			});
+		}
+		
+		private synchronized ExecutorService getExecutor() {
+			if (executor == null || executor.isShutdown()) {
+				executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "bigarray-prefetch-" + arrayDirectory);
+						t.setDaemon(true);
+						return t;
+					}
+				});
+			}
+			return executor;
+		}
+		
+		private void prefetch(int requestGeneration, long pageIndex, boolean dataPage) {
+			IMappedPageFactory pageFactory = dataPage ? dataPageFactory : indexPageFactory;
+			try {
+				arrayReadLock.lock();
+				if (requestGeneration != generation) return; // the array has been reset 数组已经被重置
+				
+				IMappedPage page = pageFactory.acquirePage(pageIndex);
+				page.load();
+				
+				// hold the new page, release the one held before 持有新页面，释放之前持有的页面
+				long previousPageIndex = dataPage ? heldDataPageIndex : heldIndexPageIndex;
+				if (dataPage) {
+					heldDataPageIndex = pageIndex;
+				} else {
+					heldIndexPageIndex = pageIndex;
+				}
+				if (previousPageIndex >= 0) {
+					pageFactory.releasePage(previousPageIndex);
+				}
+			} catch (IOException ex) {
+				// the page is mapped again on roll-over 在切换时页面会被再次映射
+				logger.warn("fail to prefetch " + (dataPage ? "data" : "index") + " page " + pageIndex, ex);
+			} finally {
+				arrayReadLock.unlock();
+			}
+		}
+		
+		// release the held pages and drop pending requests, caller must hold the array write lock
+		// 释放持有的页面并丢弃待处理的请求，调用者必须持有数组写锁
+		void reset() {
+			generation++;
+			if (heldDataPageIndex >= 0) {
+				dataPageFactory.releasePage(heldDataPageIndex);
+				heldDataPageIndex = -1L;
+			}
+			if (heldIndexPageIndex >= 0) {
+				indexPageFactory.releasePage(heldIndexPageIndex);
+				heldIndexPageIndex = -1L;
+			}
+			requestedDataPageIndex.set(-1L);
+			requestedIndexPageIndex.set(-1L);
+		}
+		
+		// stop the prefetch thread, it is started again by the next request, caller must hold the array write lock
+		// 停止预取线程，下一个请求会再次启动它，调用者必须持有数组写锁
+		void shutdown() {
+			synchronized(this) {
+				if (executor != null) {
+					executor.shutdown();
+				}
+			}
+			reset();
+		}
+	}
+	
+	/**
+	 * Background flusher forcing the dirty pages of the array periodically, and in group commit mode
+	 * as soon as durable appends are waiting, all appends waiting meanwhile are committed by one flush.
+	 * 后台刷新器，周期性地强制写入数组的脏页面，在组提交模式下一旦有持久附加在等待就立即刷新，期间等待的所有附加由一次刷新提交。
+	 */
+	final class DurabilityFlusher {
+		final boolean groupCommit;
+		
+		private final ScheduledExecutorService executor;
+		
+		private final Runnable commitTask = new Runnable() {
+			public void run() {
+				commit();
+			}
+		};
+		
+		// durable appends waiting for the next flush, guarded by this 等待下一次刷新的持久附加
+		private List<DurableAppend> waiters = new ArrayList<DurableAppend>();
+		// a commit has been submitted for the waiters, guarded by this 已经为等待者提交了一次提交
+		private boolean commitPending = false;
+		
+		DurabilityFlusher(long flushInterval, boolean groupCommit) {
+			this.groupCommit = groupCommit;
+			this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "bigarray-flusher-" + arrayDirectory);
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			this.executor.scheduleWithFixedDelay(commitTask, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+		}
+		
+		// wait for the item at array index to be forced by the next commit 等待数组索引处的项被下一次提交强制写入
+		ListenableFuture<Long> awaitCommit(long arrayIndex) {
+			SettableFuture<Long> future = SettableFuture.create();
+			boolean submit;
+			synchronized(this) {
+				waiters.add(new DurableAppend(arrayIndex, future));
+				submit = !commitPending;
+				commitPending = true;
+			}
+			if (submit) {
+				try {
+					executor.execute(commitTask);
+				} catch (RejectedExecutionException ex) { // closed 已关闭
+					commit();
+				}
+			}
+			return future;
+		}
+		
+		// force everything appended so far and complete the durable appends waiting for it
+		// 强制写入目前为止附加的所有内容，并完成等待它的持久附加
+		void commit() {
+			List<DurableAppend> toComplete;
+			synchronized(this) {
+				toComplete = waiters;
+				waiters = new ArrayList<DurableAppend>();
+				commitPending = false;
+			}
+			try {
+				flush();
+			} catch (RuntimeException ex) {
+				logger.error("fail to flush array " + arrayDirectory, ex);
+				for(DurableAppend waiter : toComplete) {
+					waiter.future.setException(ex);
+				}
+				return;
+			}
+			for(DurableAppend waiter : toComplete) {
+				waiter.future.set(waiter.arrayIndex);
+			}
+		}
+		
+		// stop the flusher after a last commit, caller must hold the array write lock
+		// 在最后一次提交后停止刷新器，调用者必须持有数组写锁
+		void shutdown() {
+			executor.shutdown();
+			commit();
+		}
+	}
+	
+	private static final class DurableAppend {
+		final long arrayIndex;
+		final SettableFuture<Long> future;
+		
+		DurableAppend(long arrayIndex, SettableFuture<Long> future) {
+			this.arrayIndex = arrayIndex;
+			this.future = future;
+		}
+	}
+	
+	// whether an item of specific length fits in a data page from an offset on, the check of every append mode,
+	// written without offset + length which overflows int near a 2 GB page
+	// 特定长度的项从某个偏移量开始是否能放入数据页，所有附加模式的检查，不使用在接近2 GB的页面上会int溢出的offset + length
+	static boolean fitsInPage(int dataItemOffset, int length, int dataPageSize) {
+		return length <= dataPageSize - dataItemOffset;
+	}
+	
+	/**
+	 * Immutable head pointer reserved by producers in concurrent append mode.
+	 * 并发附加模式下生产者预留的不可变头指针。
+	 */
+	static final class AppendSlot {
+		final long dataPageIndex;
+		final int dataItemOffset;
+		final long arrayIndex;
+		
+		AppendSlot(long dataPageIndex, int dataItemOffset, long arrayIndex) {
+			this.dataPageIndex = dataPageIndex;
+			this.dataItemOffset = dataItemOffset;
+			this.arrayIndex = arrayIndex;
+		}
+		
+		// the slot after an item of specific length has been placed at this slot
+		// 在此位置放入特定长度的项之后的下一个位置
+		AppendSlot next(int length, int dataPageSize) {
+			if (!fitsInPage(dataItemOffset, length, dataPageSize)) { // not enough space 没有足够的空间
+				return new AppendSlot(dataPageIndex + 1, length, arrayIndex + 1);
+			}
+			return new AppendSlot(dataPageIndex, dataItemOffset + length, arrayIndex + 1);
+		}
+	}
 
 	@Override
 	public void flush() {
@@ -404,9 +1253,18 @@ public class BigArrayImpl implements IBigArray {
 //			try {
 //				appendLock.lock(); // make flush and append mutually exclusive
 				
-				this.metaPageFactory.flush();
-				this.indexPageFactory.flush();
+				// data first and meta last, so the items published before the flush started are on disk
+				// once the head pointing past them is. Appends go on during the flush, the meta page forced last
+				// may already hold the head of items appended meanwhile whose data was not forced, as the OS
+				// may write the mapped meta page back at any time anyway, those items are only durable after the next flush.
+				// 先数据后元数据，这样刷新开始前发布的项在指向它们之后的头写入磁盘时已经在磁盘上。刷新期间附加继续进行，
+				// 最后强制写入的元数据页可能已经包含期间附加的、数据未被强制写入的项的头，由于操作系统本来就可能随时写回映射的元数据页，
+				// 这些项只有在下一次刷新之后才是持久的。
 				this.dataPageFactory.flush();
+				this.indexPageFactory.flush();
+				this.indexPageSummary.flush();
+				this.dataPageSummary.flush();
+				this.metaPageFactory.flush();
 				
 //			} finally {	
 //				appendLock.unlock();
@@ -423,58 +1281,126 @@ public class BigArrayImpl implements IBigArray {
 			arrayReadLock.lock();
 			validateIndex(index);
 			
-			IMappedPage dataPage = null;
-			long dataPageIndex = -1L;
+			IMappedPage indexPage = this.pinIndexPage(index);
+			int indexItemOffset = getIndexItemOffset(index);
+			long dataPageIndex;
+			int dataItemOffset;
+			int dataItemLength;
+			try {
+				dataPageIndex = indexPage.getLong(indexItemOffset);
+				dataItemOffset = indexPage.getInt(indexItemOffset + INDEX_ITEM_DATA_ITEM_OFFSET_OFFSET);
+				dataItemLength = indexPage.getInt(indexItemOffset + INDEX_ITEM_DATA_ITEM_LENGTH_OFFSET);
+			} finally {
+				indexPage.unpin();
+			}
+			IMappedPage dataPage = pinPage(this.dataPageFactory, dataPageIndex).unchecked();
 			try {
-				ByteBuffer indexItemBuffer = this.getIndexItemBuffer(index);
-				dataPageIndex = indexItemBuffer.getLong();
-				int dataItemOffset = indexItemBuffer.getInt();
-				int dataItemLength = indexItemBuffer.getInt();
-				dataPage = this.dataPageFactory.acquirePage(dataPageIndex);
-				byte[] data = dataPage.getLocal(dataItemOffset, dataItemLength);
+				byte[] data = new byte[dataItemLength];
+				dataPage.copyTo(dataItemOffset, data);
 				return data;
 			} finally {
-				if (dataPage != null) {
-					this.dataPageFactory.releasePage(dataPageIndex);
-				}
+				dataPage.unpin();
 			}
 		} finally {
 			arrayReadLock.unlock();
 		}
 	}
 	
-	public long getTimestamp(long index) throws IOException {
+	@Override
+	public BufferView getBuffer(long index) throws IOException {
 		try {
 			arrayReadLock.lock();
 			validateIndex(index);
 			
-			ByteBuffer indexItemBuffer = this.getIndexItemBuffer(index);
-			// position to the timestamp 位置的时间戳
-			int position = indexItemBuffer.position();
-			indexItemBuffer.position(position + INDEX_ITEM_DATA_ITEM_TIMESTAMP_OFFSET);
-			long ts = indexItemBuffer.getLong();
-			return ts;
+			IMappedPage indexPage = this.pinIndexPage(index);
+			int indexItemOffset = getIndexItemOffset(index);
+			long dataPageIndex;
+			int dataItemOffset;
+			int dataItemLength;
+			try {
+				dataPageIndex = indexPage.getLong(indexItemOffset);
+				dataItemOffset = indexPage.getInt(indexItemOffset + INDEX_ITEM_DATA_ITEM_OFFSET_OFFSET);
+				dataItemLength = indexPage.getInt(indexItemOffset + INDEX_ITEM_DATA_ITEM_LENGTH_OFFSET);
+			} finally {
+				indexPage.unpin();
+			}
+			// the pin keeps the page mapped until the view is released 固定使页面在视图释放之前保持映射
+			IMappedPage dataPage = pinPage(this.dataPageFactory, dataPageIndex).unchecked();
+			try {
+				return new BufferView(dataPage, dataPage.getSlice(dataItemOffset, dataItemLength), index);
+			} catch (RuntimeException ex) {
+				dataPage.unpin();
+				throw ex;
+			}
 		} finally {
 			arrayReadLock.unlock();
 		}
 	}
 	
-	ByteBuffer getIndexItemBuffer(long index) throws IOException {
-		
-		IMappedPage indexPage = null;
-		long indexPageIndex = -1L;
+	@Override
+	public BigArrayCursor openCursor(long startIndex) throws IOException {
 		try {
-			indexPageIndex = Calculator.div(index, INDEX_ITEMS_PER_PAGE_BITS); // shift optimization
-			indexPage = this.indexPageFactory.acquirePage(indexPageIndex);
-			int indexItemOffset = (int) (Calculator.mul(Calculator.mod(index, INDEX_ITEMS_PER_PAGE_BITS), INDEX_ITEM_LENGTH_BITS));
+			arrayReadLock.lock();
+			if (startIndex != this.arrayHeadIndex.get()) { // ok to start at the head and wait for items 可以从头开始并等待项
+				validateIndex(startIndex);
+			}
+			return new BigArrayCursor(this, startIndex);
+		} finally {
+			arrayReadLock.unlock();
+		}
+	}
+	
+	public long getTimestamp(long index) throws IOException {
+		try {
+			arrayReadLock.lock();
+			validateIndex(index);
 			
-			ByteBuffer indexItemBuffer = indexPage.getLocal(indexItemOffset);
-			return indexItemBuffer;
+			return this.readTimestamp(index);
 		} finally {
-			if (indexPage != null) {
-				this.indexPageFactory.releasePage(indexPageIndex);
+			arrayReadLock.unlock();
+		}
+	}
+	
+	// pinned index page holding the index item of an array index, the caller must hold the array lock and unpin it,
+	// accessed unchecked while pinned
+	// 持有数组索引的索引项的已固定索引页，调用者必须持有数组锁并解除固定，固定期间不检查地访问
+	private IMappedPage pinIndexPage(long index) throws IOException {
+		long indexPageIndex = Calculator.div(index, INDEX_ITEMS_PER_PAGE_BITS); // shift optimization
+		return pinPage(this.indexPageFactory, indexPageIndex).unchecked();
+	}
+	
+	// look up a page and pin it for a read, the cache may close an unreferenced page at any time, so a page
+	// closed between the lookup and the pin is looked up again, while pinned it stays mapped even if closed
+	// 查找页面并为读取固定它，缓存随时可能关闭没有引用的页面，因此在查找和固定之间被关闭的页面会被重新查找，
+	// 固定期间即使被关闭也保持映射
+	static IMappedPage pinPage(IMappedPageFactory pageFactory, long pageIndex) throws IOException {
+		for(int i = 0; i < 3; i++) {
+			IMappedPage page = pageFactory.lookupPage(pageIndex);
+			if (page.pin()) {
+				return page;
 			}
 		}
+		throw new IOException("page " + pageIndex + " has been closed.");//页面已经关闭
+	}
+	
+	// a long of the index item of an array index, read with the index page pinned 数组索引的索引项中的long，在索引页固定时读取
+	private long readIndexItemLong(long index, int itemOffset) throws IOException {
+		IMappedPage indexPage = this.pinIndexPage(index);
+		try {
+			return indexPage.getLong(getIndexItemOffset(index) + itemOffset);
+		} finally {
+			indexPage.unpin();
+		}
+	}
+	
+	// offset of the index item of an array index within its index page 数组索引的索引项在其索引页中的偏移量
+	static int getIndexItemOffset(long index) {
+		return (int) (Calculator.mul(Calculator.mod(index, INDEX_ITEMS_PER_PAGE_BITS), INDEX_ITEM_LENGTH_BITS));
+	}
+	
+	// data page index of an item without locking and validation 不加锁和验证地读取项的数据页索引
+	private long readDataPageIndex(long index) throws IOException {
+		return this.readIndexItemLong(index, 0);
 	}
 	
 	void validateIndex(long index) {
@@ -534,10 +1460,28 @@ public class BigArrayImpl implements IBigArray {
 		return false;
 	}
 
+	// release the pages held by an appender being closed 释放正在关闭的附加器持有的页面
+	void releaseAppendPages(AppendPages pages) {
+		try {
+			arrayReadLock.lock();
+			pages.revalidate();
+			pages.release();
+		} finally {
+			arrayReadLock.unlock();
+		}
+	}
+	
 	@Override
 	public void close() throws IOException {
 		try {
 			arrayWriteLock.lock();
+			generation.incrementAndGet();
+			if (prefetcher != null) {
+				prefetcher.shutdown();
+			}
+			if (flusher != null) {
+				flusher.shutdown();
+			}
 			if (this.metaPageFactory != null) {
 				this.metaPageFactory.releaseCachedPages();
 			}
@@ -547,6 +1491,12 @@ public class BigArrayImpl implements IBigArray {
 			if (this.dataPageFactory != null) {
 				this.dataPageFactory.releaseCachedPages();
 			}
+			if (this.indexPageSummary != null) {
+				this.indexPageSummary.close();
+			}
+			if (this.dataPageSummary != null) {
+				this.dataPageSummary.close();
+			}
 		} finally {
 			arrayWriteLock.unlock();
 		}
@@ -569,14 +1519,14 @@ public class BigArrayImpl implements IBigArray {
 			if (lastIndex < 0) {
 				lastIndex = Long.MAX_VALUE;
 			}
-			if (tailIndex < lastIndex) {
-				closestIndex = closestBinarySearch(tailIndex, lastIndex, timestamp);
+			if (tailIndex <= lastIndex) {
+				closestIndex = closestIndexSearch(tailIndex, lastIndex, timestamp);
 			} else {
-				long lowPartClosestIndex = closestBinarySearch(0L, lastIndex, timestamp);
-				long highPartClosetIndex = closestBinarySearch(tailIndex, Long.MAX_VALUE, timestamp);
+				long lowPartClosestIndex = closestIndexSearch(0L, lastIndex, timestamp);
+				long highPartClosetIndex = closestIndexSearch(tailIndex, Long.MAX_VALUE, timestamp);
 				
-				long lowPartTimestamp = this.getTimestamp(lowPartClosestIndex);
-				long highPartTimestamp = this.getTimestamp(highPartClosetIndex);
+				long lowPartTimestamp = this.readTimestamp(lowPartClosestIndex);
+				long highPartTimestamp = this.readTimestamp(highPartClosetIndex);
 				
 				closestIndex = Math.abs(timestamp - lowPartTimestamp) < Math.abs(timestamp - highPartTimestamp) 
 						? lowPartClosestIndex : highPartClosetIndex;
@@ -588,34 +1538,94 @@ public class BigArrayImpl implements IBigArray {
 		}
 	}
 	
-	private long closestBinarySearch(long low, long high, long timestamp) throws IOException {    		
-        long mid;
-        long sum = low + high;
-        if (sum < 0) { // overflow
-        	BigInteger bigSum = BigInteger.valueOf(low);
-        	bigSum = bigSum.add(BigInteger.valueOf(high));
-        	mid = bigSum.shiftRight(1).longValue();
-        } else {
-        	mid = sum / 2;
-        }
-        
-    	long midTimestamp = this.getTimestamp(mid);
-    	
-    	if (midTimestamp < timestamp) {
-    		long nextLow = mid + 1;
-    		if (nextLow >= high) {
-    			return high;
-    		}
-    		return closestBinarySearch(nextLow, high, timestamp);
-    	} else if (midTimestamp > timestamp) {
-    		long nextHigh = mid - 1;
-    		if (nextHigh <= low) {
-    			return low;
-    		}
-    		return closestBinarySearch(low, nextHigh, timestamp);
-    	} else {
-    		return mid;
-    	}
+	/**
+	 * Find the index in [low, high] whose timestamp is closest to the timestamp, the index page is located
+	 * by the index page summary first, so only one index page is searched.
+	 * 在[low, high]中查找时间戳最接近给定时间戳的索引，先通过索引页摘要定位索引页，因此只需查找一个索引页。
+	 */
+	private long closestIndexSearch(long low, long high, long timestamp) throws IOException {
+		// first index page with an item not before the timestamp 第一个含有不早于该时间戳的项的索引页
+		long lowPageIndex = Calculator.div(low, INDEX_ITEMS_PER_PAGE_BITS);
+		long highPageIndex = Calculator.div(high, INDEX_ITEMS_PER_PAGE_BITS);
+		long pageIndex = -1L;
+		while(lowPageIndex <= highPageIndex) {
+			long midPageIndex = lowPageIndex + (highPageIndex - lowPageIndex) / 2;
+			if (getIndexPageMaxTimestamp(midPageIndex, high) >= timestamp) {
+				pageIndex = midPageIndex;
+				highPageIndex = midPageIndex - 1;
+			} else {
+				lowPageIndex = midPageIndex + 1;
+			}
+		}
+		if (pageIndex < 0) {
+			return high; // all items are before the timestamp 所有项都在该时间戳之前
+		}
+		
+		// first index in the page not before the timestamp 页中第一个不早于该时间戳的索引
+		long pageFirstIndex = Calculator.mul(pageIndex, INDEX_ITEMS_PER_PAGE_BITS);
+		long from = Math.max(low, pageFirstIndex);
+		long to = Math.min(high, pageFirstIndex + INDEX_ITEMS_PER_PAGE - 1);
+		long index = to;
+		long indexTimestamp;
+		IMappedPage indexPage = null;
+		try {
+			indexPage = this.indexPageFactory.acquirePage(pageIndex);
+			while(from <= to) {
+				long mid = from + (to - from) / 2;
+				if (readTimestamp(indexPage, mid) >= timestamp) {
+					index = mid;
+					to = mid - 1;
+				} else {
+					from = mid + 1;
+				}
+			}
+			indexTimestamp = readTimestamp(indexPage, index);
+		} finally {
+			if (indexPage != null) {
+				this.indexPageFactory.releasePage(pageIndex);
+			}
+		}
+		
+		// the item just before may be closer, it can be in the previous page 前一个项可能更接近，它可能在前一页中
+		if (index > low) {
+			long previousTimestamp = this.readTimestamp(index - 1);
+			if (timestamp - previousTimestamp <= indexTimestamp - timestamp) {
+				return index - 1;
+			}
+		}
+		return index;
+	}
+	
+	// max timestamp of an index page from the summary, or from its last item up to high if the summary is missing
+	// 从摘要中获取索引页的最大时间戳，摘要缺失时从其不超过high的最后一项获取
+	private long getIndexPageMaxTimestamp(long indexPageIndex, long high) throws IOException {
+		long maxTimestamp = this.indexPageSummary.getMaxTimestamp(indexPageIndex);
+		if (maxTimestamp == NOT_FOUND) {
+			long pageLastIndex = Calculator.mul(indexPageIndex, INDEX_ITEMS_PER_PAGE_BITS) + INDEX_ITEMS_PER_PAGE - 1;
+			maxTimestamp = this.readTimestamp(Math.min(high, pageLastIndex));
+		}
+		return maxTimestamp;
+	}
+	
+	// min timestamp of an index page from the summary, or from its first item from low on if the summary is missing
+	// 从摘要中获取索引页的最小时间戳，摘要缺失时从其不小于low的第一项获取
+	private long getIndexPageMinTimestamp(long indexPageIndex, long low) throws IOException {
+		long minTimestamp = this.indexPageSummary.getMinTimestamp(indexPageIndex);
+		if (minTimestamp == NOT_FOUND) {
+			long pageFirstIndex = Calculator.mul(indexPageIndex, INDEX_ITEMS_PER_PAGE_BITS);
+			minTimestamp = this.readTimestamp(Math.max(low, pageFirstIndex));
+		}
+		return minTimestamp;
+	}
+	
+	// timestamp of an item without locking and validation 不加锁和验证地读取项的时间戳
+	private long readTimestamp(long index) throws IOException {
+		return this.readIndexItemLong(index, INDEX_ITEM_DATA_ITEM_TIMESTAMP_OFFSET);
+	}
+	
+	// timestamp of an item in an acquired index page 读取已获取索引页中项的时间戳
+	private static long readTimestamp(IMappedPage indexPage, long index) {
+		return indexPage.getLong(getIndexItemOffset(index) + INDEX_ITEM_DATA_ITEM_TIMESTAMP_OFFSET);
 	}
 
 	@Override
@@ -660,19 +1670,24 @@ public class BigArrayImpl implements IBigArray {
 			
 			long tailIndex = this.arrayTailIndex.get();
 			long headIndex = this.arrayHeadIndex.get();
-			long totalLength = 0L;
-			while(true) {
-				if (tailIndex == headIndex) break;
-				totalLength += this.getDataItemLength(tailIndex);
-				if (totalLength > toTruncateSize) break;
-				
-				tailIndex++;
-				
-				if (Calculator.mod(tailIndex, INDEX_ITEMS_PER_PAGE_BITS) == 0) { // take index page into account
-					totalLength += INDEX_PAGE_SIZE;
-				}
+			if (tailIndex >= headIndex) return; // empty or wrapped 空或已回绕
+
+			// truncate whole data pages, only one index item is read per page instead of one per item
+			// 按整个数据页截断，每页只读取一个索引项而不是每项一个
+			long lastIndex = headIndex - 1;
+			long tailDataPageIndex = this.readDataPageIndex(tailIndex);
+			long lastDataPageIndex = this.readDataPageIndex(lastIndex);
+			long tailIndexPageIndex = Calculator.div(tailIndex, INDEX_ITEMS_PER_PAGE_BITS);
+			long newTailIndex = tailIndex;
+			for(long dataPageIndex = tailDataPageIndex + 1; dataPageIndex <= lastDataPageIndex; dataPageIndex++) {
+				newTailIndex = this.getFirstIndexOfDataPage(dataPageIndex, tailIndex, lastIndex);
+				long truncatedSize = (dataPageIndex - tailDataPageIndex) * DATA_PAGE_SIZE
+						+ (Calculator.div(newTailIndex, INDEX_ITEMS_PER_PAGE_BITS) - tailIndexPageIndex) * INDEX_PAGE_SIZE;
+				if (truncatedSize >= toTruncateSize) break;
+			}
+			if (newTailIndex != tailIndex) {
+				this.removeBeforeIndex(newTailIndex);
 			}
-			this.removeBeforeIndex(tailIndex);
 		} finally {
 			arrayWriteLock.unlock();
 		}
@@ -694,12 +1709,12 @@ public class BigArrayImpl implements IBigArray {
 	
 	private int getDataItemLength(long index) throws IOException {
 		
-		ByteBuffer indexItemBuffer = this.getIndexItemBuffer(index);
-		// position to the data item length 对数据项长度的位置
-		int position = indexItemBuffer.position();
-		indexItemBuffer.position(position + INDEX_ITEM_DATA_ITEM_LENGTH_OFFSET);
-		int length = indexItemBuffer.getInt();
-		return length;
+		IMappedPage indexPage = this.pinIndexPage(index);
+		try {
+			return indexPage.getInt(getIndexItemOffset(index) + INDEX_ITEM_DATA_ITEM_LENGTH_OFFSET);
+		} finally {
+			indexPage.unpin();
+		}
 	}
 	
 	// inner getBackFileSize
@@ -0,0 +1,209 @@
+package com.leansoft.bigqueue;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link BlockingQueue} of byte arrays on top of a big queue, for code written against the
+ * java.util.concurrent interfaces, e.g. consumer loops calling take or drainTo.
+ * 基于大队列的字节数组BlockingQueue，用于面向java.util.concurrent接口编写的代码，例如调用take或drainTo的消费者循环。
+ *
+ * The queue is unbounded, so offer and put never wait. Consumers waiting in take or poll
+ * wait as configured by {@link BigArrayConfig.WaitStrategy}. IO errors of the big queue are
+ * thrown as {@link IllegalStateException}.
+ * 队列是无界的，因此offer和put从不等待。在take或poll中等待的消费者按WaitStrategy的配置等待。大队列的IO错误以IllegalStateException抛出。
+ *
+ * The iterator is weakly consistent and read only, so removing a single item with {@link #remove(Object)} is not supported.
+ * It goes from the queue front to the queue head as they were when it was created, items enqueued later are not visited
+ * and items leased by {@link BigQueueImpl#lease(int, long, java.util.concurrent.TimeUnit)} and not redelivered yet are behind the front, so they are not visited either.
+ * Items dequeued after the iterator was created are still returned until {@link BigQueueImpl#gc()} removes them
+ * from the back array, only the items removed by then are skipped.
+ * 迭代器是弱一致且只读的，因此不支持用remove(Object)删除单个项目。它从创建时的队列前端走到当时的队列头，之后入队的项目不会被访问，
+ * 被lease租借且尚未重新投递的项目在前端之前，因此也不会被访问。迭代器创建后出队的项目在gc将它们从后数组中删除之前仍会被返回，只有那时已被删除的项目才会被跳过。
+ *
+ * @author bulldog
+ *
+ */
+public class BigBlockingQueue extends AbstractQueue<byte[]> implements BlockingQueue<byte[]>, Closeable {
+
+	private final BigQueueImpl bigQueue;
+
+	public BigBlockingQueue(BigQueueImpl bigQueue) {
+		if (bigQueue == null) {
+			throw new NullPointerException("bigQueue is null");
+		}
+		this.bigQueue = bigQueue;
+	}
+
+	/**
+	 * The big queue the items are stored in, e.g. to call gc periodically.
+	 * 存储项目的大队列，例如用于定期调用gc。
+	 *
+	 * @return the big queue 大队列
+	 */
+	public BigQueueImpl getBigQueue() {
+		return bigQueue;
+	}
+
+	@Override
+	public boolean offer(byte[] data) {
+		if (data == null) {
+			throw new NullPointerException("data is null");
+		}
+		try {
+			bigQueue.enqueue(data);
+		} catch (IOException e) {
+			throw new IllegalStateException("fail to enqueue", e);//入队失败
+		}
+		return true;
+	}
+
+	@Override
+	public void put(byte[] data) {
+		this.offer(data);
+	}
+
+	@Override
+	public boolean offer(byte[] data, long timeout, TimeUnit unit) {
+		return this.offer(data);
+	}
+
+	@Override
+	public byte[] take() throws InterruptedException {
+		try {
+			return bigQueue.take();
+		} catch (IOException e) {
+			throw new IllegalStateException("fail to dequeue", e);//出队失败
+		}
+	}
+
+	@Override
+	public byte[] poll(long timeout, TimeUnit unit) throws InterruptedException {
+		try {
+			return bigQueue.poll(timeout, unit);
+		} catch (IOException e) {
+			throw new IllegalStateException("fail to dequeue", e);//出队失败
+		}
+	}
+
+	@Override
+	public byte[] poll() {
+		try {
+			return bigQueue.dequeue();
+		} catch (IOException e) {
+			throw new IllegalStateException("fail to dequeue", e);//出队失败
+		}
+	}
+
+	@Override
+	public byte[] peek() {
+		try {
+			return bigQueue.peek();
+		} catch (IOException e) {
+			throw new IllegalStateException("fail to peek", e);//查看失败
+		}
+	}
+
+	@Override
+	public int size() {
+		return (int) Math.min(bigQueue.size(), Integer.MAX_VALUE);
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return bigQueue.isEmpty();
+	}
+
+	@Override
+	public int remainingCapacity() {
+		return Integer.MAX_VALUE;
+	}
+
+	@Override
+	public int drainTo(Collection<? super byte[]> collection) {
+		return this.drainTo(collection, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public int drainTo(Collection<? super byte[]> collection, int maxElements) {
+		if (collection == this) {
+			throw new IllegalArgumentException("can't drain a queue to itself");
+		}
+		try {
+			return bigQueue.drainTo(collection, Math.max(0, maxElements));
+		} catch (IOException e) {
+			throw new IllegalStateException("fail to dequeue", e);//出队失败
+		}
+	}
+
+	@Override
+	public void clear() {
+		try {
+			bigQueue.removeAll();
+		} catch (IOException e) {
+			throw new IllegalStateException("fail to remove all items", e);//删除所有项目失败
+		}
+	}
+
+	@Override
+	public Iterator<byte[]> iterator() {
+		return new Itr(bigQueue.queueFrontIndex.get(), bigQueue.innerArray.getHeadIndex());
+	}
+
+	@Override
+	public void close() throws IOException {
+		bigQueue.close();
+	}
+
+	// weakly consistent iterator over the array indexes between the queue front and head at creation,
+	// the next item is read ahead by hasNext so an item removed by gc meanwhile never makes next fail
+	// 对创建时队列前端和头之间的数组索引的弱一致迭代器，下一个项目由hasNext预先读取，因此期间被gc删除的项目不会使next失败
+	private class Itr implements Iterator<byte[]> {
+		private long index;
+		private final long headIndex;
+		private byte[] nextItem;
+
+		Itr(long frontIndex, long headIndex) {
+			this.index = frontIndex;
+			this.headIndex = headIndex;
+		}
+
+		public boolean hasNext() {
+			while (nextItem == null && index != headIndex) {
+				long current = index;
+				index = current == Long.MAX_VALUE ? 0L : current + 1; // wrap
+				try {
+					nextItem = bigQueue.innerArray.get(current);
+				} catch (IndexOutOfBoundsException ex) {
+					// removed by gc meanwhile, go on from the current queue front 期间被gc删除，从当前队列前端继续
+					long frontIndex = bigQueue.queueFrontIndex.get();
+					if (frontIndex - index > 0L && headIndex - frontIndex >= 0L) {
+						index = frontIndex;
+					}
+				} catch (IOException e) {
+					throw new IllegalStateException("fail to read item " + current, e);//读取项目失败
+				}
+			}
+			return nextItem != null;
+		}
+
+		public byte[] next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			byte[] item = nextItem;
+			nextItem = null;
+			return item;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException("remove");
+		}
+	}
+}
@@ -4,69 +4,56 @@ import com.leansoft.bigqueue.netty.TimeClient;
 
 
 import java.io.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by Tony on 2017/8/4.
  */
 public class BigQueueHandler implements Runnable{
 
+    // seconds to wait for the server echo before the item is sent again 在项目被再次发送之前等待服务器回显的秒数
+    private static final long LEASE_TIMEOUT_SECONDS = 60;
+
     private BigQueueImpl bigQueue;
 
 
     public BigQueueHandler(BigQueueImpl bigQueue)
     {
         this.bigQueue = bigQueue;
+        // created here, the client acknowledges the leases in the queue 在这里创建，客户端确认队列中的租约
+        this.timeClient = new TimeClient(bigQueue);
     }
     public BigQueueHandler(){
-
+        this.timeClient = new TimeClient();
     }
-    TimeClient timeClient = new TimeClient(bigQueue);
+    TimeClient timeClient;
 
 
     public void dequeue() throws IOException{
 
         while (true){
-            if(bigQueue.isEmpty()){
-                continue;
-            }
             try {
+                // the item stays in the queue until the server echoes it, it is leased again if sending fails,
+                // waits for an enqueue or for an expired lease to be leased again
+                // 项目在服务器回显之前一直留在队列中，发送失败时会被再次租借，等待入队或等待过期的租约被再次租借
+                Lease lease = bigQueue.leaseAsync(1, LEASE_TIMEOUT_SECONDS, TimeUnit.SECONDS).get();
                 System.out.println("----------------------开始-------------------------");
-                File file = new File("D://logs//error");
-                File fileDir = new File(file,"SendError.log");
-                if(!file.isDirectory())
-                    file.mkdir();
-                if(!fileDir.isFile()){
-                    fileDir.createNewFile();
-                }
-                if (fileDir.exists() && fileDir.length() == 0){
-                    String value = new String(bigQueue.dequeue());
-                    System.out.println("出队-----》开始传输：------》"+value);
-                    FileWriter fw = new FileWriter(fileDir);
-                    fw.write(value);
-                    fw.close();
-                }
-                BufferedReader reader = null;
+                String value = new String(lease.getItems().get(0));
+                System.out.println("出队-----》开始传输：------》"+value);
                 try {
-                    reader = new BufferedReader(new FileReader(fileDir));
-                    String tempString = null;
-                    // 一次读入一行，直到读入null为文件结束
-                    while ((tempString = reader.readLine()) != null) {
-                        // 显示行号
-                        System.out.println("文件中的数据1: " + tempString);
-                        timeClient.setEcho(tempString);
-                    }
+                    timeClient.setEcho(value);
+                    timeClient.setLeaseId(lease.getId());
                     timeClient.connect(8083,"10.190.3.8");
-                    reader.close();
-                } catch (IOException e) {
+                } catch (Exception e) {
                     e.printStackTrace();
-                } finally {
-                    if (reader != null) {
-                        try {
-                            reader.close();
-                        } catch (IOException e1) {
-                        }
-                    }
+                    bigQueue.nack(lease.getId());
                 }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (CancellationException e) {
+                return; // the queue has been closed 队列已经关闭
             } catch (Exception e) {
                 e.printStackTrace();
             }
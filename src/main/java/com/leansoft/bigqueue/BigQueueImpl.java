@@ -2,10 +2,33 @@ package com.leansoft.bigqueue;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import org.reactivestreams.Publisher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
 import com.leansoft.bigqueue.page.IMappedPage;
@@ -30,6 +53,8 @@ import com.leansoft.bigqueue.page.MappedPageFactoryImpl;
  */
 public class BigQueueImpl implements IBigQueue {
 
+    private final static Logger logger = LoggerFactory.getLogger(BigQueueImpl.class);
+
     final IBigArray innerArray;
 
     // 2 ^ 3 = 8
@@ -51,10 +76,62 @@ public class BigQueueImpl implements IBigQueue {
     // locks for queue front write management 队列前端写管理锁
     final Lock queueFrontWriteLock = new ReentrantLock();
 
-    // lock for dequeueFuture access
-    private final Object futureLock = new Object();
-    private SettableFuture<byte[]> dequeueFuture;
-    private SettableFuture<byte[]> peekFuture;
+    // reads the queue front sequentially with its pages pinned, guarded by the queue front write lock
+    // 固定页面顺序读取队列前端，由队列前端写锁保护
+    private BigArrayCursor dequeueCursor;
+
+    // outstanding leases in queue order, the persisted queue front stays at the first one not acknowledged,
+    // guarded by the queue front write lock
+    // 按队列顺序排列的未完成租约，持久化的队列前端停留在第一个未确认的租约，由队列前端写锁保护
+    private final LinkedList<LeasedRange> leases = new LinkedList<LeasedRange>();
+    private final Map<Long, LeasedRange> leasesById = new HashMap<Long, LeasedRange>();
+    private long nextLeaseId = 1L;
+
+    // how consumers wait in take and poll 消费者在take和poll中如何等待
+    private final BigArrayConfig.WaitStrategy waitStrategy;
+    // checks of the queue before a waiting consumer parks, see BigArrayConfig.WaitStrategy
+    // 等待的消费者挂起之前检查队列的次数
+    private static final int SPIN_TRIES = Runtime.getRuntime().availableProcessors() > 1 ? 10000 : 0;
+    private static final int YIELD_TRIES = 100;
+    // consumers parked in take or poll wait on this condition, enqueue only signals it when there are waiters
+    // 在take或poll中挂起的消费者等待此条件，入队只在有等待者时才发出信号
+    private final Lock waitLock = new ReentrantLock();
+    private final Condition notEmpty = waitLock.newCondition();
+    private final AtomicInteger waiters = new AtomicInteger();
+    private volatile boolean closed = false;
+
+    // outstanding dequeueAsync and peekAsync requests in arrival order, completed by the async dispatcher
+    // 按到达顺序排列的未完成的dequeueAsync和peekAsync请求，由异步分发器完成
+    private final ConcurrentLinkedDeque<SettableFuture<byte[]>> dequeueWaiters = new ConcurrentLinkedDeque<SettableFuture<byte[]>>();
+    private final ConcurrentLinkedDeque<SettableFuture<byte[]>> peekWaiters = new ConcurrentLinkedDeque<SettableFuture<byte[]>>();
+    private final ConcurrentLinkedDeque<LeaseRequest> leaseWaiters = new ConcurrentLinkedDeque<LeaseRequest>();
+    // dispatch requests not yet handled, only the request taking it from 0 submits the dispatcher, so it never runs twice at a time
+    // 尚未处理的分发请求，只有将其从0增加的请求才提交分发器，因此分发器从不同时运行两次
+    private final AtomicInteger dispatchRequests = new AtomicInteger();
+    private final Runnable dispatchTask = new Runnable() {
+        public void run() {
+            dispatchAsyncWaiters();
+        }
+    };
+    // runs the dispatcher, the configured executor or an own daemon thread created on demand
+    // 运行分发器的执行器，为配置的执行器或按需创建的自有守护线程
+    private final Executor configuredAsyncExecutor;
+    private ExecutorService ownAsyncExecutor;
+
+    // runs the dispatchers of the queues whose first outstanding lease expires while consumers wait in leaseAsync
+    // 当消费者在leaseAsync中等待时，运行第一个未完成租约过期的队列的分发器
+    private static final ScheduledThreadPoolExecutor leaseTimer = createLeaseTimer();
+    private final Runnable leaseExpiryTask = new Runnable() {
+        public void run() {
+            if (!closed) {
+                scheduleDispatch();
+            }
+        }
+    };
+    // the scheduled run of the dispatcher at the first lease expiry and its System.nanoTime, guarded by this
+    // 在第一个租约过期时已调度的分发器运行及其System.nanoTime时间，由this保护
+    private ScheduledFuture<?> leaseExpiry;
+    private long leaseExpiryDeadline;
 
     /**
      * A big, fast and persistent queue implementation, 一个大的、快速的、持久的队列实现，
@@ -85,7 +162,26 @@ public class BigQueueImpl implements IBigQueue {
      *                  如果在队列初始化期间存在IO错误，则异常抛出异常
      */
     public BigQueueImpl(String queueDir, String queueName, int pageSize) throws IOException {
-        innerArray = new BigArrayImpl(queueDir, queueName, pageSize);
+        this(queueDir, queueName, new BigArrayConfig(pageSize));
+    }
+
+    /**
+     * A big, fast and persistent queue implementation.
+     * 一个大型、快速且持久的队列实现。
+     *
+     * @param queueDir  the directory to store queue data
+     *                  存储队列数据的目录
+     * @param queueName the name of the queue, will be appended as last part of the queue directory
+     *                  队列的名称将被追加到队列目录的最后一部分
+     * @param config    tuning options of the back array, see {@link BigArrayConfig}
+     *                  后台数组的调优选项
+     * @throws IOException exception throws if there is any IO error during queue initialization
+     *                  如果在队列初始化期间存在IO错误，则异常抛出异常
+     */
+    public BigQueueImpl(String queueDir, String queueName, BigArrayConfig config) throws IOException {
+        innerArray = new BigArrayImpl(queueDir, queueName, config);
+        waitStrategy = config.getWaitStrategy() != null ? config.getWaitStrategy() : BigArrayConfig.WaitStrategy.PARK;
+        configuredAsyncExecutor = config.getAsyncExecutor();
 
         // the ttl does not matter here since queue front index page is always cached
         // ttl在这里并不重要，因为队列前端索引页面总是被缓存
@@ -94,8 +190,7 @@ public class BigQueueImpl implements IBigQueue {
                 10 * 1000/*does not matter*/);
         IMappedPage queueFrontIndexPage = this.queueFrontIndexPageFactory.acquirePage(QUEUE_FRONT_PAGE_INDEX);
 
-        ByteBuffer queueFrontIndexBuffer = queueFrontIndexPage.getLocal(0);
-        long front = queueFrontIndexBuffer.getLong();
+        long front = queueFrontIndexPage.getLong(0);
         queueFrontIndex.set(front);
     }
     //确定队列是否为空 如果为空返回true  否则返回false
@@ -109,7 +204,39 @@ public class BigQueueImpl implements IBigQueue {
     public void enqueue(byte[] data) throws IOException {
         this.innerArray.append(data);
 
-        this.completeFutures();
+        this.signalWaiters();
+        this.signalAsyncWaiters();
+    }
+
+    @Override
+    public void enqueue(ByteBuffer... parts) throws IOException {
+        this.innerArray.append(parts);
+
+        this.signalWaiters();
+        this.signalAsyncWaiters();
+    }
+
+    @Override
+    public long enqueueBatch(List<byte[]> dataList) throws IOException {
+        if (dataList == null || dataList.isEmpty()) {
+            return -1L;
+        }
+        long index = this.innerArray.appendBatch(dataList);
+
+        this.signalWaiters();
+        this.signalAsyncWaiters();
+
+        return index;
+    }
+
+    @Override
+    public ListenableFuture<Long> enqueueDurable(byte[] data) throws IOException {
+        ListenableFuture<Long> future = this.innerArray.appendDurable(data);
+
+        this.signalWaiters();
+        this.signalAsyncWaiters();
+
+        return future;
     }
 
     //检索和删除队列的前端
@@ -122,31 +249,471 @@ public class BigQueueImpl implements IBigQueue {
                 return null;
             }
             queueFrontIndex = this.queueFrontIndex.get();
-            byte[] data = this.innerArray.get(queueFrontIndex);
-            long nextQueueFrontIndex = queueFrontIndex;
-            if (nextQueueFrontIndex == Long.MAX_VALUE) {
-                nextQueueFrontIndex = 0L; // wrap
+            byte[] data = this.readQueueFront(queueFrontIndex);
+            this.advanceQueueFrontIndex(queueFrontIndex);
+            return data;
+        } finally {
+            queueFrontWriteLock.unlock();
+        }
+
+    }
+
+    @Override
+    public BufferView dequeueBuffer() throws IOException {
+        long queueFrontIndex = -1L;
+        try {
+            queueFrontWriteLock.lock();
+            if (this.isEmpty()) {
+                return null;
+            }
+            queueFrontIndex = this.queueFrontIndex.get();
+            BufferView view = this.innerArray.getBuffer(queueFrontIndex);
+            try {
+                this.advanceQueueFrontIndex(queueFrontIndex);
+            } catch (IOException ex) {
+                view.release();
+                throw ex;
+            }
+            return view;
+        } finally {
+            queueFrontWriteLock.unlock();
+        }
+    }
+
+    @Override
+    public List<byte[]> dequeue(int maxItems) throws IOException {
+        return this.dequeue(maxItems, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<byte[]> dequeue(int maxItems, int maxBytes) throws IOException {
+        List<byte[]> items = new ArrayList<byte[]>(Math.max(0, Math.min(maxItems, 1024)));
+        this.dequeueInto(items, maxItems, maxBytes);
+        return items;
+    }
+
+    @Override
+    public int drainTo(Collection<? super byte[]> collection, int maxItems) throws IOException {
+        return this.dequeueInto(collection, maxItems, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public byte[] take() throws IOException, InterruptedException {
+        for(;;) {
+            byte[] data = this.dequeue();
+            if (data != null) {
+                return data;
+            }
+            this.awaitNotEmpty(-1L);
+        }
+    }
+
+    @Override
+    public byte[] poll(long timeout, TimeUnit unit) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for(;;) {
+            byte[] data = this.dequeue();
+            if (data != null) {
+                return data;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0L) {
+                return null;
+            }
+            this.awaitNotEmpty(remaining);
+        }
+    }
+
+    // wait until the queue is not empty or the time is up, spinning or yielding first as configured,
+    // a negative time waits without limit
+    // 等待直到队列非空或超时，按配置先自旋或让出CPU，负的时间表示无限等待
+    private void awaitNotEmpty(long nanos) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        if (this.closed) {
+            throw new IllegalStateException("queue has been closed.");//队列已经关闭
+        }
+        int tries = waitStrategy == BigArrayConfig.WaitStrategy.SPIN ? SPIN_TRIES
+                : (waitStrategy == BigArrayConfig.WaitStrategy.YIELD ? YIELD_TRIES : 0);
+        for(int i = 0; i < tries; i++) {
+            if (!this.isEmpty()) {
+                return;
+            }
+            if (waitStrategy == BigArrayConfig.WaitStrategy.YIELD) {
+                Thread.yield();
+            }
+        }
+        // count the waiter before checking the queue again, so an enqueue either sees the waiter or we see its item
+        // 在再次检查队列之前计入等待者，这样入队要么看到等待者，要么我们看到它的项目
+        waiters.incrementAndGet();
+        try {
+            waitLock.lock();
+            try {
+                boolean timed = nanos >= 0L;
+                while (this.isEmpty() && !this.closed) {
+                    if (!timed) {
+                        notEmpty.await();
+                    } else if (nanos > 0L) {
+                        nanos = notEmpty.awaitNanos(nanos);
+                    } else {
+                        return;
+                    }
+                }
+            } finally {
+                waitLock.unlock();
+            }
+        } finally {
+            waiters.decrementAndGet();
+        }
+    }
+
+    // wake up the parked consumers, a plain read when nobody waits 唤醒挂起的消费者，没有人等待时只是一次普通读取
+    private void signalWaiters() {
+        if (waiters.get() > 0) {
+            waitLock.lock();
+            try {
+                notEmpty.signalAll();
+            } finally {
+                waitLock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public Lease lease(int maxItems, long timeout, TimeUnit unit) throws IOException {
+        if (maxItems <= 0 || timeout < 0L) {
+            throw new IllegalArgumentException("invalid lease, maxItems = " + maxItems + ", timeout = " + timeout);
+        }
+        long now = System.nanoTime();
+        long deadline = now + unit.toNanos(timeout);
+        try {
+            queueFrontWriteLock.lock();
+            this.dropRemovedLeasedItems(now);
+            // redeliver the items of an expired lease first 首先重新投递过期租约的项目
+            for(ListIterator<LeasedRange> it = leases.listIterator(); it.hasNext(); ) {
+                LeasedRange range = it.next();
+                if (range.acked || range.deadline - now > 0L) {
+                    continue;
+                }
+                if (range.count > maxItems) {
+                    // the rest stays expired for the next lease 剩余部分保持过期，留给下一个租约
+                    it.add(new LeasedRange(-1L, range.fromIndex + maxItems, range.count - maxItems, range.deadline));
+                    range.count = maxItems;
+                }
+                List<byte[]> items = new ArrayList<byte[]>(range.count);
+                BigArrayCursor cursor = this.innerArray.openCursor(range.fromIndex);
+                try {
+                    for(int i = 0; i < range.count; i++) {
+                        items.add(cursor.next());
+                    }
+                } finally {
+                    cursor.close();
+                }
+                leasesById.remove(range.id);
+                range.id = nextLeaseId++;
+                range.deadline = deadline;
+                leasesById.put(range.id, range);
+                this.watchLeaseExpiry(deadline);
+                return new Lease(range.id, items);
+            }
+
+            if (this.isEmpty()) {
+                return null;
+            }
+            // added before the queue front moves, so the persisted front stays at the lease
+            // 在队列前端移动之前添加，这样持久化的前端停留在租约处
+            LeasedRange range = new LeasedRange(nextLeaseId++, this.queueFrontIndex.get(), 0, deadline);
+            leases.addLast(range);
+            List<byte[]> items = new ArrayList<byte[]>();
+            try {
+                range.count = this.dequeueInto(items, maxItems, Integer.MAX_VALUE);
+            } finally {
+                if (range.count == 0) {
+                    leases.removeLast();
+                }
+            }
+            if (range.count == 0) {
+                return null;
+            }
+            leasesById.put(range.id, range);
+            this.watchLeaseExpiry(deadline);
+            return new Lease(range.id, items);
+        } finally {
+            queueFrontWriteLock.unlock();
+        }
+    }
+
+    @Override
+    public ListenableFuture<Lease> leaseAsync(int maxItems, long timeout, TimeUnit unit) {
+        if (this.closed) {
+            throw new IllegalStateException("queue has been closed.");//队列已经关闭
+        }
+        if (maxItems <= 0 || timeout < 0L) {
+            throw new IllegalArgumentException("invalid lease, maxItems = " + maxItems + ", timeout = " + timeout);
+        }
+        // nobody is waiting before the caller, lease on the caller thread if there is anything to lease
+        // 调用者之前没有人在等待，如果有可租借的内容就在调用者线程上租借
+        if (leaseWaiters.isEmpty()) {
+            try {
+                Lease lease = this.lease(maxItems, timeout, unit);
+                if (lease != null) {
+                    return Futures.immediateFuture(lease);
+                }
+            } catch (IOException e) {
+                return Futures.immediateFailedFuture(e);
+            }
+        }
+        LeaseRequest request = new LeaseRequest(maxItems, unit.toNanos(timeout));
+        leaseWaiters.offerLast(request);
+        this.scheduleDispatch();
+        return request.future;
+    }
+
+    // drop the items of expired leases which are not in the back array any more, e.g. truncated by limitBackFileSize,
+    // so they are never read again, a range left without items counts as acknowledged,
+    // caller must hold the queue front write lock
+    // 丢弃不再在后数组中的过期租约项目，例如被limitBackFileSize截断的，这样它们永远不会被再次读取，没有剩余项目的范围视为已确认，
+    // 调用者必须持有队列前端写锁
+    private void dropRemovedLeasedItems(long now) throws IOException {
+        if (leases.isEmpty()) {
+            return;
+        }
+        long tailIndex = this.innerArray.getTailIndex();
+        long headIndex = this.innerArray.getHeadIndex();
+        boolean changed = false;
+        for(LeasedRange range : leases) {
+            if (range.acked || range.deadline - now > 0L) {
+                continue;
+            }
+            int removed;
+            if (headIndex - (range.fromIndex + range.count) < 0L) {
+                removed = range.count; // beyond the head, the array has been reset 超出头部，数组已被重置
             } else {
-                nextQueueFrontIndex++;
+                removed = (int) Math.min(range.count, Math.max(0L, tailIndex - range.fromIndex));
             }
-            this.queueFrontIndex.set(nextQueueFrontIndex);
-            // persist the queue front
-            //坚持队列前面
-            IMappedPage queueFrontIndexPage = this.queueFrontIndexPageFactory.acquirePage(QUEUE_FRONT_PAGE_INDEX);
-            ByteBuffer queueFrontIndexBuffer = queueFrontIndexPage.getLocal(0);
-            queueFrontIndexBuffer.putLong(nextQueueFrontIndex);
-            queueFrontIndexPage.setDirty(true);
-            return data;
+            if (removed == 0) {
+                continue;
+            }
+            logger.warn(removed + " of " + range.count + " items of an expired lease from index " + range.fromIndex
+                    + " have been removed from the back array, they are dropped.");//过期租约的项目已从后数组中删除，它们被丢弃
+            if (removed == range.count) {
+                leasesById.remove(range.id);
+                range.acked = true;
+            } else {
+                range.fromIndex += removed;
+                range.count -= removed;
+            }
+            changed = true;
+        }
+        if (changed) {
+            this.removeAcknowledgedLeases(true);
+        }
+    }
+
+    // the committed front moves past the acknowledged leases at the front, it is persisted if it moved
+    // or if the first lease changed, caller must hold the queue front write lock
+    // 提交的前端移过前面已确认的租约，如果它移动了或第一个租约改变了则持久化，调用者必须持有队列前端写锁
+    private void removeAcknowledgedLeases(boolean changed) throws IOException {
+        while (!leases.isEmpty() && leases.getFirst().acked) {
+            leases.removeFirst();
+            changed = true;
+        }
+        if (changed) {
+            this.persistQueueFrontIndex(this.queueFrontIndex.get());
+        }
+    }
+
+    // have the dispatcher run at a lease deadline while consumers wait in leaseAsync, unless it runs earlier anyway
+    // 当消费者在leaseAsync中等待时，让分发器在租约截止时间运行，除非它无论如何会更早运行
+    private void watchLeaseExpiry(long deadline) {
+        if (leaseWaiters.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            if (this.closed) {
+                return;
+            }
+            if (leaseExpiry != null && !leaseExpiry.isDone()) {
+                if (deadline - leaseExpiryDeadline >= 0L) {
+                    return;
+                }
+                leaseExpiry.cancel(false);
+            }
+            leaseExpiryDeadline = deadline;
+            leaseExpiry = leaseTimer.schedule(leaseExpiryTask, deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // the earliest deadline of the leases not acknowledged, caller must hold the queue front write lock
+    // 未确认租约的最早截止时间，调用者必须持有队列前端写锁
+    private Long nextLeaseDeadline() {
+        Long nextDeadline = null;
+        for(LeasedRange range : leases) {
+            if (!range.acked && (nextDeadline == null || range.deadline - nextDeadline < 0L)) {
+                nextDeadline = range.deadline;
+            }
+        }
+        return nextDeadline;
+    }
+
+    @Override
+    public boolean ack(long leaseId) throws IOException {
+        try {
+            queueFrontWriteLock.lock();
+            LeasedRange range = leasesById.remove(leaseId);
+            if (range == null) {
+                return false;
+            }
+            range.acked = true;
+            this.removeAcknowledgedLeases(false);
+            return true;
+        } finally {
+            queueFrontWriteLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean nack(long leaseId) throws IOException {
+        try {
+            queueFrontWriteLock.lock();
+            LeasedRange range = leasesById.remove(leaseId);
+            if (range == null) {
+                return false;
+            }
+            range.deadline = System.nanoTime(); // expired, leased again first 已过期，首先被再次租借
+        } finally {
+            queueFrontWriteLock.unlock();
+        }
+        if (!leaseWaiters.isEmpty()) {
+            this.scheduleDispatch();
+        }
+        return true;
+    }
+
+    // claim the items between the queue front and the current head in one go, read them with the dequeue cursor
+    // and persist the queue front once
+    // 一次性认领队列前端和当前头之间的项，使用出队游标读取它们并只持久化一次队列前端
+    private int dequeueInto(Collection<? super byte[]> collection, int maxItems, int maxBytes) throws IOException {
+        if (collection == null) {
+            throw new NullPointerException("collection is null");
+        }
+        if (maxItems < 0 || maxBytes < 0) {
+            throw new IllegalArgumentException("invalid batch limits, maxItems = " + maxItems + ", maxBytes = " + maxBytes);
+        }
+        if (maxItems == 0) {
+            return 0;
+        }
+        try {
+            queueFrontWriteLock.lock();
+            if (this.isEmpty()) {
+                return 0;
+            }
+            long queueHeadIndex = this.innerArray.getHeadIndex();
+            BigArrayCursor cursor = this.openDequeueCursor(this.queueFrontIndex.get());
+            long nextQueueFrontIndex = cursor.getIndex();
+            int count = 0;
+            long totalLength = 0L;
+            try {
+                while (count < maxItems && cursor.getIndex() != queueHeadIndex) {
+                    if (count > 0 && maxBytes != Integer.MAX_VALUE && totalLength + cursor.nextLength() > maxBytes) {
+                        break;
+                    }
+                    byte[] data = cursor.next();
+                    // an item the collection rejects stays in the queue, the cursor is reopened at the front next time
+                    // 集合拒绝的项留在队列中，下次在前端重新打开游标
+                    collection.add(data);
+                    nextQueueFrontIndex = cursor.getIndex();
+                    totalLength += data.length;
+                    count++;
+                }
+            } finally {
+                if (count > 0) {
+                    this.persistQueueFrontIndex(nextQueueFrontIndex);
+                }
+            }
+            return count;
         } finally {
             queueFrontWriteLock.unlock();
         }
+    }
+
+    // read the item at the queue front with the dequeue cursor, caller must hold the queue front write lock
+    // 使用出队游标读取队列前端的项，调用者必须持有队列前端写锁
+    private byte[] readQueueFront(long queueFrontIndex) throws IOException {
+        return this.openDequeueCursor(queueFrontIndex).next();
+    }
 
+    // the dequeue cursor positioned at the queue front, it is reopened if the front moved otherwise,
+    // caller must hold the queue front write lock
+    // 位于队列前端的出队游标，如果前端以其他方式移动则重新打开，调用者必须持有队列前端写锁
+    private BigArrayCursor openDequeueCursor(long queueFrontIndex) throws IOException {
+        if (this.dequeueCursor == null || this.dequeueCursor.getIndex() != queueFrontIndex) {
+            this.closeDequeueCursor();
+            this.dequeueCursor = this.innerArray.openCursor(queueFrontIndex);
+        }
+        return this.dequeueCursor;
+    }
+
+    private void closeDequeueCursor() {
+        if (this.dequeueCursor != null) {
+            this.dequeueCursor.close();
+            this.dequeueCursor = null;
+        }
+    }
+
+    // move the queue front past the dequeued index and persist it, caller must hold the queue front write lock
+    // 将队列前端移过已出队的索引并持久化，调用者必须持有队列前端写锁
+    private void advanceQueueFrontIndex(long queueFrontIndex) throws IOException {
+        long nextQueueFrontIndex = queueFrontIndex;
+        if (nextQueueFrontIndex == Long.MAX_VALUE) {
+            nextQueueFrontIndex = 0L; // wrap
+        } else {
+            nextQueueFrontIndex++;
+        }
+        this.persistQueueFrontIndex(nextQueueFrontIndex);
+    }
+
+    // move the queue front to an index and persist it, or the first lease not acknowledged if there is one,
+    // so its items are delivered again after a restart, caller must hold the queue front write lock
+    // 将队列前端移到某个索引并持久化，如果有未确认的租约则持久化第一个未确认的租约，这样重启后其项目会被再次投递，
+    // 调用者必须持有队列前端写锁
+    private void persistQueueFrontIndex(long nextQueueFrontIndex) throws IOException {
+        this.queueFrontIndex.set(nextQueueFrontIndex);
+        // persist the queue front
+        //坚持队列前面
+        IMappedPage queueFrontIndexPage = this.queueFrontIndexPageFactory.acquirePage(QUEUE_FRONT_PAGE_INDEX);
+        queueFrontIndexPage.putLong(0, this.committedQueueFrontIndex());
+        queueFrontIndexPage.setDirty(true);
+    }
+
+    // the queue front without the items of outstanding leases, caller must hold the queue front write lock
+    // 不包括未完成租约项目的队列前端，调用者必须持有队列前端写锁
+    private long committedQueueFrontIndex() {
+        return leases.isEmpty() ? this.queueFrontIndex.get() : leases.getFirst().fromIndex;
     }
 
     @Override
     public ListenableFuture<byte[]> dequeueAsync() {
-        this.initializeDequeueFutureIfNecessary();
-        return dequeueFuture;
+        if (this.closed) {
+            throw new IllegalStateException("queue has been closed.");//队列已经关闭
+        }
+        // nobody is waiting before the caller, take an item on the caller thread if there is one
+        // 调用者之前没有人在等待，如果有项目就在调用者线程上获取
+        if (dequeueWaiters.isEmpty()) {
+            try {
+                byte[] data = this.dequeue();
+                if (data != null) {
+                    return Futures.immediateFuture(data);
+                }
+            } catch (IOException e) {
+                return Futures.immediateFailedFuture(e);
+            }
+        }
+        SettableFuture<byte[]> future = SettableFuture.create();
+        dequeueWaiters.offerLast(future);
+        this.scheduleDispatch();
+        return future;
     }
 
 
@@ -157,9 +724,10 @@ public class BigQueueImpl implements IBigQueue {
             queueFrontWriteLock.lock();
             this.innerArray.removeAll();
             this.queueFrontIndex.set(0L);
+            leases.clear();
+            leasesById.clear();
             IMappedPage queueFrontIndexPage = this.queueFrontIndexPageFactory.acquirePage(QUEUE_FRONT_PAGE_INDEX);
-            ByteBuffer queueFrontIndexBuffer = queueFrontIndexPage.getLocal(0);
-            queueFrontIndexBuffer.putLong(0L);
+            queueFrontIndexPage.putLong(0, 0L);
             queueFrontIndexPage.setDirty(true);
         } finally {
             queueFrontWriteLock.unlock();
@@ -177,8 +745,37 @@ public class BigQueueImpl implements IBigQueue {
 
     @Override
     public ListenableFuture<byte[]> peekAsync() {
-        this.initializePeekFutureIfNecessary();
-        return peekFuture;
+        if (this.closed) {
+            throw new IllegalStateException("queue has been closed.");//队列已经关闭
+        }
+        try {
+            byte[] data = this.peek();
+            if (data != null) {
+                return Futures.immediateFuture(data);
+            }
+        } catch (IOException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+        SettableFuture<byte[]> future = SettableFuture.create();
+        peekWaiters.offerLast(future);
+        this.scheduleDispatch();
+        return future;
+    }
+
+    @Override
+    public Publisher<ByteBuffer> asPublisher() {
+        if (this.closed) {
+            throw new IllegalStateException("queue has been closed.");//队列已经关闭
+        }
+        return new QueuePublisher(new QueuePublisher.Source() {
+            public List<byte[]> read(int maxItems) throws IOException {
+                return dequeue(maxItems);
+            }
+
+            public ListenableFuture<?> awaitItems() {
+                return peekAsync();
+            }
+        }, this.getAsyncExecutor());
     }
 
     /**
@@ -196,9 +793,15 @@ public class BigQueueImpl implements IBigQueue {
                 return;
             }
 
-            long index = this.queueFrontIndex.get();
-            for (long i = index; i < this.innerArray.size(); i++) {
-                iterator.forEach(this.innerArray.get(i));
+            // items enqueued meanwhile are not visited 同时入队的项不会被访问
+            long head = this.innerArray.getHeadIndex();
+            BigArrayCursor cursor = this.innerArray.openCursor(this.queueFrontIndex.get());
+            try {
+                while (cursor.getIndex() != head) {
+                    iterator.forEach(cursor.next());
+                }
+            } finally {
+                cursor.close();
             }
         } finally {
             queueFrontWriteLock.unlock();
@@ -207,22 +810,32 @@ public class BigQueueImpl implements IBigQueue {
 
     @Override
     public void close() throws IOException {
+        this.closed = true;
+        this.signalWaiters();
+        try {
+            queueFrontWriteLock.lock();
+            this.closeDequeueCursor();
+        } finally {
+            queueFrontWriteLock.unlock();
+        }
         if (this.queueFrontIndexPageFactory != null) {
             this.queueFrontIndexPageFactory.releaseCachedPages();
         }
 
-
-        synchronized (futureLock) {
-            /* Cancel the future but don't interrupt running tasks
-            because they might perform further work not refering to the queue
-            取消future，但不要中断运行任务
-            因为他们可能会执行更多的工作而不是引用队列
-             */
-            if (peekFuture != null) {
-                peekFuture.cancel(false);
+        /* Cancel the futures but don't interrupt running tasks
+        because they might perform further work not refering to the queue
+        取消future，但不要中断运行任务
+        因为他们可能会执行更多的工作而不是引用队列
+         */
+        this.cancelAsyncWaiters();
+        synchronized (this) {
+            if (leaseExpiry != null) {
+                leaseExpiry.cancel(false);
+                leaseExpiry = null;
             }
-            if (dequeueFuture != null) {
-                dequeueFuture.cancel(false);
+            if (ownAsyncExecutor != null) {
+                ownAsyncExecutor.shutdown();
+                ownAsyncExecutor = null;
             }
         }
 
@@ -231,7 +844,13 @@ public class BigQueueImpl implements IBigQueue {
 
     @Override
     public void gc() throws IOException {
-        long beforeIndex = this.queueFrontIndex.get();
+        long beforeIndex;
+        try {
+            queueFrontWriteLock.lock();
+            beforeIndex = this.committedQueueFrontIndex(); // leased items are kept 保留租借的项目
+        } finally {
+            queueFrontWriteLock.unlock();
+        }
         if (beforeIndex == 0L) { // wrap
             beforeIndex = Long.MAX_VALUE;
         } else {
@@ -268,64 +887,279 @@ public class BigQueueImpl implements IBigQueue {
     }
 
 
-    /**
-     * Completes the dequeue future
-     * 完成出列的future
-     */
-    private void completeFutures() {
-        synchronized (futureLock) {
-            if (peekFuture != null && !peekFuture.isDone()) {
-                try {
-                    peekFuture.set(this.peek());
-                } catch (IOException e) {
-                    peekFuture.setException(e);
+    // hand the outstanding async requests to the dispatcher, a lock-free check when there are none
+    // 把未完成的异步请求交给分发器，没有请求时只是一次无锁检查
+    private void signalAsyncWaiters() {
+        if (!dequeueWaiters.isEmpty() || !peekWaiters.isEmpty() || !leaseWaiters.isEmpty()) {
+            this.scheduleDispatch();
+        }
+    }
+
+    private void scheduleDispatch() {
+        if (dispatchRequests.getAndIncrement() == 0) {
+            try {
+                this.getAsyncExecutor().execute(dispatchTask);
+            } catch (RejectedExecutionException ex) { // closed or saturated 已关闭或已饱和
+                this.dispatchAsyncWaiters();
+            }
+        }
+    }
+
+    private synchronized Executor getAsyncExecutor() {
+        if (configuredAsyncExecutor != null) {
+            return configuredAsyncExecutor;
+        }
+        if (this.closed) {
+            return CLOSED_EXECUTOR; // the own executor is not created again once close shut it down 关闭后不再创建自有执行器
+        }
+        if (ownAsyncExecutor == null) {
+            final String threadName = "bigqueue-async-" + ((BigArrayImpl) innerArray).getArrayDirectory();
+            ownAsyncExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, threadName);
+                    t.setDaemon(true);
+                    return t;
                 }
+            });
+        }
+        return ownAsyncExecutor;
+    }
+
+    // rejects everything, so the callers fall back to running the task inline 拒绝所有任务，这样调用者回退为直接运行任务
+    private static final Executor CLOSED_EXECUTOR = new Executor() {
+        public void execute(Runnable command) {
+            throw new RejectedExecutionException("queue has been closed.");//队列已经关闭
+        }
+    };
+
+    // a lease expiry run cancelled because an earlier lease expires first is removed from the timer right away,
+    // so the timer doesn't keep the cancelled runs until their delay elapses
+    // 因为更早的租约先过期而被取消的租约过期运行会立即从定时器中移除，这样定时器不会保留已取消的运行直到其延迟结束
+    private static ScheduledThreadPoolExecutor createLeaseTimer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "bigqueue-lease-timer");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+
+    // complete the async requests until no dispatch request is left, never runs twice at a time
+    // 完成异步请求直到没有剩余的分发请求，从不同时运行两次
+    private void dispatchAsyncWaiters() {
+        int requests = dispatchRequests.get();
+        for(;;) {
+            if (this.closed) {
+                this.cancelAsyncWaiters();
+            } else {
+                this.completePeekWaiters();
+                this.completeDequeueWaiters();
+                this.completeLeaseWaiters();
             }
-            if (dequeueFuture != null && !dequeueFuture.isDone()) {
+            requests = dispatchRequests.addAndGet(-requests);
+            if (requests == 0) {
+                return;
+            }
+        }
+    }
+
+    private void completePeekWaiters() {
+        if (peekWaiters.isEmpty()) {
+            return;
+        }
+        byte[] data;
+        try {
+            data = this.peek();
+        } catch (IOException e) {
+            SettableFuture<byte[]> future;
+            while ((future = peekWaiters.pollFirst()) != null) {
+                future.setException(e);
+            }
+            return;
+        }
+        if (data != null) {
+            SettableFuture<byte[]> future;
+            while ((future = peekWaiters.pollFirst()) != null) {
+                future.set(data);
+            }
+        }
+    }
+
+    // each live waiter gets its own item in arrival order, a waiter stays in the registry until it has an item,
+    // so an enqueue meanwhile always sees it, the item is claimed under the queue front write lock and the waiter
+    // is completed once the lock is released, so listeners run directly never run under the lock
+    // 每个存活的等待者按到达顺序获得自己的项目，等待者在获得项目之前一直留在登记处，因此期间的入队总能看到它，
+    // 项目在队列前端写锁下认领，等待者在锁释放之后才完成，因此直接运行的监听器从不在锁下运行
+    private void completeDequeueWaiters() {
+        SettableFuture<byte[]> future;
+        while ((future = this.firstLiveDequeueWaiter()) != null) {
+            long queueFrontIndex;
+            byte[] data = null;
+            IOException failure = null;
+            try {
+                queueFrontWriteLock.lock();
+                if (this.isEmpty()) {
+                    return; // wait for the next enqueue 等待下一次入队
+                }
+                queueFrontIndex = this.queueFrontIndex.get();
                 try {
-                    dequeueFuture.set(this.dequeue());
+                    data = this.readQueueFront(queueFrontIndex);
+                    this.advanceQueueFrontIndex(queueFrontIndex);
                 } catch (IOException e) {
-                    dequeueFuture.setException(e);
+                    failure = e;
                 }
+            } finally {
+                queueFrontWriteLock.unlock();
+            }
+            // claimed before the waiter is completed, so its listeners never see the item in the queue,
+            // a waiter cancelled meanwhile gives the item back
+            // 在完成等待者之前认领，因此它的监听器不会在队列中看到该项目，期间被取消的等待者交还该项目
+            dequeueWaiters.remove(future);
+            if (failure != null) {
+                logger.error("fail to dequeue item " + queueFrontIndex + " for an async dequeue", failure);//为异步出队取出项目失败
+                future.setException(failure);
+            } else if (!future.set(data)) {
+                this.returnClaimedItem(queueFrontIndex);
             }
         }
     }
 
-    /**
-     * Initializes the futures if it's null at the moment
-     * 如果现在是空，就初始化futures
-     */
-    private void initializeDequeueFutureIfNecessary() {
-        synchronized (futureLock) {
-            if (dequeueFuture == null || dequeueFuture.isDone()) {
-                dequeueFuture = SettableFuture.create();
+    // drop the waiters cancelled by their callers, so no item is claimed for them, and return the first live one
+    // 丢弃被调用者取消的等待者，这样不会为它们认领项目，并返回第一个存活的等待者
+    private SettableFuture<byte[]> firstLiveDequeueWaiter() {
+        SettableFuture<byte[]> future;
+        while ((future = dequeueWaiters.peekFirst()) != null && future.isDone()) {
+            dequeueWaiters.remove(future);
+        }
+        return future;
+    }
+
+    // give back an item claimed for a waiter cancelled before it was completed, the queue front moves back to it
+    // unless items have been dequeued since, then it is kept like an expired lease, so it is leased again first
+    // and stays below the persisted front until then
+    // 交还为在完成之前被取消的等待者认领的项目，队列前端移回该项目，除非此后有项目被出队，此时像过期租约一样保留它，
+    // 这样它首先被再次租借，在此之前一直位于持久化的前端之下
+    private void returnClaimedItem(long queueFrontIndex) {
+        long nextQueueFrontIndex = queueFrontIndex == Long.MAX_VALUE ? 0L : queueFrontIndex + 1; // wrap
+        try {
+            queueFrontWriteLock.lock();
+            if (this.queueFrontIndex.get() == nextQueueFrontIndex) {
+                this.persistQueueFrontIndex(queueFrontIndex);
+                return;
             }
-            if (!this.isEmpty()) {
-                try {
-                    dequeueFuture.set(this.dequeue());
-                } catch (IOException e) {
-                    dequeueFuture.setException(e);
+            // leases are kept in index order 租约按索引顺序保存
+            ListIterator<LeasedRange> it = leases.listIterator();
+            while (it.hasNext()) {
+                if (it.next().fromIndex - queueFrontIndex > 0L) {
+                    it.previous();
+                    break;
                 }
             }
+            it.add(new LeasedRange(-1L, queueFrontIndex, 1, System.nanoTime()));
+            this.persistQueueFrontIndex(this.queueFrontIndex.get());
+        } catch (IOException e) {
+            // the item is back in memory, it is persisted again by the next dequeue 项目已在内存中交还，下一次出队会再次持久化
+            logger.warn("fail to persist queue front " + queueFrontIndex + " of an item not delivered", e);//持久化未投递项目的队列前端失败
+        } finally {
+            queueFrontWriteLock.unlock();
         }
     }
 
-    /**
-     * Initializes the futures if it's null at the moment
-     * 如果现在是空，就初始化futures
-     */
-    private void initializePeekFutureIfNecessary() {
-        synchronized (futureLock) {
-            if (peekFuture == null || peekFuture.isDone()) {
-                peekFuture = SettableFuture.create();
+    // each live waiter gets its own lease in arrival order, a lease granted to a waiter cancelled meanwhile is given up
+    // so its items are leased again first, and while there is nothing to lease the dispatcher runs again at the next
+    // lease expiry, so expired items are redelivered without another lease call
+    // 每个存活的等待者按到达顺序获得自己的租约，授予期间被取消的等待者的租约被放弃，因此其项目首先被再次租借，
+    // 在没有可租借的内容时分发器在下一个租约过期时再次运行，因此无需再次调用lease就能重新投递过期的项目
+    private void completeLeaseWaiters() {
+        LeaseRequest request;
+        while ((request = this.firstLiveLeaseWaiter()) != null) {
+            Lease lease;
+            try {
+                lease = this.lease(request.maxItems, request.timeoutNanos, TimeUnit.NANOSECONDS);
+            } catch (IOException e) {
+                logger.error("fail to lease items for an async lease", e);//为异步租借租借项目失败
+                leaseWaiters.remove(request);
+                request.future.setException(e);
+                continue;
             }
-            if (!this.isEmpty()) {
+            if (lease == null) {
+                Long deadline;
                 try {
-                    peekFuture.set(this.peek());
+                    queueFrontWriteLock.lock();
+                    deadline = this.nextLeaseDeadline();
+                } finally {
+                    queueFrontWriteLock.unlock();
+                }
+                if (deadline != null) {
+                    this.watchLeaseExpiry(deadline);
+                }
+                return; // wait for the next enqueue or lease expiry 等待下一次入队或租约过期
+            }
+            leaseWaiters.remove(request);
+            if (!request.future.set(lease)) {
+                try {
+                    this.nack(lease.getId());
                 } catch (IOException e) {
-                    peekFuture.setException(e);
+                    // expires in time and is leased again then 会按时过期，然后被再次租借
+                    logger.warn("fail to give up lease " + lease.getId() + " of a cancelled async lease", e);//放弃已取消异步租借的租约失败
                 }
             }
         }
     }
+
+    // drop the lease requests cancelled by their callers and return the first one still waiting
+    // 丢弃被调用者取消的租借请求并返回第一个仍在等待的请求
+    private LeaseRequest firstLiveLeaseWaiter() {
+        LeaseRequest request;
+        while ((request = leaseWaiters.peekFirst()) != null && request.future.isDone()) {
+            leaseWaiters.remove(request);
+        }
+        return request;
+    }
+
+    private void cancelAsyncWaiters() {
+        SettableFuture<byte[]> future;
+        while ((future = peekWaiters.pollFirst()) != null) {
+            future.cancel(false);
+        }
+        while ((future = dequeueWaiters.pollFirst()) != null) {
+            future.cancel(false);
+        }
+        LeaseRequest request;
+        while ((request = leaseWaiters.pollFirst()) != null) {
+            request.future.cancel(false);
+        }
+    }
+
+    // a leaseAsync call waiting for items to lease 等待可租借项目的leaseAsync调用
+    private static final class LeaseRequest {
+        final int maxItems;
+        final long timeoutNanos;
+        final SettableFuture<Lease> future = SettableFuture.create();
+
+        LeaseRequest(int maxItems, long timeoutNanos) {
+            this.maxItems = maxItems;
+            this.timeoutNanos = timeoutNanos;
+        }
+    }
+
+    // a range of leased array indexes 一段租借的数组索引
+    private static final class LeasedRange {
+        long id;
+        long fromIndex;
+        int count;
+        // System.nanoTime when the range is leased again 该范围被再次租借的System.nanoTime时间
+        long deadline;
+        boolean acked = false;
+
+        LeasedRange(long id, long fromIndex, int count, long deadline) {
+            this.id = id;
+            this.fromIndex = fromIndex;
+            this.count = count;
+            this.deadline = deadline;
+        }
+    }
 }
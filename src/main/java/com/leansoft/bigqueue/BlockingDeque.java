@@ -17,15 +17,19 @@ public class BlockingDeque {
     }
 
     public static void main(String[] args) throws IOException {
+        // producer and consumer share one queue, the consumer parks in take while the queue is empty
+        // 生产者和消费者共享一个队列，队列为空时消费者在take中挂起
+        BigQueueImpl bigQueue = new BigQueueImpl("D://queue_db//unit","queue_Test01");
         ExecutorService executorService = Executors.newFixedThreadPool(2);
-        executorService.submit(new Producer("producer1"));
-        executorService.submit(new Consumer("consumer1"));
+        executorService.submit(new Producer("producer1", bigQueue));
+        executorService.submit(new Consumer("consumer1", bigQueue));
     }
     static class Producer implements Runnable {
-        BigQueueImpl bigQueue = new BigQueueImpl("D://queue_db//unit","queue_Test01");
+        private final BigQueueImpl bigQueue;
         private String name;
-        public Producer(String name) throws IOException {
+        public Producer(String name, BigQueueImpl bigQueue) {
             this.name = name;
+            this.bigQueue = bigQueue;
         }
 
         public void run() {
@@ -49,15 +53,19 @@ public class BlockingDeque {
     }
 
     static class Consumer implements Runnable {
-        BigQueueImpl bigQueue = new BigQueueImpl("D://queue_db//unit","queue_Test01");
+        private final BigQueueImpl bigQueue;
         private String name;
-        public Consumer(String name) throws IOException {
+        public Consumer(String name, BigQueueImpl bigQueue) {
             this.name = name;
+            this.bigQueue = bigQueue;
         }
         public void run() {
             for (int i = 1; i < 10; ++i) {
                 try {
-                    System.out.println("取出--->"+bigQueue.dequeue());
+                    System.out.println("取出--->"+new String(bigQueue.take()));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
                 } catch (Exception e) {
                     e.printStackTrace();
                 }
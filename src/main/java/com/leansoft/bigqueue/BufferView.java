@@ -0,0 +1,69 @@
+package com.leansoft.bigqueue;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.leansoft.bigqueue.page.IMappedPage;
+
+/**
+ * A read only view of an item pointing straight into the mapped data page, no data is copied.
+ * 直接指向映射数据页的项的只读视图，不拷贝任何数据。
+ *
+ * The data page stays pinned(mapped) until the view is released, so the buffer
+ * must not be used after {@link #release()}, and every view must be released
+ * or the page can't be unmapped.
+ * 数据页在视图释放之前保持固定(映射)，因此释放后不能再使用缓冲区，并且每个视图都必须被释放，否则页面无法取消映射。
+ *
+ * @author bulldog
+ *
+ */
+public class BufferView implements Closeable {
+
+	private final IMappedPage page;
+	private final ByteBuffer buffer;
+	private final long index;
+	private final AtomicBoolean released = new AtomicBoolean(false);
+
+	BufferView(IMappedPage page, ByteBuffer buffer, long index) {
+		this.page = page;
+		this.buffer = buffer;
+		this.index = index;
+	}
+
+	/**
+	 * The read only buffer of the item, position 0 and limit the item length.
+	 * 项的只读缓冲区，位置为0，限制为项的长度。
+	 *
+	 * @return read only byte buffer
+	 * 			只读字节缓冲区
+	 */
+	public ByteBuffer getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * The array index of the item
+	 * 项的数组索引
+	 *
+	 * @return array index
+	 */
+	public long getIndex() {
+		return index;
+	}
+
+	/**
+	 * Release the pin on the data page, releasing a view more than once has no effect.
+	 * 释放数据页上的固定，多次释放视图没有影响。
+	 */
+	public void release() {
+		if (released.compareAndSet(false, true)) {
+			page.unpin();
+		}
+	}
+
+	@Override
+	public void close() {
+		release();
+	}
+}
@@ -2,12 +2,25 @@ package com.leansoft.bigqueue;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import org.reactivestreams.Publisher;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import com.leansoft.bigqueue.page.IMappedPage;
 import com.leansoft.bigqueue.page.IMappedPageFactory;
 import com.leansoft.bigqueue.page.MappedPageFactoryImpl;
@@ -54,6 +67,15 @@ public class FanOutQueueImpl implements IFanOutQueue {
 	final static String QUEUE_FRONT_INDEX_PAGE_FOLDER_PREFIX = "front_index_";
 	
 	final ConcurrentMap<String, QueueFront> queueFrontMap = new ConcurrentHashMap<String, QueueFront>();
+	
+	// publishers waiting for the next enqueue, enqueue only completes them when there are some
+	// 等待下一次入队的发布者，入队只在有等待者时才完成它们
+	private final ConcurrentLinkedQueue<SettableFuture<Boolean>> appendWaiters = new ConcurrentLinkedQueue<SettableFuture<Boolean>>();
+	// runs the publishers, the configured executor or an own daemon thread created on demand
+	// 运行发布者的执行器，为配置的执行器或按需创建的自有守护线程
+	private final Executor configuredAsyncExecutor;
+	private ExecutorService ownAsyncExecutor;
+	private volatile boolean closed = false;
 
 	/**
 	 * A big, fast and persistent queue implementation with fandout support.
@@ -70,7 +92,26 @@ public class FanOutQueueImpl implements IFanOutQueue {
 	 */
 	public FanOutQueueImpl(String queueDir, String queueName, int pageSize)
 			throws IOException {
-		innerArray = new BigArrayImpl(queueDir, queueName, pageSize);
+		this(queueDir, queueName, new BigArrayConfig(pageSize));
+	}
+	
+	/**
+	 * A big, fast and persistent queue implementation with fandout support.
+	 * 使用fandout支持的大型、快速和持久的队列实现。
+	 * 
+	 * @param queueDir  the directory to store queue data
+	 *                  存储队列数据的目录
+	 * @param queueName the name of the queue, will be appended as last part of the queue directory
+	 *                  队列的名称将被追加到队列目录的最后一部分
+	 * @param config tuning options of the back array, see {@link BigArrayConfig}
+	 *               后台数组的调优选项
+	 * @throws IOException exception throws if there is any IO error during queue initialization
+	 * 				   如果在队列初始化期间存在IO错误，则异常抛出异常
+	 */
+	public FanOutQueueImpl(String queueDir, String queueName, BigArrayConfig config)
+			throws IOException {
+		innerArray = new BigArrayImpl(queueDir, queueName, config);
+		configuredAsyncExecutor = config.getAsyncExecutor();
 	}
 
 	/**
@@ -123,7 +164,23 @@ public class FanOutQueueImpl implements IFanOutQueue {
 
 	@Override
 	public long enqueue(byte[] data) throws IOException {
-		return innerArray.append(data);
+		long index = innerArray.append(data);
+		this.signalAppendWaiters();
+		return index;
+	}
+	
+	@Override
+	public long enqueue(ByteBuffer... parts) throws IOException {
+		long index = innerArray.append(parts);
+		this.signalAppendWaiters();
+		return index;
+	}
+
+	@Override
+	public long enqueueBatch(List<byte[]> dataList) throws IOException {
+		long index = innerArray.appendBatch(dataList);
+		this.signalAppendWaiters();
+		return index;
 	}
 
 	@Override
@@ -139,7 +196,7 @@ public class FanOutQueueImpl implements IFanOutQueue {
 					return null; // empty
 				}
 				
-				byte[] data = innerArray.get(qf.index.get());
+				byte[] data = qf.readFront();
 				qf.incrementIndex();
 				
 				return data;
@@ -147,7 +204,7 @@ public class FanOutQueueImpl implements IFanOutQueue {
 				ex.printStackTrace();
 				qf.resetIndex(); // maybe the back array has been truncated to limit size
 				
-				byte[] data = innerArray.get(qf.index.get());
+				byte[] data = qf.readFront();
 				qf.incrementIndex();
 				
 				return data;
@@ -161,6 +218,170 @@ public class FanOutQueueImpl implements IFanOutQueue {
 		}
 	}
 
+	@Override
+	public BufferView dequeueBuffer(String fanoutId) throws IOException {
+		try {
+			this.innerArray.arrayReadLock.lock();
+		
+			QueueFront qf = this.getQueueFront(fanoutId);
+			try {
+				qf.writeLock.lock();
+				
+				if (qf.index.get() == innerArray.arrayHeadIndex.get()) {
+					return null; // empty
+				}
+				
+				BufferView view = innerArray.getBuffer(qf.index.get());
+				incrementIndex(qf, view);
+				
+				return view;
+			} catch (IndexOutOfBoundsException ex) {
+				ex.printStackTrace();
+				qf.resetIndex(); // maybe the back array has been truncated to limit size
+				
+				BufferView view = innerArray.getBuffer(qf.index.get());
+				incrementIndex(qf, view);
+				
+				return view;
+				
+			} finally {
+				qf.writeLock.unlock();
+			}
+			
+		} finally {
+			this.innerArray.arrayReadLock.unlock();
+		}
+	}
+	
+	// remove up to max items from the front of a fan out queue, reading them with the cursor and persisting the front once
+	// 从扇出队列前端删除最多max个项目，使用游标读取它们并只持久化一次前端
+	List<byte[]> dequeue(String fanoutId, int maxItems) throws IOException {
+		List<byte[]> items = new ArrayList<byte[]>();
+		try {
+			this.innerArray.arrayReadLock.lock();
+			
+			QueueFront qf = this.getQueueFront(fanoutId);
+			try {
+				qf.writeLock.lock();
+				qf.validateAndAdjustIndex(); // maybe the back array has been truncated to limit size
+				
+				long headIndex = innerArray.arrayHeadIndex.get();
+				try {
+					while (items.size() < maxItems && qf.index.get() != headIndex) {
+						items.add(qf.readFront());
+						long nextIndex = qf.index.get();
+						qf.index.set(nextIndex == Long.MAX_VALUE ? 0L : nextIndex + 1); // wrap
+					}
+				} finally {
+					if (!items.isEmpty()) {
+						qf.persistIndex();
+					}
+				}
+				return items;
+			} finally {
+				qf.writeLock.unlock();
+			}
+			
+		} finally {
+			this.innerArray.arrayReadLock.unlock();
+		}
+	}
+	
+	@Override
+	public Publisher<ByteBuffer> asPublisher(final String fanoutId) {
+		if (this.closed) {
+			throw new IllegalStateException("queue has been closed.");//队列已经关闭
+		}
+		return new QueuePublisher(new QueuePublisher.Source() {
+			public List<byte[]> read(int maxItems) throws IOException {
+				return dequeue(fanoutId, maxItems);
+			}
+			
+			public ListenableFuture<?> awaitItems() {
+				return awaitAppend(fanoutId);
+			}
+		}, this.getAsyncExecutor());
+	}
+	
+	// a future completed when the fan out queue has items, cancelled when the queue is closed
+	// 扇出队列有项目时完成的future，队列关闭时被取消
+	ListenableFuture<Boolean> awaitAppend(String fanoutId) {
+		if (this.closed) {
+			throw new IllegalStateException("queue has been closed.");//队列已经关闭
+		}
+		SettableFuture<Boolean> future = SettableFuture.create();
+		appendWaiters.offer(future);
+		// check after registering, so an enqueue meanwhile either sees the waiter or we see its item
+		// 在注册之后检查，这样期间的入队要么看到等待者，要么我们看到它的项目
+		try {
+			if (!this.isEmpty(fanoutId)) {
+				appendWaiters.remove(future);
+				return Futures.immediateFuture(Boolean.TRUE);
+			}
+		} catch (IOException e) {
+			appendWaiters.remove(future);
+			return Futures.immediateFailedFuture(e);
+		}
+		if (this.closed) {
+			this.cancelAppendWaiters();
+		}
+		return future;
+	}
+	
+	// a lock-free check when no publisher waits 没有发布者等待时只是一次无锁检查
+	private void signalAppendWaiters() {
+		if (!appendWaiters.isEmpty()) {
+			SettableFuture<Boolean> future;
+			while ((future = appendWaiters.poll()) != null) {
+				future.set(Boolean.TRUE);
+			}
+		}
+	}
+	
+	private void cancelAppendWaiters() {
+		SettableFuture<Boolean> future;
+		while ((future = appendWaiters.poll()) != null) {
+			future.cancel(false);
+		}
+	}
+	
+	// rejects everything, so the callers fall back to running the task inline 拒绝所有任务，这样调用者回退为直接运行任务
+	private static final Executor CLOSED_EXECUTOR = new Executor() {
+		public void execute(Runnable command) {
+			throw new RejectedExecutionException("queue has been closed.");//队列已经关闭
+		}
+	};
+	
+	private synchronized Executor getAsyncExecutor() {
+		if (configuredAsyncExecutor != null) {
+			return configuredAsyncExecutor;
+		}
+		if (this.closed) {
+			return CLOSED_EXECUTOR; // the own executor is not created again once close shut it down 关闭后不再创建自有执行器
+		}
+		if (ownAsyncExecutor == null) {
+			ownAsyncExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "fanoutqueue-async-" + innerArray.arrayDirectory);
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return ownAsyncExecutor;
+	}
+	
+	// advance the queue front past a dequeued view, the view is released if that fails
+	// 将队列前端移过已出队的视图，失败时释放视图
+	private void incrementIndex(QueueFront qf, BufferView view) throws IOException {
+		try {
+			qf.incrementIndex();
+		} catch (IOException ex) {
+			view.release();
+			throw ex;
+		}
+	}
+
 	@Override
 	public byte[] peek(String fanoutId) throws IOException {
 		try {
@@ -361,10 +582,19 @@ public class FanOutQueueImpl implements IFanOutQueue {
 
 	@Override
 	public void close() throws IOException {
+		this.closed = true;
+		this.cancelAppendWaiters();
+		synchronized (this) {
+			if (ownAsyncExecutor != null) {
+				ownAsyncExecutor.shutdown();
+				ownAsyncExecutor = null;
+			}
+		}
 		try {
 			this.innerArray.arrayWriteLock.lock();
 			
 			for(QueueFront qf : this.queueFrontMap.values()) {
+				qf.closeCursor();
 				qf.indexPageFactory.releaseCachedPages();
 			}
 			
@@ -412,6 +642,10 @@ public class FanOutQueueImpl implements IFanOutQueue {
 		//队列前端写管理锁定
 		final Lock writeLock = new ReentrantLock();
 		
+		// reads the queue front sequentially with its pages pinned, guarded by the write lock
+		// 固定页面顺序读取队列前端，由写锁保护
+		private BigArrayCursor cursor;
+		
 		QueueFront(String fanoutId) throws IOException {
 			try {
 				FolderNameValidator.validate(fanoutId);
@@ -427,8 +661,7 @@ public class FanOutQueueImpl implements IFanOutQueue {
 			
 			IMappedPage indexPage = this.indexPageFactory.acquirePage(QUEUE_FRONT_PAGE_INDEX);
 			
-			ByteBuffer indexBuffer = indexPage.getLocal(0);
-			index.set(indexBuffer.getLong());
+			index.set(indexPage.getLong(0));
 			validateAndAdjustIndex();
 		}
 		
@@ -449,6 +682,23 @@ public class FanOutQueueImpl implements IFanOutQueue {
 			this.persistIndex();
 		}
 		
+		// read the item at the queue front, the cursor is reopened if the front moved otherwise, caller must hold the write lock
+		// 读取队列前端的项，如果前端以其他方式移动则重新打开游标，调用者必须持有写锁
+		byte[] readFront() throws IOException {
+			if (cursor == null || cursor.getIndex() != index.get()) {
+				this.closeCursor();
+				cursor = innerArray.openCursor(index.get());
+			}
+			return cursor.next();
+		}
+		
+		void closeCursor() {
+			if (cursor != null) {
+				cursor.close();
+				cursor = null;
+			}
+		}
+		
 		void incrementIndex() throws IOException {
 			long nextIndex = index.get();
 			if (nextIndex == Long.MAX_VALUE) {
@@ -464,8 +714,7 @@ public class FanOutQueueImpl implements IFanOutQueue {
 		void persistIndex() throws IOException {
 			// persist index
 			IMappedPage indexPage = this.indexPageFactory.acquirePage(QUEUE_FRONT_PAGE_INDEX);
-			ByteBuffer indexBuffer = indexPage.getLocal(0);
-			indexBuffer.putLong(index.get());
+			indexPage.putLong(0, index.get());
 			indexPage.setDirty(true);
 		}
 	}
@@ -2,6 +2,10 @@ package com.leansoft.bigqueue;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import com.google.common.util.concurrent.ListenableFuture;
 
 /**
  * Append Only Big Array ADT
@@ -23,6 +27,65 @@ public interface IBigArray extends Closeable {
 	 */
 	long append(byte[] data) throws IOException;
 	
+	/**
+	 * Append the remaining bytes of a buffer into the head of the array without an intermediate copy,
+	 * the position of the buffer is advanced to its limit.
+	 * 将缓冲区的剩余字节附加到数组的头部而没有中间拷贝，缓冲区的位置会推进到其限制。
+	 * 
+	 * @param data buffer holding the data to append
+	 * @return appended index
+	 * @throws IOException if there is any IO error
+	 */
+	long append(ByteBuffer data) throws IOException;
+	
+	/**
+	 * Append the remaining bytes of several buffers(e.g. header and body) into the head of the array as one item,
+	 * the parts are written one after another straight into the data page and their positions are advanced to their limits.
+	 * 将多个缓冲区(例如头和体)的剩余字节作为一个项附加到数组的头部，各部分依次直接写入数据页，它们的位置会推进到其限制。
+	 * 
+	 * @param parts buffers holding the parts of the data to append
+	 * @return appended index
+	 * @throws IOException if there is any IO error
+	 */
+	long append(ByteBuffer... parts) throws IOException;
+	
+	/**
+	 * Append a batch of data into the head of the array
+	 * 将一批数据附加到数组的头部
+	 * 
+	 * The whole batch is appended in one critical section and becomes visible to readers at once,
+	 * items are assigned consecutive indexes in list order.
+	 * 整批数据在一个临界区内附加，并同时对读者可见，按列表顺序分配连续的索引。
+	 * 
+	 * @param dataList list of binary data to append
+	 * @return the index of the first appended data, or {@link #NOT_FOUND} if the list is empty
+	 * @throws IOException if there is any IO error
+	 */
+	long appendBatch(List<byte[]> dataList) throws IOException;
+	
+	/**
+	 * Open an appender holding the head pages across appends, for a producer thread appending
+	 * many items, the appender must be closed after use, see {@link BigArrayAppender}.
+	 * 打开一个在多次附加之间持有头页面的附加器，供附加许多项的生产者线程使用，附加器使用后必须关闭。
+	 * 
+	 * @return an appender of this array
+	 */
+	BigArrayAppender openAppender();
+	
+	/**
+	 * Append the data into the head of the array and get notified once it has been forced to disk
+	 * 将数据附加到数组的头部，并在其被强制写入磁盘后得到通知
+	 * 
+	 * With {@link BigArrayConfig.DurabilityPolicy#GROUP_COMMIT} the data is forced together with other
+	 * durable appends by the background flusher, otherwise the array is flushed before this method returns.
+	 * 使用GROUP_COMMIT时数据由后台刷新器和其他持久附加一起强制写入，否则数组在本方法返回前被刷新。
+	 * 
+	 * @param data binary data to append
+	 * @return a future completing with the appended index once the data is on disk
+	 * @throws IOException if there is any IO error
+	 */
+	ListenableFuture<Long> appendDurable(byte[] data) throws IOException;
+	
 	
 	/**
 	 * Get the data at specific index
@@ -34,6 +97,28 @@ public interface IBigArray extends Closeable {
 	 */
 	byte[] get(long index) throws IOException;
 	
+	/**
+	 * Get a read only view of the data at specific index without copying it,
+	 * the view must be released after use, see {@link BufferView}.
+	 * 获取特定索引中数据的只读视图而不拷贝数据，视图使用后必须释放。
+	 * 
+	 * @param index valid data index
+	 * @return view of the data if the index is valid
+	 * @throws IOException if there is any IO error
+	 */
+	BufferView getBuffer(long index) throws IOException;
+	
+	/**
+	 * Open a cursor reading the items one after another from specific index,
+	 * the cursor keeps the current pages pinned and must be closed after use, see {@link BigArrayCursor}.
+	 * 打开一个从特定索引开始逐个读取项的游标，游标保持当前页面固定，使用后必须关闭。
+	 * 
+	 * @param startIndex valid data index, or the head index to read the items appended from now on
+	 * @return a cursor positioned at the start index
+	 * @throws IOException if there is any IO error
+	 */
+	BigArrayCursor openCursor(long startIndex) throws IOException;
+	
 	/**
 	 * Get the timestamp of data at specific index,
 	 * 获取特定索引中的数据时间戳，
@@ -4,6 +4,12 @@ import com.google.common.util.concurrent.ListenableFuture;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.reactivestreams.Publisher;
 
 /**
  * Queue ADT
@@ -31,6 +37,44 @@ public interface 	IBigQueue extends Closeable {
 	 */
 	public void enqueue(byte[] data)  throws IOException;
 	
+	/**
+	 * Adds an item gathered from several buffers(e.g. header and body) at the back of a queue,
+	 * the parts are written straight into the data page and their positions are advanced to their limits.
+	 * 在队列的后面添加一个由多个缓冲区(例如头和体)汇集的项目，各部分直接写入数据页，它们的位置会推进到其限制。
+	 * 
+	 * @param parts buffers holding the parts of the data to be enqueued 保存待入队数据各部分的缓冲区
+	 * @throws IOException exception throws if there is any IO error during enqueue operation.
+	 * 如果在队列操作中存在IO错误，则异常抛出异常。
+	 */
+	public void enqueue(ByteBuffer... parts)  throws IOException;
+	
+	/**
+	 * Adds a batch of items at the back of a queue
+	 * 在队列的后面添加一批项目
+	 * 
+	 * The items are enqueued in list order and become visible to consumers at once.
+	 * 项目按列表顺序入队，并同时对消费者可见。
+	 * 
+	 * @param dataList to be enqueued data 队列的数据
+	 * @return index where the first item was appended, or -1 if the list is empty 添加的第一个项的索引，列表为空时返回-1
+	 * @throws IOException exception throws if there is any IO error during enqueue operation.
+	 * 如果在队列操作中存在IO错误，则异常抛出异常。
+	 */
+	public long enqueueBatch(List<byte[]> dataList) throws IOException;
+	
+	/**
+	 * Adds an item at the back of a queue and gets notified once it has been forced to disk,
+	 * see {@link BigArrayConfig.DurabilityPolicy} for how the item is forced.
+	 * 在队列的后面添加一个项目，并在其被强制写入磁盘后得到通知。
+	 * 
+	 * @param data to be enqueued data 队列的数据
+	 * @return a future completing with the index of the item in the back array once it is on disk
+	 * 			项目写入磁盘后以其在后台数组中的索引完成的future
+	 * @throws IOException exception throws if there is any IO error during enqueue operation.
+	 * 如果在队列操作中存在IO错误，则异常抛出异常。
+	 */
+	public ListenableFuture<Long> enqueueDurable(byte[] data) throws IOException;
+	
 	/**
 	 * Retrieves and removes the front of a queue
 	 * 检索和删除队列的前端
@@ -40,6 +84,146 @@ public interface 	IBigQueue extends Closeable {
 	 * 如果在dequeue操作中有任何IO错误，则异常抛出。
 	 */
 	public byte[] dequeue() throws IOException;
+	
+	/**
+	 * Retrieves and removes the front of a queue without copying the data,
+	 * the returned view must be released after use, see {@link BufferView}.
+	 * 检索和删除队列的前端而不拷贝数据，返回的视图使用后必须释放。
+	 *
+	 * @return view of the data at the front of a queue, null if the queue is empty 队列前端数据的视图，队列为空时返回null
+	 * @throws IOException exception throws if there is any IO error during dequeue operation.
+	 * 如果在dequeue操作中有任何IO错误，则异常抛出。
+	 */
+	public BufferView dequeueBuffer() throws IOException;
+	
+	/**
+	 * Retrieves and removes up to a number of items from the front of a queue,
+	 * 从队列的前端检索并删除最多一定数量的项目，
+	 * 
+	 * the items are read in one go and the queue front is persisted once for the whole batch.
+	 * 项目一次性读取，整批只持久化一次队列前端。
+	 *
+	 * @param maxItems maximum number of items to dequeue 最多出队的项目数
+	 * @return the items in queue order, empty if the queue is empty 按队列顺序的项目，队列为空时为空列表
+	 * @throws IOException exception throws if there is any IO error during dequeue operation.
+	 * 如果在dequeue操作中有任何IO错误，则异常抛出。
+	 */
+	public List<byte[]> dequeue(int maxItems) throws IOException;
+	
+	/**
+	 * Retrieves and removes up to a number of items from the front of a queue, as long as their total length
+	 * stays within a number of bytes, the first item is always dequeued even if it is longer.
+	 * 从队列的前端检索并删除最多一定数量的项目，只要它们的总长度不超过一定字节数，第一个项目即使更长也总会出队。
+	 *
+	 * @param maxItems maximum number of items to dequeue 最多出队的项目数
+	 * @param maxBytes maximum total length in bytes of the items 项目的最大总字节长度
+	 * @return the items in queue order, empty if the queue is empty 按队列顺序的项目，队列为空时为空列表
+	 * @throws IOException exception throws if there is any IO error during dequeue operation.
+	 * 如果在dequeue操作中有任何IO错误，则异常抛出。
+	 */
+	public List<byte[]> dequeue(int maxItems, int maxBytes) throws IOException;
+	
+	/**
+	 * Removes up to a number of items from the front of a queue and adds them to a collection,
+	 * like {@link #dequeue(int)} without building an intermediate list.
+	 * 从队列的前端删除最多一定数量的项目并将它们添加到集合中，类似dequeue(int)但不构建中间列表。
+	 * 
+	 * If adding an item to the collection fails, the items added before stay dequeued and the failing one stays in the queue.
+	 * 如果向集合添加项目失败，之前添加的项目保持已出队，失败的项目留在队列中。
+	 *
+	 * @param collection the collection to add the items to 要添加项目的集合
+	 * @param maxItems maximum number of items to dequeue 最多出队的项目数
+	 * @return the number of items added 添加的项目数
+	 * @throws IOException exception throws if there is any IO error during dequeue operation.
+	 * 如果在dequeue操作中有任何IO错误，则异常抛出。
+	 */
+	public int drainTo(Collection<? super byte[]> collection, int maxItems) throws IOException;
+	
+	/**
+	 * Retrieves and removes the front of a queue, waiting until an item is enqueued if the queue is empty,
+	 * see {@link BigArrayConfig.WaitStrategy} for how the caller waits.
+	 * 检索和删除队列的前端，如果队列为空则等待直到有项目入队，调用者如何等待见WaitStrategy。
+	 *
+	 * @return data at the front of a queue 队列前端的数据
+	 * @throws IOException exception throws if there is any IO error during dequeue operation.
+	 * 如果在dequeue操作中有任何IO错误，则异常抛出。
+	 * @throws InterruptedException if the caller is interrupted while waiting 如果调用者在等待时被中断
+	 */
+	public byte[] take() throws IOException, InterruptedException;
+	
+	/**
+	 * Retrieves and removes the front of a queue, waiting up to a time limit until an item is enqueued if the queue is empty.
+	 * 检索和删除队列的前端，如果队列为空则最多等待一段时间直到有项目入队。
+	 *
+	 * @param timeout how long to wait 等待多长时间
+	 * @param unit the unit of the timeout 超时的单位
+	 * @return data at the front of a queue, null if the time is up before an item is enqueued 队列前端的数据，在有项目入队前超时则返回null
+	 * @throws IOException exception throws if there is any IO error during dequeue operation.
+	 * 如果在dequeue操作中有任何IO错误，则异常抛出。
+	 * @throws InterruptedException if the caller is interrupted while waiting 如果调用者在等待时被中断
+	 */
+	public byte[] poll(long timeout, TimeUnit unit) throws IOException, InterruptedException;
+	
+	/**
+	 * Leases up to max items from the front of a queue for at-least-once processing, the items stay in the queue
+	 * until the lease is acknowledged with {@link #ack(long)}, and are leased again if it is not acknowledged in time,
+	 * or negatively acknowledged with {@link #nack(long)}, or if the queue is reopened before the acknowledgement.
+	 * 从队列前端租借最多max个项目用于至少一次的处理，项目在租约被ack确认之前一直留在队列中，如果没有及时确认、被nack否认，
+	 * 或在确认之前队列被重新打开，项目会被再次租借。
+	 * 
+	 * The items of expired leases are leased again before new items, they are not returned by dequeue.
+	 * Items of an expired lease which have been removed from the back array meanwhile are dropped as if acknowledged.
+	 * 过期租约的项目在新项目之前被再次租借，dequeue不会返回它们。期间已从后数组中删除的过期租约项目被丢弃，如同已确认。
+	 * 
+	 * @param maxItems the most items to lease 最多租借的项目数
+	 * @param timeout how long the lease lasts 租约持续多长时间
+	 * @param unit the unit of the timeout 超时的单位
+	 * @return the lease, null if there is no item to lease 租约，没有可租借的项目时返回null
+	 * @throws IOException exception throws if there is any IO error during lease operation.
+	 * 如果在lease操作中有任何IO错误，则异常抛出。
+	 */
+	public Lease lease(int maxItems, long timeout, TimeUnit unit) throws IOException;
+	
+	/**
+	 * Acknowledges that the items of a lease have been processed, the persisted queue front moves
+	 * past the acknowledged leases at the front of the queue.
+	 * 确认租约的项目已被处理，持久化的队列前端移过队列前端已确认的租约。
+	 * 
+	 * @param leaseId the lease identifier 租约标识
+	 * @return false if the lease is unknown, e.g. it has expired and its items have been leased again
+	 * 如果租约未知则返回false，例如它已经过期并且其项目已被再次租借
+	 * @throws IOException exception throws if there is any IO error during ack operation.
+	 * 如果在ack操作中有任何IO错误，则异常抛出。
+	 */
+	public boolean ack(long leaseId) throws IOException;
+	
+	/**
+	 * Gives up a lease, its items are leased again by the next lease call or the first waiting {@link #leaseAsync(int, long, TimeUnit)}.
+	 * 放弃租约，其项目由下一次lease调用或第一个等待的leaseAsync再次租借。
+	 * 
+	 * @param leaseId the lease identifier 租约标识
+	 * @return false if the lease is unknown 如果租约未知则返回false
+	 * @throws IOException exception throws if there is any IO error during nack operation.
+	 * 如果在nack操作中有任何IO错误，则异常抛出。
+	 */
+	public boolean nack(long leaseId) throws IOException;
+	
+	/**
+	 * Leases up to max items as {@link #lease(int, long, TimeUnit)} does, once there are items to lease,
+	 * 与lease一样租借最多max个项目，在有项目可租借时，
+	 * 
+	 * the future completes when items are enqueued, or as soon as an outstanding lease expires or is negatively acknowledged,
+	 * so a consumer waiting for it gets the items of an expired lease again without leasing in a loop.
+	 * Every call gets its own lease in call order, a cancelled future takes no item.
+	 * future在项目入队时完成，或者在未完成的租约过期或被否认时立即完成，因此等待它的消费者无需循环租借就能再次获得过期租约的项目。
+	 * 每次调用按调用顺序得到自己的租约，被取消的future不会获取项目。
+	 * 
+	 * @param maxItems the most items to lease 最多租借的项目数
+	 * @param timeout how long the lease lasts once it is granted 租约被授予后持续多长时间
+	 * @param unit the unit of the timeout 超时的单位
+	 * @return a ListenableFuture which completes with the lease 以租约完成的ListenableFuture
+	 */
+	public ListenableFuture<Lease> leaseAsync(int maxItems, long timeout, TimeUnit unit);
 
     /**
      * Retrieves a Future which will complete if new Items where enqued.
@@ -49,6 +233,12 @@ public interface 	IBigQueue extends Closeable {
 	 * 使用该方法来检索将来作为侦听器注册的Future，而不是重复轮询队列状态。
      * On complete this future contains the result of the dequeue operation. Hence the item was automatically removed from the queue.
 	 * 完整的这个Future包含了dequeue操作的结果。因此，该项被自动从队列中删除。
+     * Every call gets its own future completed with a distinct item in call order, the futures of calls made while
+     * the queue is empty are completed on the executor set by {@link BigArrayConfig#setAsyncExecutor}.
+	 * 每次调用都得到自己的future，按调用顺序以不同的项目完成，队列为空时调用的future在BigArrayConfig设置的执行器上完成。
+     * A cancelled future takes no item, and listeners run directly on completion don't hold the queue front lock,
+     * so they may dequeue and wait for other threads that dequeue.
+	 * 被取消的future不会获取项目，完成时直接运行的监听器不持有队列前端锁，因此它们可以出队，也可以等待其他出队的线程。
      *
      * @return a ListenableFuture which completes with the first entry if items are ready to be dequeued.
 	 * 如果项目准备好了，就可以在第一个条目中完成一个列表。
@@ -87,6 +277,20 @@ public interface 	IBigQueue extends Closeable {
      */
     public ListenableFuture<byte[]> peekAsync();
 
+    /**
+     * A reactive stream publisher of the items of a queue, subscribers get items as they request them,
+     * read in batches, and wait for the next enqueue without polling when the queue is empty.
+     * 队列项目的响应式流发布者，订阅者按请求获得分批读取的项目，队列为空时等待下一次入队而无需轮询。
+     *
+     * The items are dequeued, so subscribers share the items with each other and with other consumers of the queue.
+     * Closing the queue completes the subscribers. On Java 9 and later, org.reactivestreams.FlowAdapters adapts
+     * the publisher to java.util.concurrent.Flow.
+     * 项目会被出队，因此订阅者之间以及与队列的其他消费者共享项目。关闭队列会完成订阅者。在Java 9及以后，FlowAdapters可以把发布者适配为Flow。
+     *
+     * @return a publisher of the queue items 队列项目的发布者
+     */
+    public Publisher<ByteBuffer> asPublisher();
+
     /**
      * apply an implementation of a ItemIterator interface for each queue item
 	 * 为每个队列项应用ItemIterator接口的实现。
@@ -2,6 +2,10 @@ package com.leansoft.bigqueue;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.reactivestreams.Publisher;
 
 /**
  * FanOut queue ADT
@@ -52,6 +56,32 @@ public interface IFanOutQueue extends Closeable {
 	 */
 	public long enqueue(byte[] data)  throws IOException;
 	
+	/**
+	 * Adds an item gathered from several buffers(e.g. header and body) at the back of the queue,
+	 * the parts are written straight into the data page and their positions are advanced to their limits.
+	 * 在队列的后面添加一个由多个缓冲区(例如头和体)汇集的项目，各部分直接写入数据页，它们的位置会推进到其限制。
+	 * 
+	 * @param parts buffers holding the parts of the data to be enqueued 保存待入队数据各部分的缓冲区
+	 * @return index where the item was appended 添加项的索引
+	 * @throws IOException exception throws if there is any IO error during enqueue operation.
+	 * 如果在队列操作中存在IO错误，则异常抛出异常。
+	 */
+	public long enqueue(ByteBuffer... parts)  throws IOException;
+	
+	/**
+	 * Adds a batch of items at the back of the queue
+	 * 在队列的后面添加一批项目
+	 * 
+	 * The items are enqueued in list order and become visible to consumers at once.
+	 * 项目按列表顺序入队，并同时对消费者可见。
+	 * 
+	 * @param dataList to be enqueued data 队列的数据
+	 * @return index where the first item was appended, or -1 if the list is empty 添加的第一个项的索引
+	 * @throws IOException exception throws if there is any IO error during enqueue operation.
+	 * 如果在队列操作中存在IO错误，则异常抛出异常。
+	 */
+	public long enqueueBatch(List<byte[]> dataList)  throws IOException;
+	
 	/**
 	 * Retrieves and removes the front of a fan out queue
 	 * 检索和删除扇出队列的前端
@@ -63,6 +93,32 @@ public interface IFanOutQueue extends Closeable {
 	 */
 	public byte[] dequeue(String fanoutId) throws IOException;
 	
+	/**
+	 * Retrieves and removes the front of a fan out queue without copying the data,
+	 * the returned view must be released after use, see {@link BufferView}.
+	 * 检索和删除扇出队列的前端而不拷贝数据，返回的视图使用后必须释放。
+	 * 
+	 * @param fanoutId the fanout identifier 扇出标识符
+	 * @return view of the data at the front of a queue, null if the queue is empty 队列前端数据的视图，队列为空时返回null
+	 * @throws IOException exception throws if there is any IO error during dequeue operation.
+	 * 如果在dequeue操作中有任何IO错误，则异常抛出。
+	 */
+	public BufferView dequeueBuffer(String fanoutId) throws IOException;
+	
+	/**
+	 * A reactive stream publisher of the items of a fan out queue, subscribers get items as they request them,
+	 * read in batches, and wait for the next enqueue without polling when the fan out queue is empty.
+	 * 扇出队列项目的响应式流发布者，订阅者按请求获得分批读取的项目，扇出队列为空时等待下一次入队而无需轮询。
+	 * 
+	 * The items are dequeued from the fan out queue, so subscribers of the same fanout identifier share the items,
+	 * while every fanout identifier gets all items. Closing the queue completes the subscribers.
+	 * 项目从扇出队列出队，因此同一扇出标识的订阅者共享项目，而每个扇出标识获得所有项目。关闭队列会完成订阅者。
+	 * 
+	 * @param fanoutId the fanout identifier 扇出标识符
+	 * @return a publisher of the fan out queue items 扇出队列项目的发布者
+	 */
+	public Publisher<ByteBuffer> asPublisher(String fanoutId);
+	
 	/**
 	 * Peek the item at the front of a fanout queue, without removing it from the queue
 	 * 在一个fanout队列的前端看到这个条目，而不从队列中删除它。
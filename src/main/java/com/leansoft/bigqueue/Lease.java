@@ -0,0 +1,40 @@
+package com.leansoft.bigqueue;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Items leased from a big queue, see {@link IBigQueue#lease(int, long, java.util.concurrent.TimeUnit)}.
+ * 从大队列租借的项目。
+ *
+ * The items stay in the queue until the lease is acknowledged, they are leased again
+ * if the lease times out or is negatively acknowledged.
+ * 项目在租约被确认之前一直留在队列中，如果租约超时或被否认，它们会被再次租借。
+ *
+ * @author bulldog
+ *
+ */
+public final class Lease {
+
+	private final long id;
+	private final List<byte[]> items;
+
+	Lease(long id, List<byte[]> items) {
+		this.id = id;
+		this.items = Collections.unmodifiableList(items);
+	}
+
+	/**
+	 * @return the identifier to acknowledge the lease with 用于确认租约的标识
+	 */
+	public long getId() {
+		return id;
+	}
+
+	/**
+	 * @return the leased items in queue order 按队列顺序排列的租借项目
+	 */
+	public List<byte[]> getItems() {
+		return items;
+	}
+}
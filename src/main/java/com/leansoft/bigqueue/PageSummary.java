@@ -0,0 +1,194 @@
+package com.leansoft.bigqueue;
+
+import java.io.IOException;
+
+import com.leansoft.bigqueue.page.IMappedPage;
+import com.leansoft.bigqueue.page.IMappedPageFactory;
+import com.leansoft.bigqueue.page.MappedPageFactoryImpl;
+import com.leansoft.bigqueue.utils.Calculator;
+
+/**
+ * Persistent summary of the index pages or the data pages of a big array,
+ * one entry per page holding the min/max append timestamp and the first/last array index of its items.
+ * 大数组索引页或数据页的持久化摘要，每页一个条目，保存其中项的最小/最大附加时间戳以及第一个/最后一个数组索引。
+ *
+ * Time based seeks and removals look up the summary to find the right page before
+ * reading any item, so only one index page has to be touched.
+ * 基于时间的查找和删除先通过摘要找到正确的页面再读取项，因此只需要访问一个索引页。
+ *
+ * Entries are written by the appending side only, callers of {@link #update(long, long, long)}
+ * must be serialized. A missing entry reads as {@link IBigArray#NOT_FOUND}.
+ * 条目只由附加方写入，update的调用者必须串行化。缺失的条目读取为NOT_FOUND。
+ *
+ * @author bulldog
+ *
+ */
+class PageSummary {
+
+	// 2 ^ 5 = 32 bytes per entry 每个条目32字节
+	final static int ENTRY_LENGTH_BITS = 5;
+	// 2 ^ 12 = 4096 entries per summary page 每个摘要页4096个条目
+	final static int ENTRIES_PER_PAGE_BITS = 12;
+	final static int SUMMARY_PAGE_SIZE = 1 << (ENTRY_LENGTH_BITS + ENTRIES_PER_PAGE_BITS);
+
+	// entry layout 条目布局
+	final static int MIN_TIMESTAMP_OFFSET = 0;
+	final static int MAX_TIMESTAMP_OFFSET = 8;
+	final static int FIRST_ARRAY_INDEX_OFFSET = 16;
+	final static int LAST_ARRAY_INDEX_OFFSET = 24;
+
+	// the ttl does not matter much since summary pages are tiny
+	// ttl在这里并不重要，因为摘要页很小
+	final static int SUMMARY_PAGE_CACHE_TTL = 10 * 1000;
+
+	private final IMappedPageFactory pageFactory;
+
+	// summary page held by the writer 写入者持有的摘要页
+	private IMappedPage writePage;
+	private long writePageIndex = -1L;
+
+	// the page whose entry is being updated, and its current min/max 正在更新条目的页面及其当前最小/最大值
+	private long currentPageIndex = -1L;
+	private long currentMinTimestamp;
+	private long currentMaxTimestamp;
+
+	PageSummary(String summaryDir) {
+		this.pageFactory = new MappedPageFactoryImpl(SUMMARY_PAGE_SIZE, summaryDir, SUMMARY_PAGE_CACHE_TTL);
+	}
+
+	/**
+	 * Add an appended item to the entry of its page
+	 * 将一个已附加的项加入其所在页的条目
+	 *
+	 * @param pageIndex index of the page holding the item
+	 * @param arrayIndex array index of the item
+	 * @param timestamp append timestamp of the item
+	 * @throws IOException if there is any IO error
+	 */
+	void update(long pageIndex, long arrayIndex, long timestamp) throws IOException {
+		IMappedPage page = this.getWritePage(pageIndex);
+		int offset = entryOffset(pageIndex);
+		if (pageIndex != currentPageIndex) {
+			currentPageIndex = pageIndex;
+			long storedMinTimestamp = page.getLong(offset + MIN_TIMESTAMP_OFFSET);
+			if (storedMinTimestamp == 0L) { // new entry 新条目
+				currentMinTimestamp = timestamp;
+				currentMaxTimestamp = timestamp;
+				page.putLong(offset + FIRST_ARRAY_INDEX_OFFSET, arrayIndex);
+				page.putLong(offset + MIN_TIMESTAMP_OFFSET, timestamp);
+			} else { // continue an existing entry, e.g. after reopen 继续已有的条目，例如重新打开之后
+				currentMinTimestamp = storedMinTimestamp;
+				currentMaxTimestamp = page.getLong(offset + MAX_TIMESTAMP_OFFSET);
+			}
+		}
+		if (timestamp < currentMinTimestamp) { // concurrent producers may commit out of timestamp order
+			currentMinTimestamp = timestamp;
+			page.putLong(offset + MIN_TIMESTAMP_OFFSET, timestamp);
+		}
+		if (timestamp > currentMaxTimestamp) {
+			currentMaxTimestamp = timestamp;
+		}
+		page.putLong(offset + MAX_TIMESTAMP_OFFSET, currentMaxTimestamp);
+		page.putLong(offset + LAST_ARRAY_INDEX_OFFSET, arrayIndex);
+	}
+
+	/**
+	 * Write a whole entry, used to rebuild a missing entry from the items of the page
+	 * 写入整个条目，用于根据页面中的项重建缺失的条目
+	 */
+	void put(long pageIndex, long minTimestamp, long maxTimestamp, long firstArrayIndex, long lastArrayIndex) throws IOException {
+		IMappedPage page = this.getWritePage(pageIndex);
+		int offset = entryOffset(pageIndex);
+		page.putLong(offset + FIRST_ARRAY_INDEX_OFFSET, firstArrayIndex);
+		page.putLong(offset + LAST_ARRAY_INDEX_OFFSET, lastArrayIndex);
+		page.putLong(offset + MAX_TIMESTAMP_OFFSET, maxTimestamp);
+		page.putLong(offset + MIN_TIMESTAMP_OFFSET, minTimestamp);
+		currentPageIndex = -1L; // reload on next update
+	}
+
+	boolean contains(long pageIndex) throws IOException {
+		return this.read(pageIndex, MIN_TIMESTAMP_OFFSET) != IBigArray.NOT_FOUND;
+	}
+
+	long getMinTimestamp(long pageIndex) throws IOException {
+		return this.read(pageIndex, MIN_TIMESTAMP_OFFSET);
+	}
+
+	long getMaxTimestamp(long pageIndex) throws IOException {
+		return this.read(pageIndex, MAX_TIMESTAMP_OFFSET);
+	}
+
+	long getFirstArrayIndex(long pageIndex) throws IOException {
+		return this.read(pageIndex, FIRST_ARRAY_INDEX_OFFSET);
+	}
+
+	long getLastArrayIndex(long pageIndex) throws IOException {
+		return this.read(pageIndex, LAST_ARRAY_INDEX_OFFSET);
+	}
+
+	private long read(long pageIndex, int fieldOffset) throws IOException {
+		long summaryPageIndex = Calculator.div(pageIndex, ENTRIES_PER_PAGE_BITS);
+		IMappedPage summaryPage = null;
+		try {
+			summaryPage = this.pageFactory.acquirePage(summaryPageIndex);
+			int offset = entryOffset(pageIndex);
+			if (summaryPage.getLong(offset + MIN_TIMESTAMP_OFFSET) == 0L) {
+				return IBigArray.NOT_FOUND;
+			}
+			return summaryPage.getLong(offset + fieldOffset);
+		} finally {
+			if (summaryPage != null) {
+				this.pageFactory.releasePage(summaryPageIndex);
+			}
+		}
+	}
+
+	private IMappedPage getWritePage(long pageIndex) throws IOException {
+		long summaryPageIndex = Calculator.div(pageIndex, ENTRIES_PER_PAGE_BITS);
+		if (writePage == null || writePageIndex != summaryPageIndex) {
+			this.releaseWritePage();
+			writePage = this.pageFactory.acquirePage(summaryPageIndex);
+			writePageIndex = summaryPageIndex;
+		}
+		writePage.setDirty(true);
+		return writePage;
+	}
+
+	private void releaseWritePage() {
+		if (writePage != null) {
+			this.pageFactory.releasePage(writePageIndex);
+			writePage = null;
+			writePageIndex = -1L;
+		}
+		currentPageIndex = -1L;
+	}
+
+	private static int entryOffset(long pageIndex) {
+		return (int) Calculator.mul(Calculator.mod(pageIndex, ENTRIES_PER_PAGE_BITS), ENTRY_LENGTH_BITS);
+	}
+
+	/**
+	 * Delete the summary pages only covering pages before specific page index
+	 * 删除只覆盖特定页索引之前页面的摘要页
+	 */
+	void deleteBefore(long pageIndex) throws IOException {
+		long summaryPageIndex = Calculator.div(pageIndex, ENTRIES_PER_PAGE_BITS);
+		if (summaryPageIndex > 0L) {
+			this.pageFactory.deletePagesBeforePageIndex(summaryPageIndex);
+		}
+	}
+
+	void deleteAll() throws IOException {
+		this.releaseWritePage();
+		this.pageFactory.deleteAllPages();
+	}
+
+	void flush() {
+		this.pageFactory.flush();
+	}
+
+	void close() throws IOException {
+		this.releaseWritePage();
+		this.pageFactory.releaseCachedPages();
+	}
+}
@@ -0,0 +1,222 @@
+package com.leansoft.bigqueue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Publishes the items of a queue to reactive stream subscribers, items are read in batches as requested
+ * and a subscriber without items waits for the next enqueue instead of polling.
+ * 将队列的项目发布给响应式流订阅者，项目按请求分批读取，没有项目的订阅者等待下一次入队而不是轮询。
+ *
+ * Items are consumed from the queue, so subscribers of the same source share the items, each item goes to one of them.
+ * Closing the queue completes the subscribers.
+ * 项目从队列中被消费，因此同一来源的订阅者共享项目，每个项目交给其中一个。关闭队列会完成订阅者。
+ *
+ * @author bulldog
+ *
+ */
+final class QueuePublisher implements Publisher<ByteBuffer> {
+
+	// most items read from the queue at a time 一次从队列读取的最大项目数
+	static final int BATCH_SIZE = 256;
+
+	private static final Executor DIRECT = new Executor() {
+		public void execute(Runnable command) {
+			command.run();
+		}
+	};
+
+	/**
+	 * Where a publisher reads its items from.
+	 * 发布者从何处读取其项目。
+	 */
+	interface Source {
+		/**
+		 * Removes up to max items from the front of the source, empty if there are none.
+		 * 从来源前端删除最多max个项目，没有项目时为空。
+		 */
+		List<byte[]> read(int maxItems) throws IOException;
+
+		/**
+		 * A future completed when the source has items, cancelled when the source is closed.
+		 * 来源有项目时完成的future，来源关闭时被取消。
+		 */
+		ListenableFuture<?> awaitItems();
+	}
+
+	private final Source source;
+	// runs the subscriptions, so neither producers nor requesting threads call the subscribers
+	// 运行订阅，因此生产者和请求线程都不会调用订阅者
+	private final Executor executor;
+
+	QueuePublisher(Source source, Executor executor) {
+		this.source = source;
+		this.executor = executor;
+	}
+
+	@Override
+	public void subscribe(Subscriber<? super ByteBuffer> subscriber) {
+		if (subscriber == null) {
+			throw new NullPointerException("subscriber is null");
+		}
+		subscriber.onSubscribe(new QueueSubscription(subscriber));
+	}
+
+	private final class QueueSubscription implements Subscription, Runnable {
+		private final Subscriber<? super ByteBuffer> subscriber;
+
+		// outstanding demand, Long.MAX_VALUE is unbounded 未满足的需求，Long.MAX_VALUE表示无限
+		private final AtomicLong requested = new AtomicLong();
+		// drain requests not yet handled, only the request taking it from 0 runs the drain loop
+		// 尚未处理的排出请求，只有将其从0增加的请求才运行排出循环
+		private final AtomicInteger drainRequests = new AtomicInteger();
+		private final AtomicBoolean waiting = new AtomicBoolean();
+		private volatile ListenableFuture<?> pendingWait;
+		private volatile boolean cancelled = false;
+		private volatile boolean sourceClosed = false;
+		private volatile Throwable invalidRequest;
+
+		QueueSubscription(Subscriber<? super ByteBuffer> subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		@Override
+		public void request(long n) {
+			if (n <= 0L) {
+				invalidRequest = new IllegalArgumentException("non-positive request " + n);
+			} else {
+				long current;
+				long next;
+				do {
+					current = requested.get();
+					if (current == Long.MAX_VALUE) {
+						break;
+					}
+					next = current + n < 0L ? Long.MAX_VALUE : current + n; // overflow 溢出
+				} while (!requested.compareAndSet(current, next));
+			}
+			this.drain();
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+			ListenableFuture<?> future = pendingWait;
+			if (future != null) {
+				future.cancel(false);
+			}
+		}
+
+		private void drain() {
+			if (drainRequests.getAndIncrement() == 0) {
+				try {
+					executor.execute(this);
+				} catch (RejectedExecutionException ex) { // closed or saturated 已关闭或已饱和
+					this.run();
+				}
+			}
+		}
+
+		// the drain loop, never runs twice at a time so the subscriber is called serially
+		// 排出循环，从不同时运行两次，因此订阅者被串行调用
+		@Override
+		public void run() {
+			int requests = drainRequests.get();
+			for(;;) {
+				this.drainOnce();
+				requests = drainRequests.addAndGet(-requests);
+				if (requests == 0) {
+					return;
+				}
+			}
+		}
+
+		private void drainOnce() {
+			if (cancelled) {
+				return;
+			}
+			if (invalidRequest != null) {
+				this.terminate(invalidRequest);
+				return;
+			}
+			if (sourceClosed) {
+				this.terminate(null);
+				return;
+			}
+			while (!cancelled && requested.get() > 0L) {
+				long demand = requested.get();
+				List<byte[]> batch;
+				try {
+					batch = source.read((int) Math.min(demand, BATCH_SIZE));
+				} catch (Throwable e) {
+					this.terminate(e);
+					return;
+				}
+				if (batch.isEmpty()) {
+					this.awaitItems();
+					return;
+				}
+				// the whole batch is delivered even if cancelled meanwhile, the items have left the queue
+				// 即使期间被取消也会交付整个批次，这些项目已经离开队列
+				for(byte[] data : batch) {
+					subscriber.onNext(ByteBuffer.wrap(data));
+				}
+				if (demand != Long.MAX_VALUE) {
+					requested.addAndGet(-batch.size());
+				}
+			}
+		}
+
+		// drain again when the source has items, at most one wait per subscription
+		// 来源有项目时再次排出，每个订阅最多一个等待
+		private void awaitItems() {
+			if (!waiting.compareAndSet(false, true)) {
+				return;
+			}
+			final ListenableFuture<?> future;
+			try {
+				future = source.awaitItems();
+			} catch (IllegalStateException ex) { // closed 已关闭
+				waiting.set(false);
+				this.terminate(null);
+				return;
+			}
+			pendingWait = future;
+			future.addListener(new Runnable() {
+				public void run() {
+					pendingWait = null;
+					waiting.set(false);
+					if (future.isCancelled()) {
+						sourceClosed = !cancelled;
+					}
+					drain();
+				}
+			}, DIRECT);
+			if (cancelled) {
+				future.cancel(false);
+			}
+		}
+
+		// complete the subscriber, or fail it if there is an error 完成订阅者，如果有错误则使其失败
+		private void terminate(Throwable error) {
+			cancelled = true;
+			if (error != null) {
+				subscriber.onError(error);
+			} else {
+				subscriber.onComplete();
+			}
+		}
+	}
+}
@@ -0,0 +1,283 @@
+package com.leansoft.bigqueue.cache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Thread-safe LRU cache implementation without a global lock,
+ * 没有全局锁的线程安全LRU高速缓存实现，
+ *
+ * supporting time to live and reference counting for entry.
+ * 支持条目的存活时间和引用计数。
+ *
+ * Entries live in a concurrent hash map and are referenced with CAS on a per entry counter,
+ * so get and release of different keys never contend. Expired entries without reference are
+ * swept and closed by a background thread, an expired entry is also evicted when it is looked up.
+ * 条目保存在并发哈希表中，通过每个条目计数器上的CAS来引用，因此不同key的get和release从不竞争。
+ * 没有引用的过期条目由后台线程清扫并关闭，过期条目在被查找时也会被驱逐。
+ *
+ * @author bulldog
+ *
+ * @param <K> key
+ * @param <V> value
+ */
+public class ConcurrentLRUCacheImpl<K, V extends Closeable> implements ILRUCache<K, V> {
+
+	private final static Logger logger = LoggerFactory.getLogger(ConcurrentLRUCacheImpl.class);
+
+	public static final long DEFAULT_TTL = 10 * 1000; // milliseconds
+
+	// milliseconds between two sweeps 两次清扫之间的毫秒数
+	static final long SWEEP_INTERVAL = 100;
+
+	// reference count of an entry which has been evicted, it can't be referenced any more
+	// 已被驱逐条目的引用计数，它不能再被引用
+	private static final int EVICTED = -1;
+
+	// sweeps all caches and closes the evicted values 清扫所有缓存并关闭被驱逐的值
+	private static final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "lru-cache-sweeper");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	private final ConcurrentMap<K, Entry<V>> map = new ConcurrentHashMap<K, Entry<V>>();
+
+	public ConcurrentLRUCacheImpl() {
+		Sweeper<K, V> task = new Sweeper<K, V>(this);
+		task.future = sweeper.scheduleWithFixedDelay(task, SWEEP_INTERVAL, SWEEP_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	public void put(K key, V value, long ttlInMilliSeconds) {
+		Entry<V> entry = new Entry<V>(value, ttlInMilliSeconds);
+		entry.refCount.set(1);
+		map.put(key, entry);
+	}
+
+	public void put(K key, V value) {
+		this.put(key, value, DEFAULT_TTL);
+	}
+
+	public V get(K key) {
+		Entry<V> entry = map.get(key);
+		if (entry == null) return null;
+		long currentTS = System.currentTimeMillis();
+		if (entry.isExpired(currentTS) && this.evict(key, entry)) {
+			executeClose(entry.value);
+			return null;
+		}
+		// Since the resource is acquired by calling thread,
+		//因为资源是通过调用线程获得的，
+		// let's increment reference counting unless it has just been evicted
+		//除非它刚刚被驱逐，否则让我们增加引用计数
+		for(;;) {
+			int count = entry.refCount.get();
+			if (count == EVICTED) return null;
+			if (entry.refCount.compareAndSet(count, count + 1)) break;
+		}
+		entry.lastAccessedTimestamp.set(currentTS);
+		return entry.value;
+	}
+
+	public void release(K key) {
+		Entry<V> entry = map.get(key);
+		if (entry != null) {
+			// since the resource is released by calling thread
+			//因为资源是通过调用线程来释放的
+			// let's decrement the reference counting
+			//让我们减少引用计数
+			for(;;) {
+				int count = entry.refCount.get();
+				if (count <= 0) return; // evicted or not referenced 已被驱逐或没有引用
+				if (entry.refCount.compareAndSet(count, count - 1)) break;
+			}
+			entry.lastAccessedTimestamp.set(System.currentTimeMillis());
+		}
+	}
+
+	// evict an entry without reference, the caller closes the value if it succeeds
+	// 驱逐一个没有引用的条目，成功时由调用者关闭其值
+	private boolean evict(K key, Entry<V> entry) {
+		if (!entry.refCount.compareAndSet(0, EVICTED)) return false;
+		map.remove(key, entry);
+		return true;
+	}
+
+	/**
+	 * Last accessed time of every entry without reference, the candidates of {@link #evictIdle(Object, long)}.
+	 * 每个没有引用的条目的最后访问时间，即evictIdle的候选条目。
+	 *
+	 * @return last accessed timestamps by key, a snapshot 按key的最后访问时间戳，快照
+	 */
+	public Map<K, Long> getIdleEntries() {
+		Map<K, Long> idleEntries = new HashMap<K, Long>();
+		for(Map.Entry<K, Entry<V>> mapEntry : map.entrySet()) {
+			Entry<V> entry = mapEntry.getValue();
+			if (entry.refCount.get() == 0) {
+				idleEntries.put(mapEntry.getKey(), entry.lastAccessedTimestamp.get());
+			}
+		}
+		return idleEntries;
+	}
+
+	/**
+	 * Evict the entry with specific key before its time to live is over and close it synchronously,
+	 * 在存活时间结束之前驱逐带有特定key的条目并同步关闭它，
+	 *
+	 * only if it is still without reference and has not been accessed since the given time.
+	 * 仅当它仍然没有引用并且自给定时间以来没有被访问时。
+	 *
+	 * @param key the key of the cached resource 缓存资源的key
+	 * @param lastAccessedTimestamp the last accessed time seen by {@link #getIdleEntries()} getIdleEntries看到的最后访问时间
+	 * @return true if the entry was evicted 如果条目被驱逐则返回true
+	 * @throws IOException exception thrown if there is any IO error 如果有任何IO错误则抛出异常
+	 */
+	public boolean evictIdle(K key, long lastAccessedTimestamp) throws IOException {
+		Entry<V> entry = map.get(key);
+		if (entry == null || entry.lastAccessedTimestamp.get() != lastAccessedTimestamp) return false;
+		if (!this.evict(key, entry)) return false;
+		if (entry.value != null) {
+			entry.value.close();
+		}
+		return true;
+	}
+
+	/**
+	 * Remove the expired entries without reference and close them,
+	 * 删除没有引用的过期条目并关闭它们，
+	 *
+	 * run by the sweeper thread.
+	 * 由清扫线程运行。
+	 */
+	void sweep() {
+		long currentTS = System.currentTimeMillis();
+		int closed = 0;
+		for(Map.Entry<K, Entry<V>> mapEntry : map.entrySet()) {
+			Entry<V> entry = mapEntry.getValue();
+			if (entry.isExpired(currentTS) && this.evict(mapEntry.getKey(), entry)) {
+				closeQuietly(entry.value);
+				closed++;
+			}
+		}
+		if (closed > 0 && logger.isDebugEnabled()) {
+			logger.debug("Sweep closed " + closed + (closed > 1 ? " resources.":" resource."));
+		}
+	}
+
+	public int size() {
+		return map.size();
+	}
+
+	@Override
+	public void removeAll() throws IOException {
+		for(K key : new ArrayList<K>(map.keySet())) {
+			this.remove(key);
+		}
+	}
+
+	@Override
+	public V remove(K key) throws IOException {
+		Entry<V> entry = map.remove(key);
+		if (entry == null) return null;
+		entry.refCount.set(EVICTED);
+		if (entry.value != null) {
+			// close synchronously
+			//关闭同步
+			entry.value.close();
+		}
+		return entry.value;
+	}
+
+	@Override
+	public Collection<V> getValues() {
+		Collection<V> col = new ArrayList<V>();
+		for(Entry<V> entry : map.values()) {
+			if (entry.refCount.get() != EVICTED) {
+				col.add(entry.value);
+			}
+		}
+		return col;
+	}
+
+	private static <V extends Closeable> void executeClose(final V value) {
+		sweeper.execute(new Runnable() {
+			public void run() {
+				closeQuietly(value);
+			}
+		});
+	}
+
+	private static void closeQuietly(Closeable value) {
+		try {
+			if (value != null) {
+				value.close();
+			}
+		} catch (IOException e) {
+			// close quietly
+		}
+	}
+
+	private static class Entry<V> {
+		final V value;
+		final long ttl;
+		final AtomicLong lastAccessedTimestamp; // last accessed time  最后的访问时间
+		final AtomicInteger refCount = new AtomicInteger(0);
+
+		Entry(V value, long ttl) {
+			this.value = value;
+			this.ttl = ttl;
+			this.lastAccessedTimestamp = new AtomicLong(System.currentTimeMillis());
+		}
+
+		boolean isExpired(long currentTS) {
+			return refCount.get() == 0 && (currentTS - lastAccessedTimestamp.get()) > ttl;
+		}
+	}
+
+	/**
+	 * Periodic sweep of one cache, it only holds the cache weakly and cancels itself once the cache is gone.
+	 * 对一个缓存的周期性清扫，它只弱引用该缓存，缓存被回收后取消自身。
+	 */
+	private static class Sweeper<K, V extends Closeable> implements Runnable {
+		private final WeakReference<ConcurrentLRUCacheImpl<K, V>> cacheRef;
+		volatile ScheduledFuture<?> future;
+
+		Sweeper(ConcurrentLRUCacheImpl<K, V> cache) {
+			this.cacheRef = new WeakReference<ConcurrentLRUCacheImpl<K, V>>(cache);
+		}
+
+		public void run() {
+			ConcurrentLRUCacheImpl<K, V> cache = cacheRef.get();
+			if (cache == null) {
+				if (future != null) {
+					future.cancel(false);
+				}
+				return;
+			}
+			try {
+				cache.sweep();
+			} catch (RuntimeException e) {
+				logger.warn("fail to sweep cache", e);
+			}
+		}
+	}
+}
@@ -20,6 +20,8 @@ import io.netty.handler.codec.string.StringDecoder;
 public class TimeClient  {
     private BigQueueImpl bigQueue;
     private  String echo;
+    // lease of the echo in the big queue 回显数据在大队列中的租约
+    private long leaseId;
 
     public String getEcho() {
         return echo;
@@ -29,6 +31,14 @@ public class TimeClient  {
         this.echo = echo;
     }
 
+    public long getLeaseId() {
+        return leaseId;
+    }
+
+    public void setLeaseId(long leaseId) {
+        this.leaseId = leaseId;
+    }
+
     public TimeClient(BigQueueImpl bigQueue){
         this.bigQueue = bigQueue;
     }
@@ -51,7 +61,7 @@ public class TimeClient  {
                             ByteBuf delimiter = Unpooled.copiedBuffer("$_".getBytes());
                             ch.pipeline().addLast(new DelimiterBasedFrameDecoder(1024,delimiter));
                             ch.pipeline().addLast(new StringDecoder());
-                            ch.pipeline().addLast(new TimeClientHandler(bigQueue,echo));
+                            ch.pipeline().addLast(new TimeClientHandler(bigQueue,echo,leaseId));
                         }
                     });
             //发起异步连接操作
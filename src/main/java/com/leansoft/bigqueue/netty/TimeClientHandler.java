@@ -1,6 +1,5 @@
 package com.leansoft.bigqueue.netty;
 
-import com.leansoft.bigqueue.BigQueueHandler;
 import com.leansoft.bigqueue.BigQueueImpl;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
@@ -18,10 +17,12 @@ public class TimeClientHandler extends ChannelInboundHandlerAdapter {
     private byte[] req;
     private BigQueueImpl bigQueue;
     private String echo;
+    private long leaseId;
 
-    public TimeClientHandler(BigQueueImpl bigQueue,String echo){
+    public TimeClientHandler(BigQueueImpl bigQueue,String echo,long leaseId){
         this.bigQueue = bigQueue;
         this.echo=echo;
+        this.leaseId=leaseId;
     }
 
     public TimeClientHandler()throws IOException{
@@ -41,39 +42,21 @@ public class TimeClientHandler extends ChannelInboundHandlerAdapter {
     public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
         String body =  (String)msg;
         System.out.println("服务器返回接收的数据为 : "+body+" ");
-        File file = new File("D://logs//error//SendError.log");
-        BufferedReader reader = null;
-        try {
-            reader = new BufferedReader(new FileReader(file));
-            String tempString = null;
-            // 一次读入一行，直到读入null为文件结束
-            while ((tempString = reader.readLine()) != null) {
-                // 显示行号
-                System.out.println("文件中的数据2: " + tempString);
-                if (tempString .equals(body)){
-                    FileWriter fw =  new FileWriter(file,false);
-                    fw.write("");
-                    fw.close();
-                }
-            }
-            System.out.println("----------------------结束-------------------------");
-            reader.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (IOException e1) {
-                }
-            }
+        // the server got the data, it leaves the queue, otherwise it is sent again when the lease expires
+        // 服务器收到了数据，数据离开队列，否则在租约过期时再次发送
+        if (body.equals(echo)){
+            bigQueue.ack(leaseId);
         }
-        BigQueueHandler bigQueueHandler = new BigQueueHandler(bigQueue);
-        bigQueueHandler.dequeue();
+        System.out.println("----------------------结束-------------------------");
+        ctx.close();
     }
 
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        // send the data again 再次发送数据
+        if (bigQueue != null) {
+            bigQueue.nack(leaseId);
+        }
         //释放资源
         ctx.close();
     }
@@ -0,0 +1,24 @@
+package com.leansoft.bigqueue.page;
+
+import java.io.Closeable;
+
+/**
+ * A page held in the cache of a page factory, closed when it is evicted.
+ * 保存在页面工厂缓存中的页面，被驱逐时关闭。
+ *
+ * Implemented by each storage backend of the pages, see {@link MappedPageImpl} and {@link PositionalPageImpl}.
+ * 由页面的每种存储后端实现。
+ *
+ * @author bulldog
+ *
+ */
+interface ICachedPage extends IMappedPage, Closeable {
+
+	/**
+	 * If the page is pinned, closing a pinned page defers releasing its memory until the last unpin.
+	 * 页面是否被固定，关闭被固定的页面会将其内存的释放推迟到最后一次取消固定。
+	 *
+	 * @return true if the page is pinned 如果页面被固定则返回true
+	 */
+	boolean isPinned();
+}
@@ -12,30 +12,128 @@ import java.nio.ByteBuffer;
 public interface IMappedPage {
 	
 	/**
-	 * Get a thread local copy of the mapped page buffer
-	 * 获取映射页面缓冲区的线程本地副本
+	 * Read a long at specific position of the mapped page
+	 * 读取映射页面特定位置的long
 	 * 
-	 * @param position start position(relative to the start position of source mapped page buffer) of the thread local buffer
-	 * 					启动位置(相对于源映射页面缓冲区的起始位置的位置)
-	 *
-	 * @return a byte buffer with specific position as start position.
-	 * 			作为起始位置的特定位置的字节缓冲区。
-	 *
+	 * @param position position(relative to the start position of source mapped page buffer) of the value
+	 *                 值的位置(相对于源映射页面缓冲区的起始位置)
+	 * @return the long value
+	 */
+	long getLong(int position);
+	
+	/**
+	 * Read an int at specific position of the mapped page
+	 * 读取映射页面特定位置的int
+	 * 
+	 * @param position position(relative to the start position of source mapped page buffer) of the value
+	 *                 值的位置(相对于源映射页面缓冲区的起始位置)
+	 * @return the int value
+	 */
+	int getInt(int position);
+	
+	/**
+	 * Write a long at specific position of the mapped page
+	 * 在映射页面的特定位置写入long
+	 * 
+	 * @param position position(relative to the start position of source mapped page buffer) of the value
+	 *                 值的位置(相对于源映射页面缓冲区的起始位置)
+	 * @param value the long value
+	 */
+	void putLong(int position, long value);
+	
+	/**
+	 * Write an int at specific position of the mapped page
+	 * 在映射页面的特定位置写入int
+	 * 
+	 * @param position position(relative to the start position of source mapped page buffer) of the value
+	 *                 值的位置(相对于源映射页面缓冲区的起始位置)
+	 * @param value the int value
+	 */
+	void putInt(int position, int value);
+	
+	/**
+	 * Copy data starting at specific position of the mapped page into a byte array, the whole array is filled
+	 * 将映射页面特定位置开始的数据拷贝到字节数组中，整个数组都会被填满
+	 * 
+	 * @param position start position(relative to the start position of source mapped page buffer) of the data
+	 *                 数据的起始位置(相对于源映射页面缓冲区的起始位置)
+	 * @param dst the array to copy into
+	 *            拷贝到的数组
+	 */
+	void copyTo(int position, byte[] dst);
+	
+	/**
+	 * Copy a byte array into the mapped page starting at specific position
+	 * 将字节数组拷贝到映射页面中特定位置开始的地方
+	 * 
+	 * @param position start position(relative to the start position of source mapped page buffer) of the data
+	 *                 数据的起始位置(相对于源映射页面缓冲区的起始位置)
+	 * @param src the data to copy
+	 *            要拷贝的数据
 	 */
-	ByteBuffer getLocal(int position);
+	void put(int position, byte[] src);
 	
 	/**
-	 * Get data from a thread local copy of the mapped page buffer
-	 * 从本地映射页面缓冲区的本地副本获取数据
+	 * Copy the remaining bytes of a buffer into the mapped page starting at specific position,
+	 * the position of the buffer is advanced to its limit.
+	 * 将缓冲区的剩余字节拷贝到映射页面中特定位置开始的地方，缓冲区的位置会推进到其限制。
 	 * 
-	 * @param position start position(relative to the start position of source mapped page buffer) of the thread local buffer
-	 *                 启动位置(相对于源映射页面缓冲区的起始位置的位置)
-	 * @param length the length to fetch
-	 *               获取长度
-	 * @return byte data
-	 * 			字节数据
+	 * @param position start position(relative to the start position of source mapped page buffer) of the data
+	 *                 数据的起始位置(相对于源映射页面缓冲区的起始位置)
+	 * @param src the buffer holding the data to copy
+	 *            持有要拷贝数据的缓冲区
 	 */
-	public byte[] getLocal(int position, int length);
+	void put(int position, ByteBuffer src);
+	
+	/**
+	 * Get a read only view of part of the mapped page buffer, no data is copied.
+	 * The view points into memory which is released when the page is unmapped, so the caller must hold
+	 * a {@link #pin()} on the page when it takes the view and for as long as the view is used.
+	 * 获取映射页面缓冲区一部分的只读视图，不拷贝数据。视图指向页面取消映射时被释放的内存，
+	 * 因此调用者在获取视图时以及使用视图期间必须持有页面的固定。
+	 * 
+	 * @param position start position(relative to the start position of source mapped page buffer) of the view
+	 *                 视图的起始位置(相对于源映射页面缓冲区的起始位置)
+	 * @param length the length of the view
+	 *               视图的长度
+	 * @return a read only byte buffer with position 0 and limit length
+	 * 			位置为0、限制为length的只读字节缓冲区
+	 */
+	ByteBuffer getSlice(int position, int length);
+	
+	/**
+	 * Pin the mapped page, a pinned page is not unmapped until it is unpinned,
+	 * even if it has been closed in the meantime.
+	 * 固定映射页面，被固定的页面在解除固定之前不会被取消映射，即使在此期间它已被关闭。
+	 * 
+	 * @return true if pinned, false if the page has already been closed
+	 * 			如果固定成功返回true，如果页面已经关闭返回false
+	 */
+	boolean pin();
+	
+	/**
+	 * Release a pin taken by {@link #pin()}, a closed page is unmapped when its last pin is released.
+	 * 释放由pin()获取的固定，已关闭的页面在最后一个固定释放时被取消映射。
+	 */
+	void unpin();
+
+	/**
+	 * The accessors of the page without the pin every single access takes otherwise, for a caller that already
+	 * keeps the page mapped, with a {@link #pin()} or by an acquired page used under the array read lock,
+	 * and only for as long as it does. Pages whose accessors don't pin return themselves.
+	 * 不对每次访问进行固定的页面访问方法，供已经保持页面映射的调用者使用(持有pin()或在数组读锁下使用已获取的页面)，
+	 * 并且只能在此期间使用。访问方法不固定的页面返回自身。
+	 *
+	 * @return the page accessed without pinning, other calls go to this page
+	 * 			不固定访问的页面，其他调用转到此页面
+	 */
+	IMappedPage unchecked();
+
+	/**
+	 * Load the content of the mapped page into physical memory, so later accesses don't page fault
+	 * 将映射页面的内容加载到物理内存中，这样后续访问不会发生缺页
+	 */
+	void load();
 	
 	/**
 	 * Check if this mapped page has been closed or not
@@ -53,6 +151,15 @@ public interface IMappedPage {
 	 */
 	void setDirty(boolean dirty);
 	
+	/**
+	 * Mark a range of the mapped page as changed, only the changed range is forced on flush
+	 * 将映射页面的一个范围标记为已更改，刷新时只强制写入已更改的范围
+	 * 
+	 * @param position start of the changed range 已更改范围的起始位置
+	 * @param length length of the changed range 已更改范围的长度
+	 */
+	void setDirty(int position, int length);
+	
 	/**
 	 * The back page file name of the mapped page
 	 * 映射页面的后页文件名
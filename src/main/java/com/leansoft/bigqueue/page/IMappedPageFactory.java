@@ -38,6 +38,27 @@ public interface IMappedPageFactory {
 	 */
 	void releasePage(long index);
 	
+	/**
+	 * Look up a mapped page with specific index for a short read or write,
+	 * 查找带有特定索引的映射页面，用于短暂的读取或写入，
+	 *
+	 * unlike {@link #acquirePage(long)} the page must not be released, with the page table enabled
+	 * a recently looked up page is found with one array load and without touching the cache.
+	 * 与acquirePage不同，页面不能被释放，启用页表时，最近查找过的页面通过一次数组读取找到，无需访问缓存。
+	 *
+	 * The caller holds no reference on the page, so the cache may close it at any time, even while the caller
+	 * holds a lock of the array owning the factory. The caller must {@link IMappedPage#pin()} the page for as long as
+	 * it reads or writes it, and look it up again if the pin fails because the page has been closed.
+	 * 调用者不持有页面的引用，因此缓存随时可能关闭它，即使调用者持有拥有该工厂的数组的锁。调用者在读写页面期间必须固定页面，
+	 * 如果页面已关闭导致固定失败，则重新查找。
+	 *
+	 * @param index the index of the page 页面的索引
+	 * @return a mapped page 一个映射的页面
+	 * @throws IOException exception thrown if there was any IO error during the lookup operation
+	 * 			如果在查找操作期间存在IO错误，则抛出异常
+	 */
+	IMappedPage lookupPage(long index) throws IOException;
+	
 	/**
 	 * Current set page size, when creating pages, the factory will
 	 * only create pages with this size.
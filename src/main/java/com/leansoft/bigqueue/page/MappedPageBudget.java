@@ -0,0 +1,190 @@
+package com.leansoft.bigqueue.page;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Budget of the memory mapped by the pages of all page factories in the JVM,
+ * JVM中所有页面工厂的页面所映射内存的预算，
+ *
+ * every page factory registers itself on construction, and each cache alone only expires pages by their time to live.
+ * Once the pages mapped by all factories exceed the limit, the least recently used pages which are neither referenced
+ * nor pinned are evicted and unmapped across all factories, whatever queue they belong to, until the mapped bytes
+ * are back under the limit.
+ * 每个页面工厂在构造时注册自己，而每个缓存自身只按存活时间使页面过期。一旦所有工厂映射的页面超过限制，
+ * 就会在所有工厂中(无论它们属于哪个队列)驱逐并取消映射最近最少使用的、既没有被引用也没有被固定的页面，直到映射的字节数回到限制以下。
+ *
+ * The limit is soft, it is checked each time a page is mapped, and referenced or pinned pages stay mapped even beyond the limit,
+ * however recently the others were used. Pages closed while pinned are counted until their last unpin unmaps them.
+ * Pages accessed with positional reads and writes map nothing and are not counted.
+ * 该限制是软限制，在每次映射页面时检查，被引用或被固定的页面即使超出限制也会保持映射，无论其他页面最近何时被使用过。
+ * 在固定时被关闭的页面会一直被统计，直到最后一次解除固定将其取消映射。使用定位读写访问的页面不映射任何内容，不被统计。
+ *
+ * @author bulldog
+ *
+ */
+public class MappedPageBudget {
+
+	private final static Logger logger = LoggerFactory.getLogger(MappedPageBudget.class);
+
+	// registered factories, held weakly since factories are never closed 已注册的工厂，由于工厂从不关闭，所以弱引用持有
+	private static final Map<MappedPageFactoryImpl, Boolean> factories = new WeakHashMap<MappedPageFactoryImpl, Boolean>();
+
+	// limit in bytes of the mapped pages, 0 if unlimited 映射页面的字节限制，0表示无限制
+	private static volatile long limit = 0;
+
+	// only one thread evicts at a time, the others go on beyond the soft limit 一次只有一个线程驱逐，其他线程继续超出软限制
+	private static final AtomicBoolean evicting = new AtomicBoolean(false);
+
+	private MappedPageBudget() {
+	}
+
+	/**
+	 * Set the limit in bytes of the memory mapped by the pages of all queues, pages are evicted at once
+	 * if the current mapped bytes exceed the new limit.
+	 * 设置所有队列页面映射内存的字节限制，如果当前映射的字节数超过新的限制，则立即驱逐页面。
+	 *
+	 * @param limitInBytes the limit, 0 for no limit, which is the default 限制，0表示没有限制，这是默认值
+	 */
+	public static void setLimit(long limitInBytes) {
+		if (limitInBytes < 0) {
+			throw new IllegalArgumentException("invalid mapped page budget limit " + limitInBytes);
+		}
+		limit = limitInBytes;
+		enforce();
+	}
+
+	public static long getLimit() {
+		return limit;
+	}
+
+	/**
+	 * Total bytes of memory mapped by the pages of all factories, including the closed pages still pinned.
+	 * 所有工厂的页面映射的内存总字节数，包括仍被固定的已关闭页面。
+	 *
+	 * @return mapped bytes 映射的字节数
+	 */
+	public static long getMappedSize() {
+		return mappedSize(registeredFactories());
+	}
+
+	private static long mappedSize(List<MappedPageFactoryImpl> currentFactories) {
+		long mappedSize = 0;
+		for(MappedPageFactoryImpl factory : currentFactories) {
+			mappedSize += factory.getMappedSize();
+		}
+		return mappedSize;
+	}
+
+	/**
+	 * Bytes of memory mapped per queue, keyed by the directory the page directories are in,
+	 * which is the array directory of a queue.
+	 * 每个队列映射的内存字节数，按页面目录所在的目录(即队列的数组目录)作为key。
+	 *
+	 * @return mapped bytes by queue directory, sorted by directory 按队列目录的映射字节数，按目录排序
+	 */
+	public static Map<String, Long> getUsage() {
+		Map<String, Long> usage = new TreeMap<String, Long>();
+		for(MappedPageFactoryImpl factory : registeredFactories()) {
+			String queueDir = new File(factory.getPageDir()).getParent();
+			Long mappedSize = usage.get(queueDir);
+			usage.put(queueDir, (mappedSize == null ? 0L : mappedSize) + factory.getMappedSize());
+		}
+		return usage;
+	}
+
+	static void register(MappedPageFactoryImpl factory) {
+		synchronized(factories) {
+			factories.put(factory, Boolean.TRUE);
+		}
+	}
+
+	private static List<MappedPageFactoryImpl> registeredFactories() {
+		synchronized(factories) {
+			return new ArrayList<MappedPageFactoryImpl>(factories.keySet());
+		}
+	}
+
+	/**
+	 * Evict least recently used idle pages across all factories while the mapped bytes exceed the limit,
+	 * 当映射的字节数超过限制时，在所有工厂中驱逐最近最少使用的空闲页面，
+	 *
+	 * called once a page has been mapped.
+	 * 在页面被映射后调用。
+	 */
+	static void enforce() {
+		long currentLimit = limit;
+		if (currentLimit <= 0) return;
+		if (!evicting.compareAndSet(false, true)) return;
+		try {
+			List<MappedPageFactoryImpl> currentFactories = registeredFactories();
+			long mappedSize = mappedSize(currentFactories);
+			if (mappedSize <= currentLimit) return;
+
+			List<IdlePage> candidates = new ArrayList<IdlePage>();
+			for(MappedPageFactoryImpl factory : currentFactories) {
+				if (factory.getMappedPageSize() > 0) {
+					factory.collectIdlePages(candidates);
+				}
+			}
+			Collections.sort(candidates, IdlePage.LEAST_RECENTLY_USED_FIRST);
+			int evicted = 0;
+			for(IdlePage candidate : candidates) {
+				if (mappedSize <= currentLimit) break;
+				try {
+					// a page is evicted only without reference and pin, a reader looking it up meanwhile fails to pin
+					// the closed page and looks it up again, and a page pinned meanwhile stays mapped and counted
+					// 页面只在没有引用和固定时被驱逐，同时查找它的读取者固定已关闭页面会失败并重新查找，同时被固定的页面保持映射并被统计
+					if (candidate.factory.evictIdlePage(candidate.index, candidate.lastAccessedTimestamp)) {
+						mappedSize = mappedSize(currentFactories);
+						evicted++;
+					}
+				} catch (IOException e) {
+					logger.warn("fail to evict page " + candidate.index + " in dir " + candidate.factory.getPageDir(), e);
+				}
+			}
+			if (evicted > 0 && logger.isDebugEnabled()) {
+				logger.debug("Mapped page budget evicted " + evicted + (evicted > 1 ? " pages" : " page") + ", mapped bytes = " + mappedSize + ".");
+			}
+			if (mappedSize > currentLimit && logger.isDebugEnabled()) {
+				logger.debug("Mapped bytes " + mappedSize + " stay over the budget limit " + currentLimit + ", the rest of the pages are referenced or pinned.");
+			}
+		} finally {
+			evicting.set(false);
+		}
+	}
+
+	/**
+	 * A cached page without reference, a candidate for eviction.
+	 * 没有引用的缓存页面，驱逐的候选。
+	 */
+	static class IdlePage {
+
+		static final Comparator<IdlePage> LEAST_RECENTLY_USED_FIRST = new Comparator<IdlePage>() {
+			public int compare(IdlePage o1, IdlePage o2) {
+				return o1.lastAccessedTimestamp < o2.lastAccessedTimestamp ? -1 : (o1.lastAccessedTimestamp == o2.lastAccessedTimestamp ? 0 : 1);
+			}
+		};
+
+		final MappedPageFactoryImpl factory;
+		final long index;
+		final long lastAccessedTimestamp;
+
+		IdlePage(MappedPageFactoryImpl factory, long index, long lastAccessedTimestamp) {
+			this.factory = factory;
+			this.index = index;
+			this.lastAccessedTimestamp = lastAccessedTimestamp;
+		}
+	}
+}
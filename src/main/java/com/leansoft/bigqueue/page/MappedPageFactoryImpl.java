@@ -5,18 +5,23 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.leansoft.bigqueue.cache.ILRUCache;
-import com.leansoft.bigqueue.cache.LRUCacheImpl;
+import com.leansoft.bigqueue.cache.ConcurrentLRUCacheImpl;
 import com.leansoft.bigqueue.utils.FileUtil;
 
 import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
@@ -48,13 +53,57 @@ public class MappedPageFactoryImpl implements IMappedPageFactory {
 	
 	public static final String PAGE_FILE_NAME = "page";
 	public static final String PAGE_FILE_SUFFIX = ".dat";
+	// suffix of a deleted page file kept for reuse 保留以供重用的已删除页面文件的后缀
+	public static final String FREE_PAGE_FILE_SUFFIX = ".free";
 	
-	private ILRUCache<Long, MappedPageImpl> cache;
+	private ConcurrentLRUCacheImpl<Long, ICachedPage> cache;
+	
+	// recently looked up pages for lookups without hashing and reference counting, null if disabled
+	// 最近查找的页面，用于无需哈希和引用计数的查找，禁用时为null
+	private final PageTable pageTable;
+	
+	// pages still mapped, the cached ones and the ones evicted or expired while pinned until their last unpin,
+	// a page file is only recycled once no page maps it any more
+	// 仍然映射的页面，包括缓存的页面和在固定时被驱逐或过期、直到最后一次解除固定的页面，页面文件只有在没有页面映射它时才被回收
+	private final Set<ICachedPage> mappedPages = Collections.newSetFromMap(new ConcurrentHashMap<ICachedPage, Boolean>());
+	
+	// size of each back page file by page index, built from the page directory once and kept up to date
+	// on page creation and deletion, so the page directory is not listed again
+	// 按页索引记录每个后页文件的大小，只从页面目录构建一次，并在页面创建和删除时更新，因此不会再次列出页面目录
+	private final ConcurrentSkipListMap<Long, Long> pageFileSizeMap = new ConcurrentSkipListMap<Long, Long>();
+	// total size of the back page files 后页文件的总大小
+	private final AtomicLong backPageFileSize = new AtomicLong(0L);
+	
+	// maximum number of deleted page files kept for reuse, 0 if deleted page files are removed
+	// 保留以供重用的已删除页面文件的最大数量，0表示删除的页面文件被移除
+	private final int recyclePoolSize;
+	// deleted page files kept for reuse by the next created pages, the most recently deleted last
+	// 保留以供下一个创建的页面重用的已删除页面文件，最近删除的在最后
+	private final ArrayDeque<File> freePageFiles = new ArrayDeque<File>();
 	
 	public MappedPageFactoryImpl(int pageSize, String pageDir, long cacheTTL) {
+		this(pageSize, pageDir, cacheTTL, 0);
+	}
+	
+	public MappedPageFactoryImpl(int pageSize, String pageDir, long cacheTTL, int pageTableSize) {
+		this(pageSize, pageDir, cacheTTL, pageTableSize, 0);
+	}
+	
+	/**
+	 * @param pageSize size in bytes of a page 页面的字节大小
+	 * @param pageDir directory of the page files 页面文件的目录
+	 * @param cacheTTL milliseconds a page stays cached once it is no longer referenced 页面不再被引用后保持缓存的毫秒数
+	 * @param pageTableSize number of slots of the page table used by {@link #lookupPage(long)}, 0 disables the page table
+	 *                      lookupPage使用的页表槽数，0表示禁用页表
+	 * @param recyclePoolSize maximum number of deleted page files renamed into a free pool and reused for the next
+	 *                        created pages instead of creating new files, 0 deletes page files
+	 *                        重命名到空闲池中并被下一个创建的页面重用而不是创建新文件的已删除页面文件的最大数量，0表示删除页面文件
+	 */
+	public MappedPageFactoryImpl(int pageSize, String pageDir, long cacheTTL, int pageTableSize, int recyclePoolSize) {
 		this.pageSize = pageSize;
 		this.pageDir = pageDir;
 		this.ttl = cacheTTL;
+		this.recyclePoolSize = recyclePoolSize;
 		this.pageDirFile = new File(this.pageDir);
 		if (!pageDirFile.exists()) {
 			pageDirFile.mkdirs();
@@ -63,12 +112,47 @@ public class MappedPageFactoryImpl implements IMappedPageFactory {
 			this.pageDir += File.separator;
 		}
 		this.pageFile = this.pageDir + PAGE_FILE_NAME + "-"; 
-		this.cache = new LRUCacheImpl<Long, MappedPageImpl>();
+		this.cache = new ConcurrentLRUCacheImpl<Long, ICachedPage>();
+		this.pageTable = pageTableSize > 0 ? new PageTable(this, pageTableSize) : null;
+		this.loadPageFileSizes();
+		MappedPageBudget.register(this);
+	}
+	
+	// the only scan of the page directory 唯一一次扫描页面目录
+	private void loadPageFileSizes() {
+		File[] pageFiles = this.pageDirFile.listFiles();
+		if (pageFiles != null && pageFiles.length > 0) {
+			for(File pageFile : pageFiles) {
+				String fileName = pageFile.getName();
+				if (fileName.endsWith(PAGE_FILE_SUFFIX)) {
+					this.recordPageFileSize(this.getIndexByFileName(fileName), pageFile.length());
+				} else if (fileName.endsWith(FREE_PAGE_FILE_SUFFIX)) {
+					if (this.freePageFiles.size() < this.recyclePoolSize) {
+						this.freePageFiles.addLast(pageFile);
+					} else {
+						this.deleteFreePageFile(pageFile);
+					}
+				}
+			}
+		}
+	}
+	
+	void recordPageFileSize(long index, long size) {
+		Long previousSize = this.pageFileSizeMap.put(index, size);
+		this.backPageFileSize.addAndGet(previousSize == null ? size : size - previousSize);
+	}
+	
+	private void forgetPageFileSize(long index) {
+		Long previousSize = this.pageFileSizeMap.remove(index);
+		if (previousSize != null) {
+			this.backPageFileSize.addAndGet(-previousSize);
+		}
 	}
 
 	public IMappedPage acquirePage(long index) throws IOException {
-		MappedPageImpl mpi = cache.get(index);
+		ICachedPage mpi = cache.get(index);
 		if (mpi == null) { // not in cache, need to create one 不是在缓存中，需要创建一个
+			boolean created = false;
 			try {
 				Object lock = null;
 				synchronized(mapLock) {
@@ -80,21 +164,15 @@ public class MappedPageFactoryImpl implements IMappedPageFactory {
 				synchronized(lock) { // only lock the creation of page index 只锁定页面索引的创建
 					mpi = cache.get(index); // double check
 					if (mpi == null) {
-						RandomAccessFile raf = null;
-						FileChannel channel = null;
-						try {
-							String fileName = this.getFileNameByIndex(index);
-							raf = new RandomAccessFile(fileName, "rw");
-							channel = raf.getChannel();
-							MappedByteBuffer mbb = channel.map(READ_WRITE, 0, this.pageSize);
-							mpi = new MappedPageImpl(mbb, fileName, index);
-							cache.put(index, mpi, ttl);
-							if (logger.isDebugEnabled()) {
-								logger.debug("Mapped page for " + fileName + " was just created and cached.");
-							}
-						} finally {
-							if (channel != null) channel.close();
-							if (raf != null) raf.close();
+						String fileName = this.getFileNameByIndex(index);
+						if (!this.pageFileSizeMap.containsKey(index)) {
+							this.reuseFreePageFile(fileName);
+						}
+						mpi = this.openPage(fileName, index);
+						cache.put(index, mpi, ttl);
+						created = true;
+						if (logger.isDebugEnabled()) {
+							logger.debug("Mapped page for " + fileName + " was just created and cached.");
 						}
 					}
 				}
@@ -103,6 +181,11 @@ public class MappedPageFactoryImpl implements IMappedPageFactory {
 					pageCreationLockMap.remove(index);
 				}
 			}
+			if (created) {
+				// outside of the creation lock, the budget may close pages of this factory
+				// 在创建锁之外，预算可能会关闭此工厂的页面
+				MappedPageBudget.enforce();
+			}
 	    } else {
 	    	if (logger.isDebugEnabled()) {
 	    		logger.debug("Hit mapped page " + mpi.getPageFile() + " in cache.");
@@ -112,6 +195,157 @@ public class MappedPageFactoryImpl implements IMappedPageFactory {
 		return mpi;
 	}
 	
+	/**
+	 * Open the back file of a page, called once per page creation under the creation lock of the page index,
+	 * overridden by factories of other storage backends.
+	 * 打开页面的后文件，每次创建页面时在该页面索引的创建锁下调用一次，由其他存储后端的工厂覆盖。
+	 *
+	 * @param fileName back file of the page 页面的后文件
+	 * @param index the index of the page 页面的索引
+	 * @return the page, not cached yet 页面，尚未缓存
+	 * @throws IOException exception thrown if the page file could not be opened
+	 */
+	ICachedPage openPage(String fileName, long index) throws IOException {
+		RandomAccessFile raf = null;
+		FileChannel channel = null;
+		try {
+			raf = new RandomAccessFile(fileName, "rw");
+			channel = raf.getChannel();
+			MappedByteBuffer mbb = channel.map(READ_WRITE, 0, this.pageSize);
+			// mapping grows the file to the page size if it is new or shorter 映射会将新文件或较短的文件扩展到页面大小
+			this.recordPageFileSize(index, Math.max(this.pageSize, raf.length()));
+			return new MappedPageImpl(mbb, fileName, index, this.mappedPages);
+		} finally {
+			if (channel != null) channel.close();
+			if (raf != null) raf.close();
+		}
+	}
+	
+	// rename a free page file to the file of a new page, so the page starts with allocated blocks instead of an empty file
+	// 将空闲页面文件重命名为新页面的文件，这样页面从已分配的块开始，而不是从空文件开始
+	private void reuseFreePageFile(String fileName) {
+		File freePageFile;
+		synchronized(freePageFiles) {
+			freePageFile = freePageFiles.pollLast();
+		}
+		if (freePageFile == null) return;
+		File pageFile = new File(fileName);
+		if (freePageFile.renameTo(pageFile)) {
+			// the page age is told by the last modified time, see getPageIndexSetBefore 页面年龄由最后修改时间判断
+			pageFile.setLastModified(System.currentTimeMillis());
+			if (logger.isDebugEnabled()) {
+				logger.debug("Free page file " + freePageFile + " was reused for " + fileName + ".");
+			}
+		} else {
+			logger.warn("fail to reuse free page file " + freePageFile + ", a new page file is created instead.");
+			this.deleteFreePageFile(freePageFile);
+		}
+	}
+	
+	// keep a deleted page file in the free pool unless the pool is full 除非空闲池已满，否则将删除的页面文件保留在空闲池中
+	private boolean recyclePageFile(long index, String fileName) {
+		if (this.recyclePoolSize <= 0) return false;
+		File freePageFile = new File(this.pageFile + index + FREE_PAGE_FILE_SUFFIX);
+		synchronized(freePageFiles) {
+			if (freePageFiles.size() >= this.recyclePoolSize || freePageFile.exists()) return false;
+			if (!new File(fileName).renameTo(freePageFile)) return false;
+			freePageFiles.addLast(freePageFile);
+		}
+		return true;
+	}
+	
+	// whether a page of the index still maps its page file 该索引的页面是否仍然映射其页面文件
+	private boolean isPageFileMapped(long index) {
+		for(ICachedPage page : mappedPages) {
+			if (page.getPageIndex() == index) return true;
+		}
+		return false;
+	}
+	
+	private void deleteFreePageFile(File freePageFile) {
+		try {
+			FileUtil.deleteFile(freePageFile);
+		} catch (IllegalStateException ex) {
+			logger.warn("fail to delete free page file " + freePageFile + ", you may delete it manually.");
+		}
+	}
+	
+	/**
+	 * Called once a page has been removed from the cache before its file is deleted or recycled,
+	 * overridden by factories keeping state per page file.
+	 * 页面从缓存中删除之后、其文件被删除或回收之前调用，由按页面文件保存状态的工厂覆盖。
+	 *
+	 * @param index the index of the page 页面的索引
+	 */
+	void pageFileDeleted(long index) {
+	}
+	
+	/**
+	 * Bytes of memory mapped by each cached page, 0 for storage backends which map nothing.
+	 * 每个缓存页面映射的内存字节数，对于不映射任何内容的存储后端为0。
+	 *
+	 * @return mapped bytes per page 每个页面映射的字节数
+	 */
+	long getMappedPageSize() {
+		return this.pageSize;
+	}
+	
+	/**
+	 * Bytes of memory mapped by the pages of this factory, accounted by {@link MappedPageBudget},
+	 * the cached pages and the pages closed while pinned which stay mapped until they are unpinned.
+	 * 此工厂页面映射的内存字节数，由MappedPageBudget统计，包括缓存的页面和在固定时被关闭、直到解除固定前仍保持映射的页面。
+	 *
+	 * @return mapped bytes 映射的字节数
+	 */
+	long getMappedSize() {
+		return mappedPages.size() * this.getMappedPageSize();
+	}
+	
+	/**
+	 * Add the cached pages which are neither referenced nor pinned to the eviction candidates of the budget.
+	 * 将既没有被引用也没有被固定的缓存页面添加到预算的驱逐候选中。
+	 *
+	 * @param candidates eviction candidates of all factories 所有工厂的驱逐候选
+	 */
+	void collectIdlePages(List<MappedPageBudget.IdlePage> candidates) {
+		Map<Long, Long> idleEntries = cache.getIdleEntries();
+		if (idleEntries.isEmpty()) return;
+		// closing a pinned page does not unmap it, so it frees nothing 关闭被固定的页面不会取消映射，因此不会释放任何内存
+		for(ICachedPage page : cache.getValues()) {
+			if (page.isPinned()) {
+				idleEntries.remove(page.getPageIndex());
+			}
+		}
+		for(Map.Entry<Long, Long> entry : idleEntries.entrySet()) {
+			candidates.add(new MappedPageBudget.IdlePage(this, entry.getKey(), entry.getValue()));
+		}
+	}
+	
+	/**
+	 * Evict a page found by {@link #collectIdlePages(List)} and unmap it, unless it has been used meanwhile.
+	 * 驱逐由collectIdlePages找到的页面并取消映射，除非它在此期间被使用过。
+	 *
+	 * @param index the index of the page 页面的索引
+	 * @param lastAccessedTimestamp the last accessed time when the page was collected 收集页面时的最后访问时间
+	 * @return true if the page was evicted 如果页面被驱逐则返回true
+	 * @throws IOException exception thrown if the page could not be closed
+	 */
+	boolean evictIdlePage(long index, long lastAccessedTimestamp) throws IOException {
+		return cache.evictIdle(index, lastAccessedTimestamp);
+	}
+	
+	@Override
+	public IMappedPage lookupPage(long index) throws IOException {
+		if (pageTable != null) {
+			return pageTable.lookup(index);
+		}
+		// without reference once returned, the caller pins the page while it uses it
+		// 返回后没有引用，调用者在使用页面期间固定它
+		IMappedPage page = this.acquirePage(index);
+		this.releasePage(index);
+		return page;
+	}
+	
 	private String getFileNameByIndex(long index) {
 		return this.pageFile + index + PAGE_FILE_SUFFIX;
 	}
@@ -134,6 +368,7 @@ public class MappedPageFactoryImpl implements IMappedPageFactory {
 	 */
 	@Override
 	public void releaseCachedPages() throws IOException {
+		this.clearPageTable();
 		cache.removeAll();
 	}
 
@@ -142,9 +377,18 @@ public class MappedPageFactoryImpl implements IMappedPageFactory {
 	 */
 	@Override
 	public void deleteAllPages() throws IOException {
+		this.clearPageTable();
 		cache.removeAll();
 		Set<Long> indexSet = getExistingBackFileIndexSet();
-		this.deletePages(indexSet);
+		for(long index : indexSet) {
+			this.deletePage(index, false);
+		}
+		synchronized(freePageFiles) {
+			for(File freePageFile : freePageFiles) {
+				this.deleteFreePageFile(freePageFile);
+			}
+			freePageFiles.clear();
+		}
 		if (logger.isDebugEnabled()) {
 			logger.debug("All page files in dir " + this.pageDir + " have been deleted.");
 		}
@@ -166,9 +410,27 @@ public class MappedPageFactoryImpl implements IMappedPageFactory {
 	 */
 	@Override
 	public void deletePage(long index) throws IOException {
+		this.deletePage(index, true);
+	}
+	
+	private void deletePage(long index, boolean recycle) throws IOException {
 		// remove the page from cache first 首先从缓存中删除页面
+		if (pageTable != null) {
+			pageTable.remove(index);
+		}
 		cache.remove(index);
+		this.pageFileDeleted(index);
 		String fileName = this.getFileNameByIndex(index);
+		// a page closed while pinned still maps the file, a recycled file would be handed to a new page which overwrites
+		// what the pinned views read, so the file is deleted instead, the mapping stays readable until unmapped
+		// 在固定时被关闭的页面仍然映射着文件，回收的文件会交给新页面覆盖固定视图读取的内容，因此改为删除文件，映射在取消映射前仍可读
+		if (recycle && !this.isPageFileMapped(index) && this.recyclePageFile(index, fileName)) {
+			this.forgetPageFileSize(index);
+			if (logger.isDebugEnabled()) {
+				logger.debug("Page file " + fileName + " was just recycled.");
+			}
+			return;
+		}
 		int count = 0;
 		int maxRound = 10;
 		boolean deleted = false;
@@ -189,6 +451,7 @@ public class MappedPageFactoryImpl implements IMappedPageFactory {
 			}
 		}
 		if (deleted) {
+			this.forgetPageFileSize(index);
 			logger.info("Page file " + fileName + " was just deleted.");
 		} else {
 			logger.warn("fail to delete file " + fileName + " after max " + maxRound + " rounds of try, you may delete it manually.");
@@ -198,16 +461,10 @@ public class MappedPageFactoryImpl implements IMappedPageFactory {
 	@Override
 	public Set<Long> getPageIndexSetBefore(long timestamp) {
 		Set<Long> beforeIndexSet = new HashSet<Long>();
-		File[] pageFiles = this.pageDirFile.listFiles();
-		if (pageFiles != null && pageFiles.length > 0) {
-			for(File pageFile : pageFiles) {
-				if (pageFile.lastModified() < timestamp) {
-					String fileName = pageFile.getName();
-					if (fileName.endsWith(PAGE_FILE_SUFFIX)) {
-						long index = this.getIndexByFileName(fileName);
-						beforeIndexSet.add(index);
-					}
-				}
+		for(long index : this.pageFileSizeMap.keySet()) {
+			File pageFile = new File(this.getFileNameByIndex(index));
+			if (pageFile.lastModified() < timestamp) {
+				beforeIndexSet.add(index);
 			}
 		}
 		return beforeIndexSet;
@@ -237,29 +494,14 @@ public class MappedPageFactoryImpl implements IMappedPageFactory {
 
     @Override
     public void deletePagesBeforePageIndex(long pageIndex) throws IOException {
-        Set<Long> indexSet = this.getExistingBackFileIndexSet();
-        for (Long index : indexSet) {
-            if (index < pageIndex) {
-                this.deletePage(index);
-            }
-        }
+        Set<Long> indexSet = new HashSet<Long>(this.pageFileSizeMap.headMap(pageIndex).keySet());
+        this.deletePages(indexSet);
     }
 
 
     @Override
 	public Set<Long> getExistingBackFileIndexSet() {
-		Set<Long> indexSet = new HashSet<Long>();
-		File[] pageFiles = this.pageDirFile.listFiles();
-		if (pageFiles != null && pageFiles.length > 0) {
-			for(File pageFile : pageFiles) {
-				String fileName = pageFile.getName();
-				if (fileName.endsWith(PAGE_FILE_SUFFIX)) {
-					long index = this.getIndexByFileName(fileName);
-					indexSet.add(index);
-				}
-			}
-		}
-		return indexSet;
+		return new HashSet<Long>(this.pageFileSizeMap.keySet());
 	}
 
 	@Override
@@ -267,6 +509,24 @@ public class MappedPageFactoryImpl implements IMappedPageFactory {
 		return cache.size();
 	}
 	
+	private void clearPageTable() {
+		if (pageTable != null) {
+			pageTable.clear();
+		}
+	}
+	
+	// for testing
+	int getPageTableSize() {
+		return pageTable != null ? pageTable.size() : 0;
+	}
+	
+	// for testing
+	int getFreePageFileCount() {
+		synchronized(freePageFiles) {
+			return freePageFiles.size();
+		}
+	}
+	
 	// for testing
 	int getLockMapSize() {
 		return this.pageCreationLockMap.size();
@@ -296,7 +556,7 @@ public class MappedPageFactoryImpl implements IMappedPageFactory {
 	 */
 	@Override
 	public void flush() {
-		Collection<MappedPageImpl> cachedPages = cache.getValues();
+		Collection<ICachedPage> cachedPages = cache.getValues();
 		for(IMappedPage mappedPage : cachedPages) {
 			mappedPage.flush();
 		}
@@ -305,31 +565,16 @@ public class MappedPageFactoryImpl implements IMappedPageFactory {
 	@Override
 	public Set<String> getBackPageFileSet() {
 		Set<String> fileSet = new HashSet<String>();
-		File[] pageFiles = this.pageDirFile.listFiles();
-		if (pageFiles != null && pageFiles.length > 0) {
-			for(File pageFile : pageFiles) {
-				String fileName = pageFile.getName();
-				if (fileName.endsWith(PAGE_FILE_SUFFIX)) {
-					fileSet.add(fileName);
-				}
-			}
+		for(long index : this.pageFileSizeMap.keySet()) {
+			fileSet.add(PAGE_FILE_NAME + "-" + index + PAGE_FILE_SUFFIX);
 		}
 		return fileSet;
 	}
 
 	@Override
 	public long getBackPageFileSize() {
-		long totalSize = 0L;
-		File[] pageFiles = this.pageDirFile.listFiles();
-		if (pageFiles != null && pageFiles.length > 0) {
-			for(File pageFile : pageFiles) {
-				String fileName = pageFile.getName();
-				if (fileName.endsWith(PAGE_FILE_SUFFIX)) {
-					totalSize += pageFile.length();
-				}
-			}
-		}
-		return totalSize;
+		return this.backPageFileSize.get();
 	}
 
+
 }
@@ -1,28 +1,54 @@
 package com.leansoft.bigqueue.page;
 
-import java.io.Closeable;
 import java.io.IOException;
+import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class MappedPageImpl implements IMappedPage, Closeable {
+public class MappedPageImpl implements ICachedPage {
 	
 	private final static Logger logger = LoggerFactory.getLogger(MappedPageImpl.class);
 	
-	private ThreadLocalByteBuffer threadLocalBuffer;
-	private volatile boolean dirty = false;
+	// only accessed with absolute positions, so it is shared by all threads without per thread copies
+	// 只使用绝对位置访问，因此被所有线程共享而无需每个线程的副本
+	private final MappedByteBuffer srcBuf;
+	// changed range [dirtyLow, dirtyHigh) not forced yet, empty if dirtyHigh is 0, updated under dirtyLock
+	// 尚未强制写入的已更改范围，dirtyHigh为0时为空，在dirtyLock下更新
+	private final Object dirtyLock = new Object();
+	private int dirtyLow = Integer.MAX_VALUE;
+	private volatile int dirtyHigh = 0;
 	private volatile boolean closed = false;
 	private String pageFile;
 	private long index;
 	
+	// number of pins held on the page, -1 once the page has been unmapped
+	// 页面上持有的固定数量，页面取消映射后为-1
+	private final AtomicInteger pins = new AtomicInteger(0);
+	// pages of the factory still mapped, the page is in it from creation until unmapped, null if not tracked
+	// 工厂中仍然映射的页面，页面从创建到取消映射一直在其中，不跟踪时为null
+	private final Set<ICachedPage> mappedPages;
+	// accessors for callers keeping the page mapped themselves 供自己保持页面映射的调用者使用的访问方法
+	private final IMappedPage unchecked = new UncheckedAccess();
+	
+	// MappedByteBuffer.force(int, int), only available on JDK 13+ 仅在JDK 13+上可用
+	private static final Method FORCE_RANGE_METHOD = findForceRangeMethod();
+	
 	public MappedPageImpl(MappedByteBuffer mbb, String pageFile, long index) {
-		this.threadLocalBuffer = new ThreadLocalByteBuffer(mbb);
+		this(mbb, pageFile, index, null);
+	}
+	
+	MappedPageImpl(MappedByteBuffer mbb, String pageFile, long index, Set<ICachedPage> mappedPages) {
+		this.srcBuf = mbb;
 		this.pageFile = pageFile;
 		this.index = index;
+		this.mappedPages = mappedPages;
+		if (mappedPages != null) mappedPages.add(this);
 	}
 	
 	public void close() throws IOException {
@@ -31,52 +57,359 @@ public class MappedPageImpl implements IMappedPage, Closeable {
 
 			flush();
 			
-			MappedByteBuffer srcBuf = (MappedByteBuffer)threadLocalBuffer.getSourceBuffer();
-			unmap(srcBuf);
-			
-			this.threadLocalBuffer = null; // hint GC
-			
+			// mark closed before trying to unmap, so new pins fail and the last unpin unmaps
+			// 在尝试取消映射之前标记关闭，这样新的固定会失败，最后一次解除固定时取消映射
 			closed = true;
+			if (pins.compareAndSet(0, -1)) {
+				unmapClosed();
+				if (logger.isDebugEnabled()) {
+					logger.debug("Mapped page for " + this.pageFile + " was just unmapped and closed.");
+				}
+			} else if (logger.isDebugEnabled()) {
+				logger.debug("Mapped page for " + this.pageFile + " was just closed, unmap deferred until unpinned.");
+			}
+		}
+	}
+	
+	@Override
+	public boolean pin() {
+		for(;;) {
+			int current = pins.get();
+			if (current < 0) return false;
+			if (pins.compareAndSet(current, current + 1)) break;
+		}
+		if (closed) { // closed while pinning
+			unpin();
+			return false;
+		}
+		return true;
+	}
+	
+	@Override
+	public void unpin() {
+		if (pins.decrementAndGet() == 0 && closed && pins.compareAndSet(0, -1)) {
+			unmapClosed();
 			if (logger.isDebugEnabled()) {
-				logger.debug("Mapped page for " + this.pageFile + " was just unmapped and closed.");
+				logger.debug("Mapped page for " + this.pageFile + " was just unpinned and unmapped.");
 			}
 		}
 	}
 	
 	@Override
 	public void setDirty(boolean dirty) {
-		this.dirty = dirty;
+		if (dirty) {
+			setDirty(0, srcBuf.capacity());
+		} else {
+			synchronized(dirtyLock) {
+				dirtyLow = Integer.MAX_VALUE;
+				dirtyHigh = 0;
+			}
+		}
+	}
+	
+	@Override
+	public void setDirty(int position, int length) {
+		if (length <= 0) return;
+		synchronized(dirtyLock) {
+			if (position < dirtyLow) {
+				dirtyLow = position;
+			}
+			if (position + length > dirtyHigh) {
+				dirtyHigh = position + length;
+			}
+		}
 	}
 	
 	@Override
 	public void flush() {
 		synchronized(this) {
 			if (closed) return;
-			if (dirty) {
-				MappedByteBuffer srcBuf = (MappedByteBuffer)threadLocalBuffer.getSourceBuffer();
-				srcBuf.force(); // flush the changes
-				dirty = false;
-				if (logger.isDebugEnabled()) {
-					logger.debug("Mapped page for " + this.pageFile + " was just flushed.");
-				}
+			if (dirtyHigh == 0) return; // clean, e.g. a full page already flushed 干净的，例如已经刷新过的满页
+			// take the range first, a write racing with the force marks its range dirty again for the next flush
+			// 先取出范围，与force并发的写入会再次标记其范围为脏，留给下一次刷新
+			int low;
+			int high;
+			synchronized(dirtyLock) {
+				low = dirtyLow;
+				high = dirtyHigh;
+				dirtyLow = Integer.MAX_VALUE;
+				dirtyHigh = 0;
 			}
+			if (high == 0) return;
+			force(low, high - low); // flush the changes
+			if (logger.isDebugEnabled()) {
+				logger.debug("Mapped page for " + this.pageFile + " was just flushed, range [" + low + ", " + high + ").");
+			}
+		}
+	}
+
+	// for testing
+	int getDirtyLow() {
+		synchronized(dirtyLock) {
+			return dirtyLow;
+		}
+	}
+	
+	// for testing
+	int getDirtyHigh() {
+		return dirtyHigh;
+	}
+	
+	@Override
+	public void load() {
+		if (!pin()) return; // closed
+		try {
+			srcBuf.load();
+		} finally {
+			unpin();
 		}
 	}
 
-	public byte[] getLocal(int position, int length) {
-		ByteBuffer buf = this.getLocal(position);
-		byte[] data = new byte[length];
-		buf.get(data);
-		return data;
+	@Override
+	public long getLong(int position) {
+		enter();
+		try {
+			return srcBuf.getLong(position);
+		} finally {
+			unpin();
+		}
+	}
+	
+	@Override
+	public int getInt(int position) {
+		enter();
+		try {
+			return srcBuf.getInt(position);
+		} finally {
+			unpin();
+		}
+	}
+	
+	@Override
+	public void putLong(int position, long value) {
+		enter();
+		try {
+			srcBuf.putLong(position, value);
+		} finally {
+			unpin();
+		}
+	}
+	
+	@Override
+	public void putInt(int position, int value) {
+		enter();
+		try {
+			srcBuf.putInt(position, value);
+		} finally {
+			unpin();
+		}
+	}
+	
+	@Override
+	public void copyTo(int position, byte[] dst) {
+		enter();
+		try {
+			ByteBuffer buf = this.duplicateAt(position);
+			buf.get(dst);
+		} finally {
+			unpin();
+		}
 	}
 	
 	@Override
-	public ByteBuffer getLocal(int position) {
-		ByteBuffer buf = this.threadLocalBuffer.get();
+	public void put(int position, byte[] src) {
+		enter();
+		try {
+			ByteBuffer buf = this.duplicateAt(position);
+			buf.put(src);
+		} finally {
+			unpin();
+		}
+	}
+	
+	@Override
+	public void put(int position, ByteBuffer src) {
+		enter();
+		try {
+			ByteBuffer buf = this.duplicateAt(position);
+			buf.put(src);
+		} finally {
+			unpin();
+		}
+	}
+	
+	// unmap once closed and unpinned, called only by the thread which set the pins to -1
+	// 关闭且解除固定后取消映射，只由将固定数设置为-1的线程调用
+	private void unmapClosed() {
+		unmap(srcBuf);
+		if (mappedPages != null) mappedPages.remove(this);
+	}
+	
+	// short lived cursor over the mapped buffer for a bulk copy, the JDK has no absolute bulk access before 13
+	// 用于批量拷贝的映射缓冲区的短期游标，JDK 13之前没有绝对位置的批量访问
+	private ByteBuffer duplicateAt(int position) {
+		ByteBuffer buf = srcBuf.duplicate();
 		buf.position(position);
 		return buf;
 	}
 	
+	// pin the page for a single access, unpinned by the accessor when done, so the page can't be unmapped in the middle
+	// of the access, unlike pin a closed page which is still mapped can be accessed, an unmapped buffer must not be
+	// touched, it would crash the JVM, callers keeping the page mapped themselves skip it with unchecked()
+	// 为单次访问固定页面，访问结束时由访问方法解除固定，因此页面不会在访问中途被取消映射，自己保持页面映射的调用者通过unchecked()跳过它，与pin不同，
+	// 已关闭但仍然映射的页面可以被访问，不能访问已取消映射的缓冲区，否则会导致JVM崩溃
+	private void enter() {
+		for(;;) {
+			int current = pins.get();
+			if (current < 0) {
+				throw new IllegalStateException("mapped page " + this.pageFile + " has been unmapped.");//映射页面已经取消映射
+			}
+			if (pins.compareAndSet(current, current + 1)) return;
+		}
+	}
+	
+	@Override
+	public IMappedPage unchecked() {
+		return unchecked;
+	}
+	
+	/**
+	 * The page accessed straight on the mapped buffer, the pin of the caller keeps the buffer mapped,
+	 * an access of an unmapped buffer would crash the JVM.
+	 * 直接在映射缓冲区上访问的页面，调用者的固定保持缓冲区映射，访问已取消映射的缓冲区会导致JVM崩溃。
+	 */
+	private final class UncheckedAccess implements IMappedPage {
+		
+		@Override
+		public long getLong(int position) {
+			return srcBuf.getLong(position);
+		}
+		
+		@Override
+		public int getInt(int position) {
+			return srcBuf.getInt(position);
+		}
+		
+		@Override
+		public void putLong(int position, long value) {
+			srcBuf.putLong(position, value);
+		}
+		
+		@Override
+		public void putInt(int position, int value) {
+			srcBuf.putInt(position, value);
+		}
+		
+		@Override
+		public void copyTo(int position, byte[] dst) {
+			duplicateAt(position).get(dst);
+		}
+		
+		@Override
+		public void put(int position, byte[] src) {
+			duplicateAt(position).put(src);
+		}
+		
+		@Override
+		public void put(int position, ByteBuffer src) {
+			duplicateAt(position).put(src);
+		}
+		
+		@Override
+		public ByteBuffer getSlice(int position, int length) {
+			return MappedPageImpl.this.getSlice(position, length);
+		}
+		
+		@Override
+		public boolean pin() {
+			return MappedPageImpl.this.pin();
+		}
+		
+		@Override
+		public void unpin() {
+			MappedPageImpl.this.unpin();
+		}
+		
+		@Override
+		public IMappedPage unchecked() {
+			return this;
+		}
+		
+		@Override
+		public void load() {
+			MappedPageImpl.this.load();
+		}
+		
+		@Override
+		public boolean isClosed() {
+			return closed;
+		}
+		
+		@Override
+		public void setDirty(boolean dirty) {
+			MappedPageImpl.this.setDirty(dirty);
+		}
+		
+		@Override
+		public void setDirty(int position, int length) {
+			MappedPageImpl.this.setDirty(position, length);
+		}
+		
+		@Override
+		public String getPageFile() {
+			return pageFile;
+		}
+		
+		@Override
+		public long getPageIndex() {
+			return index;
+		}
+		
+		@Override
+		public void flush() {
+			MappedPageImpl.this.flush();
+		}
+		
+		public String toString() {
+			return MappedPageImpl.this.toString();
+		}
+	}
+	
+	// the view points into the mapping, so only a caller holding a pin may take and use it, see IMappedPage#getSlice
+	// 视图指向映射内存，因此只有持有固定的调用者才能获取和使用它
+	@Override
+	public ByteBuffer getSlice(int position, int length) {
+		if (pins.get() <= 0) {
+			throw new IllegalStateException("mapped page " + this.pageFile + " must be pinned to take a slice.");//必须固定映射页面才能获取切片
+		}
+		ByteBuffer buf = srcBuf.asReadOnlyBuffer();
+		buf.limit(position + length);
+		buf.position(position);
+		return buf.slice();
+	}
+	
+	// force only the changed range if the JDK supports it, the whole page otherwise
+	// 如果JDK支持则只强制写入已更改的范围，否则强制写入整个页面
+	private void force(int position, int length) {
+		if (FORCE_RANGE_METHOD != null && length < srcBuf.capacity()) {
+			try {
+				FORCE_RANGE_METHOD.invoke(srcBuf, position, length);
+				return;
+			} catch (Exception ex) {
+				logger.warn("fail to force range of mapped page " + this.pageFile + ", forcing the whole page", ex);
+			}
+		}
+		srcBuf.force();
+	}
+	
+	private static Method findForceRangeMethod() {
+		try {
+			return MappedByteBuffer.class.getMethod("force", int.class, int.class);
+		} catch (NoSuchMethodException ex) {
+			return null; // before JDK 13 JDK 13之前
+		}
+	}
+	
 	private static void unmap(MappedByteBuffer buffer)
 	{
 		Cleaner.clean(buffer);
@@ -84,65 +417,92 @@ public class MappedPageImpl implements IMappedPage, Closeable {
 	
     /**
      * Helper class allowing to clean direct buffers. 帮助类，允许清理直接缓冲区。
+     *
+     * The way to clean is selected once at runtime: JDK 9+ hides the cleaner of a direct buffer
+     * but offers sun.misc.Unsafe.invokeCleaner, JDK 8 and older expose the cleaner itself.
+     * Without either a mapping is only released when the buffer is garbage collected.
+     * 清理方式在运行时选择一次：JDK 9+隐藏了直接缓冲区的清理器，但提供了sun.misc.Unsafe.invokeCleaner，
+     * JDK 8及更早版本直接暴露清理器。两者都不可用时，映射只有在缓冲区被垃圾回收时才会释放。
      */
-    private static class Cleaner {
+    static class Cleaner {
         public static final boolean CLEAN_SUPPORTED;
+        // name of the selected way to clean, for logging and tests 所选清理方式的名称，用于日志和测试
+        static final String STRATEGY;
+        // Unsafe.invokeCleaner(ByteBuffer) on JDK 9+ 在JDK 9+上
+        private static final Object unsafe;
+        private static final Method unsafeInvokeCleaner;
+        // DirectByteBuffer.cleaner() and Cleaner.clean() on JDK 8 and older 在JDK 8及更早版本上
         private static final Method directBufferCleaner;
         private static final Method directBufferCleanerClean;
 
         static {
+            Object unsafeX = null;
+            Method unsafeInvokeCleanerX = null;
             Method directBufferCleanerX = null;
             Method directBufferCleanerCleanX = null;
-            boolean v;
+            String strategy;
             try {
-                directBufferCleanerX = Class.forName("java.nio.DirectByteBuffer").getMethod("cleaner");
-                directBufferCleanerX.setAccessible(true);
-                directBufferCleanerCleanX = Class.forName("sun.misc.Cleaner").getMethod("clean");
-                directBufferCleanerCleanX.setAccessible(true);
-                v = true;
-            } catch (Exception e) {
-                v = false;
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                unsafeInvokeCleanerX = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                unsafeX = theUnsafe.get(null);
+                strategy = "Unsafe.invokeCleaner";
+            } catch (Exception e) { // before JDK 9 or no jdk.unsupported module JDK 9之前或者没有jdk.unsupported模块
+                unsafeX = null;
+                unsafeInvokeCleanerX = null;
+                try {
+                    directBufferCleanerX = Class.forName("java.nio.DirectByteBuffer").getMethod("cleaner");
+                    directBufferCleanerX.setAccessible(true);
+                    directBufferCleanerCleanX = Class.forName("sun.misc.Cleaner").getMethod("clean");
+                    directBufferCleanerCleanX.setAccessible(true);
+                    strategy = "DirectByteBuffer.cleaner";
+                } catch (Exception ex) {
+                    directBufferCleanerX = null;
+                    directBufferCleanerCleanX = null;
+                    strategy = null;
+                }
             }
-            CLEAN_SUPPORTED = v;
+            CLEAN_SUPPORTED = strategy != null;
+            STRATEGY = strategy;
+            unsafe = unsafeX;
+            unsafeInvokeCleaner = unsafeInvokeCleanerX;
             directBufferCleaner = directBufferCleanerX;
             directBufferCleanerClean = directBufferCleanerCleanX;
+            if (CLEAN_SUPPORTED) {
+                logger.debug("Mapped pages are unmapped with " + STRATEGY);
+            } else {
+                logger.warn("No way to unmap mapped pages on java " + System.getProperty("java.version")
+                		+ ", their address space is only released when they are garbage collected");
+            }
         }
 
         public static void clean(ByteBuffer buffer) {
     		if (buffer == null) return;
             if (CLEAN_SUPPORTED && buffer.isDirect()) {
                 try {
-                    Object cleaner = directBufferCleaner.invoke(buffer);
-                    directBufferCleanerClean.invoke(cleaner);
+                    if (unsafe != null) {
+                    	unsafeInvokeCleaner.invoke(unsafe, buffer);
+                    } else {
+                    	Object cleaner = directBufferCleaner.invoke(buffer);
+                    	directBufferCleanerClean.invoke(cleaner);
+                    }
                 } catch (Exception e) {
-                    // silently ignore exception
+                    logger.warn("fail to unmap buffer with " + STRATEGY, e);
                 }
             }
         }
     }
     
-    private static class ThreadLocalByteBuffer extends ThreadLocal<ByteBuffer> {
-    	private ByteBuffer _src;
-    	
-    	public ThreadLocalByteBuffer(ByteBuffer src) {
-    		_src = src;
-    	}
-    	
-    	public ByteBuffer getSourceBuffer() {
-    		return _src;
-    	}
-    	
-    	@Override
-    	protected synchronized ByteBuffer initialValue() {
-    		ByteBuffer dup = _src.duplicate();
-    		return dup;
-    	}
-    }
-
 	@Override
 	public boolean isClosed() {
 		return closed;
 	}
+
+	@Override
+	public boolean isPinned() {
+		return pins.get() > 0;
+	}
 	
 	public String toString() {
 		return "Mapped page for " + this.pageFile + ", index = " + this.index + ".";
@@ -0,0 +1,113 @@
+package com.leansoft.bigqueue.page;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Direct mapped table of the recently looked up pages of a page factory,
+ * 页面工厂最近查找页面的直接映射表，
+ *
+ * page indexes are dense, so a page is kept in the slot of its index modulo the table size and is found
+ * with one array load, the table holds one cache reference on every page in it so the cache never evicts them,
+ * a page pushed out of its slot is released and left to the cache for eviction.
+ * 页面索引是稠密的，因此页面保存在其索引对表大小取模的槽中，一次数组读取即可找到，表对其中每个页面持有一个缓存引用，
+ * 因此缓存不会驱逐它们，被挤出槽的页面会被释放并交由缓存驱逐。
+ *
+ * @author bulldog
+ *
+ */
+class PageTable {
+
+	private final MappedPageFactoryImpl pageFactory;
+	private final AtomicReferenceArray<ICachedPage> slots;
+	private final int mask;
+
+	/**
+	 * @param pageFactory the factory whose pages are kept 其页面被保存的工厂
+	 * @param size number of slots, rounded up to a power of 2 槽的数量，向上取整为2的幂
+	 */
+	PageTable(MappedPageFactoryImpl pageFactory, int size) {
+		int capacity = 1;
+		while(capacity < size) {
+			capacity <<= 1;
+		}
+		this.pageFactory = pageFactory;
+		this.slots = new AtomicReferenceArray<ICachedPage>(capacity);
+		this.mask = capacity - 1;
+	}
+
+	/**
+	 * Find the page with specific index, acquiring it from the factory on a miss.
+	 * 查找带有特定索引的页面，未命中时从工厂获取。
+	 *
+	 * @param index the index of the page 页面的索引
+	 * @return the page, still referenced by the table 页面，仍由表引用
+	 * @throws IOException exception thrown if the page could not be mapped
+	 */
+	ICachedPage lookup(long index) throws IOException {
+		ICachedPage page = slots.get(slotOf(index));
+		if (page != null && page.getPageIndex() == index && !page.isClosed()) {
+			return page;
+		}
+		return install(index);
+	}
+
+	private ICachedPage install(long index) throws IOException {
+		int slot = slotOf(index);
+		ICachedPage page = (ICachedPage) pageFactory.acquirePage(index);
+		for(;;) {
+			ICachedPage current = slots.get(slot);
+			if (current == page) { // installed by another thread meanwhile 其他线程同时已经装入
+				pageFactory.releasePage(index);
+				return page;
+			}
+			if (slots.compareAndSet(slot, current, page)) {
+				// a closed page has already been removed from the cache 已关闭的页面已从缓存中删除
+				if (current != null && !current.isClosed()) {
+					pageFactory.releasePage(current.getPageIndex());
+				}
+				return page;
+			}
+		}
+	}
+
+	/**
+	 * Drop the page with specific index from the table without releasing it,
+	 * 从表中删除带有特定索引的页面而不释放它，
+	 *
+	 * used when the page is about to be removed from the cache.
+	 * 在页面即将从缓存中删除时使用。
+	 *
+	 * @param index the index of the page 页面的索引
+	 */
+	void remove(long index) {
+		int slot = slotOf(index);
+		ICachedPage page = slots.get(slot);
+		if (page != null && page.getPageIndex() == index) {
+			slots.compareAndSet(slot, page, null);
+		}
+	}
+
+	/**
+	 * Drop all pages from the table without releasing them, used when the cache is cleared.
+	 * 从表中删除所有页面而不释放它们，在缓存被清空时使用。
+	 */
+	void clear() {
+		for(int i = 0; i < slots.length(); i++) {
+			slots.set(i, null);
+		}
+	}
+
+	// for testing
+	int size() {
+		int size = 0;
+		for(int i = 0; i < slots.length(); i++) {
+			if (slots.get(i) != null) size++;
+		}
+		return size;
+	}
+
+	private int slotOf(long index) {
+		return (int) (index & mask);
+	}
+}
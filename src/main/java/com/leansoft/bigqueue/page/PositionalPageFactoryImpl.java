@@ -0,0 +1,104 @@
+package com.leansoft.bigqueue.page;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Page resource manager of pages accessed with positional reads and writes instead of memory mappings,
+ * see {@link PositionalPageImpl}, the caching and the page files are the same as {@link MappedPageFactoryImpl}.
+ * 使用定位读写而不是内存映射访问的页面的资源管理器，缓存和页面文件与MappedPageFactoryImpl相同。
+ *
+ * @author bulldog
+ *
+ */
+public class PositionalPageFactoryImpl extends MappedPageFactoryImpl {
+
+	// block caches by page index, shared by the pages of a page file open at the same time, e.g. a page closed
+	// by the cache but still pinned by a reader and the page created for the file afterwards
+	// 按页索引的块缓存，由同时打开的页面文件的页面共享，例如被缓存关闭但仍被读取者固定的页面和之后为该文件创建的页面
+	private final Map<Long, PositionalPageImpl.BlockCache> blockCaches = new HashMap<Long, PositionalPageImpl.BlockCache>();
+
+	public PositionalPageFactoryImpl(int pageSize, String pageDir, long cacheTTL) {
+		this(pageSize, pageDir, cacheTTL, 0);
+	}
+
+	public PositionalPageFactoryImpl(int pageSize, String pageDir, long cacheTTL, int pageTableSize) {
+		this(pageSize, pageDir, cacheTTL, pageTableSize, 0);
+	}
+
+	/**
+	 * @param pageSize size in bytes of a page 页面的字节大小
+	 * @param pageDir directory of the page files 页面文件的目录
+	 * @param cacheTTL milliseconds a page stays cached once it is no longer referenced 页面不再被引用后保持缓存的毫秒数
+	 * @param pageTableSize number of slots of the page table used by {@link #lookupPage(long)}, 0 disables the page table
+	 *                      lookupPage使用的页表槽数，0表示禁用页表
+	 * @param recyclePoolSize maximum number of deleted page files kept for reuse, 0 deletes page files
+	 *                        保留以供重用的已删除页面文件的最大数量，0表示删除页面文件
+	 */
+	public PositionalPageFactoryImpl(int pageSize, String pageDir, long cacheTTL, int pageTableSize, int recyclePoolSize) {
+		super(pageSize, pageDir, cacheTTL, pageTableSize, recyclePoolSize);
+	}
+
+	@Override
+	long getMappedPageSize() {
+		return 0; // nothing is mapped, see MappedPageBudget 没有任何映射
+	}
+
+	@Override
+	ICachedPage openPage(String fileName, long index) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(fileName, "rw");
+		try {
+			// grow the file to the page size like a mapping does, sparse on most file systems
+			// 像映射一样将文件扩展到页面大小，在大多数文件系统上是稀疏的
+			if (raf.length() < this.getPageSize()) {
+				raf.setLength(this.getPageSize());
+			}
+			this.recordPageFileSize(index, raf.length());
+			return new PositionalPageImpl(raf, fileName, index, this.getPageSize(), this.acquireBlockCache(index), this);
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+	}
+
+	private PositionalPageImpl.BlockCache acquireBlockCache(long index) {
+		synchronized(blockCaches) {
+			PositionalPageImpl.BlockCache blockCache = blockCaches.get(index);
+			if (blockCache == null) {
+				blockCache = new PositionalPageImpl.BlockCache();
+				blockCaches.put(index, blockCache);
+			}
+			blockCache.users++;
+			return blockCache;
+		}
+	}
+
+	// called by a page once it has been released 页面被释放后调用
+	void releaseBlockCache(long index, PositionalPageImpl.BlockCache blockCache) {
+		synchronized(blockCaches) {
+			if (--blockCache.users > 0) return;
+			if (blockCaches.get(index) == blockCache) {
+				blockCaches.remove(index);
+			}
+		}
+		blockCache.free();
+	}
+
+	@Override
+	void pageFileDeleted(long index) {
+		// a page created for the index later has a new file, the blocks of the deleted one must not be shared with it
+		// 之后为该索引创建的页面有新的文件，被删除文件的块不能与其共享
+		synchronized(blockCaches) {
+			blockCaches.remove(index);
+		}
+	}
+
+	// for testing
+	int getBlockCacheCount() {
+		synchronized(blockCaches) {
+			return blockCaches.size();
+		}
+	}
+}
@@ -0,0 +1,499 @@
+package com.leansoft.bigqueue.page;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A page accessed with positional reads and writes on its file instead of a memory mapping.
+ * 通过对其文件的定位读写而不是内存映射访问的页面。
+ *
+ * Writes go through to the file at once, copied into a direct staging buffer and written with
+ * {@link FileChannel#write(ByteBuffer, long)}, so the file holds the same bytes a mapping would.
+ * Reads are served by a few recently read blocks of the page, loaded with positional reads,
+ * writes update the cached blocks they overlap. The blocks belong to the page file rather than the page,
+ * a page closed by the cache but still pinned shares them with the page created for the same file afterwards,
+ * so it never reads blocks older than the writes through the new page.
+ * 写入立即直达文件，先拷贝到直接暂存缓冲区，再用定位写入写出，因此文件中的字节与映射时相同。
+ * 读取由页面中最近读取的几个块提供，这些块用定位读取加载，写入会更新与其重叠的缓存块。这些块属于页面文件而不是页面，
+ * 被缓存关闭但仍被固定的页面与之后为同一文件创建的页面共享它们，因此它永远不会读到比通过新页面的写入更旧的块。
+ *
+ * Nothing is mapped, so a new page costs no page faults and evicted pages hold no address space,
+ * in exchange every access takes the page lock and every write is a system call.
+ * 没有任何映射，因此新页面不会产生缺页，被驱逐的页面也不占用地址空间，代价是每次访问都要获取页面锁，每次写入都是一次系统调用。
+ *
+ * @author bulldog
+ *
+ */
+public class PositionalPageImpl implements ICachedPage {
+
+	private final static Logger logger = LoggerFactory.getLogger(PositionalPageImpl.class);
+
+	// size in bytes of a cached block, a power of 2 缓存块的字节大小，2的幂
+	static final int BLOCK_SIZE_BITS = 12;
+	static final int BLOCK_SIZE = 1 << BLOCK_SIZE_BITS;
+	// number of recently read blocks kept per page 每个页面保留的最近读取块的数量
+	static final int BLOCK_COUNT = 16;
+	// size in bytes of the staging buffer, larger writes are written in several chunks 暂存缓冲区的字节大小，更大的写入分多块写出
+	static final int STAGING_SIZE = 64 * 1024;
+
+	// replaced if an interrupt closes the channel, under the lock 如果中断关闭了通道则被替换，在锁下修改
+	private RandomAccessFile raf;
+	private FileChannel channel;
+	private final int pageSize;
+	private final String pageFile;
+	private final long index;
+
+	// recently read blocks of the page file, shared by the pages of the file open at the same time
+	// 页面文件最近读取的块，由同时打开的该文件的页面共享
+	private final BlockCache blockCache;
+	// the factory sharing the block cache, null if the block cache is owned by the page
+	// 共享块缓存的工厂，如果块缓存由页面自己拥有则为null
+	private final PositionalPageFactoryImpl pageFactory;
+	// the lock of the block cache, guards the channel position free reads and writes together with the blocks
+	// and the staging buffer
+	// 块缓存的锁，与块和暂存缓冲区一起保护定位读写
+	private final Object lock;
+	private ByteBuffer staging;
+
+	private volatile boolean dirty = false;
+	private volatile boolean closed = false;
+
+	// number of pins held on the page, -1 once the file has been closed
+	// 页面上持有的固定数量，文件关闭后为-1
+	private final AtomicInteger pins = new AtomicInteger(0);
+
+	public PositionalPageImpl(RandomAccessFile raf, String pageFile, long index, int pageSize) {
+		this(raf, pageFile, index, pageSize, new BlockCache(), null);
+	}
+
+	// a page with the block cache of its file shared by the factory, given back to the factory on release
+	// 使用由工厂共享的其文件块缓存的页面，释放时交还给工厂
+	PositionalPageImpl(RandomAccessFile raf, String pageFile, long index, int pageSize, BlockCache blockCache, PositionalPageFactoryImpl pageFactory) {
+		this.raf = raf;
+		this.channel = raf.getChannel();
+		this.pageFile = pageFile;
+		this.index = index;
+		this.pageSize = pageSize;
+		this.blockCache = blockCache;
+		this.pageFactory = pageFactory;
+		this.lock = blockCache;
+	}
+
+	public void close() throws IOException {
+		synchronized(this) {
+			if (closed) return;
+
+			flush();
+
+			// mark closed before releasing the file, so new pins fail and the last unpin releases it
+			// 在释放文件之前标记关闭，这样新的固定会失败，最后一次解除固定时释放文件
+			closed = true;
+			if (pins.compareAndSet(0, -1)) {
+				release();
+			} else if (logger.isDebugEnabled()) {
+				logger.debug("Positional page for " + this.pageFile + " was just closed, release deferred until unpinned.");
+			}
+		}
+	}
+
+	private void release() {
+		synchronized(lock) {
+			try {
+				raf.close();
+			} catch (IOException e) {
+				logger.warn("fail to close page file " + this.pageFile, e);
+			}
+			// give the direct memory back now instead of at the next GC 立即归还直接内存，而不是等到下一次GC
+			MappedPageImpl.Cleaner.clean(staging);
+			staging = null;
+		}
+		if (pageFactory != null) {
+			pageFactory.releaseBlockCache(index, blockCache);
+		} else {
+			blockCache.free();
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug("Positional page for " + this.pageFile + " was just released.");
+		}
+	}
+
+	@Override
+	public boolean pin() {
+		for(;;) {
+			int current = pins.get();
+			if (current < 0) return false;
+			if (pins.compareAndSet(current, current + 1)) break;
+		}
+		if (closed) { // closed while pinning
+			unpin();
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public void unpin() {
+		if (pins.decrementAndGet() == 0 && closed && pins.compareAndSet(0, -1)) {
+			release();
+		}
+	}
+
+	// accesses check the page is open under the page lock, there is no pin to skip 访问在页面锁下检查页面是否打开，没有可跳过的固定
+	@Override
+	public IMappedPage unchecked() {
+		return this;
+	}
+
+	@Override
+	public long getLong(int position) {
+		synchronized(lock) {
+			ensureOpen();
+			ByteBuffer block = this.getBlock(position, 8);
+			if (block != null) {
+				return block.getLong(position & (BLOCK_SIZE - 1));
+			}
+			ByteBuffer buf = ByteBuffer.allocate(8);
+			this.read(position, buf);
+			return buf.getLong(0);
+		}
+	}
+
+	@Override
+	public int getInt(int position) {
+		synchronized(lock) {
+			ensureOpen();
+			ByteBuffer block = this.getBlock(position, 4);
+			if (block != null) {
+				return block.getInt(position & (BLOCK_SIZE - 1));
+			}
+			ByteBuffer buf = ByteBuffer.allocate(4);
+			this.read(position, buf);
+			return buf.getInt(0);
+		}
+	}
+
+	@Override
+	public void copyTo(int position, byte[] dst) {
+		synchronized(lock) {
+			ensureOpen();
+			this.read(position, ByteBuffer.wrap(dst));
+		}
+	}
+
+	@Override
+	public ByteBuffer getSlice(int position, int length) {
+		// a copy, there is no memory shared with the file 一个副本，没有与文件共享的内存
+		ByteBuffer buf = ByteBuffer.allocate(length);
+		synchronized(lock) {
+			ensureOpen();
+			this.read(position, buf);
+		}
+		buf.flip();
+		return buf.asReadOnlyBuffer();
+	}
+
+	@Override
+	public void putLong(int position, long value) {
+		synchronized(lock) {
+			ensureOpen();
+			ByteBuffer buf = this.getStaging();
+			buf.putLong(value);
+			buf.flip();
+			this.write(position, buf);
+		}
+	}
+
+	@Override
+	public void putInt(int position, int value) {
+		synchronized(lock) {
+			ensureOpen();
+			ByteBuffer buf = this.getStaging();
+			buf.putInt(value);
+			buf.flip();
+			this.write(position, buf);
+		}
+	}
+
+	@Override
+	public void put(int position, byte[] src) {
+		this.put(position, ByteBuffer.wrap(src));
+	}
+
+	@Override
+	public void put(int position, ByteBuffer src) {
+		checkRange(position, src.remaining());
+		synchronized(lock) {
+			ensureOpen();
+			while(src.hasRemaining()) {
+				int chunk = Math.min(src.remaining(), STAGING_SIZE);
+				ByteBuffer part = src.duplicate();
+				part.limit(part.position() + chunk);
+				ByteBuffer buf = this.getStaging();
+				buf.put(part);
+				buf.flip();
+				this.write(position, buf);
+				src.position(src.position() + chunk);
+				position += chunk;
+			}
+		}
+	}
+
+	private ByteBuffer getStaging() {
+		if (staging == null) {
+			staging = ByteBuffer.allocateDirect(STAGING_SIZE);
+		}
+		staging.clear();
+		return staging;
+	}
+
+	// write the staged bytes to the file and into the cached blocks they overlap, caller holds the lock
+	// 将暂存的字节写入文件以及与其重叠的缓存块，调用者持有锁
+	private void write(int position, ByteBuffer buf) {
+		checkRange(position, buf.remaining());
+		int length = buf.remaining();
+		int[] blockStarts = blockCache.starts;
+		for(int i = 0; i < BLOCK_COUNT; i++) {
+			int blockStart = blockStarts[i];
+			if (blockStart < 0) continue;
+			int blockEnd = blockStart + Math.min(BLOCK_SIZE, pageSize - blockStart); // no int overflow near 2 GB 接近2 GB时不会int溢出
+			if (blockStart >= position + length || blockEnd <= position) continue;
+			int from = Math.max(position, blockStart);
+			int to = Math.min(position + length, blockEnd);
+			ByteBuffer src = buf.duplicate();
+			src.position(from - position);
+			src.limit(to - position);
+			ByteBuffer dst = blockCache.blocks[i].duplicate();
+			dst.position(from - blockStart);
+			dst.put(src);
+		}
+		int start = buf.position();
+		for(int attempt = 0; ; attempt++) {
+			// an interrupt during the IO would close the channel for every user of the page 在IO期间中断会为页面的所有使用者关闭通道
+			boolean interrupted = Thread.interrupted();
+			try {
+				while(buf.hasRemaining()) {
+					channel.write(buf, position + buf.position() - start);
+				}
+				return;
+			} catch (ClosedByInterruptException e) {
+				this.reopen(attempt, e);
+			} catch (IOException e) {
+				throw new IllegalStateException("fail to write page file " + this.pageFile, e);//写入页面文件失败
+			} finally {
+				if (interrupted) Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	// read from the cached blocks, large reads go to the file directly to keep the blocks, caller holds the lock
+	// 从缓存块读取，大的读取直接访问文件以保留缓存块，调用者持有锁
+	private void read(int position, ByteBuffer dst) {
+		checkRange(position, dst.remaining());
+		if (dst.remaining() > BLOCK_SIZE) {
+			this.readFile(position, dst);
+			return;
+		}
+		while(dst.hasRemaining()) {
+			int blockStart = position & ~(BLOCK_SIZE - 1);
+			ByteBuffer block = this.loadBlock(blockStart).duplicate();
+			block.position(position - blockStart);
+			int length = Math.min(dst.remaining(), block.remaining());
+			block.limit(block.position() + length);
+			dst.put(block);
+			position += length;
+		}
+	}
+
+	// the cached block holding [position, position + length), loaded if missing, null if the range crosses a block boundary
+	// 包含该范围的缓存块，缺失时加载，范围跨越块边界时返回null
+	private ByteBuffer getBlock(int position, int length) {
+		checkRange(position, length);
+		int blockStart = position & ~(BLOCK_SIZE - 1);
+		if (position - blockStart + length > BLOCK_SIZE) return null;
+		return this.loadBlock(blockStart);
+	}
+
+	private ByteBuffer loadBlock(int blockStart) {
+		ByteBuffer[] blocks = blockCache.blocks;
+		int[] blockStarts = blockCache.starts;
+		long[] blockUses = blockCache.uses;
+		int victim = 0;
+		for(int i = 0; i < BLOCK_COUNT; i++) {
+			if (blockStarts[i] == blockStart) {
+				blockUses[i] = ++blockCache.clock;
+				return blocks[i];
+			}
+			if (blockUses[i] < blockUses[victim]) {
+				victim = i;
+			}
+		}
+		// replace the least recently used block 替换最近最少使用的块
+		if (blocks[victim] == null) {
+			blocks[victim] = ByteBuffer.allocateDirect(BLOCK_SIZE);
+		}
+		blockStarts[victim] = -1; // invalid until loaded 加载完成前无效
+		ByteBuffer block = blocks[victim];
+		block.clear();
+		block.limit(Math.min(BLOCK_SIZE, pageSize - blockStart));
+		this.readFile(blockStart, block);
+		block.clear();
+		blockStarts[victim] = blockStart;
+		blockUses[victim] = ++blockCache.clock;
+		return block;
+	}
+
+	private void readFile(int position, ByteBuffer dst) {
+		int start = dst.position();
+		for(int attempt = 0; ; attempt++) {
+			boolean interrupted = Thread.interrupted();
+			try {
+				while(dst.hasRemaining()) {
+					if (channel.read(dst, position + dst.position() - start) < 0) {
+						// beyond the end of a file shorter than the page, zeros like a mapping 超出比页面短的文件末尾，与映射一样为零
+						while(dst.hasRemaining()) {
+							dst.put((byte) 0);
+						}
+					}
+				}
+				return;
+			} catch (ClosedByInterruptException e) {
+				this.reopen(attempt, e);
+			} catch (IOException e) {
+				throw new IllegalStateException("fail to read page file " + this.pageFile, e);//读取页面文件失败
+			} finally {
+				if (interrupted) Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	// reopen the file after an interrupt arriving in the middle of an IO closed it, caller holds the lock
+	// 在IO中途到达的中断关闭文件后重新打开文件，调用者持有锁
+	private void reopen(int attempt, ClosedByInterruptException cause) {
+		Thread.interrupted(); // set again by the channel 被通道再次设置
+		if (attempt > 0) {
+			throw new IllegalStateException("fail to access page file " + this.pageFile, cause);//访问页面文件失败
+		}
+		try {
+			raf = new RandomAccessFile(this.pageFile, "rw");
+			channel = raf.getChannel();
+		} catch (IOException e) {
+			throw new IllegalStateException("fail to reopen page file " + this.pageFile, e);//重新打开页面文件失败
+		}
+		logger.warn("Page file " + this.pageFile + " was closed by an interrupt and has been reopened.");
+	}
+
+	private void checkRange(int position, int length) {
+		if (position < 0 || length < 0 || length > pageSize - position) {
+			throw new IndexOutOfBoundsException("range [" + position + ", " + position + " + " + length + ") out of page size " + pageSize);
+		}
+	}
+
+	// a released page file must not be touched 不能访问已释放的页面文件
+	private void ensureOpen() {
+		if (pins.get() < 0) {
+			throw new IllegalStateException("positional page " + this.pageFile + " has been released.");//定位页面已经释放
+		}
+	}
+
+	@Override
+	public void setDirty(boolean dirty) {
+		this.dirty = dirty;
+	}
+
+	@Override
+	public void setDirty(int position, int length) {
+		if (length <= 0) return;
+		this.dirty = true;
+	}
+
+	@Override
+	public void flush() {
+		synchronized(this) {
+			if (closed) return;
+			if (!dirty) return;
+			// clear first, a write racing with the force marks the page dirty again for the next flush
+			// 先清除，与force并发的写入会再次标记页面为脏，留给下一次刷新
+			dirty = false;
+			FileChannel current;
+			synchronized(lock) {
+				current = channel;
+			}
+			try {
+				current.force(false);
+			} catch (IOException e) {
+				dirty = true;
+				logger.error("fail to flush page file " + this.pageFile, e);
+				return;
+			}
+			if (logger.isDebugEnabled()) {
+				logger.debug("Positional page for " + this.pageFile + " was just flushed.");
+			}
+		}
+	}
+
+	@Override
+	public void load() {
+		// nothing is mapped, the OS read-ahead covers sequential reads 没有任何映射，操作系统的预读覆盖顺序读取
+	}
+
+	@Override
+	public boolean isClosed() {
+		return closed;
+	}
+
+	@Override
+	public boolean isPinned() {
+		return pins.get() > 0;
+	}
+
+	public String toString() {
+		return "Positional page for " + this.pageFile + ", index = " + this.index + ".";
+	}
+
+	@Override
+	public String getPageFile() {
+		return this.pageFile;
+	}
+
+	@Override
+	public long getPageIndex() {
+		return this.index;
+	}
+
+	/**
+	 * Recently read blocks of a page file, guarded by its own lock.
+	 * 页面文件最近读取的块，由其自身的锁保护。
+	 */
+	static final class BlockCache {
+		final ByteBuffer[] blocks = new ByteBuffer[BLOCK_COUNT];
+		final int[] starts = new int[BLOCK_COUNT];
+		final long[] uses = new long[BLOCK_COUNT];
+		long clock = 0L;
+		// number of pages using the block cache, guarded by the factory 使用该块缓存的页面数量，由工厂保护
+		int users = 0;
+
+		BlockCache() {
+			for(int i = 0; i < BLOCK_COUNT; i++) {
+				starts[i] = -1;
+			}
+		}
+
+		// give the direct memory back once no page uses the blocks any more 没有页面再使用这些块时归还直接内存
+		void free() {
+			synchronized(this) {
+				for(int i = 0; i < BLOCK_COUNT; i++) {
+					MappedPageImpl.Cleaner.clean(blocks[i]);
+					blocks[i] = null;
+					starts[i] = -1;
+				}
+			}
+		}
+	}
+}
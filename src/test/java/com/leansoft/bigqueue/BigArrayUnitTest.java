@@ -2,10 +2,13 @@ package com.leansoft.bigqueue;
 
 import static org.junit.Assert.*;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
@@ -13,8 +16,10 @@ import org.junit.After;
 import org.junit.Rule;
 import org.junit.Test;
 
+import com.google.common.util.concurrent.ListenableFuture;
 import com.leansoft.bigqueue.BigArrayImpl;
 import com.leansoft.bigqueue.IBigArray;
+import com.leansoft.bigqueue.utils.FileUtil;
 import org.junit.rules.TemporaryFolder;
 
 public class BigArrayUnitTest {
@@ -256,6 +261,47 @@ public class BigArrayUnitTest {
 		assertTrue(closestTimeAfter >= closestTime);		
 	}
 	
+	@Test
+	public void pageSummaryTest() throws IOException {
+		bigArray = new BigArrayImpl(testDir, "page_summary_test", BigArrayImpl.MINIMUM_DATA_PAGE_SIZE);
+		
+		int burst = 200000; // more than one index page per burst
+		long[] gapTimestamps = new long[3];
+		for(int b = 0; b < 3; b++) {
+			for(int i = 0; i < burst; i++) {
+				bigArray.append(("" + i).getBytes());
+			}
+			TestUtil.sleepQuietly(50);
+			gapTimestamps[b] = System.currentTimeMillis();
+			TestUtil.sleepQuietly(200);
+		}
+		for(int b = 0; b < 3; b++) {
+			assertTrue(bigArray.findClosestIndex(gapTimestamps[b]) == (b + 1) * burst - 1);
+		}
+		
+		// retention does not depend on the modification time of the page files, e.g. after a copy
+		File[] indexPageFiles = new File(testDir + "/page_summary_test/" + BigArrayImpl.INDEX_PAGE_FOLDER).listFiles();
+		for(File indexPageFile : indexPageFiles) {
+			indexPageFile.setLastModified(System.currentTimeMillis());
+		}
+		bigArray.removeBefore(gapTimestamps[0]);
+		// the index page holding the first gap is kept 保留包含第一个间隙的索引页
+		assertTrue(bigArray.getTailIndex() == BigArrayImpl.INDEX_ITEMS_PER_PAGE);
+		bigArray.close();
+		
+		// summaries are rebuilt or read from the items if missing, e.g. for an array created by an older version
+		FileUtil.deleteDirectory(new File(testDir + "/page_summary_test/" + BigArrayImpl.INDEX_PAGE_SUMMARY_FOLDER));
+		FileUtil.deleteDirectory(new File(testDir + "/page_summary_test/" + BigArrayImpl.DATA_PAGE_SUMMARY_FOLDER));
+		bigArray = new BigArrayImpl(testDir, "page_summary_test", BigArrayImpl.MINIMUM_DATA_PAGE_SIZE);
+		assertTrue(bigArray.findClosestIndex(gapTimestamps[1]) == 2 * burst - 1);
+		assertTrue(bigArray.findClosestIndex(gapTimestamps[2]) == 3 * burst - 1);
+		bigArray.removeBefore(gapTimestamps[1]);
+		assertTrue(bigArray.getTailIndex() == 3 * BigArrayImpl.INDEX_ITEMS_PER_PAGE);
+		
+		bigArray.append("last".getBytes());
+		assertTrue(bigArray.findClosestIndex(System.currentTimeMillis()) == 3 * burst);
+	}
+	
 	@Test
 	public void getBackFileSizeTest() throws IOException {
 	    bigArray = new BigArrayImpl(testDir, "get_back_file_size_test");
@@ -334,6 +380,675 @@ public class BigArrayUnitTest {
 		assertTrue(bigArray.getTailIndex() == lastTailIndex);
 		assertTrue(bigArray.getHeadIndex() == loop + 2);
 	}
+
+	@Test
+	public void limitBackFileSizeByPageTest() throws IOException {
+		bigArray = new BigArrayImpl(testDir, "limit_back_file_size_by_page_test", BigArrayImpl.MINIMUM_DATA_PAGE_SIZE);
+		int dataPageSize = bigArray.getDataPageSize();
+
+		// items of varying length so data page boundaries do not line up with index pages
+		String randomString = TestUtil.randomString(5000);
+		int loop = 100000;
+		for(int i = 0; i < loop; i++) {
+			bigArray.append(randomString.substring(0, 1000 + i % 4000).getBytes());
+		}
+
+		long sizeLimit = BigArrayImpl.INDEX_PAGE_SIZE + dataPageSize * 4;
+		bigArray.limitBackFileSize(sizeLimit);
+		assertTrue(bigArray.getBackFileSize() <= sizeLimit);
+		assertTrue(bigArray.getBackFileSize() > sizeLimit - dataPageSize);
+		long tailIndex = bigArray.getTailIndex();
+		assertTrue(tailIndex > 0);
+		assertTrue(bigArray.get(tailIndex).length == 1000 + tailIndex % 4000);
+		assertTrue(bigArray.getHeadIndex() == loop);
+		bigArray.close();
+
+		// same result without the data page summary 没有数据页摘要时结果相同
+		FileUtil.deleteDirectory(new File(testDir + "/limit_back_file_size_by_page_test/" + BigArrayImpl.DATA_PAGE_SUMMARY_FOLDER));
+		bigArray = new BigArrayImpl(testDir, "limit_back_file_size_by_page_test", BigArrayImpl.MINIMUM_DATA_PAGE_SIZE);
+		sizeLimit = BigArrayImpl.INDEX_PAGE_SIZE + dataPageSize * 2;
+		bigArray.limitBackFileSize(sizeLimit);
+		assertTrue(bigArray.getBackFileSize() <= sizeLimit);
+		assertTrue(bigArray.getBackFileSize() > sizeLimit - dataPageSize);
+		assertTrue(bigArray.getTailIndex() > tailIndex);
+		tailIndex = bigArray.getTailIndex();
+		assertTrue(bigArray.get(tailIndex).length == 1000 + tailIndex % 4000);
+		assertTrue(bigArray.getHeadIndex() == loop);
+	}
+	
+	@Test
+	public void appendBatchTest() throws IOException {
+		bigArray = new BigArrayImpl(testDir, "append_batch_test", BigArrayImpl.MINIMUM_DATA_PAGE_SIZE);
+		assertNotNull(bigArray);
+		
+		assertTrue(IBigArray.NOT_FOUND == bigArray.appendBatch(new ArrayList<byte[]>()));
+		assertTrue(bigArray.isEmpty());
+		
+		bigArray.append("first".getBytes());
+		
+		// big enough to roll over several data pages and index pages
+		String randomString = TestUtil.randomString(128);
+		int loop = 500000;
+		int batchSize = 1000;
+		long expectedIndex = 1L;
+		List<byte[]> batch = new ArrayList<byte[]>();
+		for(int i = 0; i < loop; i++) {
+			batch.add((i + randomString).getBytes());
+			if (batch.size() == batchSize) {
+				long firstIndex = bigArray.appendBatch(batch);
+				assertTrue(expectedIndex == firstIndex);
+				expectedIndex += batch.size();
+				assertTrue(bigArray.getHeadIndex() == expectedIndex);
+				batch.clear();
+			}
+		}
+		
+		bigArray.append("last".getBytes());
+		assertTrue(bigArray.size() == loop + 2);
+		bigArray.close();
+		
+		// create a new instance on exiting array
+		bigArray = new BigArrayImpl(testDir, "append_batch_test", BigArrayImpl.MINIMUM_DATA_PAGE_SIZE);
+		assertTrue(bigArray.size() == loop + 2);
+		assertEquals("first", new String(bigArray.get(0)));
+		for(int i = 0; i < loop; i++) {
+			assertEquals(i + randomString, new String(bigArray.get(i + 1)));
+		}
+		assertEquals("last", new String(bigArray.get(loop + 1)));
+		assertTrue(bigArray.getTimestamp(1) <= bigArray.getTimestamp(loop));
+	}
+	
+	@Test
+	public void concurrentAppendTest() throws Exception {
+		BigArrayConfig config = new BigArrayConfig(BigArrayImpl.MINIMUM_DATA_PAGE_SIZE);
+		config.setAppendMode(BigArrayConfig.AppendMode.CONCURRENT);
+		bigArray = new BigArrayImpl(testDir, "concurrent_append_test", config);
+		
+		final String randomString = TestUtil.randomString(128);
+		final int producerNum = 4;
+		final int loop = 100000;
+		final CountDownLatch latch = new CountDownLatch(producerNum);
+		final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+		for(int p = 0; p < producerNum; p++) {
+			final int producer = p;
+			new Thread() {
+				public void run() {
+					try {
+						List<byte[]> batch = new ArrayList<byte[]>();
+						for(int i = 0; i < loop; i++) {
+							byte[] data = (producer + "-" + i + "-" + randomString).getBytes();
+							if (i % 2 == 0) {
+								bigArray.append(data);
+							} else {
+								batch.add(data);
+								if (batch.size() == 10) {
+									bigArray.appendBatch(batch);
+									batch.clear();
+								}
+							}
+						}
+						if (batch.size() > 0) {
+							bigArray.appendBatch(batch);
+						}
+					} catch (Throwable t) {
+						errors.add(t);
+					} finally {
+						latch.countDown();
+					}
+				}
+			}.start();
+		}
+		latch.await();
+		assertTrue(errors.isEmpty());
+		assertTrue(bigArray.size() == producerNum * loop);
+		
+		// every item is readable and items of a producer are kept in append order,
+		// single appends(even) and batch appends(odd) are checked separately
+		int[][] last = new int[producerNum][];
+		for(int p = 0; p < producerNum; p++) {
+			last[p] = new int[] { -1, -1 };
+		}
+		for(long i = 0; i < bigArray.size(); i++) {
+			String item = new String(bigArray.get(i));
+			String[] parts = item.split("-");
+			int producer = Integer.parseInt(parts[0]);
+			int seq = Integer.parseInt(parts[1]);
+			assertEquals(producer + "-" + seq + "-" + randomString, item);
+			assertTrue(seq > last[producer][seq % 2]);
+			last[producer][seq % 2] = seq;
+		}
+		bigArray.close();
+		
+		// the head is persisted and the data pointer is rebuilt from it on reopen
+		bigArray = new BigArrayImpl(testDir, "concurrent_append_test", config);
+		assertTrue(bigArray.size() == producerNum * loop);
+		long index = bigArray.append("last".getBytes());
+		assertTrue(index == producerNum * loop);
+		assertEquals("last", new String(bigArray.get(index)));
+		assertEquals(new String(bigArray.get(0)).length(), bigArray.getItemLength(0));
+	}
+	
+	@Test
+	public void concurrentAppendTooLargeTest() throws IOException {
+		BigArrayConfig config = new BigArrayConfig(BigArrayImpl.MINIMUM_DATA_PAGE_SIZE);
+		config.setAppendMode(BigArrayConfig.AppendMode.CONCURRENT);
+		bigArray = new BigArrayImpl(testDir, "concurrent_append_large_test", config);
+		try {
+			bigArray.append(new byte[BigArrayImpl.MINIMUM_DATA_PAGE_SIZE + 1]);
+			fail("IllegalArgumentException expected");
+		} catch (IllegalArgumentException expected) {
+		}
+		// nothing was reserved for the rejected item
+		assertTrue(bigArray.isEmpty());
+		assertTrue(0L == bigArray.append("ok".getBytes()));
+	}
+	
+	@Test
+	public void maximumDataPageSizeOffsetTest() {
+		// offsets near the end of a maximum page, no page is mapped, see BigArrayMaximumPageLoadTest for a real one
+		int pageSize = BigArrayImpl.MAXIMUM_DATA_PAGE_SIZE;
+		assertTrue(BigArrayImpl.fitsInPage(pageSize - 10, 10, pageSize));
+		assertFalse(BigArrayImpl.fitsInPage(pageSize - 10, 11, pageSize));
+		assertFalse(BigArrayImpl.fitsInPage(pageSize, 1, pageSize));
+		assertTrue(BigArrayImpl.fitsInPage(pageSize, 0, pageSize));
+		assertFalse(BigArrayImpl.fitsInPage(1, pageSize, pageSize));
+		assertTrue(BigArrayImpl.fitsInPage(0, pageSize, pageSize));
+		
+		// an item that does not fit at the end of a maximum page rolls over instead of overflowing the offset
+		BigArrayImpl.AppendSlot slot = new BigArrayImpl.AppendSlot(0L, pageSize - 10, 5L);
+		BigArrayImpl.AppendSlot next = slot.next(100, pageSize);
+		assertTrue(next.dataPageIndex == 1L);
+		assertTrue(next.dataItemOffset == 100);
+		assertTrue(next.arrayIndex == 6L);
+		next = slot.next(10, pageSize);
+		assertTrue(next.dataPageIndex == 0L);
+		assertTrue(next.dataItemOffset == pageSize);
+		next = next.next(1, pageSize);
+		assertTrue(next.dataPageIndex == 1L);
+		assertTrue(next.dataItemOffset == 1);
+		next = new BigArrayImpl.AppendSlot(3L, pageSize / 2 + 1, 0L).next(pageSize / 2 + 1, pageSize);
+		assertTrue(next.dataPageIndex == 4L);
+		assertTrue(next.dataItemOffset == pageSize / 2 + 1);
+	}
+	
+	@Test
+	public void getBufferTest() throws IOException {
+		bigArray = new BigArrayImpl(testDir, "get_buffer_test", BigArrayImpl.MINIMUM_DATA_PAGE_SIZE);
+		
+		String randomString = TestUtil.randomString(1024);
+		int loop = 100000; // roll over a few data pages
+		for(int i = 0; i < loop; i++) {
+			bigArray.append((i + randomString).getBytes());
+		}
+		
+		for(int i = 0; i < loop; i++) {
+			BufferView view = bigArray.getBuffer(i);
+			assertTrue(view.getIndex() == i);
+			ByteBuffer buffer = view.getBuffer();
+			assertTrue(buffer.isReadOnly());
+			assertTrue(buffer.remaining() == bigArray.getItemLength(i));
+			byte[] data = new byte[buffer.remaining()];
+			buffer.get(data);
+			assertEquals(i + randomString, new String(data));
+			view.release();
+			view.release(); // no effect
+		}
+		
+		try {
+			bigArray.getBuffer(loop);
+			fail("IndexOutOfBoundsException expected");
+		} catch (IndexOutOfBoundsException expected) {
+		}
+		
+		// a view outlives the removal of its data page
+		BufferView view = bigArray.getBuffer(0);
+		bigArray.removeBeforeIndex(loop - 1);
+		byte[] data = new byte[view.getBuffer().remaining()];
+		view.getBuffer().get(data);
+		assertEquals(0 + randomString, new String(data));
+		view.close();
+	}
+	
+	@Test
+	public void appendByteBufferTest() throws IOException {
+		for(BigArrayConfig.AppendMode mode : BigArrayConfig.AppendMode.values()) {
+			BigArrayConfig config = new BigArrayConfig(BigArrayImpl.MINIMUM_DATA_PAGE_SIZE);
+			config.setAppendMode(mode);
+			bigArray = new BigArrayImpl(testDir, "append_byte_buffer_test", config);
+			
+			String randomString = TestUtil.randomString(1024);
+			ByteBuffer body = ByteBuffer.allocateDirect(randomString.length());
+			body.put(randomString.getBytes());
+			body.flip();
+			ByteBuffer header = ByteBuffer.allocate(4);
+			
+			int loop = 100000; // roll over a few data pages
+			for(int i = 0; i < loop; i++) {
+				header.clear();
+				header.putInt(i);
+				header.flip();
+				ByteBuffer bodyView = body.duplicate();
+				long index = bigArray.append(header, bodyView);
+				assertTrue(index == i);
+				// positions are advanced to the limits
+				assertFalse(header.hasRemaining());
+				assertFalse(bodyView.hasRemaining());
+			}
+			
+			ByteBuffer single = ByteBuffer.wrap("single".getBytes()).asReadOnlyBuffer();
+			assertTrue(bigArray.append(single) == loop);
+			assertTrue(single.position() == single.limit());
+			assertTrue(bigArray.append(ByteBuffer.allocate(0)) == loop + 1); // empty item
+			
+			for(int i = 0; i < loop; i++) {
+				ByteBuffer data = ByteBuffer.wrap(bigArray.get(i));
+				assertTrue(data.remaining() == 4 + randomString.length());
+				assertTrue(data.getInt() == i);
+				byte[] bodyData = new byte[data.remaining()];
+				data.get(bodyData);
+				assertEquals(randomString, new String(bodyData));
+			}
+			assertEquals("single", new String(bigArray.get(loop)));
+			assertTrue(bigArray.getItemLength(loop + 1) == 0);
+			
+			bigArray.removeAll();
+			bigArray.close();
+		}
+	}
+	
+	@Test
+	public void prefetchTest() throws IOException {
+		BigArrayConfig config = new BigArrayConfig(BigArrayImpl.MINIMUM_DATA_PAGE_SIZE);
+		config.setPrefetchThreshold(0.5f);
+		bigArray = new BigArrayImpl(testDir, "prefetch_test", config);
+		
+		String randomString = TestUtil.randomString(1024);
+		int loop = 200000; // roll over several data pages and index pages
+		for(int round = 0; round < 2; round++) {
+			for(int i = 0; i < loop; i++) {
+				bigArray.append((i + randomString).getBytes());
+			}
+			for(int i = 0; i < loop; i++) {
+				assertEquals(i + randomString, new String(bigArray.get(i)));
+			}
+			bigArray.removeAll(); // drops the prefetched pages
+			assertTrue(bigArray.isEmpty());
+		}
+		
+		bigArray.append("hello".getBytes());
+		bigArray.close();
+		bigArray = new BigArrayImpl(testDir, "prefetch_test", config);
+		assertEquals("hello", new String(bigArray.get(0)));
+		
+		config.setPrefetchThreshold(1.0f);
+		try {
+			new BigArrayImpl(testDir, "prefetch_test", config);
+			fail("IllegalArgumentException expected");
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+
+	@Test
+	public void pageTableTest() throws IOException {
+		BigArrayConfig config = new BigArrayConfig(BigArrayImpl.MINIMUM_DATA_PAGE_SIZE);
+		config.setPageTableSize(2);
+		bigArray = new BigArrayImpl(testDir, "page_table_test", config);
+
+		String randomString = TestUtil.randomString(1024);
+		int loop = 200000; // several data pages and index pages, more than the table holds
+		for(int i = 0; i < loop; i++) {
+			bigArray.append((i + randomString).getBytes());
+		}
+		// read back and forth across the pages 在页面之间来回读取
+		for(int i = 0; i < loop; i++) {
+			assertEquals(i + randomString, new String(bigArray.get(i)));
+			long other = loop - 1 - i;
+			assertEquals(other + randomString, new String(bigArray.get(other)));
+		}
+		BufferView view = bigArray.getBuffer(loop - 1);
+
+		// pages dropped from the table are not read any more 从表中删除的页面不再被读取
+		bigArray.removeBeforeIndex(loop / 2);
+		for(int i = loop / 2; i < loop; i++) {
+			assertEquals(i + randomString, new String(bigArray.get(i)));
+		}
+		byte[] viewBytes = new byte[view.getBuffer().remaining()];
+		view.getBuffer().get(viewBytes);
+		assertEquals((loop - 1) + randomString, new String(viewBytes));
+		view.close();
+
+		bigArray.removeAll();
+		bigArray.append("hello".getBytes());
+		assertEquals("hello", new String(bigArray.get(0)));
+
+		config.setPageTableSize(-1);
+		try {
+			new BigArrayImpl(testDir, "page_table_test", config);
+			fail("IllegalArgumentException expected");
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+
+	@Test
+	public void positionalPageStorageTest() throws IOException {
+		BigArrayConfig config = new BigArrayConfig(BigArrayImpl.MINIMUM_DATA_PAGE_SIZE);
+		config.setPageStorage(BigArrayConfig.PageStorage.POSITIONAL);
+		bigArray = new BigArrayImpl(testDir, "positional_page_storage_test", config);
+
+		String randomString = TestUtil.randomString(1024);
+		int loop = 100000; // several data pages and index pages
+		for(int i = 0; i < loop; i++) {
+			bigArray.append((i + randomString).getBytes());
+		}
+		for(int i = 0; i < loop; i += 7) {
+			assertEquals(i + randomString, new String(bigArray.get(i)));
+			assertEquals((i + randomString).length(), bigArray.getItemLength(i));
+		}
+		BigArrayCursor cursor = bigArray.openCursor(0);
+		try {
+			for(int i = 0; i < loop; i++) {
+				assertEquals(i + randomString, new String(cursor.next()));
+			}
+		} finally {
+			cursor.close();
+		}
+		BufferView view = bigArray.getBuffer(loop - 1);
+		byte[] viewBytes = new byte[view.getBuffer().remaining()];
+		view.getBuffer().get(viewBytes);
+		assertEquals((loop - 1) + randomString, new String(viewBytes));
+		view.close();
+
+		bigArray.removeBeforeIndex(loop / 2);
+		assertEquals((loop / 2) + randomString, new String(bigArray.get(loop / 2)));
+		long timestamp = bigArray.getTimestamp(loop - 1);
+		bigArray.close();
+
+		// the page files are the same as mapped ones 页面文件与映射的页面文件相同
+		bigArray = new BigArrayImpl(testDir, "positional_page_storage_test", BigArrayImpl.MINIMUM_DATA_PAGE_SIZE);
+		assertTrue(bigArray.size() == loop - loop / 2);
+		for(int i = loop / 2; i < loop; i += 7) {
+			assertEquals(i + randomString, new String(bigArray.get(i)));
+		}
+		assertTrue(timestamp == bigArray.getTimestamp(loop - 1));
+		bigArray.append("hello".getBytes());
+		bigArray.close();
+
+		bigArray = new BigArrayImpl(testDir, "positional_page_storage_test", config);
+		assertEquals("hello", new String(bigArray.get(loop)));
+		assertEquals((loop - 1) + randomString, new String(bigArray.get(loop - 1)));
+	}
+
+	@Test
+	public void pageRecycleTest() throws IOException {
+		BigArrayConfig config = new BigArrayConfig(BigArrayImpl.MINIMUM_DATA_PAGE_SIZE);
+		config.setPageRecyclePoolSize(2);
+		bigArray = new BigArrayImpl(testDir, "page_recycle_test", config);
+		File dataDir = new File(((BigArrayImpl) bigArray).getArrayDirectory() + BigArrayImpl.DATA_PAGE_FOLDER);
+
+		String randomString = TestUtil.randomString(1024);
+		int loop = 200000; // several data pages 多个数据页
+		for(int i = 0; i < loop; i++) {
+			bigArray.append((i + randomString).getBytes());
+		}
+		int dataPageNum = dataDir.listFiles().length;
+		long backFileSize = bigArray.getBackFileSize();
+
+		// removed data pages go to the free pool, the rest of them is deleted 被删除的数据页进入空闲池，其余的被删除
+		bigArray.removeBeforeIndex(loop - 1);
+		assertEquals(1 + 2, dataDir.listFiles().length);
+		assertTrue(bigArray.getBackFileSize() < backFileSize);
+
+		// new data pages reuse the free page files, stale content is never read 新数据页重用空闲页面文件，从不读取过期内容
+		for(int i = loop; i < 2 * loop; i++) {
+			bigArray.append((i + randomString).getBytes());
+		}
+		assertEquals(dataPageNum, dataDir.listFiles().length);
+		for(int i = loop - 1; i < 2 * loop; i += 7) {
+			assertEquals(i + randomString, new String(bigArray.get(i)));
+		}
+		bigArray.close();
+
+		bigArray = new BigArrayImpl(testDir, "page_recycle_test", config);
+		assertEquals(loop + 1, bigArray.size());
+		assertEquals((2 * loop - 1) + randomString, new String(bigArray.get(2 * loop - 1)));
+
+		config.setPageRecyclePoolSize(-1);
+		try {
+			new BigArrayImpl(testDir, "page_recycle_test", config);
+			fail("IllegalArgumentException expected");
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+
+	@Test
+	public void pageRecycleWhileViewedTest() throws IOException {
+		BigArrayConfig config = new BigArrayConfig(BigArrayImpl.MINIMUM_DATA_PAGE_SIZE);
+		config.setPageRecyclePoolSize(2);
+		bigArray = new BigArrayImpl(testDir, "page_recycle_viewed_test", config);
+
+		String randomString = TestUtil.randomString(1024);
+		int loop = 200000; // several data pages 多个数据页
+		for(int i = 0; i < loop; i++) {
+			bigArray.append((i + randomString).getBytes());
+		}
+
+		// the viewed data page is removed, then new data pages roll over onto the free page files
+		// 被查看的数据页被删除，然后新的数据页滚动到空闲页面文件上
+		BufferView view = bigArray.getBuffer(0);
+		try {
+			bigArray.removeBeforeIndex(loop - 1);
+			for(int i = loop; i < 2 * loop; i++) {
+				bigArray.append((i + randomString).getBytes());
+			}
+			byte[] data = new byte[view.getBuffer().remaining()];
+			view.getBuffer().get(data);
+			assertEquals(0 + randomString, new String(data));
+		} finally {
+			view.close();
+		}
+	}
+
+	@Test
+	public void cursorTest() throws IOException {
+		bigArray = new BigArrayImpl(testDir, "cursor_test", BigArrayImpl.MINIMUM_DATA_PAGE_SIZE);
+
+		String randomString = TestUtil.randomString(1024);
+		int loop = 200000; // several data pages and index pages
+		for(int i = 0; i < loop; i++) {
+			bigArray.append((i + randomString).getBytes());
+		}
+
+		BigArrayCursor cursor = bigArray.openCursor(0);
+		for(int i = 0; i < loop; i++) {
+			assertTrue(cursor.hasNext());
+			assertEquals(i, cursor.getIndex());
+			assertEquals(i + randomString, new String(cursor.next()));
+		}
+		assertFalse(cursor.hasNext());
+		try {
+			cursor.next();
+			fail("IndexOutOfBoundsException should be thrown here");
+		} catch (IndexOutOfBoundsException ex) {
+		}
+
+		// an exhausted cursor reads the items appended afterwards 已读完的游标读取之后附加的项
+		bigArray.append("hello".getBytes());
+		assertTrue(cursor.hasNext());
+		assertEquals("hello", new String(cursor.next()));
+		cursor.close();
+
+		// a cursor follows the removal of the pages before it 游标跟随其之前页面的删除
+		cursor = bigArray.openCursor(loop / 2);
+		assertEquals(loop / 2 + randomString, new String(cursor.next()));
+		bigArray.removeBeforeIndex(loop / 2);
+		for(int i = loop / 2 + 1; i < loop; i++) {
+			assertEquals(i + randomString, new String(cursor.next()));
+		}
+		bigArray.removeBeforeIndex(loop);
+		try {
+			bigArray.openCursor(loop - 1);
+			fail("IndexOutOfBoundsException should be thrown here");
+		} catch (IndexOutOfBoundsException ex) {
+		}
+		assertEquals("hello", new String(cursor.next()));
+
+		// a cursor over removed items fails 删除项上的游标失败
+		BigArrayCursor headCursor = bigArray.openCursor(bigArray.getHeadIndex());
+		assertFalse(headCursor.hasNext());
+		bigArray.removeAll();
+		bigArray.append("world".getBytes());
+		try {
+			headCursor.next();
+			fail("IndexOutOfBoundsException should be thrown here");
+		} catch (IndexOutOfBoundsException ex) {
+		}
+		headCursor.close();
+		cursor.close();
+
+		cursor = bigArray.openCursor(0);
+		assertEquals("world", new String(cursor.next()));
+		cursor.close();
+		try {
+			cursor.next();
+			fail("IllegalStateException should be thrown here");
+		} catch (IllegalStateException ex) {
+		}
+	}
+
+	@Test
+	public void appenderTest() throws Exception {
+		for(final BigArrayConfig.AppendMode appendMode : BigArrayConfig.AppendMode.values()) {
+			BigArrayConfig config = new BigArrayConfig(BigArrayImpl.MINIMUM_DATA_PAGE_SIZE);
+			config.setAppendMode(appendMode);
+			bigArray = new BigArrayImpl(testDir, "appender_test", config);
+			bigArray.removeAll();
+
+			final String randomString = TestUtil.randomString(1024);
+			final int producerNum = 4;
+			final int loop = 50000; // the producers together roll over several data pages and index pages
+			final CountDownLatch doneLatch = new CountDownLatch(producerNum);
+			for(int p = 0; p < producerNum; p++) {
+				final int producer = p;
+				new Thread() {
+					public void run() {
+						BigArrayAppender appender = bigArray.openAppender();
+						try {
+							for(int i = 0; i < loop; i++) {
+								String item = producer + "-" + i + "-" + randomString;
+								if (i % 3 == 0) {
+									appender.append(item.getBytes());
+								} else if (i % 3 == 1) {
+									appender.append(ByteBuffer.wrap(item.getBytes()));
+								} else {
+									appender.appendBatch(Collections.singletonList(item.getBytes()));
+								}
+							}
+						} catch (IOException e) {
+							e.printStackTrace();
+						} finally {
+							appender.close();
+							doneLatch.countDown();
+						}
+					}
+				}.start();
+			}
+			assertTrue(doneLatch.await(60, TimeUnit.SECONDS));
+			assertEquals(producerNum * loop, bigArray.size());
+
+			// items of every producer are in order 每个生产者的项都是有序的
+			int[] next = new int[producerNum];
+			for(long i = 0; i < producerNum * loop; i++) {
+				String[] parts = new String(bigArray.get(i)).split("-", 3);
+				int producer = Integer.parseInt(parts[0]);
+				assertEquals(next[producer]++, Integer.parseInt(parts[1]));
+				assertEquals(randomString, parts[2]);
+			}
+
+			// an appender survives the removal of all pages 附加器在所有页面被删除后仍然可用
+			BigArrayAppender appender = bigArray.openAppender();
+			appender.append("hello".getBytes());
+			bigArray.removeAll();
+			assertEquals(0, appender.append("world".getBytes()));
+			assertEquals(1, bigArray.append("!".getBytes()));
+			assertEquals(2, appender.append("again".getBytes()));
+			appender.close();
+			appender.close();
+			try {
+				appender.append("closed".getBytes());
+				fail("IllegalStateException should be thrown here");
+			} catch (IllegalStateException ex) {
+			}
+			bigArray.close();
+
+			bigArray = new BigArrayImpl(testDir, "appender_test", config);
+			assertEquals(3, bigArray.size());
+			assertEquals("world", new String(bigArray.get(0)));
+			assertEquals("again", new String(bigArray.get(2)));
+			bigArray.removeAll();
+			bigArray.close();
+		}
+	}
+
+	@Test
+	public void groupCommitTest() throws Exception {
+		BigArrayConfig config = new BigArrayConfig();
+		config.setDurabilityPolicy(BigArrayConfig.DurabilityPolicy.GROUP_COMMIT);
+		config.setFlushInterval(60 * 1000); // only durable appends trigger a flush 只有持久附加会触发刷新
+		bigArray = new BigArrayImpl(testDir, "group_commit_test", config);
+		
+		final int producerNum = 4;
+		final int loop = 1000;
+		final List<ListenableFuture<Long>> futures = Collections.synchronizedList(new ArrayList<ListenableFuture<Long>>());
+		final CountDownLatch doneLatch = new CountDownLatch(producerNum);
+		for(int p = 0; p < producerNum; p++) {
+			final int producer = p;
+			new Thread() {
+				public void run() {
+					try {
+						for(int i = 0; i < loop; i++) {
+							futures.add(bigArray.appendDurable((producer + "-" + i).getBytes()));
+						}
+					} catch (IOException e) {
+						e.printStackTrace();
+					} finally {
+						doneLatch.countDown();
+					}
+				}
+			}.start();
+		}
+		assertTrue(doneLatch.await(30, TimeUnit.SECONDS));
+		assertTrue(futures.size() == producerNum * loop);
+		
+		// every future completes with its own index 每个future以其自己的索引完成
+		boolean[] seen = new boolean[producerNum * loop];
+		for(ListenableFuture<Long> future : futures) {
+			long index = future.get(10, TimeUnit.SECONDS);
+			assertFalse(seen[(int) index]);
+			seen[(int) index] = true;
+		}
+		bigArray.close();
+		
+		// futures of appends pending at close are completed by the last flush 关闭时待处理的附加的future由最后一次刷新完成
+		bigArray = new BigArrayImpl(testDir, "group_commit_test", config);
+		assertTrue(bigArray.size() == producerNum * loop);
+		ListenableFuture<Long> last = bigArray.appendDurable("last".getBytes());
+		bigArray.close();
+		assertTrue(last.get(10, TimeUnit.SECONDS) == producerNum * loop);
+		
+		// the other policies flush before returning 其他策略在返回前刷新
+		config.setDurabilityPolicy(BigArrayConfig.DurabilityPolicy.PERIODIC);
+		config.setFlushInterval(10);
+		bigArray = new BigArrayImpl(testDir, "group_commit_test", config);
+		assertTrue(bigArray.appendDurable("periodic".getBytes()).isDone());
+		assertEquals("last", new String(bigArray.get(producerNum * loop)));
+		
+		config.setFlushInterval(0);
+		try {
+			new BigArrayImpl(testDir, "group_commit_test", config);
+			fail("IllegalArgumentException expected");
+		} catch (IllegalArgumentException expected) {
+		}
+	}
 	
 	@Test
 	public void getItemLength() throws IOException {
@@ -5,7 +5,13 @@ import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.*;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
 import java.util.concurrent.*;
 
 import com.google.common.util.concurrent.ListenableFuture;
@@ -84,6 +90,415 @@ public class BigQueueUnitTest {
 		}
 	}
 	
+	@Test
+	public void enqueueBatchTest() throws IOException {
+		bigQueue = new BigQueueImpl(testDir, "enqueue_batch_test");
+		assertNotNull(bigQueue);
+		
+		assertEquals(-1L, bigQueue.enqueueBatch(new ArrayList<byte[]>()));
+		assertTrue(bigQueue.isEmpty());
+		
+		int loop = 100000;
+		List<byte[]> batch = new ArrayList<byte[]>();
+		for(int i = 0; i < loop; i++) {
+			batch.add(("" + i).getBytes());
+			if (batch.size() == 100) {
+				assertEquals(i - 99, bigQueue.enqueueBatch(batch)); // index of the first item 第一个项的索引
+				batch.clear();
+			}
+		}
+		assertTrue(bigQueue.size() == loop);
+		
+		for(int i = 0; i < loop; i++) {
+			assertEquals("" + i, new String(bigQueue.dequeue()));
+		}
+		assertTrue(bigQueue.isEmpty());
+	}
+	
+	@Test
+	public void enqueueByteBufferTest() throws IOException {
+		bigQueue = new BigQueueImpl(testDir, "enqueue_byte_buffer_test");
+		
+		int loop = 10000;
+		for(int i = 0; i < loop; i++) {
+			bigQueue.enqueue(ByteBuffer.wrap("hello ".getBytes()), ByteBuffer.wrap(("" + i).getBytes()));
+		}
+		assertTrue(bigQueue.size() == loop);
+		for(int i = 0; i < loop; i++) {
+			assertEquals("hello " + i, new String(bigQueue.dequeue()));
+		}
+		assertTrue(bigQueue.isEmpty());
+	}
+	
+	@Test
+	public void enqueueDurableTest() throws Exception {
+		BigArrayConfig config = new BigArrayConfig();
+		config.setDurabilityPolicy(BigArrayConfig.DurabilityPolicy.GROUP_COMMIT);
+		bigQueue = new BigQueueImpl(testDir, "enqueue_durable_test", config);
+		
+		int loop = 1000;
+		List<ListenableFuture<Long>> futures = new ArrayList<ListenableFuture<Long>>();
+		for(int i = 0; i < loop; i++) {
+			futures.add(bigQueue.enqueueDurable(("" + i).getBytes()));
+		}
+		for(int i = 0; i < loop; i++) {
+			assertTrue(futures.get(i).get(10, TimeUnit.SECONDS) == i);
+		}
+		for(int i = 0; i < loop; i++) {
+			assertEquals("" + i, new String(bigQueue.dequeue()));
+		}
+		assertTrue(bigQueue.isEmpty());
+	}
+	
+	@Test
+	public void dequeueBufferTest() throws IOException {
+		bigQueue = new BigQueueImpl(testDir, "dequeue_buffer_test");
+		assertNull(bigQueue.dequeueBuffer());
+		
+		int loop = 10000;
+		for(int i = 0; i < loop; i++) {
+			bigQueue.enqueue(("" + i).getBytes());
+		}
+		for(int i = 0; i < loop; i++) {
+			BufferView view = bigQueue.dequeueBuffer();
+			assertTrue(view.getIndex() == i);
+			byte[] data = new byte[view.getBuffer().remaining()];
+			view.getBuffer().get(data);
+			view.release();
+			assertEquals("" + i, new String(data));
+			assertTrue(bigQueue.size() == loop - i - 1);
+		}
+		assertTrue(bigQueue.isEmpty());
+		assertNull(bigQueue.dequeueBuffer());
+	}
+	
+	@Test
+	public void dequeueBatchTest() throws IOException {
+		bigQueue = new BigQueueImpl(testDir, "dequeue_batch_test");
+		assertTrue(bigQueue.dequeue(10).isEmpty());
+		
+		int loop = 100000;
+		for(int i = 0; i < loop; i++) {
+			bigQueue.enqueue(("" + i).getBytes());
+		}
+		int count = 0;
+		while(count < loop / 2) {
+			List<byte[]> batch = bigQueue.dequeue(99);
+			assertTrue(batch.size() == Math.min(99, loop - count));
+			for(byte[] data : batch) {
+				assertEquals("" + count++, new String(data));
+			}
+		}
+		
+		// single dequeues and batches share the queue front 单个出队和批量出队共享队列前端
+		assertEquals("" + count++, new String(bigQueue.dequeue()));
+		
+		// the first item is returned even if it is longer than the byte limit 第一个项目即使超过字节限制也会返回
+		List<byte[]> batch = bigQueue.dequeue(100, 1);
+		assertEquals(1, batch.size());
+		assertEquals("" + count++, new String(batch.get(0)));
+		batch = bigQueue.dequeue(100, 5 * 3);
+		assertEquals(3, batch.size());
+		for(byte[] data : batch) {
+			assertEquals("" + count++, new String(data));
+		}
+		
+		List<byte[]> drained = new ArrayList<byte[]>();
+		assertEquals(1000, bigQueue.drainTo(drained, 1000));
+		assertEquals(loop - count - 1000, bigQueue.size());
+		
+		// a rejected item stays in the queue 被拒绝的项目留在队列中
+		final List<byte[]> bounded = new ArrayList<byte[]>();
+		try {
+			bigQueue.drainTo(new AbstractCollection<byte[]>() {
+				public boolean add(byte[] data) {
+					if (bounded.size() == 10) throw new IllegalStateException("full");
+					return bounded.add(data);
+				}
+				public Iterator<byte[]> iterator() { return bounded.iterator(); }
+				public int size() { return bounded.size(); }
+			}, 100);
+			fail("IllegalStateException expected");
+		} catch (IllegalStateException expected) {
+		}
+		drained.addAll(bounded);
+		assertEquals(loop - count - 1010, bigQueue.size());
+		assertTrue(bigQueue.drainTo(drained, Integer.MAX_VALUE) == loop - count - 1010);
+		for(byte[] data : drained) {
+			assertEquals("" + count++, new String(data));
+		}
+		assertEquals(loop, count);
+		assertTrue(bigQueue.isEmpty());
+		assertEquals(0, bigQueue.drainTo(drained, 10));
+		bigQueue.close();
+		
+		// the queue front is persisted once per batch 每批持久化一次队列前端
+		bigQueue = new BigQueueImpl(testDir, "dequeue_batch_test");
+		assertTrue(bigQueue.isEmpty());
+		bigQueue.enqueue("hello".getBytes());
+		assertEquals("hello", new String(bigQueue.dequeue(10).get(0)));
+	}
+	
+	@Test
+	public void leaseTest() throws Exception {
+		bigQueue = new BigQueueImpl(testDir, "lease_test", BigArrayImpl.MINIMUM_DATA_PAGE_SIZE);
+		assertNull(bigQueue.lease(10, 1, TimeUnit.MINUTES));
+		for(int i = 0; i < 100; i++) {
+			bigQueue.enqueue(("" + i).getBytes());
+		}
+		
+		Lease lease1 = bigQueue.lease(10, 1, TimeUnit.MINUTES);
+		Lease lease2 = bigQueue.lease(10, 50, TimeUnit.MILLISECONDS);
+		Lease lease3 = bigQueue.lease(10, 1, TimeUnit.MINUTES);
+		assertEquals(10, lease1.getItems().size());
+		assertEquals("0", new String(lease1.getItems().get(0)));
+		assertEquals("10", new String(lease2.getItems().get(0)));
+		assertEquals("20", new String(lease3.getItems().get(0)));
+		assertEquals(70, bigQueue.size());
+		
+		// an acknowledged lease behind an outstanding one does not move the committed front
+		// 未完成租约之后的已确认租约不会移动提交的前端
+		assertTrue(bigQueue.ack(lease3.getId()));
+		assertFalse(bigQueue.ack(lease3.getId()));
+		
+		// an expired lease is leased again before new items, in parts if needed 过期租约在新项目之前被再次租借，必要时分成几部分
+		Thread.sleep(100);
+		Lease redelivered = bigQueue.lease(4, 1, TimeUnit.MINUTES);
+		assertEquals(4, redelivered.getItems().size());
+		assertEquals("10", new String(redelivered.getItems().get(0)));
+		assertFalse(bigQueue.ack(lease2.getId()));
+		Lease rest = bigQueue.lease(100, 1, TimeUnit.MINUTES);
+		assertEquals(6, rest.getItems().size());
+		assertEquals("14", new String(rest.getItems().get(0)));
+		
+		// a negative acknowledgement redelivers at once 否认立即重新投递
+		assertTrue(bigQueue.nack(rest.getId()));
+		assertFalse(bigQueue.nack(rest.getId()));
+		rest = bigQueue.lease(100, 1, TimeUnit.MINUTES);
+		assertEquals("14", new String(rest.getItems().get(0)));
+		
+		assertTrue(bigQueue.ack(lease1.getId()));
+		assertTrue(bigQueue.ack(redelivered.getId()));
+		bigQueue.close();
+		
+		// the items of outstanding leases are delivered again after a restart 重启后未完成租约的项目被再次投递
+		bigQueue = new BigQueueImpl(testDir, "lease_test", BigArrayImpl.MINIMUM_DATA_PAGE_SIZE);
+		assertEquals(86, bigQueue.size());
+		assertEquals("14", new String(bigQueue.dequeue()));
+		Lease lease = bigQueue.lease(100, 1, TimeUnit.MINUTES);
+		assertEquals(85, lease.getItems().size());
+		
+		// gc keeps the leased items 垃圾回收保留租借的项目
+		bigQueue.gc();
+		assertTrue(bigQueue.isEmpty());
+		assertTrue(bigQueue.nack(lease.getId()));
+		lease = bigQueue.lease(1, 1, TimeUnit.MINUTES);
+		assertEquals("15", new String(lease.getItems().get(0)));
+		
+		bigQueue.removeAll();
+		assertFalse(bigQueue.ack(lease.getId()));
+		assertNull(bigQueue.lease(1, 1, TimeUnit.MINUTES));
+	}
+	
+	@Test
+	public void leaseAsyncTest() throws Exception {
+		bigQueue = new BigQueueImpl(testDir, "lease_async_test", BigArrayImpl.MINIMUM_DATA_PAGE_SIZE);
+		ListenableFuture<Lease> future = bigQueue.leaseAsync(10, 200, TimeUnit.MILLISECONDS);
+		assertFalse(future.isDone());
+		bigQueue.enqueue("0".getBytes());
+		Lease lease = future.get(5, TimeUnit.SECONDS);
+		assertEquals("0", new String(lease.getItems().get(0)));
+		
+		// an expired lease is redelivered to a waiting consumer without another lease call
+		// 过期租约无需再次调用lease就被重新投递给等待的消费者
+		long start = System.nanoTime();
+		future = bigQueue.leaseAsync(10, 1, TimeUnit.MINUTES);
+		assertFalse(future.isDone());
+		Lease redelivered = future.get(5, TimeUnit.SECONDS);
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+		assertEquals("0", new String(redelivered.getItems().get(0)));
+		assertFalse(bigQueue.ack(lease.getId()));
+		
+		// so is a negatively acknowledged one, a cancelled waiter takes nothing 被否认的租约也是如此，被取消的等待者不获取任何项目
+		ListenableFuture<Lease> cancelled = bigQueue.leaseAsync(10, 1, TimeUnit.MINUTES);
+		future = bigQueue.leaseAsync(10, 1, TimeUnit.MINUTES);
+		assertTrue(cancelled.cancel(false));
+		assertTrue(bigQueue.nack(redelivered.getId()));
+		lease = future.get(5, TimeUnit.SECONDS);
+		assertEquals("0", new String(lease.getItems().get(0)));
+		
+		// items of an expired lease removed from the back array meanwhile are dropped, the rest is redelivered
+		// 期间从后数组中删除的过期租约项目被丢弃，其余的被重新投递
+		assertTrue(bigQueue.ack(lease.getId()));
+		for(int i = 1; i < 10; i++) {
+			bigQueue.enqueue(("" + i).getBytes());
+		}
+		lease = bigQueue.lease(3, 1, TimeUnit.MINUTES);
+		Lease partlyRemoved = bigQueue.lease(4, 1, TimeUnit.MILLISECONDS);
+		assertEquals("4", new String(partlyRemoved.getItems().get(0)));
+		assertTrue(bigQueue.ack(lease.getId()));
+		((BigQueueImpl) bigQueue).innerArray.removeBeforeIndex(6);
+		Thread.sleep(10);
+		lease = bigQueue.lease(10, 1, TimeUnit.MINUTES);
+		assertEquals(2, lease.getItems().size());
+		assertEquals("6", new String(lease.getItems().get(0)));
+		assertTrue(bigQueue.ack(lease.getId()));
+		lease = bigQueue.lease(10, 1, TimeUnit.MINUTES);
+		assertEquals("8", new String(lease.getItems().get(0)));
+		assertTrue(bigQueue.ack(lease.getId()));
+		
+		// an expired lease removed as a whole counts as acknowledged, the committed front moves past it
+		// 整体被删除的过期租约视为已确认，提交的前端移过它
+		bigQueue.enqueue("10".getBytes());
+		Lease removed = bigQueue.lease(1, 1, TimeUnit.MILLISECONDS);
+		bigQueue.enqueue("11".getBytes());
+		((BigQueueImpl) bigQueue).innerArray.removeBeforeIndex(11);
+		Thread.sleep(10);
+		lease = bigQueue.lease(10, 1, TimeUnit.MINUTES);
+		assertEquals("11", new String(lease.getItems().get(0)));
+		assertFalse(bigQueue.ack(removed.getId()));
+		bigQueue.close();
+		bigQueue = new BigQueueImpl(testDir, "lease_async_test", BigArrayImpl.MINIMUM_DATA_PAGE_SIZE);
+		assertEquals(1, bigQueue.size());
+		assertEquals("11", new String(bigQueue.dequeue()));
+		
+		// closing the queue cancels the waiting consumers 关闭队列会取消等待的消费者
+		future = bigQueue.leaseAsync(1, 1, TimeUnit.MINUTES);
+		bigQueue.close();
+		assertTrue(future.isCancelled());
+		bigQueue = new BigQueueImpl(testDir, "lease_async_test", BigArrayImpl.MINIMUM_DATA_PAGE_SIZE);
+	}
+	
+	@Test
+	public void takeAndPollTest() throws Exception {
+		for(BigArrayConfig.WaitStrategy waitStrategy : BigArrayConfig.WaitStrategy.values()) {
+			BigArrayConfig config = new BigArrayConfig();
+			config.setWaitStrategy(waitStrategy);
+			bigQueue = new BigQueueImpl(testDir, "take_poll_test", config);
+			bigQueue.removeAll();
+			
+			// nothing arrives, poll times out 没有项目到达，poll超时
+			long start = System.nanoTime();
+			assertNull(bigQueue.poll(50, TimeUnit.MILLISECONDS));
+			assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+			
+			final int loop = 10000;
+			final IBigQueue queue = bigQueue;
+			Thread producer = new Thread(new Runnable() {
+				public void run() {
+					try {
+						for(int i = 0; i < loop; i++) {
+							queue.enqueue(("" + i).getBytes());
+							if (i % 1000 == 0) Thread.sleep(10);
+						}
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
+				}
+			});
+			producer.start();
+			for(int i = 0; i < loop; i++) {
+				byte[] data = i % 2 == 0 ? bigQueue.take() : bigQueue.poll(10, TimeUnit.SECONDS);
+				assertEquals(waitStrategy.name(), "" + i, new String(data));
+			}
+			producer.join();
+			assertTrue(bigQueue.isEmpty());
+			bigQueue.close();
+		}
+		bigQueue = null;
+	}
+	
+	@Test
+	public void takeInterruptedAndClosedTest() throws Exception {
+		bigQueue = new BigQueueImpl(testDir, "take_interrupted_test");
+		final IBigQueue queue = bigQueue;
+		final BlockingQueue<Throwable> errors = new LinkedBlockingQueue<Throwable>();
+		Runnable taker = new Runnable() {
+			public void run() {
+				try {
+					queue.take();
+				} catch (Throwable e) {
+					errors.add(e);
+				}
+			}
+		};
+		Thread consumer = new Thread(taker);
+		consumer.start();
+		Thread.sleep(50);
+		consumer.interrupt();
+		assertTrue(errors.poll(5, TimeUnit.SECONDS) instanceof InterruptedException);
+		
+		// closing the queue wakes up the parked consumers 关闭队列会唤醒挂起的消费者
+		consumer = new Thread(taker);
+		consumer.start();
+		Thread.sleep(50);
+		bigQueue.close();
+		assertTrue(errors.poll(5, TimeUnit.SECONDS) instanceof IllegalStateException);
+		bigQueue = null;
+	}
+	
+	@Test
+	public void blockingQueueAdapterTest() throws Exception {
+		bigQueue = new BigQueueImpl(testDir, "blocking_queue_adapter_test");
+		BigBlockingQueue blockingQueue = new BigBlockingQueue((BigQueueImpl) bigQueue);
+		assertTrue(blockingQueue.isEmpty());
+		assertNull(blockingQueue.poll());
+		assertNull(blockingQueue.peek());
+		assertEquals(Integer.MAX_VALUE, blockingQueue.remainingCapacity());
+		
+		for(int i = 0; i < 100; i++) {
+			assertTrue(blockingQueue.offer(("" + i).getBytes()));
+		}
+		blockingQueue.put("100".getBytes());
+		assertEquals(101, blockingQueue.size());
+		assertEquals("0", new String(blockingQueue.peek()));
+		assertEquals("0", new String(blockingQueue.take()));
+		assertEquals("1", new String(blockingQueue.poll(1, TimeUnit.SECONDS)));
+		assertEquals("2", new String(blockingQueue.poll()));
+		
+		// the iterator is read only and does not change the queue 迭代器是只读的，不改变队列
+		int count = 3;
+		for(byte[] data : blockingQueue) {
+			assertEquals("" + count++, new String(data));
+		}
+		assertEquals(101, count);
+		assertEquals(98, blockingQueue.size());
+		
+		// weakly consistent, items dequeued meanwhile are still returned until gc, items enqueued meanwhile are not
+		// 弱一致，期间出队的项目在gc之前仍会被返回，期间入队的项目则不会
+		Iterator<byte[]> it = blockingQueue.iterator();
+		assertEquals("3", new String(blockingQueue.poll()));
+		blockingQueue.offer("101".getBytes());
+		count = 3;
+		while (it.hasNext()) {
+			assertEquals("" + count++, new String(it.next()));
+		}
+		assertEquals(101, count);
+		try {
+			it.next();
+			fail("NoSuchElementException expected");
+		} catch (NoSuchElementException expected) {
+		}
+		assertEquals(98, blockingQueue.size());
+		
+		List<byte[]> drained = new ArrayList<byte[]>();
+		assertEquals(10, blockingQueue.drainTo(drained, 10));
+		assertEquals("4", new String(drained.get(0)));
+		try {
+			blockingQueue.drainTo(blockingQueue);
+			fail("IllegalArgumentException expected");
+		} catch (IllegalArgumentException expected) {
+		}
+		assertEquals(88, blockingQueue.drainTo(drained));
+		assertEquals("101", new String(drained.get(97)));
+		assertTrue(blockingQueue.isEmpty());
+		
+		blockingQueue.offer("hello".getBytes());
+		blockingQueue.clear();
+		assertTrue(blockingQueue.isEmpty());
+		assertFalse(blockingQueue.iterator().hasNext());
+	}
+	
 	@Test
 	public void bigLoopTest() throws IOException {
 		bigQueue = new BigQueueImpl(testDir, "big_loop_test");
@@ -179,6 +594,28 @@ public class BigQueueUnitTest {
         assertEquals(0, bigQueue.size());
     }
 
+    @Test
+    public void applyForEachAfterGcTest() throws Exception {
+        bigQueue = new BigQueueImpl(testDir, "applyForEachAfterGcTest", BigArrayImpl.MINIMUM_DATA_PAGE_SIZE);
+
+        for (int i = 1; i <= 5; i++) {
+            bigQueue.enqueue(("" + i).getBytes());
+        }
+        for (int i = 1; i <= 3; i++) {
+            assertArrayEquals(("" + i).getBytes(), bigQueue.dequeue());
+        }
+        bigQueue.gc(); // the back array tail moves past the first items 后台数组的尾移过前面的项
+
+        DefaultItemIterator dii = new DefaultItemIterator();
+        bigQueue.applyForEach(dii);
+        assertEquals(2, dii.getCount());
+        assertEquals("4, 5, ", dii.toString());
+
+        assertArrayEquals("4".getBytes(), bigQueue.dequeue());
+        assertArrayEquals("5".getBytes(), bigQueue.dequeue());
+        assertNull(bigQueue.dequeue());
+    }
+
     @Test
     public void concurrentApplyForEachTest() throws Exception {
         bigQueue = new BigQueueImpl(testDir, "concurrentApplyForEachTest", BigArrayImpl.MINIMUM_DATA_PAGE_SIZE );
@@ -251,10 +688,10 @@ public class BigQueueUnitTest {
         bigQueue.enqueue("test".getBytes());
         bigQueue.enqueue("test2".getBytes());
 
-        assertTrue(future.isDone());
-        assertEquals("test", new String(future.get()));
-        verify(executor1, times(1)).execute(any(Runnable.class));
-        verify(executor2, times(1)).execute(any(Runnable.class));
+        // completed by the async executor 由异步执行器完成
+        assertEquals("test", new String(future.get(5, TimeUnit.SECONDS)));
+        verify(executor1, timeout(5000).times(1)).execute(any(Runnable.class));
+        verify(executor2, timeout(5000).times(1)).execute(any(Runnable.class));
 
 
         ListenableFuture<byte[]> future2 = bigQueue.dequeueAsync();
@@ -299,7 +736,7 @@ public class BigQueueUnitTest {
         future.addListener(mock(Runnable.class), executor);
 
         bigQueue.enqueue("test".getBytes());
-        verify(executor).execute(any(Runnable.class));
+        verify(executor, timeout(5000)).execute(any(Runnable.class));
 
     }
 
@@ -349,10 +786,213 @@ public class BigQueueUnitTest {
 
         bigQueue.enqueue("test".getBytes());
 
-        verify(executor2).execute(any(Runnable.class));
+        verify(executor2, timeout(5000)).execute(any(Runnable.class));
     }
 
 
+    @Test
+    public void testEveryAsyncDequeueGetsItsOwnItem() throws Exception {
+        int count = 1000;
+        final List<String> completingThreads = new CopyOnWriteArrayList<String>();
+        final CountDownLatch listenersCalled = new CountDownLatch(count - 1);
+        final ExecutorService asyncExecutor = Executors.newFixedThreadPool(2, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "test-async");
+            }
+        });
+        BigArrayConfig config = new BigArrayConfig(BigArrayImpl.MINIMUM_DATA_PAGE_SIZE);
+        config.setAsyncExecutor(asyncExecutor);
+        bigQueue = new BigQueueImpl(testDir, "testEveryAsyncDequeueGetsItsOwnItem", config);
+
+        List<ListenableFuture<byte[]>> futures = new ArrayList<ListenableFuture<byte[]>>();
+        for (int i = 0; i < count; i++) {
+            ListenableFuture<byte[]> future = bigQueue.dequeueAsync();
+            futures.add(future);
+            if (i == 1) continue; // cancelled below 下面会被取消
+            future.addListener(new Runnable() {
+                public void run() {
+                    completingThreads.add(Thread.currentThread().getName());
+                    listenersCalled.countDown();
+                }
+            }, new Executor() {
+                public void execute(Runnable command) {
+                    command.run();
+                }
+            });
+        }
+        // a cancelled request does not take an item 被取消的请求不会获取项目
+        assertTrue(futures.get(1).cancel(false));
+
+        for (int i = 0; i < count; i++) {
+            bigQueue.enqueue(("" + i).getBytes());
+        }
+        for (int i = 0, item = 0; i < count; i++) {
+            if (i == 1) continue;
+            assertEquals("" + item++, new String(futures.get(i).get(5, TimeUnit.SECONDS)));
+        }
+        assertEquals(1, bigQueue.size());
+        assertEquals("" + (count - 1), new String(bigQueue.dequeueAsync().get()));
+
+        // completed on the async executor, never on the producer thread 在异步执行器上完成，从不在生产者线程上
+        assertTrue(listenersCalled.await(5, TimeUnit.SECONDS));
+        for (String threadName : completingThreads) {
+            assertEquals("test-async", threadName);
+        }
+        bigQueue.close();
+        asyncExecutor.shutdown();
+        bigQueue = new BigQueueImpl(testDir, "testEveryAsyncDequeueGetsItsOwnItem", config);
+    }
+
+    @Test
+    public void testCancelledAsyncDequeuesKeepItemsInOrder() throws Exception {
+        bigQueue = new BigQueueImpl(testDir, "testCancelledAsyncDequeuesKeepItemsInOrder", BigArrayImpl.MINIMUM_DATA_PAGE_SIZE);
+        int count = 2000;
+        final List<ListenableFuture<byte[]>> futures = new ArrayList<ListenableFuture<byte[]>>();
+        for (int i = 0; i < count; i++) {
+            futures.add(bigQueue.dequeueAsync());
+        }
+        // waiters are cancelled just as the dispatcher gets to them 等待者恰好在分发器轮到它们时被取消
+        Thread canceller = new Thread() {
+            public void run() {
+                Random random = new Random();
+                for (int i = 1; i < futures.size(); i++) {
+                    while (!futures.get(i - 1).isDone()) {
+                        // spin 自旋
+                    }
+                    if (random.nextBoolean()) {
+                        futures.get(i).cancel(false);
+                    }
+                }
+            }
+        };
+        canceller.start();
+        for (int i = 0; i < count; i++) {
+            bigQueue.enqueue(("" + i).getBytes());
+        }
+        canceller.join();
+
+        // the live waiters get the first items in arrival order, the rest stays in the queue in order, nothing is lost
+        // 存活的等待者按到达顺序获得最前面的项目，其余项目按顺序留在队列中，没有丢失
+        int item = 0;
+        for (ListenableFuture<byte[]> future : futures) {
+            if (!future.isCancelled()) {
+                assertEquals("" + item++, new String(future.get(5, TimeUnit.SECONDS)));
+            }
+        }
+        assertEquals(count - item, bigQueue.size());
+        byte[] data;
+        while ((data = bigQueue.dequeue()) != null) {
+            assertEquals("" + item++, new String(data));
+        }
+        assertEquals(count, item);
+    }
+
+    @Test
+    public void testAsyncDequeueListenersRunWithoutQueueLock() throws Exception {
+        bigQueue = new BigQueueImpl(testDir, "testAsyncDequeueListenersRunWithoutQueueLock", BigArrayImpl.MINIMUM_DATA_PAGE_SIZE);
+        final List<byte[]> dequeuedByOther = new CopyOnWriteArrayList<byte[]>();
+        final CountDownLatch listenerDone = new CountDownLatch(1);
+        ListenableFuture<byte[]> future = bigQueue.dequeueAsync();
+        // a listener run directly waits for another thread that dequeues 直接运行的监听器等待另一个出队的线程
+        future.addListener(new Runnable() {
+            public void run() {
+                Thread other = new Thread() {
+                    public void run() {
+                        try {
+                            dequeuedByOther.add(bigQueue.dequeue());
+                        } catch (IOException e) {
+                            // not added, the assertion below fails 未添加，下面的断言会失败
+                        }
+                    }
+                };
+                other.start();
+                try {
+                    other.join(5000);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (!other.isAlive()) {
+                    listenerDone.countDown();
+                }
+            }
+        }, new Executor() {
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        List<byte[]> items = new ArrayList<byte[]>();
+        items.add("a".getBytes());
+        items.add("b".getBytes());
+        bigQueue.enqueueBatch(items);
+
+        assertEquals("a", new String(future.get(5, TimeUnit.SECONDS)));
+        assertTrue(listenerDone.await(10, TimeUnit.SECONDS));
+        assertEquals("b", new String(dequeuedByOther.get(0)));
+    }
+
+    @Test
+    public void positionalPageStorageTest() throws Exception {
+        BigArrayConfig config = new BigArrayConfig(BigArrayImpl.MINIMUM_DATA_PAGE_SIZE);
+        config.setPageStorage(BigArrayConfig.PageStorage.POSITIONAL);
+        bigQueue = new BigQueueImpl(testDir, "positional_page_storage_test", config);
+        bigQueue.enqueue("A".getBytes());
+        assertEquals("A", new String(bigQueue.dequeue()));
+
+        // the dequeue cursor keeps the pages pinned while the cache closes them, the next items are written to new pages
+        // 出队游标在缓存关闭页面时仍然固定它们，后续项目被写入新的页面
+        Thread.sleep(BigArrayImpl.DATA_PAGE_CACHE_TTL + 600);
+        bigQueue.enqueue("BBBB".getBytes());
+        assertEquals("BBBB", new String(bigQueue.dequeue()));
+        assertTrue(bigQueue.isEmpty());
+    }
+
+    @Test
+    public void publisherTest() throws Exception {
+        bigQueue = new BigQueueImpl(testDir, "publisherTest", BigArrayImpl.MINIMUM_DATA_PAGE_SIZE);
+        for (int i = 0; i < 1000; i++) {
+            bigQueue.enqueue(("" + i).getBytes());
+        }
+        int count = 5000;
+        TestSubscriber subscriber = new TestSubscriber(100, count);
+        bigQueue.asPublisher().subscribe(subscriber);
+
+        // items enqueued later wake up the subscriber 之后入队的项目唤醒订阅者
+        for (int i = 1000; i < count; i++) {
+            bigQueue.enqueue(("" + i).getBytes());
+            if (i % 1000 == 0) Thread.sleep(10);
+        }
+        assertTrue(subscriber.awaitItems(10000));
+        assertFalse(subscriber.overlapped);
+        for (int i = 0; i < count; i++) {
+            assertEquals("" + i, subscriber.items.get(i));
+        }
+        assertTrue(bigQueue.isEmpty());
+
+        // no more items than requested 不超过请求的项目数
+        TestSubscriber slow = new TestSubscriber(1, 1) {
+            public void onNext(ByteBuffer buffer) {
+                items.add("");
+            }
+        };
+        bigQueue.asPublisher().subscribe(slow);
+        subscriber.subscription.cancel();
+        bigQueue.enqueue("a".getBytes());
+        bigQueue.enqueue("b".getBytes());
+        Thread.sleep(100);
+        assertEquals(1, slow.items.size());
+        assertEquals(count, subscriber.items.size());
+        assertEquals(1, bigQueue.size());
+
+        // closing the queue completes the subscribers 关闭队列会完成订阅者
+        bigQueue.dequeue();
+        slow.subscription.request(1);
+        Thread.sleep(100);
+        bigQueue.close();
+        assertTrue(slow.awaitTermination(5000));
+        assertTrue(slow.completed);
+        bigQueue = new BigQueueImpl(testDir, "publisherTest", BigArrayImpl.MINIMUM_DATA_PAGE_SIZE);
+    }
+
     @Test
     public void testParallelAsyncDequeueAndPeekOperations() throws Exception {
         bigQueue = new BigQueueImpl(testDir, "testParallelAsyncDequeueAndPeekOperations", BigArrayImpl.MINIMUM_DATA_PAGE_SIZE);
@@ -363,11 +1003,8 @@ public class BigQueueUnitTest {
         bigQueue.enqueue("Test1".getBytes());
 
 
-        assertTrue(dequeueFuture.isDone());
-        assertTrue(peekFuture.isDone());
-
-        assertEquals("Test1", new String(dequeueFuture.get()));
-        assertEquals("Test1", new String(peekFuture.get()));
+        assertEquals("Test1", new String(dequeueFuture.get(5, TimeUnit.SECONDS)));
+        assertEquals("Test1", new String(peekFuture.get(5, TimeUnit.SECONDS)));
 
         assertEquals(0, bigQueue.size());
     }
@@ -379,6 +1016,7 @@ public class BigQueueUnitTest {
         ListenableFuture<byte[]> peekFuture1 = bigQueue.peekAsync();
 
         bigQueue.enqueue("Test1".getBytes());
+        peekFuture1.get(5, TimeUnit.SECONDS);
 
         ListenableFuture<byte[]> peekFuture2 = bigQueue.peekAsync();
         ListenableFuture<byte[]> peekFuture3 = bigQueue.peekAsync();
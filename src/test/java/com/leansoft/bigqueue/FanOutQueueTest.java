@@ -1,12 +1,14 @@
 package com.leansoft.bigqueue;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.IOException;
+import java.util.List;
 
 import org.junit.After;
 import org.junit.Test;
@@ -52,6 +54,73 @@ public class FanOutQueueTest {
 		}
 	}
 	
+	@Test
+	public void dequeueBufferTest() throws IOException {
+		foQueue = new FanOutQueueImpl(testDir, "dequeue_buffer_test");
+		String fid1 = "fid1";
+		String fid2 = "fid2";
+		assertNull(foQueue.dequeueBuffer(fid1));
+		
+		int loop = 10000;
+		for(int i = 0; i < loop; i++) {
+			foQueue.enqueue(("" + i).getBytes());
+		}
+		for(int i = 0; i < loop; i++) {
+			BufferView view = foQueue.dequeueBuffer(fid1);
+			byte[] data = new byte[view.getBuffer().remaining()];
+			view.getBuffer().get(data);
+			view.release();
+			assertEquals("" + i, new String(data));
+		}
+		assertNull(foQueue.dequeueBuffer(fid1));
+		// fanouts are independent
+		assertTrue(foQueue.size(fid2) == loop);
+		assertEquals("0", new String(foQueue.dequeue(fid2)));
+	}
+	
+	@Test
+	public void publisherTest() throws Exception {
+		foQueue = new FanOutQueueImpl(testDir, "publisher_test");
+		for(int i = 0; i < 1000; i++) {
+			foQueue.enqueue(("" + i).getBytes());
+		}
+		int count = 5000;
+		TestSubscriber subscriber1 = new TestSubscriber(100, count);
+		TestSubscriber subscriber2 = new TestSubscriber(7, count);
+		foQueue.asPublisher("fid1").subscribe(subscriber1);
+		foQueue.asPublisher("fid2").subscribe(subscriber2);
+		
+		// items enqueued later wake up the subscribers 之后入队的项目唤醒订阅者
+		for(int i = 1000; i < count; i++) {
+			foQueue.enqueue(("" + i).getBytes());
+			if (i % 1000 == 0) Thread.sleep(10);
+		}
+		// every fanout gets all items 每个扇出获得所有项目
+		assertTrue(subscriber1.awaitItems(10000));
+		assertTrue(subscriber2.awaitItems(10000));
+		assertFalse(subscriber1.overlapped);
+		for(int i = 0; i < count; i++) {
+			assertEquals("" + i, subscriber1.items.get(i));
+			assertEquals("" + i, subscriber2.items.get(i));
+		}
+		assertTrue(foQueue.isEmpty("fid1"));
+		assertTrue(foQueue.isEmpty("fid2"));
+		assertEquals(count, foQueue.size("fid3"));
+		
+		// batch dequeue persists the fanout front 批量出队持久化扇出前端
+		List<byte[]> batch = ((FanOutQueueImpl) foQueue).dequeue("fid3", 10);
+		assertEquals(10, batch.size());
+		assertEquals("9", new String(batch.get(9)));
+		
+		foQueue.close();
+		assertTrue(subscriber1.awaitTermination(5000));
+		assertTrue(subscriber1.completed);
+		
+		foQueue = new FanOutQueueImpl(testDir, "publisher_test");
+		assertEquals("10", new String(foQueue.dequeue("fid3")));
+		assertTrue(foQueue.isEmpty("fid1"));
+	}
+	
 	@Test
 	public void clientManagedIndexTest() throws IOException {
 		foQueue = new FanOutQueueImpl(testDir, "client_managed_index");
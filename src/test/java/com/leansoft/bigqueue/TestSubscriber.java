@@ -0,0 +1,75 @@
+package com.leansoft.bigqueue;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * Subscriber collecting the items as strings, it requests a fixed number of items at a time
+ * and the next ones after it has received them.
+ * 以字符串收集项目的订阅者，每次请求固定数量的项目，收到后再请求下一批。
+ */
+public class TestSubscriber implements Subscriber<ByteBuffer> {
+
+	final List<String> items = new CopyOnWriteArrayList<String>();
+	final AtomicInteger concurrentCalls = new AtomicInteger();
+	volatile boolean overlapped = false;
+	volatile boolean completed = false;
+	volatile Throwable error;
+	volatile Subscription subscription;
+
+	private final int requestSize;
+	private final CountDownLatch received;
+	private final CountDownLatch terminated = new CountDownLatch(1);
+	private int outstanding = 0;
+
+	public TestSubscriber(int requestSize, int expectedItems) {
+		this.requestSize = requestSize;
+		this.received = new CountDownLatch(expectedItems);
+	}
+
+	public void onSubscribe(Subscription subscription) {
+		this.subscription = subscription;
+		outstanding = requestSize;
+		subscription.request(requestSize);
+	}
+
+	public void onNext(ByteBuffer buffer) {
+		if (concurrentCalls.incrementAndGet() > 1) {
+			overlapped = true;
+		}
+		byte[] data = new byte[buffer.remaining()];
+		buffer.get(data);
+		items.add(new String(data));
+		received.countDown();
+		if (--outstanding == 0) {
+			outstanding = requestSize;
+			subscription.request(requestSize);
+		}
+		concurrentCalls.decrementAndGet();
+	}
+
+	public void onError(Throwable error) {
+		this.error = error;
+		terminated.countDown();
+	}
+
+	public void onComplete() {
+		completed = true;
+		terminated.countDown();
+	}
+
+	public boolean awaitItems(long timeoutMillis) throws InterruptedException {
+		return received.await(timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	public boolean awaitTermination(long timeoutMillis) throws InterruptedException {
+		return terminated.await(timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+}
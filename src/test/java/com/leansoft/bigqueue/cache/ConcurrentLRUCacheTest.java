@@ -0,0 +1,57 @@
+package com.leansoft.bigqueue.cache;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import com.leansoft.bigqueue.TestUtil;
+
+/**
+ * Runs the LRU cache tests against the concurrent implementation, plus the background sweep.
+ * 针对并发实现运行LRU缓存测试，外加后台清扫。
+ */
+public class ConcurrentLRUCacheTest extends LRUCacheTest {
+	
+	@Override
+	ILRUCache<Integer, TestObject> newCache() {
+		return new ConcurrentLRUCacheImpl<Integer, TestObject>();
+	}
+	
+	@Test
+	public void backgroundSweepTest() throws IOException {
+		ILRUCache<Integer, TestObject> cache = newCache();
+		
+		TestObject obj1 = new TestObject();
+		TestObject obj2 = new TestObject();
+		cache.put(1, obj1, 200);
+		cache.put(2, obj2, 200);
+		cache.release(1);
+		
+		// no put needed, the sweeper closes the expired entry without reference 不需要put，清扫线程会关闭没有引用的过期条目
+		TestUtil.sleepQuietly(200 + 5 * ConcurrentLRUCacheImpl.SWEEP_INTERVAL);
+		assertTrue(obj1.isClosed());
+		assertFalse(obj2.isClosed()); // still referenced
+		assertTrue(cache.size() == 1);
+		assertNull(cache.get(1));
+		assertTrue(cache.getValues().contains(obj2));
+		
+		// released entries stay cached for their ttl 释放的条目在其ttl内保持缓存
+		cache.release(2);
+		assertSame(obj2, cache.get(2));
+		cache.release(2);
+		TestUtil.sleepQuietly(200 + 5 * ConcurrentLRUCacheImpl.SWEEP_INTERVAL);
+		assertTrue(obj2.isClosed());
+		assertTrue(cache.size() == 0);
+		
+		// releasing an unknown or not referenced key has no effect 释放未知或没有引用的key没有影响
+		cache.release(3);
+		cache.put(3, new TestObject());
+		cache.release(3);
+		cache.release(3);
+		assertNotNull(cache.get(3));
+		cache.removeAll();
+		assertTrue(cache.size() == 0);
+	}
+}
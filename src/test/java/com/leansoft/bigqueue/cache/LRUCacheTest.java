@@ -14,10 +14,14 @@ import com.leansoft.bigqueue.cache.LRUCacheImpl;
 
 public class LRUCacheTest {
 	
+	ILRUCache<Integer, TestObject> newCache() {
+		return new LRUCacheImpl<Integer, TestObject>();
+	}
+	
 	@Test
 	public void singleThreadTest() {
 		
-		ILRUCache<Integer, TestObject> cache = new LRUCacheImpl<Integer, TestObject>();
+		ILRUCache<Integer, TestObject> cache = newCache();
 		
 		TestObject obj = new TestObject();
 		cache.put(1, obj, 500);
@@ -91,7 +95,7 @@ public class LRUCacheTest {
 	
 	@Test
 	public void multiThreadsTest() {
-		ILRUCache<Integer, TestObject> cache = new LRUCacheImpl<Integer, TestObject>();
+		ILRUCache<Integer, TestObject> cache = newCache();
 		int threadNum = 100;
 		
 		Worker[] workers = new Worker[threadNum];
@@ -117,7 +121,7 @@ public class LRUCacheTest {
 		
 		assertTrue(cache.size() == 0);
 		
-		cache = new LRUCacheImpl<Integer, TestObject>();
+		cache = newCache();
 		threadNum = 100;
 		
 		RandomWorker[] randomWorkers = new RandomWorker[threadNum];
@@ -280,7 +284,7 @@ public class LRUCacheTest {
 		}
 	}
 	
-	private static class TestObject implements Closeable {
+	static class TestObject implements Closeable {
 		
 		private volatile boolean closed = false;
 
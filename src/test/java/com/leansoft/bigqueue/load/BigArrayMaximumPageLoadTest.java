@@ -0,0 +1,60 @@
+package com.leansoft.bigqueue.load;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.leansoft.bigqueue.BigArrayImpl;
+import com.leansoft.bigqueue.IBigArray;
+import com.leansoft.bigqueue.TestUtil;
+
+/**
+ * Append to and read from data pages of the maximum size, the pages are really mapped,
+ * so the test needs a file system with sparse files, several GB of disk and a heap of at least 2 GB.
+ * 对最大大小的数据页进行附加和读取，页面是真实映射的，因此测试需要支持稀疏文件的文件系统、数GB的磁盘和至少2 GB的堆。
+ */
+public class BigArrayMaximumPageLoadTest {
+
+	private static String testDir = TestUtil.TEST_BASE_DIR + "bigarray/load";
+	private IBigArray bigArray;
+
+	@After
+	public void clean() throws IOException {
+		if (bigArray != null) {
+			bigArray.removeAll();
+			bigArray.close();
+		}
+	}
+
+	@Test
+	public void runTest() throws IOException {
+		bigArray = new BigArrayImpl(testDir, "maximum_page_load_test", BigArrayImpl.MAXIMUM_DATA_PAGE_SIZE);
+		for(int i = 0; i < 100; i++) {
+			bigArray.append(("hello " + i).getBytes());
+		}
+		for(int i = 0; i < 100; i++) {
+			assertEquals("hello " + i, new String(bigArray.get(i)));
+		}
+
+		// two items of more than half a page, the second rolls over to the next page at the end of the first
+		// 两个超过半页的项，第二个在第一页末尾切换到下一页
+		byte[] large = new byte[BigArrayImpl.MAXIMUM_DATA_PAGE_SIZE / 2 + 1];
+		Arrays.fill(large, (byte) 'a');
+		long first = bigArray.append(large);
+		large[0] = 'b';
+		long second = bigArray.append(large);
+		large = null;
+		assertEquals('a', bigArray.get(first)[0]);
+		byte[] data = bigArray.get(second);
+		assertEquals(BigArrayImpl.MAXIMUM_DATA_PAGE_SIZE / 2 + 1, data.length);
+		assertEquals('b', data[0]);
+		assertEquals('a', data[data.length - 1]);
+		data = null;
+		assertEquals("hello 99", new String(bigArray.get(99)));
+		assertTrue(bigArray.getBackFileSize() >= 2L * BigArrayImpl.MAXIMUM_DATA_PAGE_SIZE);
+	}
+}
@@ -2,7 +2,9 @@ package com.leansoft.bigqueue.page;
 
 import static org.junit.Assert.*;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -13,6 +15,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 
 import org.junit.After;
+import org.junit.Assume;
 import org.junit.Test;
 
 import com.leansoft.bigqueue.TestUtil;
@@ -53,8 +56,292 @@ public class MappedPageFactoryTest {
 		
 		assertTrue(1024 * 1024 * 100 == mappedPageFactory.getBackPageFileSize());
 	}
+
+	@Test
+	public void testBackPageFileAccounting() throws IOException {
+		String pageDir = testDir + "/test_backpage_accounting";
+		mappedPageFactory = new MappedPageFactoryImpl(1024, pageDir, 2 * 1000);
+
+		for(int i = 0; i < 10; i++ ) {
+			mappedPageFactory.acquirePage(i);
+			mappedPageFactory.releasePage(i);
+		}
+		assertEquals(1024 * 10, mappedPageFactory.getBackPageFileSize());
+		assertEquals(10, mappedPageFactory.getExistingBackFileIndexSet().size());
+
+		mappedPageFactory.deletePage(9);
+		mappedPageFactory.deletePagesBeforePageIndex(3);
+		assertEquals(1024 * 6, mappedPageFactory.getBackPageFileSize());
+		Set<Long> indexSet = mappedPageFactory.getExistingBackFileIndexSet();
+		assertEquals(6, indexSet.size());
+		for(long i = 3; i < 9; i++) {
+			assertTrue(indexSet.contains(i));
+		}
+		assertEquals(6, mappedPageFactory.getBackPageFileSet().size());
+		assertEquals(6, new File(pageDir).listFiles().length);
+
+		// a new factory on the same directory picks up the existing files once 同一目录上的新工厂只扫描一次已有文件
+		mappedPageFactory.releaseCachedPages();
+		mappedPageFactory = new MappedPageFactoryImpl(1024, pageDir, 2 * 1000);
+		assertEquals(1024 * 6, mappedPageFactory.getBackPageFileSize());
+		assertEquals(indexSet, mappedPageFactory.getExistingBackFileIndexSet());
+
+		mappedPageFactory.deleteAllPages();
+		assertEquals(0, mappedPageFactory.getBackPageFileSize());
+		assertTrue(mappedPageFactory.getExistingBackFileIndexSet().isEmpty());
+	}
+
+	@Test
+	public void testPageFileRecycling() throws Exception {
+		String pageDir = testDir + "/test_page_recycling";
+		MappedPageFactoryImpl pageFactory = new MappedPageFactoryImpl(1024, pageDir, 2 * 1000, 0, 2);
+		mappedPageFactory = pageFactory;
+
+		for(int i = 0; i < 4; i++) {
+			IMappedPage page = mappedPageFactory.acquirePage(i);
+			page.putLong(0, 1000 + i);
+			mappedPageFactory.releasePage(i);
+		}
+		long lastModified = new File(pageDir, "page-0.dat").lastModified();
+
+		// only as many deleted page files as the pool holds are kept 只保留池能容纳的已删除页面文件
+		mappedPageFactory.deletePagesBeforePageIndex(3);
+		assertEquals(2, pageFactory.getFreePageFileCount());
+		assertEquals(1024, mappedPageFactory.getBackPageFileSize());
+		assertEquals(1, mappedPageFactory.getExistingBackFileIndexSet().size());
+		assertEquals(3, new File(pageDir).listFiles().length);
+
+		// new pages take their files from the pool, stale content included 新页面从池中获取文件，包括过期内容
+		Thread.sleep(1000); // file times have second granularity on some file systems 某些文件系统上文件时间的精度为秒
+		IMappedPage page4 = mappedPageFactory.acquirePage(4);
+		assertEquals(1, pageFactory.getFreePageFileCount());
+		long staleValue = page4.getLong(0);
+		assertTrue(staleValue >= 1000 && staleValue < 1003);
+		mappedPageFactory.releasePage(4);
+		assertTrue(mappedPageFactory.getPageFileLastModifiedTime(4) > lastModified);
+		mappedPageFactory.acquirePage(5);
+		mappedPageFactory.releasePage(5);
+		mappedPageFactory.acquirePage(6);
+		mappedPageFactory.releasePage(6);
+		assertEquals(0, pageFactory.getFreePageFileCount());
+		assertEquals(1024 * 4, mappedPageFactory.getBackPageFileSize());
+		assertEquals(4, new File(pageDir).listFiles().length);
+
+		// a new factory on the same directory picks up the free page files 同一目录上的新工厂会拾取空闲页面文件
+		mappedPageFactory.deletePage(3);
+		mappedPageFactory.releaseCachedPages();
+		pageFactory = new MappedPageFactoryImpl(1024, pageDir, 2 * 1000, 0, 2);
+		mappedPageFactory = pageFactory;
+		assertEquals(1, pageFactory.getFreePageFileCount());
+		assertEquals(1024 * 3, mappedPageFactory.getBackPageFileSize());
+
+		// free page files are deleted without a pool 没有池时空闲页面文件被删除
+		mappedPageFactory.releaseCachedPages();
+		mappedPageFactory = new MappedPageFactoryImpl(1024, pageDir, 2 * 1000);
+		assertEquals(3, new File(pageDir).listFiles().length);
+
+		mappedPageFactory.deleteAllPages();
+		assertEquals(0, new File(pageDir).listFiles().length);
+	}
+
+	@Test
+	public void testPageTable() throws Exception {
+		MappedPageFactoryImpl pageFactory = new MappedPageFactoryImpl(1024, testDir + "/test_page_table", 200, 4);
+		mappedPageFactory = pageFactory;
+
+		IMappedPage page0 = mappedPageFactory.lookupPage(0);
+		assertSame(page0, mappedPageFactory.lookupPage(0));
+		for(int i = 1; i < 4; i++) {
+			mappedPageFactory.lookupPage(i);
+		}
+		assertEquals(4, pageFactory.getPageTableSize());
+		assertEquals(4, mappedPageFactory.getCacheSize());
+
+		// pages in the table are never evicted by the cache 表中的页面永远不会被缓存驱逐
+		Thread.sleep(500);
+		assertEquals(4, mappedPageFactory.getCacheSize());
+		assertFalse(page0.isClosed());
+		assertSame(page0, mappedPageFactory.acquirePage(0));
+		mappedPageFactory.releasePage(0);
+
+		// page 4 takes the slot of page 0, which is left to the cache 页面4占用页面0的槽，页面0交由缓存处理
+		IMappedPage page4 = mappedPageFactory.lookupPage(4);
+		assertEquals(4, page4.getPageIndex());
+		Thread.sleep(500);
+		assertTrue(page0.isClosed());
+		assertEquals(4, mappedPageFactory.getCacheSize());
+		assertEquals(4, pageFactory.getPageTableSize());
+
+		// a deleted page is dropped from the table 已删除的页面从表中删除
+		mappedPageFactory.deletePage(4);
+		assertTrue(page4.isClosed());
+		assertEquals(3, pageFactory.getPageTableSize());
+		IMappedPage newPage4 = mappedPageFactory.lookupPage(4);
+		assertNotSame(page4, newPage4);
+		assertFalse(newPage4.isClosed());
+
+		mappedPageFactory.releaseCachedPages();
+		assertEquals(0, pageFactory.getPageTableSize());
+		assertEquals(0, mappedPageFactory.getCacheSize());
+		assertTrue(newPage4.isClosed());
+	}
+
+	@Test
+	public void testEvictionReleasesAddressSpace() throws Exception {
+		File status = new File("/proc/self/status");
+		Assume.assumeTrue(status.exists()); // linux only 仅限linux
+		assertTrue("no way to unmap on java " + System.getProperty("java.version"), MappedPageImpl.Cleaner.CLEAN_SUPPORTED);
+		System.out.println("Unmapping with " + MappedPageImpl.Cleaner.STRATEGY);
+		
+		int pageSize = 1024 * 1024 * 64;
+		int pageNum = 8;
+		long mappedKB = (long) pageSize * pageNum / 1024;
+		mappedPageFactory = new MappedPageFactoryImpl(pageSize, testDir + "/test_eviction_address_space", 200);
+		
+		long before = readVmSizeKB(status);
+		IMappedPage[] pages = new IMappedPage[pageNum];
+		for(int i = 0; i < pageNum; i++) {
+			pages[i] = mappedPageFactory.acquirePage(i);
+		}
+		long mapped = readVmSizeKB(status);
+		assertTrue(mapped - before >= mappedKB);
+		
+		for(int i = 0; i < pageNum; i++) {
+			mappedPageFactory.releasePage(i);
+		}
+		Thread.sleep(1000); // expire and let the sweeper evict 过期并让清扫线程驱逐
+		for(int i = 0; i < pageNum; i++) {
+			assertTrue(pages[i].isClosed());
+		}
+		// evicted pages are unmapped right away, not when they are garbage collected
+		// 被驱逐的页面立即取消映射，而不是在被垃圾回收时
+		long evicted = readVmSizeKB(status);
+		assertTrue("VmSize " + mapped + " KB -> " + evicted + " KB", mapped - evicted >= mappedKB);
+	}
 	
-	
+	@Test
+	public void testMappedPageBudget() throws Exception {
+		int pageSize = 1024 * 1024;
+		MappedPageFactoryImpl factoryA = new MappedPageFactoryImpl(pageSize, testDir + "/test_budget/queue_a/data", 60 * 1000);
+		MappedPageFactoryImpl factoryB = new MappedPageFactoryImpl(pageSize, testDir + "/test_budget/queue_b/data", 60 * 1000);
+		try {
+			// only the pages still in use by other tests stay mapped, factories left over are collected first
+			// 只有其他测试仍在使用的页面保持映射，先回收遗留的工厂
+			System.gc();
+			MappedPageBudget.setLimit(1);
+			long inUse = MappedPageBudget.getMappedSize();
+			MappedPageBudget.setLimit(inUse + 4 * pageSize);
+
+			// the pages of both queues are evicted in least recently used order, not by their ttl
+			// 两个队列的页面按最近最少使用的顺序驱逐，而不是按它们的ttl
+			IMappedPage pageA0 = factoryA.acquirePage(0);
+			factoryA.releasePage(0);
+			Thread.sleep(10); // distinct last accessed times 不同的最后访问时间
+			for(int i = 1; i < 3; i++) {
+				factoryA.acquirePage(i);
+				factoryA.releasePage(i);
+				Thread.sleep(10);
+			}
+			IMappedPage pageB0 = factoryB.acquirePage(0);
+			factoryB.releasePage(0);
+			Thread.sleep(10);
+			for(int i = 1; i < 3; i++) {
+				factoryB.acquirePage(i);
+				factoryB.releasePage(i);
+				Thread.sleep(10);
+			}
+			assertTrue(pageA0.isClosed());
+			assertEquals(1, factoryA.getCacheSize());
+			assertEquals(3, factoryB.getCacheSize());
+			assertEquals(inUse + 4 * pageSize, MappedPageBudget.getMappedSize());
+
+			// a referenced page is never evicted, the oldest idle page goes instead 被引用的页面永远不会被驱逐，改为驱逐最旧的空闲页面
+			// however recently the idle pages were used 无论空闲页面最近何时被使用过
+			IMappedPage pageA2 = factoryA.acquirePage(2);
+			factoryB.acquirePage(3);
+			factoryB.releasePage(3);
+			assertFalse(pageA2.isClosed());
+			assertEquals(1, factoryA.getCacheSize());
+			assertEquals(3, factoryB.getCacheSize());
+			assertTrue(pageB0.isClosed());
+			Thread.sleep(10);
+			factoryA.releasePage(2); // now the most recently used page 现在是最近使用的页面
+
+			Map<String, Long> usage = MappedPageBudget.getUsage();
+			assertEquals(Long.valueOf(pageSize), usage.get(new File(testDir + "/test_budget/queue_a").getPath()));
+			assertEquals(Long.valueOf(3 * pageSize), usage.get(new File(testDir + "/test_budget/queue_b").getPath()));
+
+			// lowering the limit evicts at once 降低限制会立即驱逐
+			inUse = MappedPageBudget.getMappedSize() - 4 * pageSize;
+			MappedPageBudget.setLimit(inUse + pageSize);
+			assertEquals(inUse + pageSize, MappedPageBudget.getMappedSize());
+			assertEquals(1, factoryA.getCacheSize());
+			assertEquals(0, factoryB.getCacheSize());
+		} finally {
+			MappedPageBudget.setLimit(0);
+			factoryA.deleteAllPages();
+			factoryB.deleteAllPages();
+		}
+	}
+
+	@Test
+	public void testMappedPageBudgetCountsDeferredUnmaps() throws Exception {
+		int pageSize = 1024 * 1024;
+		MappedPageFactoryImpl factoryA = new MappedPageFactoryImpl(pageSize, testDir + "/test_budget_deferred/queue_a/data", 100);
+		MappedPageFactoryImpl factoryB = new MappedPageFactoryImpl(pageSize, testDir + "/test_budget_deferred/queue_b/data", 60 * 1000);
+		try {
+			System.gc();
+			MappedPageBudget.setLimit(1);
+			long inUse = MappedPageBudget.getMappedSize();
+			MappedPageBudget.setLimit(inUse + 2 * pageSize);
+
+			// a page expired while pinned stays mapped until unpinned, so it is still counted
+			// 在固定时过期的页面在解除固定前保持映射，因此仍被统计
+			IMappedPage pageA0 = factoryA.acquirePage(0);
+			assertTrue(pageA0.pin());
+			factoryA.releasePage(0);
+			Thread.sleep(600); // expire and let the sweeper close the page 过期并让清扫线程关闭页面
+			assertTrue(pageA0.isClosed());
+			assertEquals(0, factoryA.getCacheSize());
+			assertEquals(pageSize, factoryA.getMappedSize());
+			assertEquals(0L, pageA0.getLong(0));
+
+			// so the budget makes room for it 因此预算为它腾出空间
+			IMappedPage pageB0 = factoryB.acquirePage(0);
+			factoryB.releasePage(0);
+			Thread.sleep(10);
+			factoryB.acquirePage(1);
+			factoryB.releasePage(1);
+			assertTrue(pageB0.isClosed());
+			assertEquals(1, factoryB.getCacheSize());
+			assertEquals(inUse + 2 * pageSize, MappedPageBudget.getMappedSize());
+
+			// the last unpin unmaps the page and uncounts it 最后一次解除固定取消映射页面并取消统计
+			pageA0.unpin();
+			assertEquals(0, factoryA.getMappedSize());
+			assertEquals(inUse + pageSize, MappedPageBudget.getMappedSize());
+		} finally {
+			MappedPageBudget.setLimit(0);
+			factoryA.deleteAllPages();
+			factoryB.deleteAllPages();
+		}
+	}
+
+	private static long readVmSizeKB(File status) throws IOException {
+		BufferedReader reader = new BufferedReader(new FileReader(status));
+		try {
+			String line;
+			while((line = reader.readLine()) != null) {
+				if (line.startsWith("VmSize:")) {
+					return Long.parseLong(line.substring("VmSize:".length()).replace("kB", "").trim());
+				}
+			}
+			throw new IOException("no VmSize in " + status);
+		} finally {
+			reader.close();
+		}
+	}
+
 	@Test
 	public void testSingleThread() throws IOException {
 	
@@ -137,7 +424,7 @@ public class MappedPageFactoryTest {
 		start = System.currentTimeMillis();
 		for(int i = 0; i <= 100; i++) {
 			IMappedPage mappedPageI = mappedPageFactory.acquirePage(i);
-			mappedPageI.getLocal(0).put(("hello " + i).getBytes());
+			mappedPageI.put(0, ("hello " + i).getBytes());
 			mappedPageI.setDirty(true);
 			((MappedPageImpl)mappedPageI).flush();
 			long currentTime = System.currentTimeMillis();
@@ -34,32 +34,115 @@ public class MappedPageTest {
 		IMappedPage mappedPage = this.mappedPageFactory.acquirePage(0);
 		assertNotNull(mappedPage);
 		
-		ByteBuffer buffer = mappedPage.getLocal(0);
-		assertTrue(buffer.limit() == pageSize);
-		assertTrue(buffer.position() == 0);
-		
-		
 		for(int i = 0; i < 10000; i++) {
 			String hello = "hello world";
 			int length = hello.getBytes().length;
-			mappedPage.getLocal(i * 20).put(hello.getBytes());
-			assertTrue(Arrays.equals(mappedPage.getLocal(i * 20 , length), hello.getBytes()));
+			mappedPage.put(i * 20, hello.getBytes());
+			assertTrue(Arrays.equals(read(mappedPage, i * 20 , length), hello.getBytes()));
 		}
 		
-		buffer = ByteBuffer.allocateDirect(16);
+		ByteBuffer buffer = ByteBuffer.allocateDirect(16);
 		buffer.putInt(1);
 		buffer.putInt(2);
 		buffer.putLong(3L);
 		for(int i = 0; i < 10000; i++) {
 			buffer.flip();
-			mappedPage.getLocal(i * 20).put(buffer);
+			mappedPage.put(i * 20, buffer);
+			assertTrue(buffer.remaining() == 0);
 		}
 		for(int i = 0; i < 10000; i++) {
-			ByteBuffer buf = mappedPage.getLocal(i * 20);
-			assertTrue(1 == buf.getInt());
-			assertTrue(2 == buf.getInt());
-			assertTrue(3L == buf.getLong());
+			assertTrue(1 == mappedPage.getInt(i * 20));
+			assertTrue(2 == mappedPage.getInt(i * 20 + 4));
+			assertTrue(3L == mappedPage.getLong(i * 20 + 8));
 		}
+		
+		mappedPage.putLong(200000, 4L);
+		mappedPage.putInt(200008, 5);
+		assertTrue(4L == mappedPage.getLong(200000));
+		assertTrue(5 == mappedPage.getInt(200008));
+	}
+	
+	private static byte[] read(IMappedPage page, int position, int length) {
+		byte[] data = new byte[length];
+		page.copyTo(position, data);
+		return data;
+	}
+	
+	@Test
+	public void testPinDefersUnmap() throws IOException {
+		int pageSize = 1024 * 1024 * 32;
+		mappedPageFactory = new MappedPageFactoryImpl(pageSize, testDir + "/test_pin", 2 * 1000);
+		
+		MappedPageImpl mappedPage = (MappedPageImpl) this.mappedPageFactory.acquirePage(0);
+		String hello = "hello world";
+		mappedPage.put(100, hello.getBytes());
+		
+		try {
+			mappedPage.getSlice(100, hello.length());
+			fail("a slice must only be taken with a pin held");
+		} catch (IllegalStateException expected) {
+			// ok
+		}
+		
+		assertTrue(mappedPage.pin());
+		ByteBuffer slice = mappedPage.getSlice(100, hello.length());
+		assertTrue(slice.isReadOnly());
+		assertTrue(slice.position() == 0);
+		assertTrue(slice.remaining() == hello.length());
+		
+		mappedPage.close();
+		assertTrue(mappedPage.isClosed());
+		assertFalse(mappedPage.pin()); // no new pins on a closed page
+		
+		// still mapped while pinned
+		byte[] data = new byte[hello.length()];
+		slice.get(data);
+		assertEquals(hello, new String(data));
+		assertEquals(hello, new String(read(mappedPage, 100, hello.length())));
+		
+		mappedPage.unpin(); // last pin, unmapped now
+		try {
+			mappedPage.getLong(100);
+			fail("unmapped page must not be read");
+		} catch (IllegalStateException expected) {
+			// ok
+		}
+		this.mappedPageFactory.releasePage(0);
+	}
+	
+	@Test
+	public void testDirtyRange() throws IOException {
+		int pageSize = 1024 * 1024 * 32;
+		String pageDir = testDir + "/test_dirty_range";
+		mappedPageFactory = new MappedPageFactoryImpl(pageSize, pageDir, 2 * 1000);
+		
+		MappedPageImpl mappedPage = (MappedPageImpl) this.mappedPageFactory.acquirePage(0);
+		assertTrue(mappedPage.getDirtyHigh() == 0);
+		
+		mappedPage.put(1000, "world".getBytes());
+		mappedPage.setDirty(1000, 5);
+		mappedPage.put(100, "hello".getBytes());
+		mappedPage.setDirty(100, 5);
+		assertTrue(mappedPage.getDirtyLow() == 100);
+		assertTrue(mappedPage.getDirtyHigh() == 1005);
+		
+		mappedPage.flush();
+		assertTrue(mappedPage.getDirtyHigh() == 0); // clean until written again
+		mappedPage.flush();
+		
+		mappedPage.setDirty(true); // the whole page
+		assertTrue(mappedPage.getDirtyLow() == 0);
+		assertTrue(mappedPage.getDirtyHigh() == pageSize);
+		mappedPage.setDirty(false);
+		assertTrue(mappedPage.getDirtyHigh() == 0);
+		
+		this.mappedPageFactory.releaseCachedPages();
+		
+		// the flushed range is in the page file
+		mappedPageFactory = new MappedPageFactoryImpl(pageSize, pageDir, 2 * 1000);
+		mappedPage = (MappedPageImpl) this.mappedPageFactory.acquirePage(0);
+		assertEquals("hello", new String(read(mappedPage, 100, 5)));
+		assertEquals("world", new String(read(mappedPage, 1000, 5)));
 	}
 	
 	@Test
@@ -71,11 +154,11 @@ public class MappedPageTest {
 		int pageNumLimit = 50;
 		
 		Set<IMappedPage> pageSet = Collections.newSetFromMap(new ConcurrentHashMap<IMappedPage, Boolean>());
-		List<ByteBuffer> localBufferList = Collections.synchronizedList(new ArrayList<ByteBuffer>());
+		List<Throwable> errorList = Collections.synchronizedList(new ArrayList<Throwable>());
 		
 		Worker[] workers = new Worker[threadNum];
 		for(int i = 0; i < threadNum; i++) {
-			workers[i] = new Worker(i, mappedPageFactory, pageNumLimit, pageSet, localBufferList);
+			workers[i] = new Worker(i, mappedPageFactory, pageNumLimit, pageSet, errorList);
 		}
 		for(int i = 0; i < threadNum; i++) {
 			workers[i].start();
@@ -89,17 +172,9 @@ public class MappedPageTest {
 			}
 		}
 		
-		assertTrue(localBufferList.size() == threadNum * pageNumLimit);
+		// all threads share the pages without any per thread state 所有线程共享页面，没有任何每线程的状态
+		assertTrue(errorList.isEmpty());
 		assertTrue(pageSet.size() == pageNumLimit);
-		
-		// verify thread locality
-		for(int i = 0; i < localBufferList.size(); i++) {
-			for(int j = i + 1; j < localBufferList.size(); j++) {
-				if (localBufferList.get(i) == localBufferList.get(j)) {
-					fail("thread local buffer is not thread local");
-				}
-			}
-		}
 	}
 	
 	private static class Worker extends Thread {
@@ -107,14 +182,14 @@ public class MappedPageTest {
 		private int pageNumLimit;
 		private IMappedPageFactory pageFactory;
 		private Set<IMappedPage> sharedPageSet;
-		private List<ByteBuffer> localBufferList;
+		private List<Throwable> errorList;
 		
 		public Worker(int id, IMappedPageFactory pageFactory, int pageNumLimit, 
-				Set<IMappedPage> sharedPageSet, List<ByteBuffer> localBufferList) {
+				Set<IMappedPage> sharedPageSet, List<Throwable> errorList) {
 			this.id = id;
 			this.pageFactory = pageFactory;
 			this.sharedPageSet = sharedPageSet;
-			this.localBufferList = localBufferList;
+			this.errorList = errorList;
 			this.pageNumLimit = pageNumLimit;
 			
 		}
@@ -124,15 +199,14 @@ public class MappedPageTest {
 				try {
 					IMappedPage page = this.pageFactory.acquirePage(i);
 					sharedPageSet.add(page);
-					localBufferList.add(page.getLocal(0));
 					
 					int startPosition = this.id * 2048;
 					
 					for(int j = 0; j < 100; j++) {
 						String helloj = "hello world " + j;
 						int length = helloj.getBytes().length;
-						page.getLocal(startPosition + j * 20).put(helloj.getBytes());
-						assertTrue(Arrays.equals(page.getLocal(startPosition + j * 20 , length), helloj.getBytes()));
+						page.put(startPosition + j * 20, helloj.getBytes());
+						assertTrue(Arrays.equals(read(page, startPosition + j * 20 , length), helloj.getBytes()));
 					}
 					
 					ByteBuffer buffer = ByteBuffer.allocateDirect(16);
@@ -141,17 +215,18 @@ public class MappedPageTest {
 					buffer.putLong(3L);
 					for(int j = 0; j < 100; j++) {
 						buffer.flip();
-						page.getLocal(startPosition + j * 20).put(buffer);
+						page.put(startPosition + j * 20, buffer);
 					}
 					for(int j = 0; j < 100; j++) {
-						ByteBuffer buf = page.getLocal(startPosition + j * 20);
-						assertTrue(1 == buf.getInt());
-						assertTrue(2 == buf.getInt());
-						assertTrue(3L == buf.getLong());
+						assertTrue(1 == page.getInt(startPosition + j * 20));
+						assertTrue(2 == page.getInt(startPosition + j * 20 + 4));
+						assertTrue(3L == page.getLong(startPosition + j * 20 + 8));
 					}
 					
 				} catch (IOException e) {
 					fail("Got IOException when acquiring page " + i);
+				} catch (Throwable t) { // assertion errors don't fail the test from a worker thread
+					errorList.add(t);
 				}
 			}
 		}
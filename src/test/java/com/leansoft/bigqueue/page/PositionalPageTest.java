@@ -0,0 +1,220 @@
+package com.leansoft.bigqueue.page;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.leansoft.bigqueue.TestUtil;
+import com.leansoft.bigqueue.utils.FileUtil;
+
+public class PositionalPageTest {
+
+	private IMappedPageFactory pageFactory;
+	private String testDir = TestUtil.TEST_BASE_DIR + "bigqueue/unit/positional_page_test";
+
+	@Test
+	public void testSingleThread() throws IOException {
+		int pageSize = 1024 * 1024 * 32;
+		String pageDir = testDir + "/test_single_thread";
+		pageFactory = new PositionalPageFactoryImpl(pageSize, pageDir, 2 * 1000);
+
+		IMappedPage page = this.pageFactory.acquirePage(0);
+		assertTrue(page instanceof PositionalPageImpl);
+		// the file has the page size, like a mapped page file
+		assertTrue(pageFactory.getBackPageFileSize() == pageSize);
+
+		for(int i = 0; i < 10000; i++) {
+			String hello = "hello world";
+			page.put(i * 20, hello.getBytes());
+			assertTrue(Arrays.equals(read(page, i * 20, hello.length()), hello.getBytes()));
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocateDirect(16);
+		buffer.putInt(1);
+		buffer.putInt(2);
+		buffer.putLong(3L);
+		for(int i = 0; i < 10000; i++) {
+			buffer.flip();
+			page.put(i * 20, buffer);
+			assertTrue(buffer.remaining() == 0);
+		}
+		for(int i = 0; i < 10000; i++) {
+			assertTrue(1 == page.getInt(i * 20));
+			assertTrue(2 == page.getInt(i * 20 + 4));
+			assertTrue(3L == page.getLong(i * 20 + 8));
+		}
+
+		// never written, zeros like a mapping
+		assertTrue(0L == page.getLong(pageSize - 8));
+
+		// across a block boundary
+		int boundary = PositionalPageImpl.BLOCK_SIZE * 3;
+		page.putLong(boundary - 4, 4L);
+		assertTrue(4L == page.getLong(boundary - 4));
+
+		// larger than the staging buffer and a block
+		byte[] large = TestUtil.randomString(PositionalPageImpl.STAGING_SIZE * 2 + 100).getBytes();
+		page.put(pageSize - large.length, large);
+		assertTrue(Arrays.equals(read(page, pageSize - large.length, large.length), large));
+
+		ByteBuffer slice = page.getSlice(100, 5);
+		assertTrue(slice.isReadOnly());
+		assertTrue(slice.remaining() == 5);
+
+		try {
+			page.getLong(pageSize - 4);
+			fail("IndexOutOfBoundsException expected");
+		} catch (IndexOutOfBoundsException expected) {
+		}
+
+		// written through, a new factory reads the same bytes
+		page.setDirty(true);
+		this.pageFactory.releasePage(0);
+		this.pageFactory.releaseCachedPages();
+		pageFactory = new PositionalPageFactoryImpl(pageSize, pageDir, 2 * 1000);
+		page = this.pageFactory.acquirePage(0);
+		assertTrue(3L == page.getLong(9999 * 20 + 8));
+		assertTrue(4L == page.getLong(boundary - 4));
+		assertTrue(Arrays.equals(read(page, pageSize - large.length, large.length), large));
+		this.pageFactory.releasePage(0);
+
+		// and so does a mapped page
+		this.pageFactory.releaseCachedPages();
+		pageFactory = new MappedPageFactoryImpl(pageSize, pageDir, 2 * 1000);
+		page = this.pageFactory.acquirePage(0);
+		assertTrue(3L == page.getLong(9999 * 20 + 8));
+		this.pageFactory.releasePage(0);
+	}
+
+	@Test
+	public void testCachedBlocksFollowWrites() throws IOException {
+		int pageSize = 1024 * 1024;
+		pageFactory = new PositionalPageFactoryImpl(pageSize, testDir + "/test_cached_blocks", 2 * 1000);
+		IMappedPage page = this.pageFactory.acquirePage(0);
+
+		// load more blocks than are cached, then write to all of them
+		int blockNum = PositionalPageImpl.BLOCK_COUNT * 2;
+		for(int i = 0; i < blockNum; i++) {
+			assertTrue(0L == page.getLong(i * PositionalPageImpl.BLOCK_SIZE));
+		}
+		for(int i = 0; i < blockNum; i++) {
+			page.putLong(i * PositionalPageImpl.BLOCK_SIZE, i + 1);
+		}
+		for(int i = blockNum - 1; i >= 0; i--) {
+			assertTrue(i + 1 == page.getLong(i * PositionalPageImpl.BLOCK_SIZE));
+		}
+		// a write spanning cached blocks
+		byte[] data = TestUtil.randomString(PositionalPageImpl.BLOCK_SIZE + 10).getBytes();
+		page.put(PositionalPageImpl.BLOCK_SIZE - 5, data);
+		assertTrue(Arrays.equals(read(page, PositionalPageImpl.BLOCK_SIZE - 5, data.length), data));
+		this.pageFactory.releasePage(0);
+	}
+
+	@Test
+	public void testPinDefersRelease() throws IOException {
+		int pageSize = 1024 * 1024;
+		pageFactory = new PositionalPageFactoryImpl(pageSize, testDir + "/test_pin", 2 * 1000);
+
+		PositionalPageImpl page = (PositionalPageImpl) this.pageFactory.acquirePage(0);
+		page.put(100, "hello".getBytes());
+
+		assertTrue(page.pin());
+		page.close();
+		assertTrue(page.isClosed());
+		assertFalse(page.pin()); // no new pins on a closed page
+		assertEquals("hello", new String(read(page, 100, 5))); // still readable while pinned
+
+		page.unpin(); // last pin, released now
+		try {
+			page.getLong(100);
+			fail("released page must not be read");
+		} catch (IllegalStateException expected) {
+			// ok
+		}
+		this.pageFactory.releasePage(0);
+	}
+
+	@Test
+	public void testClosedPageSharesBlocksWithNewPage() throws Exception {
+		int pageSize = 1024 * 1024;
+		pageFactory = new PositionalPageFactoryImpl(pageSize, testDir + "/test_shared_blocks", 100);
+		PositionalPageFactoryImpl positionalPageFactory = (PositionalPageFactoryImpl) pageFactory;
+
+		// a reader pins the page and keeps it after the cache closes it
+		IMappedPage oldPage = this.pageFactory.acquirePage(0);
+		oldPage.put(0, "A".getBytes());
+		assertEquals("A", new String(read(oldPage, 0, 1))); // block cached
+		assertTrue(oldPage.pin());
+		this.pageFactory.releasePage(0);
+		for(int i = 0; i < 100 && !oldPage.isClosed(); i++) {
+			Thread.sleep(50);
+		}
+		assertTrue(oldPage.isClosed());
+
+		// writes go to the page created for the same file, the closed page reads them
+		IMappedPage newPage = this.pageFactory.acquirePage(0);
+		assertNotSame(oldPage, newPage);
+		newPage.put(0, "BBBB".getBytes());
+		assertEquals("BBBB", new String(read(oldPage, 0, 4)));
+		assertTrue(positionalPageFactory.getBlockCacheCount() == 1);
+		oldPage.unpin();
+		assertEquals("BBBB", new String(read(newPage, 0, 4)));
+		this.pageFactory.releasePage(0);
+
+		// a page file deleted while a page of it is pinned does not share its blocks with the next file
+		newPage = this.pageFactory.acquirePage(0);
+		assertTrue(newPage.pin());
+		this.pageFactory.releasePage(0);
+		this.pageFactory.deletePage(0);
+		assertTrue(positionalPageFactory.getBlockCacheCount() == 0);
+		IMappedPage recreatedPage = this.pageFactory.acquirePage(0);
+		recreatedPage.put(0, "CC".getBytes());
+		assertEquals("CC", new String(read(recreatedPage, 0, 2)));
+		assertEquals("BBBB", new String(read(newPage, 0, 4)));
+		newPage.unpin();
+		assertTrue(positionalPageFactory.getBlockCacheCount() == 1);
+		this.pageFactory.releasePage(0);
+	}
+
+	@Test
+	public void testInterruptedThread() throws IOException {
+		int pageSize = 1024 * 1024;
+		pageFactory = new PositionalPageFactoryImpl(pageSize, testDir + "/test_interrupt", 2 * 1000);
+		IMappedPage page = this.pageFactory.acquirePage(0);
+
+		// an interrupted thread must not close the file under the other users of the page
+		Thread.currentThread().interrupt();
+		try {
+			page.putLong(0, 1L);
+			page.copyTo(PositionalPageImpl.BLOCK_SIZE * 8, new byte[8]);
+			assertTrue(Thread.currentThread().isInterrupted());
+		} finally {
+			Thread.interrupted();
+		}
+		assertTrue(1L == page.getLong(0));
+		page.putLong(8, 2L);
+		assertTrue(2L == page.getLong(8));
+		this.pageFactory.releasePage(0);
+	}
+
+	private static byte[] read(IMappedPage page, int position, int length) {
+		byte[] data = new byte[length];
+		page.copyTo(position, data);
+		return data;
+	}
+
+	@After
+	public void clear() throws IOException {
+		if (this.pageFactory != null) {
+			this.pageFactory.deleteAllPages();
+		}
+		FileUtil.deleteDirectory(new File(testDir));
+	}
+
+}
@@ -0,0 +1,106 @@
+package com.leansoft.bigqueue.perf;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.leansoft.bigqueue.BigArrayConfig;
+import com.leansoft.bigqueue.BigArrayImpl;
+import com.leansoft.bigqueue.IBigArray;
+import com.leansoft.bigqueue.TestUtil;
+
+/**
+ * Compare the locked and the concurrent append mode with different number of producers.
+ * 比较不同生产者数量下锁定附加模式和并发附加模式的性能。
+ */
+public class BigArrayAppendModePerfTest {
+
+	private static String testDir = TestUtil.TEST_BASE_DIR + "bigarray/perf";
+	private IBigArray bigArray;
+
+	// configurable parameters
+	//////////////////////////////////////////////////////////////////
+	private static int loop = 5;
+	private static int totalItemCount = 1000000;
+	private static int[] producerNums = { 1, 2, 4 };
+	private static int messageLength = 1024;
+	//////////////////////////////////////////////////////////////////
+
+	@After
+	public void clean() throws IOException {
+		if (bigArray != null) {
+			bigArray.removeAll();
+			bigArray.close();
+		}
+	}
+
+	@Test
+	public void runTest() throws Exception {
+		System.out.println("Append mode performance test begin ...");
+		for(BigArrayConfig.AppendMode mode : BigArrayConfig.AppendMode.values()) {
+			BigArrayConfig config = new BigArrayConfig();
+			config.setAppendMode(mode);
+			bigArray = new BigArrayImpl(testDir, "append_mode_perf_test", config);
+			bigArray.removeAll();
+
+			for(int producerNum : producerNums) {
+				long totalTime = 0;
+				for(int i = 0; i < loop; i++) {
+					long time = doRunProduce(producerNum);
+					assertTrue(bigArray.size() == totalItemCount);
+					bigArray.removeAll();
+					// skip the first round as warm up
+					if (i > 0) {
+						totalTime += time;
+					}
+				}
+				long average = totalTime / (loop - 1);
+				System.out.println("[" + mode + "] producers = " + producerNum + ", average time = " + average / 1000000
+						+ " ms, ns per item = " + average / totalItemCount);
+			}
+
+			bigArray.close();
+			bigArray = null;
+		}
+		System.out.println("-----------------------------------------------");
+		System.out.println("Total items appended per round = " + totalItemCount);
+		System.out.println("Item message length = " + messageLength + " bytes");
+		System.out.println("-----------------------------------------------");
+	}
+
+	private long doRunProduce(int producerNum) throws InterruptedException {
+		final byte[] rndBytes = TestUtil.randomString(messageLength).getBytes();
+		final AtomicInteger producingItemCount = new AtomicInteger(0);
+		final AtomicInteger errorCount = new AtomicInteger(0);
+		final CountDownLatch startLatch = new CountDownLatch(1);
+		final CountDownLatch doneLatch = new CountDownLatch(producerNum);
+		for(int i = 0; i < producerNum; i++) {
+			new Thread() {
+				public void run() {
+					try {
+						startLatch.await();
+						while(producingItemCount.incrementAndGet() <= totalItemCount) {
+							bigArray.append(rndBytes);
+						}
+					} catch (Exception e) {
+						e.printStackTrace();
+						errorCount.incrementAndGet();
+					} finally {
+						doneLatch.countDown();
+					}
+				}
+			}.start();
+		}
+		long start = System.nanoTime();
+		startLatch.countDown();
+		doneLatch.await();
+		long time = System.nanoTime() - start;
+		assertTrue(errorCount.get() == 0);
+		return time;
+	}
+}
@@ -0,0 +1,90 @@
+package com.leansoft.bigqueue.perf;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.leansoft.bigqueue.BigArrayAppender;
+import com.leansoft.bigqueue.BigArrayImpl;
+import com.leansoft.bigqueue.IBigArray;
+import com.leansoft.bigqueue.TestUtil;
+
+/**
+ * Compare appending through the array with appending through an appender holding the head pages.
+ * 比较通过数组附加和通过持有头页面的附加器附加的性能。
+ */
+public class BigArrayAppenderPerfTest {
+
+	private static String testDir = TestUtil.TEST_BASE_DIR + "bigarray/perf";
+	private IBigArray bigArray;
+
+	// configurable parameters
+	//////////////////////////////////////////////////////////////////
+	private static int loop = 5;
+	private static int itemCount = 1000000;
+	private static int messageLength = 64;
+	//////////////////////////////////////////////////////////////////
+
+	@After
+	public void clean() throws IOException {
+		if (bigArray != null) {
+			bigArray.removeAll();
+			bigArray.close();
+		}
+	}
+
+	@Test
+	public void runTest() throws Exception {
+		System.out.println("Appender performance test begin ...");
+		bigArray = new BigArrayImpl(testDir, "appender_perf_test");
+		bigArray.removeAll();
+
+		byte[] rndBytes = TestUtil.randomString(messageLength).getBytes();
+		long arrayTime = 0;
+		long appenderTime = 0;
+		for(int i = 0; i < loop; i++) {
+			long time = doRunArrayAppend(rndBytes);
+			long appender = doRunAppenderAppend(rndBytes);
+			// skip the first round as warm up
+			if (i > 0) {
+				arrayTime += time;
+				appenderTime += appender;
+			}
+		}
+		System.out.println("[array] ns per item = " + arrayTime / (loop - 1) / itemCount);
+		System.out.println("[appender] ns per item = " + appenderTime / (loop - 1) / itemCount);
+		System.out.println("-----------------------------------------------");
+		System.out.println("Item count = " + itemCount + ", item message length = " + messageLength + " bytes");
+		System.out.println("-----------------------------------------------");
+	}
+
+	private long doRunArrayAppend(byte[] data) throws IOException {
+		long start = System.nanoTime();
+		for(int i = 0; i < itemCount; i++) {
+			bigArray.append(data);
+		}
+		long time = System.nanoTime() - start;
+		assertEquals(itemCount, bigArray.size());
+		bigArray.removeAll();
+		return time;
+	}
+
+	private long doRunAppenderAppend(byte[] data) throws IOException {
+		long start = System.nanoTime();
+		BigArrayAppender appender = bigArray.openAppender();
+		try {
+			for(int i = 0; i < itemCount; i++) {
+				appender.append(data);
+			}
+		} finally {
+			appender.close();
+		}
+		long time = System.nanoTime() - start;
+		assertEquals(itemCount, bigArray.size());
+		bigArray.removeAll();
+		return time;
+	}
+}
@@ -0,0 +1,92 @@
+package com.leansoft.bigqueue.perf;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.leansoft.bigqueue.BigArrayImpl;
+import com.leansoft.bigqueue.IBigArray;
+import com.leansoft.bigqueue.TestUtil;
+
+/**
+ * Compare appending items one by one with appending them in batches.
+ * 比较逐个附加和批量附加的性能。
+ */
+public class BigArrayBatchPerfTest {
+
+	private static String testDir = TestUtil.TEST_BASE_DIR + "bigarray/perf";
+	private IBigArray bigArray;
+
+	// configurable parameters
+	//////////////////////////////////////////////////////////////////
+	private static int loop = 5;
+	private static int totalItemCount = 1000000;
+	private static int batchSize = 100;
+	private static int messageLength = 100;
+	//////////////////////////////////////////////////////////////////
+
+	@After
+	public void clean() throws IOException {
+		if (bigArray != null) {
+			bigArray.removeAll();
+			bigArray.close();
+		}
+	}
+
+	@Test
+	public void runTest() throws Exception {
+		bigArray = new BigArrayImpl(testDir, "batch_perf_test");
+		byte[] rndBytes = TestUtil.randomString(messageLength).getBytes();
+
+		System.out.println("Batch append performance test begin ...");
+		long totalSingleTime = 0;
+		long totalBatchTime = 0;
+		for(int i = 0; i < loop; i++) {
+			long start = System.nanoTime();
+			for(int j = 0; j < totalItemCount; j++) {
+				bigArray.append(rndBytes);
+			}
+			long singleTime = System.nanoTime() - start;
+			assertTrue(bigArray.size() == totalItemCount);
+			bigArray.removeAll();
+
+			List<byte[]> batch = new ArrayList<byte[]>(batchSize);
+			start = System.nanoTime();
+			for(int j = 0; j < totalItemCount; j++) {
+				batch.add(rndBytes);
+				if (batch.size() == batchSize) {
+					bigArray.appendBatch(batch);
+					batch.clear();
+				}
+			}
+			if (batch.size() > 0) {
+				bigArray.appendBatch(batch);
+			}
+			long batchTime = System.nanoTime() - start;
+			assertTrue(bigArray.size() == totalItemCount);
+			bigArray.removeAll();
+
+			System.out.println("[round " + (i + 1) + " of " + loop + "] single append = " + singleTime / 1000000 + " ms, batch append = " + batchTime / 1000000 + " ms.");
+			// skip the first round as warm up
+			if (i > 0) {
+				totalSingleTime += singleTime;
+				totalBatchTime += batchTime;
+			}
+		}
+
+		System.out.println("-----------------------------------------------");
+		System.out.println("Total items appended per round = " + totalItemCount);
+		System.out.println("Item message length = " + messageLength + " bytes");
+		System.out.println("Batch size = " + batchSize);
+		System.out.println("Average single append time = " + totalSingleTime / (loop - 1) / 1000000 + " ms.");
+		System.out.println("Average batch append time = " + totalBatchTime / (loop - 1) / 1000000 + " ms.");
+		System.out.println("Average ns per item, single = " + totalSingleTime / (loop - 1) / totalItemCount
+				+ ", batch = " + totalBatchTime / (loop - 1) / totalItemCount);
+		System.out.println("-----------------------------------------------");
+	}
+}
@@ -0,0 +1,94 @@
+package com.leansoft.bigqueue.perf;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.leansoft.bigqueue.BigArrayCursor;
+import com.leansoft.bigqueue.BigArrayImpl;
+import com.leansoft.bigqueue.IBigArray;
+import com.leansoft.bigqueue.TestUtil;
+
+/**
+ * Compare scanning a big array with get by index and with a cursor keeping its pages pinned.
+ * 比较按索引get扫描大数组和使用保持页面固定的游标扫描大数组的性能。
+ */
+public class BigArrayCursorPerfTest {
+
+	private static String testDir = TestUtil.TEST_BASE_DIR + "bigarray/perf";
+	private IBigArray bigArray;
+
+	// configurable parameters
+	//////////////////////////////////////////////////////////////////
+	private static int loop = 5;
+	private static int itemCount = 1000000;
+	private static int messageLength = 64;
+	//////////////////////////////////////////////////////////////////
+
+	@After
+	public void clean() throws IOException {
+		if (bigArray != null) {
+			bigArray.removeAll();
+			bigArray.close();
+		}
+	}
+
+	@Test
+	public void runTest() throws Exception {
+		System.out.println("Cursor performance test begin ...");
+		bigArray = new BigArrayImpl(testDir, "cursor_perf_test");
+		bigArray.removeAll();
+
+		byte[] rndBytes = TestUtil.randomString(messageLength).getBytes();
+		for(int i = 0; i < itemCount; i++) {
+			bigArray.append(rndBytes);
+		}
+
+		long getTime = 0;
+		long cursorTime = 0;
+		for(int i = 0; i < loop; i++) {
+			long time = doRunGetScan();
+			long cursor = doRunCursorScan();
+			// skip the first round as warm up
+			if (i > 0) {
+				getTime += time;
+				cursorTime += cursor;
+			}
+		}
+		System.out.println("[get] ns per item = " + getTime / (loop - 1) / itemCount);
+		System.out.println("[cursor] ns per item = " + cursorTime / (loop - 1) / itemCount);
+		System.out.println("-----------------------------------------------");
+		System.out.println("Item count = " + itemCount + ", item message length = " + messageLength + " bytes");
+		System.out.println("-----------------------------------------------");
+	}
+
+	private long doRunGetScan() throws IOException {
+		long start = System.nanoTime();
+		int length = 0;
+		for(int i = 0; i < itemCount; i++) {
+			length += bigArray.get(i).length;
+		}
+		long time = System.nanoTime() - start;
+		assertEquals(itemCount * messageLength, length);
+		return time;
+	}
+
+	private long doRunCursorScan() throws IOException {
+		long start = System.nanoTime();
+		int length = 0;
+		BigArrayCursor cursor = bigArray.openCursor(0);
+		try {
+			while(cursor.hasNext()) {
+				length += cursor.next().length;
+			}
+		} finally {
+			cursor.close();
+		}
+		long time = System.nanoTime() - start;
+		assertEquals(itemCount * messageLength, length);
+		return time;
+	}
+}
@@ -0,0 +1,101 @@
+package com.leansoft.bigqueue.perf;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.leansoft.bigqueue.BigArrayConfig;
+import com.leansoft.bigqueue.BigArrayImpl;
+import com.leansoft.bigqueue.IBigArray;
+import com.leansoft.bigqueue.TestUtil;
+
+/**
+ * Compare reads resolving their pages through the page cache with reads through the page table.
+ * 比较通过页面缓存解析页面的读取和通过页表解析页面的读取的性能。
+ */
+public class BigArrayPageTablePerfTest {
+
+	private static String testDir = TestUtil.TEST_BASE_DIR + "bigarray/perf";
+	private IBigArray bigArray;
+
+	// configurable parameters
+	//////////////////////////////////////////////////////////////////
+	private static int loop = 5;
+	private static int itemCount = 1000000;
+	private static int pageTableSize = 8;
+	private static int messageLength = 64;
+	//////////////////////////////////////////////////////////////////
+
+	@After
+	public void clean() throws IOException {
+		if (bigArray != null) {
+			bigArray.removeAll();
+			bigArray.close();
+		}
+	}
+
+	@Test
+	public void runTest() throws Exception {
+		System.out.println("Page table performance test begin ...");
+		for(int tableSize : new int[] { 0, pageTableSize }) {
+			BigArrayConfig config = new BigArrayConfig();
+			config.setPageTableSize(tableSize);
+			bigArray = new BigArrayImpl(testDir, "page_table_perf_test", config);
+			bigArray.removeAll();
+
+			byte[] rndBytes = TestUtil.randomString(messageLength).getBytes();
+			for(int i = 0; i < itemCount; i++) {
+				bigArray.append(rndBytes);
+			}
+
+			long sequentialTime = 0;
+			long randomTime = 0;
+			for(int i = 0; i < loop; i++) {
+				long time = doRunSequentialRead();
+				long random = doRunRandomRead(i);
+				// skip the first round as warm up
+				if (i > 0) {
+					sequentialTime += time;
+					randomTime += random;
+				}
+			}
+			String mode = tableSize > 0 ? "page table, " + tableSize + " slots" : "page cache";
+			System.out.println("[" + mode + "] sequential get ns per item = " + sequentialTime / (loop - 1) / itemCount
+					+ ", random get ns per item = " + randomTime / (loop - 1) / itemCount);
+
+			bigArray.removeAll();
+			bigArray.close();
+			bigArray = null;
+		}
+		System.out.println("-----------------------------------------------");
+		System.out.println("Item count = " + itemCount + ", item message length = " + messageLength + " bytes");
+		System.out.println("-----------------------------------------------");
+	}
+
+	private long doRunSequentialRead() throws IOException {
+		long start = System.nanoTime();
+		int length = 0;
+		for(int i = 0; i < itemCount; i++) {
+			length += bigArray.get(i).length;
+		}
+		long time = System.nanoTime() - start;
+		assertEquals(itemCount * messageLength, length);
+		return time;
+	}
+
+	private long doRunRandomRead(int seed) throws IOException {
+		Random random = new Random(seed);
+		long start = System.nanoTime();
+		int length = 0;
+		for(int i = 0; i < itemCount; i++) {
+			length += bigArray.get(random.nextInt(itemCount)).length;
+		}
+		long time = System.nanoTime() - start;
+		assertEquals(itemCount * messageLength, length);
+		return time;
+	}
+}
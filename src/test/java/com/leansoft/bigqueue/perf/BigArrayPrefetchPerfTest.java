@@ -0,0 +1,85 @@
+package com.leansoft.bigqueue.perf;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.leansoft.bigqueue.BigArrayConfig;
+import com.leansoft.bigqueue.BigArrayImpl;
+import com.leansoft.bigqueue.IBigArray;
+import com.leansoft.bigqueue.TestUtil;
+
+/**
+ * Compare append latency percentiles with and without prefetching the next page,
+ * the tail latency is dominated by page roll-over.
+ * 比较有无预取下一页时的附加延迟百分位，尾部延迟主要由页面切换决定。
+ */
+public class BigArrayPrefetchPerfTest {
+
+	private static String testDir = TestUtil.TEST_BASE_DIR + "bigarray/perf";
+	private IBigArray bigArray;
+
+	// configurable parameters
+	//////////////////////////////////////////////////////////////////
+	private static int loop = 3;
+	private static int totalItemCount = 500000;
+	private static int messageLength = 1024;
+	private static float prefetchThreshold = 0.5f;
+	//////////////////////////////////////////////////////////////////
+
+	@After
+	public void clean() throws IOException {
+		if (bigArray != null) {
+			bigArray.removeAll();
+			bigArray.close();
+		}
+	}
+
+	@Test
+	public void runTest() throws Exception {
+		System.out.println("Prefetch append latency test begin ...");
+		byte[] rndBytes = TestUtil.randomString(messageLength).getBytes();
+		long[] latencies = new long[totalItemCount];
+		for(float threshold : new float[] { 0f, prefetchThreshold }) {
+			BigArrayConfig config = new BigArrayConfig(BigArrayImpl.MINIMUM_DATA_PAGE_SIZE);
+			config.setPrefetchThreshold(threshold);
+			bigArray = new BigArrayImpl(testDir, "prefetch_perf_test", config);
+			bigArray.removeAll();
+
+			for(int i = 0; i < loop; i++) {
+				for(int j = 0; j < totalItemCount; j++) {
+					long start = System.nanoTime();
+					bigArray.append(rndBytes);
+					latencies[j] = System.nanoTime() - start;
+				}
+				assertTrue(bigArray.size() == totalItemCount);
+				bigArray.removeAll();
+
+				Arrays.sort(latencies);
+				System.out.println("[prefetch threshold " + threshold + ", round " + (i + 1) + " of " + loop + "] latency in ns"
+						+ " p50 = " + percentile(latencies, 50)
+						+ ", p99 = " + percentile(latencies, 99)
+						+ ", p99.9 = " + percentile(latencies, 99.9)
+						+ ", p99.99 = " + percentile(latencies, 99.99)
+						+ ", max = " + latencies[latencies.length - 1]);
+			}
+
+			bigArray.close();
+			bigArray = null;
+		}
+		System.out.println("-----------------------------------------------");
+		System.out.println("Total items appended per round = " + totalItemCount);
+		System.out.println("Item message length = " + messageLength + " bytes");
+		System.out.println("Data page size = " + BigArrayImpl.MINIMUM_DATA_PAGE_SIZE + " bytes");
+		System.out.println("-----------------------------------------------");
+	}
+
+	private static long percentile(long[] sorted, double percent) {
+		int index = (int) Math.ceil(sorted.length * percent / 100) - 1;
+		return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+	}
+}
@@ -0,0 +1,110 @@
+package com.leansoft.bigqueue.perf;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.leansoft.bigqueue.BigArrayConfig;
+import com.leansoft.bigqueue.BigQueueImpl;
+import com.leansoft.bigqueue.IBigQueue;
+import com.leansoft.bigqueue.TestUtil;
+
+/**
+ * Compare forcing the queue after every enqueue with group commit, every producer waits until its item is on disk.
+ * 比较每次入队后强制写入队列和组提交的性能，每个生产者都等待其项目写入磁盘。
+ */
+public class BigQueueGroupCommitPerfTest {
+
+	private static String testDir = TestUtil.TEST_BASE_DIR + "bigqueue/perf";
+	private IBigQueue bigQueue;
+
+	// configurable parameters
+	//////////////////////////////////////////////////////////////////
+	private static int loop = 3;
+	private static int itemCountPerProducer = 500;
+	private static int producerNum = 4;
+	private static int messageLength = 1024;
+	//////////////////////////////////////////////////////////////////
+
+	@After
+	public void clean() throws IOException {
+		if (bigQueue != null) {
+			bigQueue.removeAll();
+			bigQueue.close();
+		}
+	}
+
+	@Test
+	public void runTest() throws Exception {
+		System.out.println("Group commit performance test begin ...");
+		for(final boolean groupCommit : new boolean[] { false, true }) {
+			BigArrayConfig config = new BigArrayConfig();
+			if (groupCommit) {
+				config.setDurabilityPolicy(BigArrayConfig.DurabilityPolicy.GROUP_COMMIT);
+			}
+			bigQueue = new BigQueueImpl(testDir, "group_commit_perf_test", config);
+			bigQueue.removeAll();
+
+			long totalTime = 0;
+			for(int i = 0; i < loop; i++) {
+				long time = doRunProduce(groupCommit);
+				assertTrue(bigQueue.size() == producerNum * itemCountPerProducer);
+				bigQueue.removeAll();
+				// skip the first round as warm up
+				if (i > 0) {
+					totalTime += time;
+				}
+			}
+			long average = totalTime / (loop - 1);
+			System.out.println("[" + (groupCommit ? "group commit" : "flush per enqueue") + "] average time = " + average / 1000000
+					+ " ms, ns per item = " + average / (producerNum * itemCountPerProducer));
+
+			bigQueue.close();
+			bigQueue = null;
+		}
+		System.out.println("-----------------------------------------------");
+		System.out.println("Producers = " + producerNum + ", items per producer = " + itemCountPerProducer);
+		System.out.println("Item message length = " + messageLength + " bytes");
+		System.out.println("-----------------------------------------------");
+	}
+
+	private long doRunProduce(final boolean groupCommit) throws InterruptedException {
+		final byte[] rndBytes = TestUtil.randomString(messageLength).getBytes();
+		final AtomicInteger errorCount = new AtomicInteger(0);
+		final CountDownLatch startLatch = new CountDownLatch(1);
+		final CountDownLatch doneLatch = new CountDownLatch(producerNum);
+		for(int i = 0; i < producerNum; i++) {
+			new Thread() {
+				public void run() {
+					try {
+						startLatch.await();
+						for(int j = 0; j < itemCountPerProducer; j++) {
+							if (groupCommit) {
+								bigQueue.enqueueDurable(rndBytes).get();
+							} else {
+								bigQueue.enqueue(rndBytes);
+								bigQueue.flush();
+							}
+						}
+					} catch (Exception e) {
+						e.printStackTrace();
+						errorCount.incrementAndGet();
+					} finally {
+						doneLatch.countDown();
+					}
+				}
+			}.start();
+		}
+		long start = System.nanoTime();
+		startLatch.countDown();
+		doneLatch.await();
+		long time = System.nanoTime() - start;
+		assertTrue(errorCount.get() == 0);
+		return time;
+	}
+}
@@ -0,0 +1,94 @@
+package com.leansoft.bigqueue.perf;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.leansoft.bigqueue.BigArrayConfig;
+import com.leansoft.bigqueue.BigArrayImpl;
+import com.leansoft.bigqueue.BigQueueImpl;
+import com.leansoft.bigqueue.IBigQueue;
+import com.leansoft.bigqueue.TestUtil;
+
+/**
+ * Compare enqueue latency percentiles with and without recycling consumed page files under steady produce
+ * and consume, the tail latency is dominated by page roll-over.
+ * 比较在稳定生产和消费下有无回收已消费页面文件时的入队延迟百分位，尾部延迟主要由页面切换决定。
+ */
+public class BigQueuePageRecyclePerfTest {
+
+	private static String testDir = TestUtil.TEST_BASE_DIR + "bigqueue/perf";
+	private IBigQueue bigQueue;
+
+	// configurable parameters
+	//////////////////////////////////////////////////////////////////
+	private static int loop = 3;
+	private static int totalItemCount = 500000;
+	private static int messageLength = 1024;
+	// items enqueued between two gc calls 两次gc调用之间入队的项目数
+	private static int gcInterval = 10000;
+	private static int pageRecyclePoolSize = 2;
+	//////////////////////////////////////////////////////////////////
+
+	@After
+	public void clean() throws IOException {
+		if (bigQueue != null) {
+			bigQueue.removeAll();
+			bigQueue.close();
+		}
+	}
+
+	@Test
+	public void runTest() throws Exception {
+		System.out.println("Page recycle enqueue latency test begin ...");
+		byte[] rndBytes = TestUtil.randomString(messageLength).getBytes();
+		long[] latencies = new long[totalItemCount];
+		for(int poolSize : new int[] { 0, pageRecyclePoolSize }) {
+			BigArrayConfig config = new BigArrayConfig(BigArrayImpl.MINIMUM_DATA_PAGE_SIZE);
+			config.setPageRecyclePoolSize(poolSize);
+			bigQueue = new BigQueueImpl(testDir, "page_recycle_perf_test", config);
+			bigQueue.removeAll();
+
+			for(int i = 0; i < loop; i++) {
+				for(int j = 0; j < totalItemCount; j++) {
+					long start = System.nanoTime();
+					bigQueue.enqueue(rndBytes);
+					latencies[j] = System.nanoTime() - start;
+					// the consumer keeps up, consumed pages are removed and their files reused
+					// 消费者跟上进度，已消费的页面被删除，它们的文件被重用
+					bigQueue.dequeue();
+					if ((j + 1) % gcInterval == 0) {
+						bigQueue.gc();
+					}
+				}
+				assertTrue(bigQueue.isEmpty());
+
+				Arrays.sort(latencies);
+				System.out.println("[page recycle pool size " + poolSize + ", round " + (i + 1) + " of " + loop + "] latency in ns"
+						+ " p50 = " + percentile(latencies, 50)
+						+ ", p99 = " + percentile(latencies, 99)
+						+ ", p99.9 = " + percentile(latencies, 99.9)
+						+ ", p99.99 = " + percentile(latencies, 99.99)
+						+ ", max = " + latencies[latencies.length - 1]);
+			}
+
+			bigQueue.removeAll();
+			bigQueue.close();
+			bigQueue = null;
+		}
+		System.out.println("-----------------------------------------------");
+		System.out.println("Total items enqueued and dequeued per round = " + totalItemCount);
+		System.out.println("Item message length = " + messageLength + " bytes");
+		System.out.println("Data page size = " + BigArrayImpl.MINIMUM_DATA_PAGE_SIZE + " bytes");
+		System.out.println("-----------------------------------------------");
+	}
+
+	private static long percentile(long[] sorted, double percent) {
+		int index = (int) Math.ceil(sorted.length * percent / 100) - 1;
+		return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+	}
+}
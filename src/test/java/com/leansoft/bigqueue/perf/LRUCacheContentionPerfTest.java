@@ -0,0 +1,108 @@
+package com.leansoft.bigqueue.perf;
+
+import static org.junit.Assert.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.leansoft.bigqueue.cache.ConcurrentLRUCacheImpl;
+import com.leansoft.bigqueue.cache.ILRUCache;
+import com.leansoft.bigqueue.cache.LRUCacheImpl;
+
+/**
+ * Compare the global lock LRU cache with the concurrent one under contention,
+ * every thread gets and releases random cached keys like page acquire/release, with some puts in between.
+ * 比较全局锁LRU缓存和并发LRU缓存在竞争下的性能，每个线程像页面获取/释放一样获取和释放随机缓存的key，其间穿插一些put。
+ */
+public class LRUCacheContentionPerfTest {
+
+	// configurable parameters
+	//////////////////////////////////////////////////////////////////
+	private static int loop = 3;
+	private static int totalOpCount = 2000000;
+	private static int[] threadNums = { 1, 2, 4, 8, 16, 32, 64 };
+	private static int keyCount = 64;
+	// one put every putRatio gets 每putRatio次get一次put
+	private static int putRatio = 1000;
+	//////////////////////////////////////////////////////////////////
+
+	@Test
+	public void runTest() throws Exception {
+		System.out.println("LRU cache contention performance test begin ...");
+		for(boolean concurrent : new boolean[] { false, true }) {
+			for(int threadNum : threadNums) {
+				long totalTime = 0;
+				for(int i = 0; i < loop; i++) {
+					ILRUCache<Integer, TestObject> cache = concurrent ? new ConcurrentLRUCacheImpl<Integer, TestObject>()
+							: new LRUCacheImpl<Integer, TestObject>();
+					for(int key = 0; key < keyCount; key++) {
+						cache.put(key, new TestObject());
+					}
+					long time = doRunGetRelease(cache, threadNum);
+					cache.removeAll();
+					// skip the first round as warm up
+					if (i > 0) {
+						totalTime += time;
+					}
+				}
+				long average = totalTime / (loop - 1);
+				System.out.println("[" + (concurrent ? "concurrent" : "global lock") + "] threads = " + threadNum
+						+ ", average time = " + average / 1000000 + " ms, ns per op = " + average / totalOpCount);
+			}
+		}
+		System.out.println("-----------------------------------------------");
+		System.out.println("Total get/release per round = " + totalOpCount + ", cached keys = " + keyCount);
+		System.out.println("Available processors = " + Runtime.getRuntime().availableProcessors());
+		System.out.println("-----------------------------------------------");
+	}
+
+	private long doRunGetRelease(final ILRUCache<Integer, TestObject> cache, int threadNum) throws InterruptedException {
+		final int opCount = totalOpCount / threadNum;
+		final AtomicInteger errorCount = new AtomicInteger(0);
+		final CountDownLatch startLatch = new CountDownLatch(1);
+		final CountDownLatch doneLatch = new CountDownLatch(threadNum);
+		for(int i = 0; i < threadNum; i++) {
+			final int seed = i;
+			new Thread() {
+				public void run() {
+					Random random = new Random(seed);
+					try {
+						startLatch.await();
+						for(int j = 0; j < opCount; j++) {
+							int key = random.nextInt(keyCount);
+							if (j % putRatio == 0) {
+								cache.put(keyCount + seed, new TestObject(), 0);
+								cache.release(keyCount + seed);
+							}
+							if (cache.get(key) == null) {
+								errorCount.incrementAndGet();
+							}
+							cache.release(key);
+						}
+					} catch (Exception e) {
+						e.printStackTrace();
+						errorCount.incrementAndGet();
+					} finally {
+						doneLatch.countDown();
+					}
+				}
+			}.start();
+		}
+		long start = System.nanoTime();
+		startLatch.countDown();
+		doneLatch.await();
+		long time = System.nanoTime() - start;
+		assertTrue(errorCount.get() == 0);
+		return time;
+	}
+
+	private static class TestObject implements Closeable {
+		public void close() throws IOException {
+		}
+	}
+}
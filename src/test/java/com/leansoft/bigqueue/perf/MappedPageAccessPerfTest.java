@@ -0,0 +1,165 @@
+package com.leansoft.bigqueue.perf;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.leansoft.bigqueue.TestUtil;
+import com.leansoft.bigqueue.page.IMappedPage;
+import com.leansoft.bigqueue.page.IMappedPageFactory;
+import com.leansoft.bigqueue.page.MappedPageFactoryImpl;
+
+/**
+ * Compare reading pages through per thread buffer duplicates, the way pages used to be accessed,
+ * with the absolute access on the shared mapped buffer.
+ * 比较通过每线程缓冲区副本读取页面(页面以前的访问方式)和在共享映射缓冲区上的绝对位置访问。
+ *
+ * Every thread touching a page used to keep a duplicate of its buffer in a thread local map
+ * for as long as the page was mapped, the heap they retain is printed with the read times.
+ * 以前每个访问页面的线程都会在线程本地映射中保留一个缓冲区副本，直到页面取消映射，它们占用的堆与读取时间一起打印。
+ */
+public class MappedPageAccessPerfTest {
+
+	private static String testDir = TestUtil.TEST_BASE_DIR + "bigqueue/perf/mapped_page_access";
+	private IMappedPageFactory mappedPageFactory;
+	private long retainedHeap; // heap in use while the reader threads are still alive 读线程仍然存活时使用的堆
+
+	// configurable parameters
+	//////////////////////////////////////////////////////////////////
+	private static int loop = 5;
+	private static int threadNum = 32;
+	private static int pageNum = 64;
+	private static int pageSize = 1024 * 1024;
+	private static int readsPerPage = 10000;
+	//////////////////////////////////////////////////////////////////
+
+	@After
+	public void clean() throws IOException {
+		if (mappedPageFactory != null) {
+			mappedPageFactory.deleteAllPages();
+		}
+	}
+
+	@Test
+	public void runTest() throws Exception {
+		mappedPageFactory = new MappedPageFactoryImpl(pageSize, testDir, 60 * 1000);
+		final IMappedPage[] pages = new IMappedPage[pageNum];
+		for(int i = 0; i < pageNum; i++) {
+			pages[i] = mappedPageFactory.acquirePage(i);
+			pages[i].pin(); // the thread local slices point into the mapping
+			for(int j = 0; j < readsPerPage; j++) {
+				pages[i].putLong(offset(j), j);
+			}
+		}
+
+		System.out.println("Mapped page access performance test begin ...");
+		@SuppressWarnings("unchecked")
+		final ThreadLocal<ByteBuffer>[] locals = new ThreadLocal[pageNum];
+		for(int i = 0; i < pageNum; i++) {
+			final IMappedPage page = pages[i];
+			locals[i] = new ThreadLocal<ByteBuffer>() {
+				@Override
+				protected ByteBuffer initialValue() {
+					return page.getSlice(0, pageSize).duplicate();
+				}
+			};
+		}
+
+		long localTime = 0;
+		long absoluteTime = 0;
+		long localHeap = 0;
+		long absoluteHeap = 0;
+		for(int i = 0; i < loop; i++) {
+			long time = doRunReads(pages, locals);
+			long heap = retainedHeap;
+			long absolute = doRunReads(pages, null);
+			// skip the first round as warm up
+			if (i > 0) {
+				localTime += time;
+				absoluteTime += absolute;
+				localHeap += heap;
+				absoluteHeap += retainedHeap;
+			}
+		}
+		long reads = (long) threadNum * pageNum * readsPerPage;
+		System.out.println("[thread local duplicate] ns per read = " + localTime / (loop - 1) / reads
+				+ ", duplicates kept = " + threadNum * pageNum + ", heap in use = " + localHeap / (loop - 1) / 1024 + " KB");
+		System.out.println("[absolute] ns per read = " + absoluteTime / (loop - 1) / reads
+				+ ", duplicates kept = 0, heap in use = " + absoluteHeap / (loop - 1) / 1024 + " KB");
+		System.out.println("-----------------------------------------------");
+		System.out.println("Thread number = " + threadNum + ", page number = " + pageNum + ", page size = " + pageSize + " bytes");
+		System.out.println("Reads per page per thread = " + readsPerPage);
+		System.out.println("-----------------------------------------------");
+
+		for(int i = 0; i < pageNum; i++) {
+			pages[i].unpin();
+			mappedPageFactory.releasePage(i);
+		}
+	}
+
+	// every thread reads every page, through a thread local duplicate if locals are given
+	private long doRunReads(final IMappedPage[] pages, final ThreadLocal<ByteBuffer>[] locals) throws InterruptedException {
+		final CountDownLatch startLatch = new CountDownLatch(1);
+		final CountDownLatch doneLatch = new CountDownLatch(threadNum);
+		final CountDownLatch exitLatch = new CountDownLatch(1);
+		final AtomicLong sum = new AtomicLong();
+		Thread[] threads = new Thread[threadNum];
+		for(int t = 0; t < threadNum; t++) {
+			threads[t] = new Thread() {
+				public void run() {
+					try {
+						startLatch.await();
+						long localSum = 0;
+						for(int i = 0; i < pages.length; i++) {
+							for(int j = 0; j < readsPerPage; j++) {
+								if (locals != null) {
+									ByteBuffer buf = locals[i].get();
+									buf.position(offset(j));
+									localSum += buf.getLong();
+								} else {
+									localSum += pages[i].getLong(offset(j));
+								}
+							}
+						}
+						sum.addAndGet(localSum);
+						doneLatch.countDown();
+						exitLatch.await(); // keep the thread locals alive until the heap is measured
+					} catch (InterruptedException e) {
+						// ignore
+					}
+				}
+			};
+			threads[t].start();
+		}
+		long start = System.nanoTime();
+		startLatch.countDown();
+		doneLatch.await();
+		long time = System.nanoTime() - start;
+		retainedHeap = usedHeap();
+		exitLatch.countDown();
+		for(Thread thread : threads) {
+			thread.join();
+		}
+		long expected = (long) threadNum * pageNum * ((long) readsPerPage * (readsPerPage - 1) / 2);
+		assertEquals(expected, sum.get());
+		return time;
+	}
+
+	private static int offset(int j) {
+		return j * 8 % (pageSize - 8);
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for(int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
@@ -0,0 +1,80 @@
+package com.leansoft.bigqueue.perf;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.leansoft.bigqueue.TestUtil;
+import com.leansoft.bigqueue.page.IMappedPage;
+import com.leansoft.bigqueue.page.IMappedPageFactory;
+import com.leansoft.bigqueue.page.MappedPageFactoryImpl;
+
+/**
+ * Compare flushing the whole page with flushing only the range written since the last flush,
+ * the way a periodically flushed hot queue writes its head data page.
+ * 比较刷新整个页面和只刷新上次刷新以来写入的范围，模拟周期性刷新的热队列写入其头数据页的方式。
+ *
+ * The ranged flush needs JDK 13+, on older JDKs both modes force the whole page.
+ * 范围刷新需要JDK 13+，在更早的JDK上两种模式都强制写入整个页面。
+ */
+public class MappedPageFlushPerfTest {
+
+	private static String testDir = TestUtil.TEST_BASE_DIR + "bigqueue/perf/mapped_page_flush";
+	private IMappedPageFactory mappedPageFactory;
+
+	// configurable parameters
+	//////////////////////////////////////////////////////////////////
+	private static int loop = 3;
+	private static int pageSize = 128 * 1024 * 1024;
+	private static int flushCount = 2000;
+	private static int bytesPerFlush = 4 * 1024;
+	//////////////////////////////////////////////////////////////////
+
+	@After
+	public void clean() throws IOException {
+		if (mappedPageFactory != null) {
+			mappedPageFactory.deleteAllPages();
+		}
+	}
+
+	@Test
+	public void runTest() throws Exception {
+		mappedPageFactory = new MappedPageFactoryImpl(pageSize, testDir, 10 * 1000);
+		byte[] rndBytes = TestUtil.randomString(bytesPerFlush).getBytes();
+
+		System.out.println("Mapped page flush performance test begin ...");
+		for(boolean ranged : new boolean[] { false, true }) {
+			long totalTime = 0;
+			for(int i = 0; i < loop; i++) {
+				IMappedPage page = mappedPageFactory.acquirePage(i);
+				long start = System.nanoTime();
+				for(int j = 0; j < flushCount; j++) {
+					int offset = j * bytesPerFlush;
+					page.put(offset, rndBytes);
+					if (ranged) {
+						page.setDirty(offset, bytesPerFlush);
+					} else {
+						page.setDirty(true);
+					}
+					page.flush();
+				}
+				long time = System.nanoTime() - start;
+				mappedPageFactory.releasePage(i);
+				// skip the first round as warm up
+				if (i > 0) {
+					totalTime += time;
+				}
+			}
+			mappedPageFactory.deleteAllPages();
+			long average = totalTime / (loop - 1);
+			System.out.println("[" + (ranged ? "dirty range" : "whole page") + "] average time = " + average / 1000000
+					+ " ms, ns per flush = " + average / flushCount);
+		}
+		System.out.println("-----------------------------------------------");
+		System.out.println("Page size = " + pageSize + " bytes, flushes per round = " + flushCount);
+		System.out.println("Bytes written between flushes = " + bytesPerFlush);
+		System.out.println("Java version = " + System.getProperty("java.version"));
+		System.out.println("-----------------------------------------------");
+	}
+}
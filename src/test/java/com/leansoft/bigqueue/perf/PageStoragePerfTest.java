@@ -0,0 +1,110 @@
+package com.leansoft.bigqueue.perf;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.leansoft.bigqueue.BigArrayConfig;
+import com.leansoft.bigqueue.BigArrayImpl;
+import com.leansoft.bigqueue.IBigArray;
+import com.leansoft.bigqueue.TestUtil;
+
+/**
+ * Compare mapped pages with positional pages side by side, appends with their tail latency,
+ * sequential gets and random gets.
+ * 并排比较映射页面和定位页面，包括附加及其尾延迟、顺序get和随机get。
+ */
+public class PageStoragePerfTest {
+
+	private static String testDir = TestUtil.TEST_BASE_DIR + "bigarray/perf";
+	private IBigArray bigArray;
+
+	// configurable parameters
+	//////////////////////////////////////////////////////////////////
+	private static int loop = 3;
+	private static int itemCount = 1000000;
+	private static int messageLength = 64;
+	//////////////////////////////////////////////////////////////////
+
+	@After
+	public void clean() throws IOException {
+		if (bigArray != null) {
+			bigArray.removeAll();
+			bigArray.close();
+		}
+	}
+
+	@Test
+	public void runTest() throws Exception {
+		System.out.println("Page storage performance test begin ...");
+		byte[] rndBytes = TestUtil.randomString(messageLength).getBytes();
+		for(BigArrayConfig.PageStorage storage : BigArrayConfig.PageStorage.values()) {
+			BigArrayConfig config = new BigArrayConfig();
+			config.setPageStorage(storage);
+			bigArray = new BigArrayImpl(testDir, "page_storage_perf_test", config);
+			bigArray.removeAll();
+
+			long appendTime = 0;
+			long getTime = 0;
+			long randomGetTime = 0;
+			long[] latencies = new long[itemCount];
+			long p999 = 0;
+			long max = 0;
+			for(int i = 0; i < loop; i++) {
+				long time = doRunAppend(rndBytes, latencies);
+				long get = doRunGet(false);
+				long randomGet = doRunGet(true);
+				bigArray.removeAll();
+				// skip the first round as warm up
+				if (i > 0) {
+					appendTime += time;
+					getTime += get;
+					randomGetTime += randomGet;
+					Arrays.sort(latencies);
+					p999 = Math.max(p999, latencies[itemCount - itemCount / 1000]);
+					max = Math.max(max, latencies[itemCount - 1]);
+				}
+			}
+			bigArray.close();
+			bigArray = null;
+			System.out.println("[" + storage + "] append ns per item = " + appendTime / (loop - 1) / itemCount
+					+ ", p99.9 = " + p999 + " ns, max = " + max / 1000 + " us");
+			System.out.println("[" + storage + "] sequential get ns per item = " + getTime / (loop - 1) / itemCount
+					+ ", random get ns per item = " + randomGetTime / (loop - 1) / itemCount);
+		}
+		System.out.println("-----------------------------------------------");
+		System.out.println("Item count = " + itemCount + ", item message length = " + messageLength + " bytes");
+		System.out.println("-----------------------------------------------");
+	}
+
+	private long doRunAppend(byte[] data, long[] latencies) throws IOException {
+		long start = System.nanoTime();
+		long last = start;
+		for(int i = 0; i < itemCount; i++) {
+			bigArray.append(data);
+			long now = System.nanoTime();
+			latencies[i] = now - last;
+			last = now;
+		}
+		long time = last - start;
+		assertEquals(itemCount, bigArray.size());
+		return time;
+	}
+
+	private long doRunGet(boolean random) throws IOException {
+		Random rnd = new Random(itemCount);
+		long start = System.nanoTime();
+		int length = 0;
+		for(int i = 0; i < itemCount; i++) {
+			length += bigArray.get(random ? rnd.nextInt(itemCount) : i).length;
+		}
+		long time = System.nanoTime() - start;
+		assertEquals(itemCount * messageLength, length);
+		return time;
+	}
+}